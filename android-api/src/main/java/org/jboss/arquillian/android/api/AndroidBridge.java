@@ -16,7 +16,10 @@
  */
 package org.jboss.arquillian.android.api;
 
+import java.io.File;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An abstraction of Android Debug Bridge
@@ -27,12 +30,86 @@ import java.util.List;
 public interface AndroidBridge {
 
     /**
-     * Lists all devices currently available
+     * Lists all devices currently available. The same device is always represented by the same instance.
      *
-     * @return List of available devices
+     * @return Immutable list of available devices
      */
     List<AndroidDevice> getDevices();
 
+    /**
+     * Returns a device with given serial number
+     *
+     * @param serialNumber Serial number of the device
+     * @return The device or {@code null} if no such device is available
+     */
+    AndroidDevice getDeviceBySerialNumber(String serialNumber);
+
+    /**
+     * Returns an emulator running given Android Virtual Device
+     *
+     * @param avdName Name of the Android Virtual Device
+     * @return The device or {@code null} if no such emulator is available
+     */
+    AndroidDevice getDeviceByAvdName(String avdName);
+
+    /**
+     * Registers a listener notified about changes of all devices
+     *
+     * @param listener The listener
+     */
+    void addDeviceListener(AndroidDeviceListener listener);
+
+    /**
+     * Registers a listener notified about changes of a device with given serial number
+     *
+     * @param serialNumber Serial number of the device
+     * @param listener The listener
+     */
+    void addDeviceListenerBySerialNumber(String serialNumber, AndroidDeviceListener listener);
+
+    /**
+     * Registers a listener notified about changes of an emulator running given Android Virtual Device
+     *
+     * @param avdName Name of the Android Virtual Device
+     * @param listener The listener
+     */
+    void addDeviceListenerByAvdName(String avdName, AndroidDeviceListener listener);
+
+    /**
+     * Unregisters a listener, regardless of how it was registered
+     *
+     * @param listener The listener
+     */
+    void removeDeviceListener(AndroidDeviceListener listener);
+
+    /**
+     * Installs an application on several devices concurrently. Installation does not block, its progress on a particular
+     * device is available via {@link AndroidPackageInstallation#getFuture(AndroidDevice)} and
+     * {@link AndroidPackageInstallation#await()} reports failures of all devices together.
+     *
+     * @param devices Devices the application is installed to
+     * @param packageFilePaths APK files of the application, split APKs are installed together
+     * @param reinstall {@code true} if the application should be reinstalled if already present
+     * @param extraArgs additional arguments passed to the package manager
+     * @return The installation
+     */
+    AndroidPackageInstallation installPackages(Collection<AndroidDevice> devices, List<File> packageFilePaths,
+            boolean reinstall, String... extraArgs);
+
+    /**
+     * Pushes the same files to several devices concurrently. Files which are already present on a device are skipped, see
+     * {@link AndroidDevice#pushFiles(Map, AndroidTransferListener)}.
+     *
+     * @param devices Devices the files are pushed to
+     * @param files Local files mapped to remote paths
+     * @param listener Listener notified about every transferred or skipped file, might be {@code null}
+     * @return Statistics of the transfer per device
+     * @throws AndroidExecutionException if files could not be pushed to any of the devices, failures of all devices are
+     *         reported together
+     */
+    Map<AndroidDevice, AndroidTransferStatistics> pushFiles(Collection<AndroidDevice> devices, Map<File, String> files,
+            AndroidTransferListener listener) throws AndroidExecutionException;
+
     /**
      * Connects to the bridge
      *
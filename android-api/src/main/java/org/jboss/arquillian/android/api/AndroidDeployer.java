@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.api;
+
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Deploys archives to an Android device. Archives are packaged into signed APKs, which are cached by the content of the
+ * archive and the signing key, so an archive with the same content is never packaged or installed again, even by a later
+ * test suite.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public interface AndroidDeployer {
+
+    /**
+     * Deploys an archive
+     *
+     * @param name Name of the deployment
+     * @param archive ZIP stream of the archive, such as the one exported by ShrinkWrap
+     * @return Metadata of the installed application
+     * @throws AndroidExecutionException if the archive cannot be packaged or installed
+     */
+    AndroidPackageInfo deploy(String name, InputStream archive) throws AndroidExecutionException;
+
+    /**
+     * Undeploys an archive. The application is left installed on the device, so it can be reused by a later deployment of
+     * the same archive.
+     *
+     * @param name Name of the deployment
+     * @throws AndroidExecutionException if the deployment cannot be undeployed
+     */
+    void undeploy(String name) throws AndroidExecutionException;
+
+    /**
+     * Returns active deployments
+     *
+     * @return Unmodifiable map of applications by deployment names
+     */
+    Map<String, AndroidPackageInfo> getDeployments();
+}
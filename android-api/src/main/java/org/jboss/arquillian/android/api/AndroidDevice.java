@@ -18,6 +18,8 @@ package org.jboss.arquillian.android.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -43,7 +45,7 @@ public interface AndroidDevice {
     String getAvdName();
 
     /**
-     * Returns a map of properties available for the device. These properties are cached.
+     * Returns a map of properties available for the device. These properties are cached until the device is rebooted.
      *
      * @return A properties map
      */
@@ -59,6 +61,15 @@ public interface AndroidDevice {
      */
     String getProperty(String name) throws IOException, AndroidExecutionException;
 
+    /**
+     * Returns all properties of the device fetched at once, with typed accessors. The snapshot is cached and it is
+     * replaced after the device is rebooted.
+     *
+     * @return Snapshot of properties
+     * @throws AndroidExecutionException
+     */
+    AndroidDeviceProperties getPropertySnapshot() throws AndroidExecutionException;
+
     /**
      * Checks if the device is online
      *
@@ -96,6 +107,65 @@ public interface AndroidDevice {
      */
     void executeShellCommand(String command, AndroidDeviceOutputReciever reciever) throws AndroidExecutionException;
 
+    /**
+     * Executes a command on the device and streams its raw output to a channel. Output is not decoded nor split into lines,
+     * so it is suitable for binary data such as screenshots or archives. The channel is not closed.
+     *
+     * @param command The command to be executed
+     * @param output The channel the output is written to
+     * @return Statistics of transferred output
+     * @throws AndroidExecutionException
+     */
+    AndroidTransferStatistics executeRawShellCommand(String command, WritableByteChannel output)
+            throws AndroidExecutionException;
+
+    /**
+     * Executes a command on the device and stores its raw output in a file. An existing file is overwritten.
+     *
+     * @param command The command to be executed
+     * @param output The file the output is written to
+     * @return Statistics of transferred output
+     * @throws AndroidExecutionException
+     */
+    AndroidTransferStatistics executeRawShellCommand(String command, File output) throws AndroidExecutionException;
+
+    /**
+     * Executes shell commands on the device in a single shell session. Commands are executed one after another, output and
+     * exit status of each command is reported separately.
+     *
+     * @param commands The commands to be executed
+     * @param failFast {@code true} if execution should stop after the first command which failed, {@code false} if all
+     *        commands should be executed regardless of their exit status
+     * @return Results of executed commands, in order of the commands. If execution stopped, the list is shorter than the list
+     *         of commands
+     * @throws AndroidExecutionException
+     */
+    List<AndroidShellResult> executeShellCommands(List<String> commands, boolean failFast) throws AndroidExecutionException;
+
+    /**
+     * Pushes files to the device. All files are transferred in a single sync session. Files which already exist on the device
+     * with the same size and modification time or with the same content are skipped.
+     *
+     * @param files Local files mapped to their paths on the device
+     * @param listener Listener notified about every file, might be {@code null}
+     * @return Statistics of the transfer
+     * @throws AndroidExecutionException if any of the files cannot be pushed
+     */
+    AndroidTransferStatistics pushFiles(Map<File, String> files, AndroidTransferListener listener)
+            throws AndroidExecutionException;
+
+    /**
+     * Pulls files from the device. All files are transferred in a single sync session. Local files with the same size and
+     * modification time or with the same content are skipped.
+     *
+     * @param files Paths of files on the device mapped to local files
+     * @param listener Listener notified about every file, might be {@code null}
+     * @return Statistics of the transfer
+     * @throws AndroidExecutionException if any of the files cannot be pulled
+     */
+    AndroidTransferStatistics pullFiles(Map<String, File> files, AndroidTransferListener listener)
+            throws AndroidExecutionException;
+
     /**
      * Creates a port forwarding between a local and a remote port.
      *
@@ -112,9 +182,33 @@ public interface AndroidDevice {
      */
     void removePortForwarding(int localPort, int remotePort) throws AndroidExecutionException;
 
+    /**
+     * Forwards a local port to a socket on the device. If a forwarding to the same socket already exists and it uses the
+     * requested local port, it is shared instead of being created again. Every returned forwarding must be released once it
+     * is no longer needed. A local port which is already forwarded elsewhere is never taken over. Forwarding is supported
+     * only for devices of an adb server running on this host, the port would be opened on the remote host otherwise.
+     *
+     * @param localPort the local port, {@code 0} if a free port should be allocated
+     * @param remoteSocket socket on the device in adb format, such as {@code tcp:8080} or
+     *        {@code localabstract:chrome_devtools_remote}
+     * @return the forwarding
+     * @throws AndroidExecutionException if the forwarding cannot be created or the device is connected to a remote adb
+     *         server
+     */
+    AndroidPortForwarding forwardPort(int localPort, String remoteSocket) throws AndroidExecutionException;
+
+    /**
+     * Removes all forwardings created by {@link #forwardPort(int, String)}, regardless whether they were released by their
+     * users.
+     *
+     * @throws AndroidExecutionException if any of the forwardings cannot be removed
+     */
+    void removePortForwardings() throws AndroidExecutionException;
+
     /**
      * Installs an Android application on device. This is a helper method that combines the syncPackageToDevice,
-     * installRemotePackage, and removePackage steps
+     * installRemotePackage, and removePackage steps. Installation is skipped if a package with exactly the same APK is
+     * already installed on the device.
      *
      * @param packageFilePath the absolute file system path to file on local host to install
      * @param reinstall set to <code>true</code> if re-install of app should be performed
@@ -122,6 +216,26 @@ public interface AndroidDevice {
      */
     void installPackage(File packageFilePath, boolean reinstall, String... extraArgs) throws AndroidExecutionException;
 
+    /**
+     * Installs an Android application split to multiple APKs. The APKs are streamed directly to package manager if the
+     * device supports it, which requires API level 21 or newer.
+     *
+     * @param packageFilePaths the base APK followed by split APKs
+     * @param reinstall set to <code>true</code> if re-install of app should be performed
+     * @param extraArgs optional extra arguments to pass. See 'adb shell pm install --help' for available options.
+     */
+    void installPackages(List<File> packageFilePaths, boolean reinstall, String... extraArgs)
+            throws AndroidExecutionException;
+
+    /**
+     * Reads package name and version of an Android application from the manifest of its APK. The APK is not installed and
+     * no external tool is called, results are cached for APKs with the same content.
+     *
+     * @param packageFilePath the absolute file system path to APK on local host
+     * @return metadata of the application
+     */
+    AndroidPackageInfo getPackageInfo(File packageFilePath) throws AndroidExecutionException;
+
     /**
      * Uninstalls an package from the device.
      *
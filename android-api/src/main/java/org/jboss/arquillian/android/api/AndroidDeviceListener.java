@@ -0,0 +1,47 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.api;
+
+/**
+ * Listener of devices connected to Android Debug Bridge
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public interface AndroidDeviceListener {
+
+    /**
+     * Called when a device is connected to the bridge
+     *
+     * @param device The device
+     */
+    void deviceConnected(AndroidDevice device);
+
+    /**
+     * Called when state of a device has changed, e.g. the device went online
+     *
+     * @param device The device
+     */
+    void deviceChanged(AndroidDevice device);
+
+    /**
+     * Called when a device is disconnected from the bridge
+     *
+     * @param device The device
+     */
+    void deviceDisconnected(AndroidDevice device);
+}
@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of system properties of a device taken during a single boot of the device
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidDeviceProperties {
+
+    public static final String API_LEVEL = "ro.build.version.sdk";
+
+    public static final String ABI_LIST = "ro.product.cpu.abilist";
+
+    public static final String ABI = "ro.product.cpu.abi";
+
+    public static final String ABI2 = "ro.product.cpu.abi2";
+
+    /**
+     * API level of a device which does not report it
+     */
+    public static final int UNKNOWN_API_LEVEL = -1;
+
+    private final String bootId;
+
+    private final Map<String, String> properties;
+
+    public AndroidDeviceProperties(String bootId, Map<String, String> properties) {
+        this.bootId = bootId;
+        this.properties = Collections.unmodifiableMap(new HashMap<String, String>(properties));
+    }
+
+    /**
+     * Returns identifier of the boot the snapshot was taken in
+     *
+     * @return The boot identifier or {@code null} if the device does not provide it
+     */
+    public String getBootId() {
+        return bootId;
+    }
+
+    /**
+     * Returns all properties
+     *
+     * @return Unmodifiable map of properties
+     */
+    public Map<String, String> asMap() {
+        return properties;
+    }
+
+    /**
+     * Returns a value of property
+     *
+     * @param name Name of the property
+     * @return Value of the property or {@code null} if not present
+     */
+    public String get(String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * Returns a value of property as an integer
+     *
+     * @param name Name of the property
+     * @param defaultValue Value returned if property is not present or it is not a number
+     * @return Value of the property
+     */
+    public int getInt(String name, int defaultValue) {
+        String value = properties.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns a value of property as a boolean flag. Values {@code 1}, {@code y}, {@code yes}, {@code on} and {@code true}
+     * are considered true, values {@code 0}, {@code n}, {@code no}, {@code off} and {@code false} are considered false.
+     *
+     * @param name Name of the property
+     * @param defaultValue Value returned if property is not present or it is not a flag
+     * @return Value of the property
+     */
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = properties.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        value = value.trim().toLowerCase();
+        if ("1".equals(value) || "y".equals(value) || "yes".equals(value) || "on".equals(value) || "true".equals(value)) {
+            return true;
+        } else if ("0".equals(value) || "n".equals(value) || "no".equals(value) || "off".equals(value)
+                || "false".equals(value)) {
+            return false;
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns API level of the device
+     *
+     * @return API level or {@link #UNKNOWN_API_LEVEL}
+     */
+    public int getApiLevel() {
+        return getInt(API_LEVEL, UNKNOWN_API_LEVEL);
+    }
+
+    /**
+     * Returns ABIs supported by the device, the preferred one first
+     *
+     * @return Unmodifiable list of ABIs
+     */
+    public List<String> getAbis() {
+        List<String> abis = new ArrayList<String>();
+        String list = properties.get(ABI_LIST);
+        if (list != null && list.trim().length() != 0) {
+            for (String abi : list.split(",")) {
+                if (abi.trim().length() != 0) {
+                    abis.add(abi.trim());
+                }
+            }
+        } else {
+            for (String name : new String[] { ABI, ABI2 }) {
+                String abi = properties.get(name);
+                if (abi != null && abi.trim().length() != 0 && !abis.contains(abi.trim())) {
+                    abis.add(abi.trim());
+                }
+            }
+        }
+        return Collections.unmodifiableList(abis);
+    }
+
+    @Override
+    public String toString() {
+        return "Properties of boot " + bootId + " " + properties;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.api;
+
+/**
+ * Metadata of an Android application declared in the manifest of its APK
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidPackageInfo {
+
+    /**
+     * Version code of an application which does not declare it or declares it as a resource reference
+     */
+    public static final long UNKNOWN_VERSION = -1;
+
+    private final String packageName;
+
+    private final long versionCode;
+
+    private final String versionName;
+
+    public AndroidPackageInfo(String packageName, long versionCode, String versionName) {
+        this.packageName = packageName;
+        this.versionCode = versionCode;
+        this.versionName = versionName;
+    }
+
+    /**
+     * Returns the package name
+     *
+     * @return The package name
+     */
+    public String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     * Returns the version code
+     *
+     * @return The version code or {@link #UNKNOWN_VERSION}
+     */
+    public long getVersionCode() {
+        return versionCode;
+    }
+
+    /**
+     * Returns the version name
+     *
+     * @return The version name or {@code null} if it is not declared as a plain string
+     */
+    public String getVersionName() {
+        return versionName;
+    }
+
+    @Override
+    public String toString() {
+        return packageName + " " + versionCode + (versionName == null ? "" : " (" + versionName + ")");
+    }
+}
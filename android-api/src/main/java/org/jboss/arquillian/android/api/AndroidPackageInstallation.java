@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Installation of an application running concurrently on a group of devices
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidPackageInstallation {
+
+    private final Map<AndroidDevice, Future<Void>> futures;
+
+    public AndroidPackageInstallation(Map<AndroidDevice, Future<Void>> futures) {
+        this.futures = Collections.unmodifiableMap(new LinkedHashMap<AndroidDevice, Future<Void>>(futures));
+    }
+
+    /**
+     * Returns installations on particular devices
+     *
+     * @return Unmodifiable map of futures, in the order of the devices
+     */
+    public Map<AndroidDevice, Future<Void>> getFutures() {
+        return futures;
+    }
+
+    /**
+     * Returns installation on a device
+     *
+     * @param device The device
+     * @return The future or {@code null} if the application is not installed on the device
+     */
+    public Future<Void> getFuture(AndroidDevice device) {
+        return futures.get(device);
+    }
+
+    /**
+     * Waits until the application is installed on all devices
+     *
+     * @throws AndroidExecutionException if installation failed on any device, the exception lists all failed devices and
+     *         its cause is the first failure
+     */
+    public void await() throws AndroidExecutionException {
+        List<String> failed = new ArrayList<String>();
+        Throwable cause = null;
+        for (Map.Entry<AndroidDevice, Future<Void>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AndroidExecutionException(e, "Interrupted while installing application on {0}",
+                        entry.getKey().getSerialNumber());
+            } catch (ExecutionException e) {
+                failed.add(entry.getKey().getSerialNumber());
+                cause = cause == null ? e.getCause() : cause;
+            } catch (CancellationException e) {
+                failed.add(entry.getKey().getSerialNumber());
+                cause = cause == null ? e : cause;
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new AndroidExecutionException(cause, "Installation failed on {0} of {1} devices: {2}", failed.size(),
+                    futures.size(), failed);
+        }
+    }
+}
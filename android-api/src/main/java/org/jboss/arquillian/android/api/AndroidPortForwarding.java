@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.api;
+
+/**
+ * Port forwarding from a local TCP port to a socket on an Android device. Forwardings to the same socket are shared and
+ * reference counted, the forwarding is removed from adb server once the last of its users has released it.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public interface AndroidPortForwarding {
+
+    /**
+     * Returns the local port, connections to the port on the loopback interface are forwarded to the device
+     *
+     * @return the local port
+     */
+    int getLocalPort();
+
+    /**
+     * Returns the socket on the device, such as {@code tcp:8080} or {@code localabstract:chrome_devtools_remote}
+     *
+     * @return the socket specification in adb format
+     */
+    String getRemoteSocket();
+
+    /**
+     * Releases the forwarding. Releasing the same forwarding more than once has no effect.
+     *
+     * @throws AndroidExecutionException if the forwarding was the last one and it cannot be removed
+     */
+    void release() throws AndroidExecutionException;
+}
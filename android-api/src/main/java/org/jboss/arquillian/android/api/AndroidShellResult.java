@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a shell command executed in a batch
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidShellResult {
+
+    private final String command;
+
+    private final List<String> output;
+
+    private final int exitStatus;
+
+    public AndroidShellResult(String command, List<String> output, int exitStatus) {
+        this.command = command;
+        this.output = Collections.unmodifiableList(new ArrayList<String>(output));
+        this.exitStatus = exitStatus;
+    }
+
+    /**
+     * Returns the command
+     *
+     * @return The command
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns lines written by the command
+     *
+     * @return Unmodifiable list of lines
+     */
+    public List<String> getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns exit status of the command
+     *
+     * @return Exit status
+     */
+    public int getExitStatus() {
+        return exitStatus;
+    }
+
+    /**
+     * Checks if the command succeeded
+     *
+     * @return {@code true} if exit status is {@code 0}, {@code false} otherwise
+     */
+    public boolean isSuccess() {
+        return exitStatus == 0;
+    }
+
+    @Override
+    public String toString() {
+        return command + " (" + exitStatus + ")";
+    }
+}
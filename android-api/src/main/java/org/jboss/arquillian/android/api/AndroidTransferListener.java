@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.api;
+
+/**
+ * Listener of progress of a bulk file transfer. It might be called from different threads if several devices are served at
+ * the same time.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public interface AndroidTransferListener {
+
+    /**
+     * Called when a file was transferred
+     *
+     * @param device The device
+     * @param remotePath Path of the file on the device
+     * @param bytes Size of the file
+     */
+    void fileTransferred(AndroidDevice device, String remotePath, long bytes);
+
+    /**
+     * Called when a file was skipped because it is the same on both sides
+     *
+     * @param device The device
+     * @param remotePath Path of the file on the device
+     */
+    void fileSkipped(AndroidDevice device, String remotePath);
+}
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of data transferred from or to a device
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidTransferStatistics {
+
+    private final long bytes;
+
+    private final long durationNanos;
+
+    private final int files;
+
+    private final int skippedFiles;
+
+    public AndroidTransferStatistics(long bytes, long durationNanos) {
+        this(bytes, durationNanos, 0, 0);
+    }
+
+    public AndroidTransferStatistics(long bytes, long durationNanos, int files, int skippedFiles) {
+        this.bytes = bytes;
+        this.durationNanos = durationNanos;
+        this.files = files;
+        this.skippedFiles = skippedFiles;
+    }
+
+    /**
+     * Returns number of transferred bytes
+     *
+     * @return Number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns number of transferred files
+     *
+     * @return Number of files or {@code 0} if the transfer was not a file transfer
+     */
+    public int getFiles() {
+        return files;
+    }
+
+    /**
+     * Returns number of files which were not transferred because they were the same on both sides
+     *
+     * @return Number of skipped files
+     */
+    public int getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    /**
+     * Returns duration of the transfer
+     *
+     * @param unit Unit of the duration
+     * @return The duration
+     */
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns throughput of the transfer
+     *
+     * @return Number of bytes transferred per second or {@code 0} if duration was not measurable
+     */
+    public double getThroughput() {
+        return durationNanos == 0 ? 0 : bytes * 1e9 / durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        String summary = String.format("%d bytes in %d ms (%.1f KiB/s)", bytes, getDuration(TimeUnit.MILLISECONDS),
+                getThroughput() / 1024);
+        if (files == 0 && skippedFiles == 0) {
+            return summary;
+        }
+        return files + " files, " + skippedFiles + " skipped, " + summary;
+    }
+}
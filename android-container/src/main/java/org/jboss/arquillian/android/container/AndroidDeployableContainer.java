@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.container;
+
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidDeployer;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInfo;
+import org.jboss.arquillian.container.spi.client.container.DeployableContainer;
+import org.jboss.arquillian.container.spi.client.container.DeploymentException;
+import org.jboss.arquillian.container.spi.client.container.LifecycleException;
+import org.jboss.arquillian.container.spi.client.protocol.ProtocolDescription;
+import org.jboss.arquillian.container.spi.client.protocol.metadata.ProtocolMetaData;
+import org.jboss.arquillian.core.api.Instance;
+import org.jboss.arquillian.core.api.annotation.Inject;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+import org.jboss.shrinkwrap.descriptor.api.Descriptor;
+
+/**
+ * Deploys archives to the Android device selected by the {@code android} extension. Archives are exported by ShrinkWrap
+ * and passed to {@link AndroidDeployer}, which packages, signs and installs them. The device is started and stopped by the
+ * extension, so the container lifecycle does not touch it.
+ *
+ * Tests are not executed on the device, they have to be run as client, for instance to drive the application by Drone.
+ * Metadata of the installed application is available in the protocol metadata of the deployment.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidDeployableContainer implements DeployableContainer<AndroidContainerConfiguration> {
+    private static final Logger log = Logger.getLogger(AndroidDeployableContainer.class.getName());
+
+    @Inject
+    private Instance<AndroidDeployer> androidDeployer;
+
+    @Override
+    public Class<AndroidContainerConfiguration> getConfigurationClass() {
+        return AndroidContainerConfiguration.class;
+    }
+
+    @Override
+    public void setup(AndroidContainerConfiguration configuration) {
+    }
+
+    @Override
+    public void start() throws LifecycleException {
+    }
+
+    @Override
+    public void stop() throws LifecycleException {
+    }
+
+    @Override
+    public ProtocolDescription getDefaultProtocol() {
+        return new ProtocolDescription("Local");
+    }
+
+    @Override
+    public ProtocolMetaData deploy(Archive<?> archive) throws DeploymentException {
+        AndroidDeployer deployer = getDeployer(archive);
+        try {
+            AndroidPackageInfo info = deployer.deploy(archive.getName(), archive.as(ZipExporter.class)
+                    .exportAsInputStream());
+            log.fine("Deployed " + archive.getName() + " as " + info);
+            return new ProtocolMetaData().addContext(info);
+        } catch (AndroidExecutionException e) {
+            throw new DeploymentException("Unable to deploy " + archive.getName() + " to Android device", e);
+        }
+    }
+
+    @Override
+    public void undeploy(Archive<?> archive) throws DeploymentException {
+        AndroidDeployer deployer = getDeployer(archive);
+        try {
+            deployer.undeploy(archive.getName());
+        } catch (AndroidExecutionException e) {
+            throw new DeploymentException("Unable to undeploy " + archive.getName() + " from Android device", e);
+        }
+    }
+
+    /**
+     * Descriptors cannot be installed on an Android device, only archives are deployed.
+     *
+     * @throws DeploymentException always
+     */
+    @Override
+    public void deploy(Descriptor descriptor) throws DeploymentException {
+        throw new DeploymentException("Android container deploys only archives, descriptor "
+                + descriptor.getDescriptorName() + " cannot be deployed");
+    }
+
+    /**
+     * Does nothing, as no descriptor could have been deployed by {@link #deploy(Descriptor)}.
+     */
+    @Override
+    public void undeploy(Descriptor descriptor) throws DeploymentException {
+    }
+
+    private AndroidDeployer getDeployer(Archive<?> archive) throws DeploymentException {
+        AndroidDeployer deployer = androidDeployer.get();
+        if (deployer == null) {
+            throw new DeploymentException("Unable to deploy " + archive.getName()
+                    + ", Android device is not ready. Check that android extension is configured and device was started.");
+        }
+        return deployer;
+    }
+}
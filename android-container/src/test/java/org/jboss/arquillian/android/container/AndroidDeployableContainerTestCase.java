@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.container;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jboss.arquillian.android.api.AndroidDeployer;
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidPackageInfo;
+import org.jboss.arquillian.android.configuration.AndroidExtensionConfiguration;
+import org.jboss.arquillian.android.configuration.AndroidSdk;
+import org.jboss.arquillian.android.impl.AndroidBridgeConnector;
+import org.jboss.arquillian.android.impl.AndroidDeployerCreator;
+import org.jboss.arquillian.android.impl.AndroidDeviceSelector;
+import org.jboss.arquillian.android.impl.AndroidVirtualDeviceInventory;
+import org.jboss.arquillian.android.impl.ProcessExecutor;
+import org.jboss.arquillian.android.spi.event.AndroidDeviceShutdown;
+import org.jboss.arquillian.android.spi.event.AndroidExtensionConfigured;
+import org.jboss.arquillian.android.testsupport.FakeAdbServer;
+import org.jboss.arquillian.android.testsupport.FakeApk;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.jboss.arquillian.container.spi.client.container.DeploymentException;
+import org.jboss.arquillian.container.spi.client.protocol.metadata.ProtocolMetaData;
+import org.jboss.arquillian.test.spi.annotation.SuiteScoped;
+import org.jboss.arquillian.test.spi.context.SuiteContext;
+import org.jboss.arquillian.test.test.AbstractTestTestBase;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.ByteArrayAsset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.shrinkwrap.descriptor.api.Descriptor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests deployment of archives to a device connected to a fake adb server
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidDeployableContainerTestCase extends AbstractTestTestBase {
+
+    private static final String SERIAL = "0123456789CONTAINER";
+
+    private static final String PACKAGE = "org.example.container";
+
+    private static final String SDK_HOME_ENV = "ANDROID_SDK_HOME";
+
+    private final FakeDevice fake = new FakeDevice(SERIAL).setProperty("ro.build.version.sdk", "23")
+            .setInstalledPackageName(PACKAGE);
+
+    private FakeAdbServer server;
+
+    private File sdkHome;
+
+    @Override
+    protected void addExtensions(List<Class<?>> extensions) {
+        extensions.add(AndroidBridgeConnector.class);
+        extensions.add(AndroidDeviceSelector.class);
+        extensions.add(AndroidDeployerCreator.class);
+    }
+
+    @Before
+    public void startDevice() throws Exception {
+        server = new FakeAdbServer().start().connect(fake);
+        sdkHome = TestFiles.createDirectory("container");
+        createPlatform(sdkHome, "17");
+        createDebugKeystore(sdkHome);
+
+        AndroidExtensionConfiguration configuration = new AndroidExtensionConfiguration();
+        configuration.setHome(sdkHome.getAbsolutePath());
+        configuration.setApiLevel("17");
+        configuration.setAdbEndpoints("127.0.0.1:" + server.getPort());
+        configuration.setSerialId(SERIAL);
+
+        Map<String, String> environment = Collections.singletonMap(SDK_HOME_ENV, sdkHome.getAbsolutePath());
+        bind(SuiteScoped.class, AndroidExtensionConfiguration.class, configuration);
+        bind(SuiteScoped.class, AndroidSdk.class, new AndroidSdk(configuration));
+        bind(SuiteScoped.class, ProcessExecutor.class, new ProcessExecutor(environment));
+        bind(SuiteScoped.class, AndroidVirtualDeviceInventory.class,
+                AndroidVirtualDeviceInventory.forEnvironment(environment));
+
+        fire(new AndroidExtensionConfigured());
+    }
+
+    @After
+    public void stopDevice() throws IOException {
+        try {
+            AndroidDevice device = getManager().getContext(SuiteContext.class).getObjectStore().get(AndroidDevice.class);
+            if (device != null) {
+                fire(new AndroidDeviceShutdown(device));
+            }
+        } finally {
+            server.close();
+            TestFiles.delete(sdkHome);
+        }
+    }
+
+    @Test
+    public void archiveIsDeployedAndUndeployed() throws Exception {
+        AndroidDeployableContainer container = new AndroidDeployableContainer();
+        getManager().inject(container);
+        container.setup(new AndroidContainerConfiguration());
+        container.start();
+
+        Archive<?> archive = archive("app.apk");
+        ProtocolMetaData metadata = container.deploy(archive);
+        AndroidPackageInfo info = metadata.getContext(AndroidPackageInfo.class);
+        Assert.assertNotNull("Package info is available in protocol metadata", info);
+        Assert.assertEquals(PACKAGE, info.getPackageName());
+        Assert.assertTrue("Application was installed", fake.getInstalledPackages().contains(PACKAGE));
+
+        AndroidDeployer deployer = getManager().getContext(SuiteContext.class).getObjectStore().get(AndroidDeployer.class);
+        Assert.assertTrue(deployer.getDeployments().containsKey(archive.getName()));
+
+        container.undeploy(archive);
+        Assert.assertTrue("Deployment was released", deployer.getDeployments().isEmpty());
+
+        container.stop();
+    }
+
+    @Test
+    public void descriptorIsNotDeployed() throws Exception {
+        AndroidDeployableContainer container = new AndroidDeployableContainer();
+        getManager().inject(container);
+
+        Descriptor descriptor = new NamedDescriptor("web.xml");
+        try {
+            container.deploy(descriptor);
+            Assert.fail("Descriptor was deployed");
+        } catch (DeploymentException e) {
+            Assert.assertTrue(e.getMessage().contains("web.xml"));
+        }
+        // nothing was deployed, so there is nothing to undeploy
+        container.undeploy(descriptor);
+    }
+
+    private static Archive<?> archive(String name) throws IOException {
+        return ShrinkWrap.create(JavaArchive.class, name)
+                .add(new ByteArrayAsset(new FakeApk(PACKAGE).setVersionCode(1).getManifest()), "AndroidManifest.xml")
+                .add(new ByteArrayAsset(new byte[2048]), "classes.dex");
+    }
+
+    private static void createPlatform(File sdkHome, String apiLevel) throws IOException {
+        File platform = new File(new File(sdkHome, "platforms"), "android-" + apiLevel);
+        platform.mkdirs();
+        Properties properties = new Properties();
+        properties.setProperty("Platform.Version", "4.2");
+        properties.setProperty("AndroidVersion.ApiLevel", apiLevel);
+        OutputStream out = new FileOutputStream(new File(platform, "source.properties"));
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    // the same debug keystore as generated by Android tools
+    private static void createDebugKeystore(File sdkHome) throws Exception {
+        File androidHome = new File(sdkHome, ".android");
+        androidHome.mkdirs();
+        File keystore = new File(androidHome, "debug.keystore");
+        String keytool = new File(new File(System.getProperty("java.home"), "bin"), "keytool").getAbsolutePath();
+        Process p = new ProcessBuilder(keytool, "-genkeypair", "-keystore", keystore.getAbsolutePath(), "-storepass",
+                "android", "-keypass", "android", "-alias", "androiddebugkey", "-keyalg", "RSA", "-keysize", "2048",
+                "-validity", "1", "-dname", "CN=Android Debug,O=Android,C=US").redirectErrorStream(true).start();
+        InputStream in = p.getInputStream();
+        try {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // drain output of keytool
+            }
+        } finally {
+            in.close();
+        }
+        Assert.assertEquals(0, p.waitFor());
+    }
+
+    private static class NamedDescriptor implements Descriptor {
+        private final String name;
+
+        NamedDescriptor(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getDescriptorName() {
+            return name;
+        }
+
+        @Override
+        public String exportAsString() {
+            return "";
+        }
+
+        @Override
+        public void exportTo(OutputStream output) {
+        }
+    }
+}
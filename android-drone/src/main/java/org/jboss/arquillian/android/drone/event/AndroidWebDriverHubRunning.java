@@ -16,6 +16,8 @@
  */
 package org.jboss.arquillian.android.drone.event;
 
+import org.jboss.arquillian.android.api.AndroidPortForwarding;
+
 /**
  * Event representing and Android Web Driver Hub on device is running and ports are redirected
  *
@@ -24,4 +26,22 @@ package org.jboss.arquillian.android.drone.event;
  */
 public class AndroidWebDriverHubRunning {
 
+    private final AndroidPortForwarding forwarding;
+
+    public AndroidWebDriverHubRunning(AndroidPortForwarding forwarding) {
+        this.forwarding = forwarding;
+    }
+
+    /**
+     * Returns the port on host forwarded to Web Driver Hub, which might have been allocated automatically
+     *
+     * @return the port
+     */
+    public int getHostPort() {
+        return forwarding.getLocalPort();
+    }
+
+    public AndroidPortForwarding getForwarding() {
+        return forwarding;
+    }
 }
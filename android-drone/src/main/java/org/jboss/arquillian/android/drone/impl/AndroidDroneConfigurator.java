@@ -18,11 +18,14 @@ package org.jboss.arquillian.android.drone.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.logging.Logger;
 
 import org.jboss.arquillian.android.configuration.ConfigurationMapper;
 import org.jboss.arquillian.android.drone.configuration.AndroidDroneConfiguration;
 import org.jboss.arquillian.android.drone.event.AndroidDroneConfigured;
+import org.jboss.arquillian.android.drone.event.AndroidWebDriverHubRunning;
 import org.jboss.arquillian.android.spi.event.AndroidExtensionConfigured;
 import org.jboss.arquillian.config.descriptor.api.ArquillianDescriptor;
 import org.jboss.arquillian.config.descriptor.api.ExtensionDef;
@@ -36,9 +39,16 @@ import org.jboss.arquillian.test.spi.annotation.SuiteScoped;
  * Creator of Arquillian Drone configuration. Note that this observer has a higher priority so it is executed before the rest of
  * Android Extension.
  *
+ * Once Web Driver Hub is running, the port forwarded to it is written to {@code remoteAddress} of {@code webdriver}
+ * extensions in Arquillian descriptor which point to the configured {@code webdriverPortHost} on this host. If the port is
+ * allocated automatically, only the unqualified {@code webdriver} extension is updated. Other browsers, e.g. a desktop
+ * browser using a local Selenium server, are left alone. Drone reads the descriptor when it configures a browser before the
+ * test class, so it connects to the actual port.
+ *
  * Observes:
  * <ul>
  * <li>{@link AndroidExtensionConfigured}</li>
+ * <li>{@link AndroidWebDriverHubRunning}</li>
  * </ul>
  *
  * Creates:
@@ -59,6 +69,12 @@ public class AndroidDroneConfigurator {
 
     public static final String ANDROID_DRONE_EXTENSION_NAME = "android-drone";
 
+    public static final String WEBDRIVER_EXTENSION_NAME = "webdriver";
+
+    public static final String REMOTE_ADDRESS_PROPERTY = "remoteAddress";
+
+    private static final String WEBDRIVER_HUB_PATH = "/wd/hub";
+
     @Inject
     @SuiteScoped
     private InstanceProducer<AndroidDroneConfiguration> androidDroneConfiguration;
@@ -102,4 +118,53 @@ public class AndroidDroneConfigurator {
             afterConfiguration.fire(new AndroidDroneConfigured());
         }
     }
+
+    public void configureWebDriver(@Observes AndroidWebDriverHubRunning event, AndroidDroneConfiguration configuration,
+            ArquillianDescriptor descriptor) {
+        int port = event.getHostPort();
+        boolean found = false;
+        // qualified browsers are configured by extensions named webdriver-qualifier
+        for (ExtensionDef extensionDef : descriptor.getExtensions()) {
+            String name = extensionDef.getExtensionName();
+            if (WEBDRIVER_EXTENSION_NAME.equals(name) || name.startsWith(WEBDRIVER_EXTENSION_NAME + "-")) {
+                configureRemoteAddress(extensionDef, configuration.getWebdriverPortHost(), port);
+                found = true;
+            }
+        }
+        if (!found) {
+            String remoteAddress = "http://localhost:" + port + WEBDRIVER_HUB_PATH;
+            descriptor.extension(WEBDRIVER_EXTENSION_NAME).property(REMOTE_ADDRESS_PROPERTY, remoteAddress);
+            log.info("WebDriver of " + WEBDRIVER_EXTENSION_NAME + " extension connects to " + remoteAddress);
+        }
+    }
+
+    // only addresses of the configured hub port are rewritten, other browsers might use their own local Selenium server
+    private void configureRemoteAddress(ExtensionDef extensionDef, int configuredPort, int port) {
+        String remoteAddress = extensionDef.getExtensionProperties().get(REMOTE_ADDRESS_PROPERTY);
+        if (remoteAddress == null || remoteAddress.trim().length() == 0) {
+            return;
+        }
+        try {
+            URI uri = new URI(remoteAddress.trim());
+            // an allocated port is not known in advance, so only the unqualified browser is expected to use it
+            boolean hub = configuredPort == 0 ? WEBDRIVER_EXTENSION_NAME.equals(extensionDef.getExtensionName())
+                    : uri.getPort() == configuredPort;
+            if (!isLocal(uri.getHost()) || !hub) {
+                log.fine("WebDriver of " + extensionDef.getExtensionName() + " connects to " + remoteAddress
+                        + ", which is not Android Web Driver Hub, it is not changed");
+                return;
+            }
+            String updated = new URI(uri.getScheme(), uri.getUserInfo(), uri.getHost(), port, uri.getPath(),
+                    uri.getQuery(), uri.getFragment()).toString();
+            extensionDef.property(REMOTE_ADDRESS_PROPERTY, updated);
+            log.info("WebDriver of " + extensionDef.getExtensionName() + " extension connects to " + updated);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Invalid remoteAddress " + remoteAddress + " of "
+                    + extensionDef.getExtensionName() + " extension", e);
+        }
+    }
+
+    private static boolean isLocal(String host) {
+        return "localhost".equalsIgnoreCase(host) || "127.0.0.1".equals(host) || "[::1]".equals(host);
+    }
 }
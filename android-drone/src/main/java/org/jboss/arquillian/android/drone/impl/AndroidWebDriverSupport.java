@@ -26,6 +26,7 @@ import java.util.logging.Logger;
 import org.jboss.arquillian.android.api.AndroidDevice;
 import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
 import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPortForwarding;
 import org.jboss.arquillian.android.drone.configuration.AndroidDroneConfiguration;
 import org.jboss.arquillian.android.drone.event.AndroidWebDriverHubRunning;
 import org.jboss.arquillian.android.spi.event.AndroidDeviceReady;
@@ -72,12 +73,13 @@ public class AndroidWebDriverSupport {
         // check the process of selenium server is present
         waitUntilSeleniumStarted(device, monkey);
 
-        // forward ports
-        log.log(Level.INFO, "Creating port forwaring from {0} to {1} for WebDriver support",
-                new Object[] { configuration.getWebdriverPortHost(), configuration.getWebdriverPortGuest() });
-        device.createPortForwarding(configuration.getWebdriverPortHost(), configuration.getWebdriverPortGuest());
+        // forward ports, the forwarding is removed when the device is shut down
+        AndroidPortForwarding forwarding = device.forwardPort(configuration.getWebdriverPortHost(), "tcp:"
+                + configuration.getWebdriverPortGuest());
+        log.log(Level.INFO, "Created port forwarding from {0} to {1} for WebDriver support",
+                new Object[] { String.valueOf(forwarding.getLocalPort()), forwarding.getRemoteSocket() });
 
-        androidWebDriverHubRunning.fire(new AndroidWebDriverHubRunning());
+        androidWebDriverHubRunning.fire(new AndroidWebDriverHubRunning(forwarding));
     }
 
     private void waitUntilSeleniumStarted(AndroidDevice device, WebDriverMonkey monkey) throws IOException,
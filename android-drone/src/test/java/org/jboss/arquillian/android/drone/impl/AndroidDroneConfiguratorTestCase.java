@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.drone.impl;
+
+import org.jboss.arquillian.android.api.AndroidPortForwarding;
+import org.jboss.arquillian.android.drone.configuration.AndroidDroneConfiguration;
+import org.jboss.arquillian.android.drone.event.AndroidWebDriverHubRunning;
+import org.jboss.arquillian.config.descriptor.api.ArquillianDescriptor;
+import org.jboss.shrinkwrap.descriptor.api.Descriptors;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that WebDriver is configured to connect the port forwarded to Web Driver Hub
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidDroneConfiguratorTestCase {
+
+    @Test
+    public void forwardedPortIsWrittenToRemoteAddress() {
+        ArquillianDescriptor descriptor = Descriptors.create(ArquillianDescriptor.class);
+        descriptor.extension("webdriver").property("remoteAddress", "http://localhost:14444/wd/hub");
+        descriptor.extension("webdriver-tablet").property("remoteAddress", "http://127.0.0.1:14444/wd/hub?debug=true");
+        descriptor.extension("webdriver-grid").property("remoteAddress", "http://grid.example.org:4444/wd/hub");
+
+        new AndroidDroneConfigurator().configureWebDriver(hubRunning(40123), configuration(14444), descriptor);
+
+        Assert.assertEquals("http://localhost:40123/wd/hub", remoteAddress(descriptor, "webdriver"));
+        Assert.assertEquals("http://127.0.0.1:40123/wd/hub?debug=true", remoteAddress(descriptor, "webdriver-tablet"));
+        Assert.assertEquals("Remote hub is not changed", "http://grid.example.org:4444/wd/hub",
+                remoteAddress(descriptor, "webdriver-grid"));
+    }
+
+    @Test
+    public void missingWebDriverExtensionIsCreated() {
+        ArquillianDescriptor descriptor = Descriptors.create(ArquillianDescriptor.class);
+
+        new AndroidDroneConfigurator().configureWebDriver(hubRunning(40124), configuration(14444), descriptor);
+
+        Assert.assertEquals("http://localhost:40124/wd/hub", remoteAddress(descriptor, "webdriver"));
+    }
+
+    @Test
+    public void otherLocalBrowsersAreNotChanged() {
+        ArquillianDescriptor descriptor = Descriptors.create(ArquillianDescriptor.class);
+        descriptor.extension("webdriver-android").property("remoteAddress", "http://localhost:14444/wd/hub");
+        descriptor.extension("webdriver-firefox").property("remoteAddress", "http://localhost:4444/wd/hub");
+        descriptor.extension("webdriver-chrome").property("browser", "chrome");
+
+        new AndroidDroneConfigurator().configureWebDriver(hubRunning(40125), configuration(14444), descriptor);
+
+        Assert.assertEquals("http://localhost:40125/wd/hub", remoteAddress(descriptor, "webdriver-android"));
+        Assert.assertEquals("Local Selenium server is not changed", "http://localhost:4444/wd/hub",
+                remoteAddress(descriptor, "webdriver-firefox"));
+        Assert.assertNull("Local browser is not changed", remoteAddress(descriptor, "webdriver-chrome"));
+    }
+
+    @Test
+    public void allocatedPortIsWrittenToUnqualifiedBrowserOnly() {
+        ArquillianDescriptor descriptor = Descriptors.create(ArquillianDescriptor.class);
+        descriptor.extension("webdriver").property("remoteAddress", "http://localhost/wd/hub");
+        descriptor.extension("webdriver-firefox").property("remoteAddress", "http://localhost:4444/wd/hub");
+
+        new AndroidDroneConfigurator().configureWebDriver(hubRunning(40126), configuration(0), descriptor);
+
+        Assert.assertEquals("http://localhost:40126/wd/hub", remoteAddress(descriptor, "webdriver"));
+        Assert.assertEquals("http://localhost:4444/wd/hub", remoteAddress(descriptor, "webdriver-firefox"));
+    }
+
+    private static AndroidDroneConfiguration configuration(int webdriverPortHost) {
+        AndroidDroneConfiguration configuration = new AndroidDroneConfiguration();
+        configuration.setWebdriverPortHost(webdriverPortHost);
+        return configuration;
+    }
+
+    private static String remoteAddress(ArquillianDescriptor descriptor, String extension) {
+        return descriptor.extension(extension).getExtensionProperties().get("remoteAddress");
+    }
+
+    private static AndroidWebDriverHubRunning hubRunning(final int port) {
+        return new AndroidWebDriverHubRunning(new AndroidPortForwarding() {
+            @Override
+            public int getLocalPort() {
+                return port;
+            }
+
+            @Override
+            public String getRemoteSocket() {
+                return "tcp:8080";
+            }
+
+            @Override
+            public void release() {
+            }
+        });
+    }
+}
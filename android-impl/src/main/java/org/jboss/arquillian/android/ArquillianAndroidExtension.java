@@ -16,8 +16,11 @@
  */
 package org.jboss.arquillian.android;
 
+import org.jboss.arquillian.android.enricher.AndroidDeployerResourceProvider;
 import org.jboss.arquillian.android.enricher.AndroidDeviceResourceProvider;
 import org.jboss.arquillian.android.impl.AndroidBridgeConnector;
+import org.jboss.arquillian.android.impl.AndroidDeployerCreator;
+import org.jboss.arquillian.android.impl.AndroidDeviceEventPublisher;
 import org.jboss.arquillian.android.impl.AndroidDeviceSelector;
 import org.jboss.arquillian.android.impl.AndroidExtensionConfigurator;
 import org.jboss.arquillian.android.impl.EmulatorShutdown;
@@ -36,11 +39,14 @@ public class ArquillianAndroidExtension implements LoadableExtension {
     public void register(ExtensionBuilder builder) {
 
         builder.service(ResourceProvider.class, AndroidDeviceResourceProvider.class);
+        builder.service(ResourceProvider.class, AndroidDeployerResourceProvider.class);
 
         builder.observer(AndroidExtensionConfigurator.class);
         builder.observer(AndroidDeviceSelector.class);
         builder.observer(AndroidBridgeConnector.class);
         builder.observer(EmulatorStartup.class);
         builder.observer(EmulatorShutdown.class);
+        builder.observer(AndroidDeviceEventPublisher.class);
+        builder.observer(AndroidDeployerCreator.class);
     }
 }
@@ -16,6 +16,8 @@
  */
 package org.jboss.arquillian.android.configuration;
 
+import java.io.File;
+
 /**
  * Configuration for Android extension in Arquillian
  *
@@ -38,12 +40,33 @@ public class AndroidExtensionConfiguration {
 
     private String abi;
 
+    private String avdTemplate;
+
+    private String imageStore;
+
+    private String avdBundle;
+
+    private boolean nativeBridge;
+
+    private String adbEndpoints;
+
+    private boolean matchDevice;
+
+    private String deviceInventory = new File(System.getProperty("java.io.tmpdir"), "arquillian-android-devices.properties")
+            .getPath();
+
     private long emulatorBootupTimeoutInSeconds = 120L;
 
     private long emulatorShutdownTimeoutInSeconds = 60L;
 
     private String home = System.getenv("ANDROID_HOME");
 
+    private boolean isolated;
+
+    private int adbServerPort;
+
+    private String avdHome;
+
     // Android 2.3.3 is the default
     private String apiLevel = "10";
 
@@ -135,4 +158,83 @@ public class AndroidExtensionConfiguration {
         this.abi = abi;
     }
 
-}
\ No newline at end of file
+    public boolean isIsolated() {
+        return isolated;
+    }
+
+    public void setIsolated(boolean isolated) {
+        this.isolated = isolated;
+    }
+
+    public int getAdbServerPort() {
+        return adbServerPort;
+    }
+
+    public void setAdbServerPort(int adbServerPort) {
+        this.adbServerPort = adbServerPort;
+    }
+
+    public String getAvdHome() {
+        return avdHome;
+    }
+
+    public void setAvdHome(String avdHome) {
+        this.avdHome = avdHome;
+    }
+
+    public String getAvdTemplate() {
+        return avdTemplate;
+    }
+
+    public void setAvdTemplate(String avdTemplate) {
+        this.avdTemplate = avdTemplate;
+    }
+
+    public String getImageStore() {
+        return imageStore;
+    }
+
+    public void setImageStore(String imageStore) {
+        this.imageStore = imageStore;
+    }
+
+    public String getAvdBundle() {
+        return avdBundle;
+    }
+
+    public void setAvdBundle(String avdBundle) {
+        this.avdBundle = avdBundle;
+    }
+
+    public boolean isNativeBridge() {
+        return nativeBridge;
+    }
+
+    public void setNativeBridge(boolean nativeBridge) {
+        this.nativeBridge = nativeBridge;
+    }
+
+    public String getAdbEndpoints() {
+        return adbEndpoints;
+    }
+
+    public void setAdbEndpoints(String adbEndpoints) {
+        this.adbEndpoints = adbEndpoints;
+    }
+
+    public boolean isMatchDevice() {
+        return matchDevice;
+    }
+
+    public void setMatchDevice(boolean matchDevice) {
+        this.matchDevice = matchDevice;
+    }
+
+    public String getDeviceInventory() {
+        return deviceInventory;
+    }
+
+    public void setDeviceInventory(String deviceInventory) {
+        this.deviceInventory = deviceInventory;
+    }
+}
@@ -269,6 +269,24 @@ public class AndroidSdk {
         return getPathForTool("android");
     }
 
+    /**
+     * Get the SD card image creation tool path (mksdcard).
+     *
+     * @return
+     */
+    public String getMksdcardPath() {
+        return getPathForTool("mksdcard");
+    }
+
+    /**
+     * Returns the root directory of this SDK.
+     *
+     * @return the SDK directory
+     */
+    public File getSdkPath() {
+        return sdkPath;
+    }
+
     /**
      * Returns the complete path for <code>framework.aidl</code>, based on this SDK.
      *
@@ -0,0 +1,357 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A connection to adb server speaking ADB host protocol. Requests are sent as a 4 digit hexadecimal length followed by the
+ * request, server replies with {@code OKAY} or {@code FAIL} followed by a length prefixed message. Once a device transport
+ * is selected, the connection is either used for a device service such as shell, which streams its output until the
+ * connection is closed, or for sync protocol which uses 4 byte identifiers followed by little endian lengths.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class AdbConnection {
+
+    static final int DEFAULT_PORT = 5037;
+
+    static final int CONNECT_TIMEOUT_MS = 2000;
+
+    static final int SYNC_DATA_MAX = 64 * 1024;
+
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
+
+    private static final String OKAY = "OKAY";
+
+    private static final String FAIL = "FAIL";
+
+    private static final String CHARSET = "UTF-8";
+
+    private final SocketChannel channel;
+
+    private AdbConnection(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens a connection to adb server
+     *
+     * @param server address of adb server
+     * @return the connection
+     * @throws IOException if server is not available
+     */
+    static AdbConnection open(InetSocketAddress server) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            // connections to remote servers might be idle for a long time, e.g. when tracking devices
+            channel.socket().setKeepAlive(true);
+            channel.socket().connect(server, CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new AdbConnection(channel);
+    }
+
+    /**
+     * Opens a connection with transport switched to a device
+     *
+     * @param server address of adb server
+     * @param serial serial number of the device
+     * @return the connection
+     * @throws IOException if device is not available
+     */
+    static AdbConnection openTransport(InetSocketAddress server, String serial) throws IOException {
+        AdbConnection connection = open(server);
+        try {
+            connection.send("host:transport:" + serial);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Sends a request and waits for server to accept it
+     *
+     * @param request the request
+     * @throws IOException if request was rejected
+     */
+    void send(String request) throws IOException {
+        writeRequest(request);
+        readStatus(request);
+    }
+
+    /**
+     * Sends a request without waiting for server to accept it, so requests sent over several connections are processed
+     * concurrently. The status has to be read by {@link #readStatus(String)}.
+     *
+     * @param request the request
+     * @throws IOException if request cannot be sent
+     */
+    void writeRequest(String request) throws IOException {
+        byte[] data = request.getBytes(CHARSET);
+        write(ByteBuffer.wrap(String.format("%04x", data.length).getBytes(CHARSET)));
+        write(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Sends a request which is confirmed twice, first when the device is selected and then when the request was processed.
+     * Port forwarding requests are confirmed this way.
+     *
+     * @param request the request
+     * @throws IOException if request was rejected or it failed
+     */
+    void sendConfirmed(String request) throws IOException {
+        send(request);
+        readStatus(request);
+    }
+
+    /**
+     * Sends a request whose result might be confirmed separately. Older adb servers confirm removal of a port forwarding
+     * twice like its setup, newer ones close the connection after the first confirmation. A failure is reported in both
+     * cases.
+     *
+     * @param request the request
+     * @throws IOException if request was rejected or it failed
+     */
+    void sendOptionallyConfirmed(String request) throws IOException {
+        send(request);
+        readStatus(request, true);
+    }
+
+    /**
+     * Reads a hexadecimal length prefixed string
+     *
+     * @return the string or {@code null} if connection was closed
+     * @throws IOException if string cannot be read
+     */
+    String readHexString() throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        if (!readFully(length, true)) {
+            return null;
+        }
+        int size;
+        try {
+            size = Integer.parseInt(new String(length.array(), CHARSET), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid length received from adb server");
+        }
+        ByteBuffer data = ByteBuffer.allocate(size);
+        readFully(data, false);
+        return new String(data.array(), CHARSET);
+    }
+
+    /**
+     * Reads available data into buffer
+     *
+     * @param buffer the buffer
+     * @return number of bytes read or {@code -1} if connection was closed
+     * @throws IOException
+     */
+    int read(ByteBuffer buffer) throws IOException {
+        return channel.read(buffer);
+    }
+
+    /**
+     * Transfers all remaining data of the connection to the target without decoding them. Files are written by the kernel
+     * directly from the socket, other targets are written from a direct buffer.
+     *
+     * @param target the target
+     * @return number of bytes transferred
+     * @throws IOException if data cannot be transferred
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        long total = 0;
+        if (target instanceof FileChannel) {
+            FileChannel file = (FileChannel) target;
+            long position = file.position();
+            long transferred;
+            // blocking source returns 0 only when the connection was closed
+            while ((transferred = file.transferFrom(channel, position + total, TRANSFER_CHUNK)) > 0) {
+                total += transferred;
+            }
+            file.position(position + total);
+            return total;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SYNC_DATA_MAX);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                total += target.write(buffer);
+            }
+            buffer.clear();
+        }
+        return total;
+    }
+
+    /**
+     * Sends whole content of a file to the connection. Data are written by the kernel directly from the file.
+     *
+     * @param file the file
+     * @return number of bytes transferred
+     * @throws IOException if data cannot be transferred
+     */
+    long transferFrom(FileChannel file) throws IOException {
+        long size = file.size();
+        long total = 0;
+        while (total < size) {
+            total += file.transferTo(total, Math.min(TRANSFER_CHUNK, size - total), channel);
+        }
+        return total;
+    }
+
+    /**
+     * Writes a sync protocol request with a numeric argument
+     *
+     * @param id request identifier, e.g. {@code DONE}
+     * @param value the value
+     * @throws IOException
+     */
+    void writeSyncRequest(String id, int value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(id.getBytes(CHARSET)).putInt(value).flip();
+        write(buffer);
+    }
+
+    /**
+     * Writes a sync protocol request with a payload
+     *
+     * @param id request identifier, e.g. {@code SEND}
+     * @param data the payload
+     * @param offset offset of the payload in data
+     * @param length length of the payload
+     * @throws IOException
+     */
+    void writeSyncRequest(String id, byte[] data, int offset, int length) throws IOException {
+        writeSyncRequest(id, length);
+        write(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Reads a sync protocol response
+     *
+     * @param id expected response identifier, e.g. {@code OKAY}
+     * @param request description of request, used in error messages
+     * @return value of the response
+     * @throws IOException if sync request failed
+     */
+    int readSyncResponse(String id, String request) throws IOException {
+        return readSyncResponse(id, null, request);
+    }
+
+    /**
+     * Reads a sync protocol response which is either a chunk of a sequence or its end, e.g. {@code DATA} or {@code DONE}
+     *
+     * @param id expected response identifier
+     * @param last identifier which ends the sequence, might be {@code null}
+     * @param request description of request, used in error messages
+     * @return value of the response or {@code -1} if the sequence ended
+     * @throws IOException if sync request failed
+     */
+    int readSyncResponse(String id, String last, String request) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, false);
+        String response = new String(header.array(), 0, 4, CHARSET);
+        int value = header.getInt(4);
+        if (FAIL.equals(response)) {
+            if (value < 0 || value > SYNC_DATA_MAX) {
+                throw new IOException(request + " failed, invalid length " + value + " of failure message");
+            }
+            ByteBuffer message = ByteBuffer.allocate(value);
+            readFully(message, false);
+            throw new IOException(request + " failed: " + new String(message.array(), CHARSET));
+        } else if (response.equals(last)) {
+            return -1;
+        } else if (!id.equals(response)) {
+            throw new IOException(request + " failed, unexpected response " + response);
+        }
+        return value;
+    }
+
+    /**
+     * Fills the buffer with data
+     *
+     * @param buffer the buffer
+     * @throws IOException if connection was closed before buffer was filled
+     */
+    void readFully(ByteBuffer buffer) throws IOException {
+        readFully(buffer, false);
+    }
+
+    void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Reads status of a request
+     *
+     * @param request the request
+     * @throws IOException if request was rejected
+     */
+    void readStatus(String request) throws IOException {
+        readStatus(request, false);
+    }
+
+    private void readStatus(String request, boolean allowEof) throws IOException {
+        ByteBuffer status = ByteBuffer.allocate(4);
+        if (!readFully(status, allowEof)) {
+            return;
+        }
+        String response = new String(status.array(), CHARSET);
+        if (FAIL.equals(response)) {
+            String message = readHexString();
+            throw new IOException("adb server rejected " + request + ": " + message);
+        } else if (!OKAY.equals(response)) {
+            throw new IOException("adb server returned unexpected response " + response + " to " + request);
+        }
+    }
+
+    private boolean readFully(ByteBuffer buffer, boolean allowEof) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                if (allowEof && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Connection to adb server was closed");
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks whether an adb server is already running by asking it directly over ADB host protocol. This costs a couple of
+ * milliseconds on loopback, while starting a bridge blindly means spawning adb processes and polling for the device list.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class AdbServerProbe {
+    private static final Logger log = Logger.getLogger(AdbServerProbe.class.getName());
+
+    /** The oldest adb server protocol version ddmlib is able to talk to */
+    static final int MINIMAL_VERSION = 20;
+
+    private static final String VERSION_REQUEST = "host:version";
+
+    private static final String DEVICES_REQUEST = "host:devices";
+
+    private final int version;
+
+    private final Map<String, String> devices;
+
+    private AdbServerProbe(int version, Map<String, String> devices) {
+        this.version = version;
+        this.devices = devices;
+    }
+
+    /**
+     * Probes adb server
+     *
+     * @param server address of adb server
+     * @return the result or {@code null} if no compatible adb server is listening at the address
+     */
+    static AdbServerProbe probe(InetSocketAddress server) {
+        AdbConnection version = null;
+        AdbConnection devices = null;
+        try {
+            // both requests are sent before any reply is read, so probing costs a single round trip
+            version = AdbConnection.open(server);
+            devices = AdbConnection.open(server);
+            version.writeRequest(VERSION_REQUEST);
+            devices.writeRequest(DEVICES_REQUEST);
+
+            int serverVersion = Integer.parseInt(reply(version, VERSION_REQUEST).trim(), 16);
+            if (serverVersion < MINIMAL_VERSION) {
+                log.log(Level.FINE, "Adb server at {0} has unsupported version {1}", new Object[] { server, serverVersion });
+                return null;
+            }
+            return new AdbServerProbe(serverVersion, parseDevices(reply(devices, DEVICES_REQUEST)));
+        } catch (IOException e) {
+            log.log(Level.FINE, "No adb server is running at {0}", server);
+            return null;
+        } catch (NumberFormatException e) {
+            log.log(Level.FINE, "Adb server at {0} returned an invalid version", server);
+            return null;
+        } finally {
+            if (version != null) {
+                version.close();
+            }
+            if (devices != null) {
+                devices.close();
+            }
+        }
+    }
+
+    /**
+     * Parses a device list as returned by {@code host:devices} or {@code host:track-devices}
+     *
+     * @param list the list
+     * @return states of devices mapped by serial number, in order of the list
+     */
+    static Map<String, String> parseDevices(String list) {
+        Map<String, String> states = new LinkedHashMap<String, String>();
+        for (String line : list.split("\\n")) {
+            int tab = line.indexOf('\t');
+            if (tab > 0) {
+                states.put(line.substring(0, tab), line.substring(tab + 1).trim());
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Returns protocol version of the server
+     *
+     * @return the version
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns devices connected to the server at the time of probing
+     *
+     * @return unmodifiable map of device states mapped by serial number
+     */
+    Map<String, String> getDevices() {
+        return Collections.unmodifiableMap(devices);
+    }
+
+    // adb server closes host connection after it replies to a host request
+    private static String reply(AdbConnection connection, String request) throws IOException {
+        connection.readStatus(request);
+        String reply = connection.readHexString();
+        if (reply == null) {
+            throw new IOException("Adb server closed connection before replying to " + request);
+        }
+        return reply;
+    }
+}
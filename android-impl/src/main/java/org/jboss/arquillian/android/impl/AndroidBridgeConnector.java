@@ -21,6 +21,7 @@ import java.util.logging.Logger;
 
 import org.jboss.arquillian.android.api.AndroidBridge;
 import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.configuration.AndroidConfigurationException;
 import org.jboss.arquillian.android.configuration.AndroidExtensionConfiguration;
 import org.jboss.arquillian.android.configuration.AndroidSdk;
 import org.jboss.arquillian.android.spi.event.AndroidBridgeInitialized;
@@ -35,7 +36,7 @@ import org.jboss.arquillian.test.spi.annotation.SuiteScoped;
 
 /**
  * Creator and destructor of Android Bridge. This must be called after Android Drone extension initialization, if it is
- * available.
+ * available. The bridge is shared with other suites running in the same JVM, see {@link AndroidBridgeHolder}.
  *
  * Observes:
  * <ul>
@@ -71,12 +72,20 @@ public class AndroidBridgeConnector {
     private Event<AndroidBridgeTerminated> adbTerminated;
 
     public void initAndroidDebugBridge(@Observes AndroidExtensionConfigured event, AndroidSdk sdk,
-            AndroidExtensionConfiguration configuration, ProcessExecutor executor) throws AndroidExecutionException {
+            AndroidExtensionConfiguration configuration, ProcessExecutor executor) throws AndroidExecutionException,
+            AndroidConfigurationException {
 
         long start = System.currentTimeMillis();
         log.info("Initializing Android Debug Bridge");
-        AndroidBridge bridge = new AndroidBridgeImpl(new File(sdk.getAdbPath()), configuration.isForce(), executor);
-        bridge.connect();
+        AndroidBridge bridge;
+        if (configuration.getAdbEndpoints() != null) {
+            bridge = AndroidBridgeHolder.getInstance().acquire(
+                    RemoteAndroidBridge.parseEndpoints(configuration.getAdbEndpoints()), executor);
+        } else {
+            int privateServerPort = configuration.isIsolated() ? configuration.getAdbServerPort() : 0;
+            bridge = AndroidBridgeHolder.getInstance().acquire(new File(sdk.getAdbPath()), configuration.isForce(),
+                    privateServerPort, configuration.isNativeBridge(), executor);
+        }
         long delta = System.currentTimeMillis() - start;
         log.info("Android debug Bridge was initialized in " + delta + "ms");
         androidBridge.set(bridge);
@@ -85,7 +94,8 @@ public class AndroidBridgeConnector {
     }
 
     public void destroyAndroidDebugBridge(@Observes AndroidDeviceShutdown event) throws AndroidExecutionException {
-        androidBridge.get().disconnect();
-        adbTerminated.fire(new AndroidBridgeTerminated());
+        if (AndroidBridgeHolder.getInstance().release(androidBridge.get())) {
+            adbTerminated.fire(new AndroidBridgeTerminated());
+        }
     }
 }
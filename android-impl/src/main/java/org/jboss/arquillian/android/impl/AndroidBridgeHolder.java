@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidBridge;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+
+/**
+ * Process wide holder of Android Debug Bridge. The ddmlib bridge is a JVM singleton which is expensive to initialize, so it is
+ * shared by all suites executed in the same JVM. Users are reference counted, a bridge which is no longer used is kept
+ * connected so the next suite can reuse it. It is terminated when the JVM exits or when a bridge to a different adb server
+ * is requested. A bridge which lost connection to adb server is reconnected when acquired.
+ *
+ * A bridge to a private adb server, which is used in isolated mode, is not kept for following suites. Every isolated suite
+ * allocates its own server port, so the bridge could never be reused; it is terminated together with its server when the
+ * last reference is released.
+ *
+ * The bridge outlives the suite which created it, so it does not use the executor of that suite. It gets its own executor
+ * with the same environment instead, which is shut down when the bridge is terminated.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class AndroidBridgeHolder {
+    private static final Logger log = Logger.getLogger(AndroidBridgeHolder.class.getName());
+
+    private static final AndroidBridgeHolder INSTANCE = new AndroidBridgeHolder();
+
+    private AndroidBridge bridge;
+
+    private ProcessExecutor bridgeExecutor;
+
+    private String key;
+
+    private int references;
+
+    private boolean shared;
+
+    private Thread shutdownHook;
+
+    /**
+     * Returns holder shared by whole JVM
+     *
+     * @return the holder
+     */
+    static AndroidBridgeHolder getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Acquires a connected bridge. An existing bridge is reused if it is connected to the same adb server.
+     *
+     * @param adbLocation location of adb binary
+     * @param forceNewBridge {@code true} if shared adb server should be restarted, applies only if bridge is created
+     * @param privateServerPort port of a private adb server or {@code 0} to use shared adb server
+     * @param nativeBridge {@code true} if ADB host protocol should be used directly instead of ddmlib
+     * @param executor executor used to spawn adb processes
+     * @return connected bridge
+     * @throws AndroidExecutionException if bridge cannot be connected
+     */
+    synchronized AndroidBridge acquire(final File adbLocation, final boolean forceNewBridge, final int privateServerPort,
+            final boolean nativeBridge, final ProcessExecutor executor) throws AndroidExecutionException {
+
+        String requested = (nativeBridge ? "native:" : "") + adbLocation.getAbsolutePath() + "@" + privateServerPort;
+        return acquire(requested, privateServerPort == 0, executor, new BridgeFactory() {
+            @Override
+            public AndroidBridge create(ProcessExecutor bridgeExecutor) {
+                return createBridge(adbLocation, forceNewBridge, privateServerPort, nativeBridge, bridgeExecutor);
+            }
+        });
+    }
+
+    /**
+     * Acquires a connected bridge aggregating remote adb servers. An existing bridge is reused if it is connected to the same
+     * servers.
+     *
+     * @param endpoints addresses of remote adb servers
+     * @param executor executor used to track devices
+     * @return connected bridge
+     * @throws AndroidExecutionException if bridge cannot be connected
+     */
+    synchronized AndroidBridge acquire(final List<InetSocketAddress> endpoints, final ProcessExecutor executor)
+            throws AndroidExecutionException {
+
+        String requested = "remote:" + endpoints;
+        return acquire(requested, true, executor, new BridgeFactory() {
+            @Override
+            public AndroidBridge create(ProcessExecutor bridgeExecutor) {
+                return createRemoteBridge(endpoints, bridgeExecutor);
+            }
+        });
+    }
+
+    private AndroidBridge acquire(String requested, boolean reusable, ProcessExecutor executor, BridgeFactory factory)
+            throws AndroidExecutionException {
+        if (bridge != null && !requested.equals(key)) {
+            if (references > 0) {
+                throw new AndroidExecutionException(
+                        "Unable to connect Android Debug Bridge to {0}, bridge to {1} is still used by {2} suites",
+                        requested, key, references);
+            }
+            terminate();
+        }
+
+        if (bridge == null) {
+            ProcessExecutor createdExecutor = new ProcessExecutor(executor.getEnvironment());
+            boolean connected = false;
+            try {
+                AndroidBridge created = factory.create(createdExecutor);
+                created.connect();
+                connected = true;
+                bridge = created;
+                bridgeExecutor = createdExecutor;
+            } finally {
+                if (!connected) {
+                    createdExecutor.shutdown();
+                }
+            }
+            key = requested;
+            shared = reusable;
+            registerShutdownHook();
+        } else if (!bridge.isConnected()) {
+            log.log(Level.WARNING, "Android Debug Bridge lost connection to adb server {0}, reconnecting", key);
+            try {
+                bridge.disconnect();
+            } catch (AndroidExecutionException e) {
+                log.log(Level.FINE, "Unable to dispose stale Android Debug Bridge", e);
+            }
+            bridge.connect();
+        } else {
+            log.log(Level.FINE, "Reusing Android Debug Bridge connected to {0}", key);
+        }
+
+        references++;
+        return bridge;
+    }
+
+    /**
+     * Releases a bridge acquired by {@link #acquire(File, boolean, int, boolean, ProcessExecutor)}. Bridge stays connected for
+     * following users unless it is no longer connected to adb server or it is connected to a private adb server.
+     *
+     * @param released the bridge
+     * @return {@code true} if the last reference to the bridge was released, {@code false} otherwise
+     * @throws AndroidExecutionException if bridge cannot be terminated
+     */
+    synchronized boolean release(AndroidBridge released) throws AndroidExecutionException {
+        if (released == null || released != bridge || references == 0) {
+            return false;
+        }
+
+        references--;
+        if (references > 0) {
+            return false;
+        }
+        if (!shared || !bridge.isConnected()) {
+            terminate();
+        }
+        return true;
+    }
+
+    synchronized int getReferences() {
+        return references;
+    }
+
+    AndroidBridge createBridge(File adbLocation, boolean forceNewBridge, int privateServerPort, boolean nativeBridge,
+            ProcessExecutor executor) {
+        if (nativeBridge) {
+            return new NativeAndroidBridge(NativeAndroidBridge.getServerAddress(privateServerPort), adbLocation,
+                    privateServerPort > 0, executor);
+        }
+        return new AndroidBridgeImpl(adbLocation, forceNewBridge, privateServerPort, executor);
+    }
+
+    AndroidBridge createRemoteBridge(List<InetSocketAddress> endpoints, ProcessExecutor executor) {
+        return new RemoteAndroidBridge(endpoints, executor);
+    }
+
+    private void terminate() throws AndroidExecutionException {
+        AndroidBridge terminated = bridge;
+        ProcessExecutor terminatedExecutor = bridgeExecutor;
+        bridge = null;
+        bridgeExecutor = null;
+        key = null;
+        shared = false;
+        references = 0;
+        if (shutdownHook != null) {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            shutdownHook = null;
+        }
+        try {
+            terminated.disconnect();
+        } finally {
+            terminatedExecutor.shutdown();
+        }
+    }
+
+    private void registerShutdownHook() {
+        shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (AndroidBridgeHolder.this) {
+                    if (bridge != null) {
+                        try {
+                            bridge.disconnect();
+                        } catch (AndroidExecutionException e) {
+                            log.log(Level.WARNING, "Unable to disconnect Android Debug Bridge", e);
+                        }
+                    }
+                }
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    private interface BridgeFactory {
+        AndroidBridge create(ProcessExecutor bridgeExecutor);
+    }
+}
@@ -32,8 +32,10 @@
 package org.jboss.arquillian.android.impl;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.net.InetSocketAddress;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -42,9 +44,14 @@ import java.util.logging.Logger;
 
 import org.jboss.arquillian.android.api.AndroidBridge;
 import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
 import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInstallation;
+import org.jboss.arquillian.android.api.AndroidTransferListener;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
 
 import com.android.ddmlib.AndroidDebugBridge;
+import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
 import com.android.ddmlib.IDevice;
 
 /**
@@ -60,6 +67,15 @@ class AndroidBridgeImpl implements AndroidBridge {
     /** Android Debug Bridge initialization timeout in milliseconds. */
     private static final long ADB_TIMEOUT_MS = 60L * 1000;
 
+    /** Polling step used while waiting for a bridge connected to an already running adb server */
+    private static final long FAST_POLL_STEP_MS = 10;
+
+    /** Polling step used while waiting for a bridge which might need to start adb server */
+    private static final long SLOW_POLL_STEP_MS = 1000;
+
+    /** Static field of {@link AndroidDebugBridge} which holds address of adb server */
+    private static final String DDMLIB_SERVER_ADDRESS = "sSocketAddr";
+
     private AndroidDebugBridge delegate;
 
     private final File adbLocation;
@@ -68,33 +84,153 @@ class AndroidBridgeImpl implements AndroidBridge {
 
     private final ProcessExecutor executor;
 
+    private final int privateServerPort;
+
+    // address of adb server ddmlib used before it was redirected to the private server
+    private InetSocketAddress replacedServerAddress;
+
+    private final AndroidDeviceRegistry registry = new AndroidDeviceRegistry();
+
+    private final AndroidDeviceDispatcher dispatcher;
+
+    // the only listener registered in ddmlib, it keeps registry up to date and dispatches changes to bridge listeners
+    private final IDeviceChangeListener registryUpdater = new IDeviceChangeListener() {
+        @Override
+        public void deviceConnected(IDevice device) {
+            dispatcher.deviceConnected(registry.register(new AndroidDeviceImpl(device)));
+        }
+
+        @Override
+        public void deviceChanged(IDevice device, int changeMask) {
+            AndroidDevice wrapper = getWrapper(device);
+            if ((changeMask & IDevice.CHANGE_STATE) != 0 || isAvdNameResolved(wrapper)) {
+                dispatcher.deviceChanged(wrapper);
+            }
+        }
+
+        // ddmlib sets AVD name without any notification, so every change is an opportunity to learn it
+        private boolean isAvdNameResolved(AndroidDevice device) {
+            return device.isEmulator() && registry.getResolvedAvdName(device.getSerialNumber()) == null
+                    && registry.resolveAvdName(device) != null;
+        }
+
+        @Override
+        public void deviceDisconnected(IDevice device) {
+            String avdName = registry.getResolvedAvdName(device.getSerialNumber());
+            AndroidDevice registered = registry.unregister(device.getSerialNumber());
+            dispatcher.deviceDisconnected(registered != null ? registered : new AndroidDeviceImpl(device), avdName);
+        }
+    };
+
     AndroidBridgeImpl(final File adbLocation, final boolean forceNewBridge, final ProcessExecutor executor) {
+        this(adbLocation, forceNewBridge, 0, executor);
+    }
+
+    /**
+     * Creates a bridge. If {@code privateServerPort} is a positive number, the bridge starts and owns a private adb server
+     * listening on that port instead of using host-global adb server. Such server is killed when the bridge is disconnected,
+     * which means that no other adb clients on the host are affected.
+     *
+     * @param adbLocation location of adb binary
+     * @param forceNewBridge {@code true} if shared adb server should be restarted
+     * @param privateServerPort port of a private adb server or {@code 0} to use shared adb server
+     * @param executor executor used to spawn adb processes
+     */
+    AndroidBridgeImpl(final File adbLocation, final boolean forceNewBridge, final int privateServerPort,
+            final ProcessExecutor executor) {
         Validate.isReadable(adbLocation, "ADB location does not represent a readable file (" + adbLocation + ")");
         this.adbLocation = adbLocation;
         this.forceNewBridge = forceNewBridge;
+        this.privateServerPort = privateServerPort;
         this.executor = executor;
+        this.dispatcher = new AndroidDeviceDispatcher(registry, executor);
     }
 
     @Override
     public List<AndroidDevice> getDevices() {
         Validate.stateNotNull(delegate, "Android debug bridge must be set. Please call connect() method before execution");
+        return registry.getDevices();
+    }
 
-        IDevice[] idevices = delegate.getDevices();
-        List<AndroidDevice> devices = new ArrayList<AndroidDevice>(idevices.length);
-        for (IDevice d : idevices) {
-            devices.add(new AndroidDeviceImpl(d));
-        }
+    @Override
+    public AndroidDevice getDeviceBySerialNumber(String serialNumber) {
+        Validate.stateNotNull(delegate, "Android debug bridge must be set. Please call connect() method before execution");
+        return registry.getBySerialNumber(serialNumber);
+    }
+
+    @Override
+    public AndroidDevice getDeviceByAvdName(String avdName) {
+        Validate.stateNotNull(delegate, "Android debug bridge must be set. Please call connect() method before execution");
+        return registry.getByAvdName(avdName);
+    }
 
-        return devices;
+    @Override
+    public AndroidPackageInstallation installPackages(Collection<AndroidDevice> devices, List<File> packageFilePaths,
+            boolean reinstall, String... extraArgs) {
+        return ParallelDeviceTasks.installPackages(devices, packageFilePaths, reinstall, extraArgs, executor);
+    }
 
+    @Override
+    public Map<AndroidDevice, AndroidTransferStatistics> pushFiles(Collection<AndroidDevice> devices, Map<File, String> files,
+            AndroidTransferListener listener) throws AndroidExecutionException {
+        return ParallelDeviceTasks.pushFiles(devices, files, listener, executor,
+                ParallelDeviceTasks.MAX_TRANSFERS_PER_ENDPOINT);
     }
 
     @Override
     public void connect() throws AndroidExecutionException {
-        AndroidDebugBridge.init(false);
-        this.delegate = AndroidDebugBridge.createBridge(adbLocation.getAbsolutePath(), forceNewBridge);
-        waitUntilConnected();
-        waitForInitialDeviceList();
+        AndroidDebugBridge.addDeviceChangeListener(registryUpdater);
+
+        // a running server is reused as it is, unless it should be restarted
+        AdbServerProbe probe = forceNewBridge ? null : AdbServerProbe.probe(NativeAndroidBridge
+                .getServerAddress(privateServerPort));
+        if (probe != null) {
+            log.log(Level.FINE, "Found running adb server version {0} with {1} device(s)", new Object[] { probe.getVersion(),
+                    probe.getDevices().size() });
+        }
+
+        if (isPrivateServer()) {
+            if (probe == null) {
+                startPrivateServer();
+            }
+            AndroidDebugBridge.init(false);
+            try {
+                redirectToPrivateServer();
+            } catch (AndroidExecutionException e) {
+                // ddmlib can be initialized again by the next attempt
+                AndroidDebugBridge.removeDeviceChangeListener(registryUpdater);
+                AndroidDebugBridge.terminate();
+                throw e;
+            }
+            // bridge without adb location does not start nor kill adb server on its own
+            this.delegate = AndroidDebugBridge.createBridge();
+        } else if (probe != null) {
+            AndroidDebugBridge.init(false);
+            // server version was already verified, so there is no need to let ddmlib spawn adb to check it
+            this.delegate = AndroidDebugBridge.createBridge();
+            // ddmlib restarts a server which stops responding only if it knows where adb is
+            try {
+                SecurityActions.setFieldValue(delegate, "mAdbOsLocation", adbLocation.getAbsolutePath());
+            } catch (IllegalStateException e) {
+                log.log(Level.WARNING, "Android Debug Bridge will not be able to restart adb server", e);
+            }
+        } else {
+            AndroidDebugBridge.init(false);
+            this.delegate = AndroidDebugBridge.createBridge(adbLocation.getAbsolutePath(), forceNewBridge);
+        }
+
+        // ddmlib gets the device list in a few milliseconds from a running server
+        long step = probe != null ? FAST_POLL_STEP_MS : SLOW_POLL_STEP_MS;
+        waitUntilConnected(step);
+        // there is nothing to wait for if the server has just told there are no devices
+        if (probe == null || !probe.getDevices().isEmpty()) {
+            waitForInitialDeviceList(step);
+        }
+
+        // devices reported before listener was registered
+        for (IDevice device : delegate.getDevices()) {
+            getWrapper(device);
+        }
     }
 
     public void destroyAndroidDebugBridge() {
@@ -113,16 +249,123 @@ class AndroidBridgeImpl implements AndroidBridge {
     public void disconnect() throws AndroidExecutionException {
         Validate.stateNotNull(delegate, "Android debug bridge must be set. Please call connect() method before execution");
 
+        AndroidDebugBridge.removeDeviceChangeListener(registryUpdater);
         AndroidDebugBridge.disconnectBridge();
         AndroidDebugBridge.terminate();
+        registry.clear();
+
+        if (isPrivateServer()) {
+            restoreServerAddress();
+            stopPrivateServer();
+        }
+    }
+
+    @Override
+    public void addDeviceListener(AndroidDeviceListener listener) {
+        dispatcher.addListener(listener);
+    }
+
+    @Override
+    public void addDeviceListenerBySerialNumber(String serialNumber, AndroidDeviceListener listener) {
+        dispatcher.addListenerBySerialNumber(serialNumber, listener);
+    }
+
+    @Override
+    public void addDeviceListenerByAvdName(String avdName, AndroidDeviceListener listener) {
+        dispatcher.addListenerByAvdName(avdName, listener);
+    }
+
+    @Override
+    public void removeDeviceListener(AndroidDeviceListener listener) {
+        dispatcher.removeListener(listener);
+    }
+
+    private AndroidDevice getWrapper(IDevice device) {
+        AndroidDevice registered = registry.getBySerialNumber(device.getSerialNumber());
+        if (registered instanceof AndroidDeviceImpl && ((AndroidDeviceImpl) registered).getDelegate() == device) {
+            return registered;
+        }
+        return registry.register(new AndroidDeviceImpl(device));
+    }
+
+    private boolean isPrivateServer() {
+        return privateServerPort > 0;
+    }
+
+    /**
+     * Redirects ddmlib to the private adb server. ddmlib reads the server port only from JVM environment and keeps the address
+     * in a static field, so the redirection affects every ddmlib user in the JVM. ddmlib can be initialized only once at a
+     * time and {@link AndroidBridgeHolder} keeps a single bridge, so the address is replaced only while this bridge is
+     * connected and it is restored when the bridge is disconnected.
+     *
+     * @throws AndroidExecutionException if ddmlib cannot be redirected
+     */
+    private void redirectToPrivateServer() throws AndroidExecutionException {
+        InetSocketAddress privateServer = new InetSocketAddress("127.0.0.1", privateServerPort);
+        InetSocketAddress replaced = AndroidDebugBridge.getSocketAddress();
+        try {
+            SecurityActions.setStaticFieldValue(AndroidDebugBridge.class, DDMLIB_SERVER_ADDRESS, privateServer);
+        } catch (IllegalStateException e) {
+            throw new AndroidExecutionException(e, "Unable to redirect ddmlib to private adb server at port {0}, field {1} of "
+                    + "{2} is not available in this ddmlib version. Set \"nativeBridge\" to true to run isolated.",
+                    privateServerPort, DDMLIB_SERVER_ADDRESS, AndroidDebugBridge.class.getName());
+        }
+        if (!privateServer.equals(AndroidDebugBridge.getSocketAddress())) {
+            restore(replaced);
+            throw new AndroidExecutionException("Unable to redirect ddmlib to private adb server at port {0}, this ddmlib "
+                    + "version does not use field {1}. Set \"nativeBridge\" to true to run isolated.", privateServerPort,
+                    DDMLIB_SERVER_ADDRESS);
+        }
+        replacedServerAddress = replaced;
+    }
+
+    private void restoreServerAddress() {
+        if (replacedServerAddress != null) {
+            restore(replacedServerAddress);
+            replacedServerAddress = null;
+        }
+    }
+
+    private static void restore(InetSocketAddress address) {
+        try {
+            SecurityActions.setStaticFieldValue(AndroidDebugBridge.class, DDMLIB_SERVER_ADDRESS, address);
+        } catch (IllegalStateException e) {
+            log.log(Level.WARNING, "Unable to restore address of adb server used by ddmlib to " + address, e);
+        }
+    }
+
+    private void startPrivateServer() throws AndroidExecutionException {
+        log.log(Level.INFO, "Starting private adb server at port {0}", privateServerPort);
+        try {
+            executor.execute(adbLocation.getAbsolutePath(), "-P", String.valueOf(privateServerPort), "start-server");
+        } catch (InterruptedException e) {
+            throw new AndroidExecutionException(e, "Unable to start private adb server at port {0}", privateServerPort);
+        } catch (ExecutionException e) {
+            throw new AndroidExecutionException(e, "Unable to start private adb server at port {0}", privateServerPort);
+        }
+    }
+
+    private void stopPrivateServer() throws AndroidExecutionException {
+        log.log(Level.INFO, "Stopping private adb server at port {0}", privateServerPort);
+        try {
+            executor.execute(adbLocation.getAbsolutePath(), "-P", String.valueOf(privateServerPort), "kill-server");
+        } catch (InterruptedException e) {
+            throw new AndroidExecutionException(e, "Unable to stop private adb server at port {0}", privateServerPort);
+        } catch (ExecutionException e) {
+            throw new AndroidExecutionException(e, "Unable to stop private adb server at port {0}", privateServerPort);
+        }
     }
 
     /**
      * Run a wait loop until adb is connected or trials run out. This method seems to work more reliably then using a listener.
      *
-     * @param adb
+     * @param step polling step in milliseconds
      */
-    private void waitUntilConnected() {
+    private void waitUntilConnected(long step) {
+
+        if (isConnected()) {
+            return;
+        }
 
         try {
             executor.scheduleUntilTrue(new Callable<Boolean>() {
@@ -130,7 +373,7 @@ class AndroidBridgeImpl implements AndroidBridge {
                 public Boolean call() throws Exception {
                     return isConnected();
                 }
-            }, 500, 50, TimeUnit.MILLISECONDS);
+            }, 500, Math.min(step, 50), TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
             log.log(Level.WARNING, "Interupted while waiting for device to be connected", e);
         } catch (ExecutionException e) {
@@ -142,9 +385,9 @@ class AndroidBridgeImpl implements AndroidBridge {
     /**
      * Wait for the Android Debug Bridge to return an initial device list.
      *
-     * @param adb
+     * @param step polling step in milliseconds
      */
-    private void waitForInitialDeviceList() {
+    private void waitForInitialDeviceList(long step) {
 
         if (!delegate.hasInitialDeviceList()) {
             try {
@@ -153,7 +396,7 @@ class AndroidBridgeImpl implements AndroidBridge {
                     public Boolean call() throws Exception {
                         return delegate.hasInitialDeviceList();
                     }
-                }, ADB_TIMEOUT_MS, 1000, TimeUnit.MILLISECONDS);
+                }, ADB_TIMEOUT_MS, step, TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
                 throw new RuntimeException("Interrupted while waiting for initial device list from Android Debug Bridge");
             } catch (ExecutionException e) {
@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import org.jboss.arquillian.android.api.AndroidDeployer;
+import org.jboss.arquillian.android.spi.event.AndroidDeviceReady;
+import org.jboss.arquillian.core.api.InstanceProducer;
+import org.jboss.arquillian.core.api.annotation.Inject;
+import org.jboss.arquillian.core.api.annotation.Observes;
+import org.jboss.arquillian.test.spi.annotation.SuiteScoped;
+
+/**
+ * Creates a deployer for the device tests are executed on
+ *
+ * Observes:
+ * <ul>
+ * <li>{@link AndroidDeviceReady}</li>
+ * </ul>
+ *
+ * Creates:
+ * <ul>
+ * <li>{@link AndroidDeployer}</li>
+ * </ul>
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidDeployerCreator {
+
+    @Inject
+    @SuiteScoped
+    private InstanceProducer<AndroidDeployer> androidDeployer;
+
+    public void createDeployer(@Observes AndroidDeviceReady event, ProcessExecutor executor) {
+        androidDeployer.set(new AndroidDeployerImpl(event.getDevice(), executor));
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.jboss.arquillian.android.api.AndroidDeployer;
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInfo;
+import org.jboss.arquillian.android.configuration.AndroidConfigurationException;
+
+/**
+ * Deploys archives to a device. Packaged APKs are stored in a cache addressed by the content of the archive, the signing
+ * certificate and the signature algorithm, the cache is shared by all test suites. Content of an archive is identified by
+ * names and digests of its entries, so archives which differ only in timestamps or order of entries, as archives exported
+ * by ShrinkWrap in different runs do, share the APK. Installation of an APK which is already installed is skipped by the
+ * device itself, so redeployment of the same archive costs a single digest computation.
+ *
+ * Undeployment is lazy, the application is left installed so it can be reused by a later deployment.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class AndroidDeployerImpl implements AndroidDeployer {
+    private static final Logger log = Logger.getLogger(AndroidDeployerImpl.class.getName());
+
+    private static final String APK_SUFFIX = ".apk";
+
+    private final AndroidDevice device;
+
+    private final ProcessExecutor executor;
+
+    private final File cacheDir;
+
+    private final Map<String, Deployment> deployments = new LinkedHashMap<String, Deployment>();
+
+    // released deployments by digest, their applications are still installed
+    private final Map<String, Deployment> released = new LinkedHashMap<String, Deployment>();
+
+    private ApkSigner signer;
+
+    AndroidDeployerImpl(AndroidDevice device, ProcessExecutor executor) {
+        this(device, executor, new File(System.getProperty("java.io.tmpdir"), "arquillian-android-deployments"));
+    }
+
+    AndroidDeployerImpl(AndroidDevice device, ProcessExecutor executor, File cacheDir) {
+        this.device = device;
+        this.executor = executor;
+        this.cacheDir = cacheDir;
+    }
+
+    @Override
+    public synchronized AndroidPackageInfo deploy(String name, InputStream archive) throws AndroidExecutionException {
+        byte[] data;
+        String digest;
+        try {
+            data = read(archive);
+            digest = contentDigest(data);
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to read deployment {0}", name);
+        }
+
+        Deployment deployment = deployments.get(name);
+        if (deployment != null && deployment.digest.equals(digest)) {
+            return deployment.info;
+        }
+        deployment = released.remove(digest);
+        if (deployment != null) {
+            log.log(Level.FINE, "Deployment {0} reuses {1} installed on device {2}", new Object[] { name,
+                    deployment.info, device.getSerialNumber() });
+            deployments.put(name, deployment);
+            return deployment.info;
+        }
+
+        File apk = getCachedApk(name, digest, data);
+        deployment = new Deployment(digest, ApkManifestReader.read(apk));
+        // released application of the same package is going to be replaced
+        for (Iterator<Deployment> i = released.values().iterator(); i.hasNext();) {
+            if (i.next().info.getPackageName().equals(deployment.info.getPackageName())) {
+                i.remove();
+            }
+        }
+        device.installPackage(apk, true);
+        deployments.put(name, deployment);
+        log.log(Level.INFO, "Deployed {0} as {1} to device {2}", new Object[] { name, deployment.info,
+                device.getSerialNumber() });
+        return deployment.info;
+    }
+
+    @Override
+    public synchronized void undeploy(String name) throws AndroidExecutionException {
+        Deployment deployment = deployments.remove(name);
+        if (deployment == null) {
+            throw new AndroidExecutionException("Deployment {0} is not deployed to device {1}", name,
+                    device.getSerialNumber());
+        }
+        // application is kept on the device, until replaced by another deployment of the same package
+        for (Deployment active : deployments.values()) {
+            if (active.info.getPackageName().equals(deployment.info.getPackageName())) {
+                return;
+            }
+        }
+        released.put(deployment.digest, deployment);
+    }
+
+    @Override
+    public synchronized Map<String, AndroidPackageInfo> getDeployments() {
+        Map<String, AndroidPackageInfo> infos = new LinkedHashMap<String, AndroidPackageInfo>();
+        for (Map.Entry<String, Deployment> entry : deployments.entrySet()) {
+            infos.put(entry.getKey(), entry.getValue().info);
+        }
+        return Collections.unmodifiableMap(infos);
+    }
+
+    private File getCachedApk(String name, String digest, byte[] archive) throws AndroidExecutionException {
+        ApkSigner signer = getSigner();
+        String key;
+        try {
+            key = md5(digest + "\n" + signer.getCertificateDigest() + "\n" + signer.getDigestAlgorithm());
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to compute cache key of deployment {0}", name);
+        }
+        File apk = new File(cacheDir, key + APK_SUFFIX);
+        if (apk.isFile()) {
+            log.log(Level.FINE, "Deployment {0} is already packaged as {1}", new Object[] { name, apk });
+            return apk;
+        }
+
+        cacheDir.mkdirs();
+        // other suites might use the cache concurrently, so the APK is published only when complete
+        File packaged = new File(cacheDir, key + "." + System.nanoTime() + ".tmp");
+        new ApkPackager(signer, executor).pack(new ByteArrayInputStream(archive), packaged);
+        if (!packaged.renameTo(apk) && !apk.isFile()) {
+            packaged.delete();
+            throw new AndroidExecutionException("Unable to store APK of deployment {0} to {1}", name, apk);
+        }
+        packaged.delete();
+        return apk;
+    }
+
+    private ApkSigner getSigner() throws AndroidExecutionException {
+        if (signer == null) {
+            try {
+                signer = ApkSigner.debugKey(executor.getEnvironment(), getApiLevel());
+            } catch (AndroidConfigurationException e) {
+                throw new AndroidExecutionException(e, "Unable to sign deployments for device {0}",
+                        device.getSerialNumber());
+            }
+        }
+        return signer;
+    }
+
+    private int getApiLevel() {
+        try {
+            return device.getPropertySnapshot().getApiLevel();
+        } catch (AndroidExecutionException e) {
+            log.log(Level.FINE, "Unable to get API level of " + device.getSerialNumber(), e);
+            return 0;
+        }
+    }
+
+    // entries are sorted by name, the packager skips directories and old signatures, so they are skipped here as well
+    private static String contentDigest(byte[] archive) throws IOException {
+        Map<String, String> entries = new TreeMap<String, String>();
+        ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive));
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (entry.isDirectory() || ApkSigner.isSignatureEntry(name) || entries.containsKey(name)) {
+                continue;
+            }
+            // compression method decides whether the entry is stored in the APK
+            entries.put(name, entry.getMethod() + ":" + FileDigests.md5(in));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            sb.append(e.getKey()).append('\0').append(e.getValue()).append('\n');
+        }
+        return md5(sb.toString());
+    }
+
+    private static String md5(String text) throws IOException {
+        return FileDigests.md5(new ByteArrayInputStream(text.getBytes("UTF-8")));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static class Deployment {
+        final String digest;
+        final AndroidPackageInfo info;
+
+        Deployment(String digest, AndroidPackageInfo info) {
+            this.digest = digest;
+            this.info = info;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
+
+/**
+ * Dispatches device changes reported by a bridge to listeners. Listeners are registered either for all devices, for a
+ * serial number or for an AVD name, so a change of a device is delivered only to listeners interested in the device. Reads
+ * are lock free, listeners are expected to be registered rarely compared to the number of changes.
+ *
+ * Resolving the AVD name of an emulator might ask its console, so listeners by AVD name are not notified by the thread
+ * reporting the change. Their changes are queued and published in the same order by a task of the bridge executor.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class AndroidDeviceDispatcher {
+    private static final Logger log = Logger.getLogger(AndroidDeviceDispatcher.class.getName());
+
+    private enum Change {
+        CONNECTED, CHANGED, DISCONNECTED
+    }
+
+    private final AndroidDeviceRegistry registry;
+
+    private final ProcessExecutor executor;
+
+    private final Queue<Runnable> avdNameChanges = new ConcurrentLinkedQueue<Runnable>();
+
+    private final AtomicBoolean publishing = new AtomicBoolean();
+
+    // serial number -> AVD name a device was published with, a disconnected device is no longer in the registry
+    private final ConcurrentMap<String, String> publishedAvdNames = new ConcurrentHashMap<String, String>();
+
+    private final List<AndroidDeviceListener> listeners = new CopyOnWriteArrayList<AndroidDeviceListener>();
+
+    private final ConcurrentMap<String, List<AndroidDeviceListener>> bySerialNumber = new ConcurrentHashMap<String, List<AndroidDeviceListener>>();
+
+    private final ConcurrentMap<String, List<AndroidDeviceListener>> byAvdName = new ConcurrentHashMap<String, List<AndroidDeviceListener>>();
+
+    AndroidDeviceDispatcher(AndroidDeviceRegistry registry, ProcessExecutor executor) {
+        this.registry = registry;
+        this.executor = executor;
+    }
+
+    void addListener(AndroidDeviceListener listener) {
+        listeners.add(listener);
+    }
+
+    void addListenerBySerialNumber(String serialNumber, AndroidDeviceListener listener) {
+        getListeners(bySerialNumber, serialNumber).add(listener);
+    }
+
+    void addListenerByAvdName(String avdName, AndroidDeviceListener listener) {
+        getListeners(byAvdName, avdName).add(listener);
+    }
+
+    void removeListener(AndroidDeviceListener listener) {
+        listeners.remove(listener);
+        for (List<AndroidDeviceListener> list : bySerialNumber.values()) {
+            list.remove(listener);
+        }
+        for (List<AndroidDeviceListener> list : byAvdName.values()) {
+            list.remove(listener);
+        }
+    }
+
+    void deviceConnected(AndroidDevice device) {
+        dispatch(Change.CONNECTED, device, null);
+    }
+
+    void deviceChanged(AndroidDevice device) {
+        dispatch(Change.CHANGED, device, null);
+    }
+
+    /**
+     * Dispatches disconnection of a device, which is no longer registered
+     *
+     * @param device the device
+     * @param avdName AVD name of the device as known before disconnection, might be {@code null}
+     */
+    void deviceDisconnected(AndroidDevice device, String avdName) {
+        dispatch(Change.DISCONNECTED, device, avdName);
+    }
+
+    private void dispatch(final Change change, final AndroidDevice device, final String avdName) {
+        notify(listeners, change, device);
+        notify(bySerialNumber.get(device.getSerialNumber()), change, device);
+
+        // AVD name is resolved only if somebody is interested
+        if (!byAvdName.isEmpty() && device.isEmulator()) {
+            avdNameChanges.add(new Runnable() {
+                @Override
+                public void run() {
+                    String name;
+                    if (change == Change.DISCONNECTED) {
+                        name = publishedAvdNames.remove(device.getSerialNumber());
+                        if (name == null) {
+                            name = avdName;
+                        }
+                    } else {
+                        name = publishedAvdNames.get(device.getSerialNumber());
+                        if (name == null) {
+                            name = registry.resolveAvdName(device);
+                        }
+                        if (name != null) {
+                            publishedAvdNames.put(device.getSerialNumber(), name);
+                        }
+                    }
+                    if (name != null) {
+                        AndroidDeviceDispatcher.this.notify(byAvdName.get(name), change, device);
+                    }
+                }
+            });
+            publish();
+        }
+    }
+
+    // a single publisher drains the queue, so changes are delivered in the order they were reported
+    private void publish() {
+        if (!publishing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        Runnable change;
+                        while ((change = avdNameChanges.poll()) != null) {
+                            change.run();
+                        }
+                    } finally {
+                        publishing.set(false);
+                    }
+                    // a change might have been queued after the queue was drained
+                    if (!avdNameChanges.isEmpty()) {
+                        publish();
+                    }
+                    return null;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // bridge was terminated, nobody waits for its changes
+            publishing.set(false);
+            avdNameChanges.clear();
+            log.log(Level.FINE, "Dropping changes of devices for listeners by AVD name, bridge executor was shut down", e);
+        }
+    }
+
+    private void notify(List<AndroidDeviceListener> listeners, Change change, AndroidDevice device) {
+        if (listeners == null) {
+            return;
+        }
+        for (AndroidDeviceListener listener : listeners) {
+            try {
+                switch (change) {
+                    case CONNECTED:
+                        listener.deviceConnected(device);
+                        break;
+                    case CHANGED:
+                        listener.deviceChanged(device);
+                        break;
+                    case DISCONNECTED:
+                        listener.deviceDisconnected(device);
+                        break;
+                }
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Listener " + listener + " failed to process change of " + device.getSerialNumber(), e);
+            }
+        }
+    }
+
+    private static List<AndroidDeviceListener> getListeners(ConcurrentMap<String, List<AndroidDeviceListener>> map, String key) {
+        List<AndroidDeviceListener> list = map.get(key);
+        if (list == null) {
+            List<AndroidDeviceListener> created = new CopyOnWriteArrayList<AndroidDeviceListener>();
+            list = map.putIfAbsent(key, created);
+            if (list == null) {
+                list = created;
+            }
+        }
+        return list;
+    }
+}
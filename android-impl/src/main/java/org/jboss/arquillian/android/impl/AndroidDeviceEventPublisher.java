@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.jboss.arquillian.android.api.AndroidBridge;
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
+import org.jboss.arquillian.android.spi.event.AndroidBridgeInitialized;
+import org.jboss.arquillian.android.spi.event.AndroidDeviceConnected;
+import org.jboss.arquillian.android.spi.event.AndroidDeviceDisconnected;
+import org.jboss.arquillian.android.spi.event.AndroidDeviceShutdown;
+import org.jboss.arquillian.core.api.Event;
+import org.jboss.arquillian.core.api.annotation.Inject;
+import org.jboss.arquillian.core.api.annotation.Observes;
+import org.jboss.arquillian.test.spi.event.suite.After;
+import org.jboss.arquillian.test.spi.event.suite.Before;
+
+/**
+ * Publishes devices connected to or disconnected from Android Debug Bridge as Arquillian events. Bridge reports changes
+ * from its own threads, while Arquillian contexts are bound to the thread running the tests, so changes are queued and
+ * the events are fired before and after each test and when the device is shut down.
+ *
+ * Observes:
+ * <ul>
+ * <li>{@link AndroidBridgeInitialized}</li>
+ * <li>{@link Before}</li>
+ * <li>{@link After}</li>
+ * <li>{@link AndroidDeviceShutdown}</li>
+ * </ul>
+ *
+ * Fires:
+ * <ul>
+ * <li>{@link AndroidDeviceConnected}</li>
+ * <li>{@link AndroidDeviceDisconnected}</li>
+ * </ul>
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidDeviceEventPublisher {
+
+    @Inject
+    private Event<AndroidDeviceConnected> androidDeviceConnected;
+
+    @Inject
+    private Event<AndroidDeviceDisconnected> androidDeviceDisconnected;
+
+    private final Queue<Object> changes = new ConcurrentLinkedQueue<Object>();
+
+    private final AndroidDeviceListener listener = new AndroidDeviceListener() {
+        @Override
+        public void deviceConnected(AndroidDevice device) {
+            changes.add(new AndroidDeviceConnected(device));
+        }
+
+        @Override
+        public void deviceChanged(AndroidDevice device) {
+        }
+
+        @Override
+        public void deviceDisconnected(AndroidDevice device) {
+            changes.add(new AndroidDeviceDisconnected(device));
+        }
+    };
+
+    public void subscribe(@Observes AndroidBridgeInitialized event) {
+        event.getBridge().addDeviceListener(listener);
+    }
+
+    public void publishBefore(@Observes Before event) {
+        publish();
+    }
+
+    public void publishAfter(@Observes After event) {
+        publish();
+    }
+
+    public void unsubscribe(@Observes AndroidDeviceShutdown event, AndroidBridge bridge) {
+        bridge.removeDeviceListener(listener);
+        publish();
+    }
+
+    private void publish() {
+        Object change;
+        while ((change = changes.poll()) != null) {
+            if (change instanceof AndroidDeviceConnected) {
+                androidDeviceConnected.fire((AndroidDeviceConnected) change);
+            } else {
+                androidDeviceDisconnected.fire((AndroidDeviceDisconnected) change);
+            }
+        }
+    }
+}
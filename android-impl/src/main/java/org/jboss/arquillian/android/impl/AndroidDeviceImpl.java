@@ -18,19 +18,33 @@ package org.jboss.arquillian.android.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jboss.arquillian.android.api.AndroidDevice;
 import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
+import org.jboss.arquillian.android.api.AndroidDeviceProperties;
 import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInfo;
+import org.jboss.arquillian.android.api.AndroidPortForwarding;
+import org.jboss.arquillian.android.api.AndroidShellResult;
+import org.jboss.arquillian.android.api.AndroidTransferListener;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
 
 import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.InstallException;
 import com.android.ddmlib.MultiLineReceiver;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.SyncService;
 import com.android.ddmlib.TimeoutException;
 
 /**
@@ -45,8 +59,27 @@ class AndroidDeviceImpl implements AndroidDevice {
 
     private IDevice delegate;
 
+    private final DevicePropertyCache propertyCache = new DevicePropertyCache(this);
+
+    private final InstalledPackageIndex packageIndex;
+
+    private final DeltaPackageInstaller deltaInstaller;
+
+    private final StreamedPackageInstaller streamedInstaller;
+
+    private final PortForwardingManager portForwardings;
+
     AndroidDeviceImpl(IDevice delegate) {
         this.delegate = delegate;
+        this.packageIndex = new InstalledPackageIndex(this, AndroidDebugBridge.getSocketAddress());
+        this.deltaInstaller = new DeltaPackageInstaller(this, packageIndex);
+        this.streamedInstaller = new StreamedPackageInstaller(AndroidDebugBridge.getSocketAddress(), this);
+        this.portForwardings = new PortForwardingManager(AndroidDebugBridge.getSocketAddress(),
+                delegate.getSerialNumber());
+    }
+
+    IDevice getDelegate() {
+        return delegate;
     }
 
     @Override
@@ -61,20 +94,25 @@ class AndroidDeviceImpl implements AndroidDevice {
 
     @Override
     public Map<String, String> getProperties() {
-        return delegate.getProperties();
+        if (isOnline()) {
+            try {
+                return propertyCache.get().asMap();
+            } catch (AndroidExecutionException e) {
+                log.log(Level.WARNING, "Unable to get properties of device " + getSerialNumber(), e);
+            }
+        }
+        AndroidDeviceProperties snapshot = propertyCache.peek();
+        return snapshot == null ? Collections.<String, String> emptyMap() : snapshot.asMap();
     }
 
     @Override
     public String getProperty(String name) throws IOException, AndroidExecutionException {
-        try {
-            return delegate.getPropertyCacheOrSync(name);
-        } catch (TimeoutException e) {
-            throw new AndroidExecutionException("Unable to get property '" + name + "' value in given timeout", e);
-        } catch (AdbCommandRejectedException e) {
-            throw new AndroidExecutionException("Unable to get property '" + name + "' value, command was rejected", e);
-        } catch (ShellCommandUnresponsiveException e) {
-            throw new AndroidExecutionException("Unable to get property '" + name + "' value, shell is not responsive", e);
-        }
+        return propertyCache.get().get(name);
+    }
+
+    @Override
+    public AndroidDeviceProperties getPropertySnapshot() throws AndroidExecutionException {
+        return propertyCache.get();
     }
 
     @Override
@@ -130,6 +168,126 @@ class AndroidDeviceImpl implements AndroidDevice {
 
     }
 
+    @Override
+    public AndroidTransferStatistics executeRawShellCommand(String command, WritableByteChannel output)
+            throws AndroidExecutionException {
+        // ddmlib runs commands by shell service, which allocates a pty and so alters binary output
+        return RawShellOutput.toChannel(AndroidDebugBridge.getSocketAddress(), getSerialNumber(), command, output);
+    }
+
+    @Override
+    public AndroidTransferStatistics executeRawShellCommand(String command, File output) throws AndroidExecutionException {
+        return RawShellOutput.toFile(this, command, output);
+    }
+
+    @Override
+    public List<AndroidShellResult> executeShellCommands(List<String> commands, boolean failFast)
+            throws AndroidExecutionException {
+        return new ShellBatch(commands, failFast).execute(this);
+    }
+
+    @Override
+    public AndroidTransferStatistics pushFiles(Map<File, String> files, AndroidTransferListener listener)
+            throws AndroidExecutionException {
+        long start = System.nanoTime();
+        // ddmlib does not expose remote file attributes, so unchanged files are recognized by their content only
+        Set<String> same = FileDigests.findSameContent(this, files);
+        SyncService sync = openSyncService();
+        long bytes = 0;
+        int count = 0;
+        try {
+            for (Map.Entry<File, String> entry : files.entrySet()) {
+                String remotePath = entry.getValue();
+                if (same.contains(remotePath)) {
+                    if (listener != null) {
+                        listener.fileSkipped(this, remotePath);
+                    }
+                    continue;
+                }
+                sync.pushFile(entry.getKey().getAbsolutePath(), remotePath, SyncService.getNullProgressMonitor());
+                bytes += entry.getKey().length();
+                count++;
+                if (listener != null) {
+                    listener.fileTransferred(this, remotePath, entry.getKey().length());
+                }
+            }
+        } catch (SyncException e) {
+            throw new AndroidExecutionException(e, "Unable to push files to {0}", getSerialNumber());
+        } catch (TimeoutException e) {
+            throw new AndroidExecutionException(e, "Unable to push files to {0} within given timeout", getSerialNumber());
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to push files to {0}", getSerialNumber());
+        } finally {
+            sync.close();
+        }
+        return new AndroidTransferStatistics(bytes, System.nanoTime() - start, count, same.size());
+    }
+
+    @Override
+    public AndroidTransferStatistics pullFiles(Map<String, File> files, AndroidTransferListener listener)
+            throws AndroidExecutionException {
+        long start = System.nanoTime();
+        Map<File, String> existing = new LinkedHashMap<File, String>();
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            if (entry.getValue().isFile()) {
+                existing.put(entry.getValue(), entry.getKey());
+            }
+        }
+        Set<String> same = FileDigests.findSameContent(this, existing);
+        SyncService sync = openSyncService();
+        long bytes = 0;
+        int count = 0;
+        try {
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                String remotePath = entry.getKey();
+                if (same.contains(remotePath)) {
+                    if (listener != null) {
+                        listener.fileSkipped(this, remotePath);
+                    }
+                    continue;
+                }
+                File parent = entry.getValue().getAbsoluteFile().getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                    throw new AndroidExecutionException("Unable to create directory {0}", parent);
+                }
+                sync.pullFile(remotePath, entry.getValue().getAbsolutePath(), SyncService.getNullProgressMonitor());
+                bytes += entry.getValue().length();
+                count++;
+                if (listener != null) {
+                    listener.fileTransferred(this, remotePath, entry.getValue().length());
+                }
+            }
+        } catch (SyncException e) {
+            throw new AndroidExecutionException(e, "Unable to pull files from {0}", getSerialNumber());
+        } catch (TimeoutException e) {
+            throw new AndroidExecutionException(e, "Unable to pull files from {0} within given timeout", getSerialNumber());
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to pull files from {0}", getSerialNumber());
+        } finally {
+            sync.close();
+        }
+        return new AndroidTransferStatistics(bytes, System.nanoTime() - start, count, same.size());
+    }
+
+    private SyncService openSyncService() throws AndroidExecutionException {
+        try {
+            SyncService sync = delegate.getSyncService();
+            // ddmlib returns no service if the device refused to start it
+            if (sync == null) {
+                throw new AndroidExecutionException("Unable to open sync connection to {0}", getSerialNumber());
+            }
+            return sync;
+        } catch (TimeoutException e) {
+            throw new AndroidExecutionException(e, "Unable to open sync connection to {0} within given timeout",
+                    getSerialNumber());
+        } catch (AdbCommandRejectedException e) {
+            throw new AndroidExecutionException(e, "Unable to open sync connection to {0}, command was rejected",
+                    getSerialNumber());
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to open sync connection to {0}", getSerialNumber());
+        }
+    }
+
     @Override
     public void createPortForwarding(int localPort, int remotePort) throws AndroidExecutionException {
         try {
@@ -162,21 +320,67 @@ class AndroidDeviceImpl implements AndroidDevice {
         }
     }
 
+    @Override
+    public AndroidPortForwarding forwardPort(int localPort, String remoteSocket) throws AndroidExecutionException {
+        return portForwardings.forward(localPort, remoteSocket);
+    }
+
+    @Override
+    public void removePortForwardings() throws AndroidExecutionException {
+        portForwardings.removeAll();
+    }
+
     @Override
     public void installPackage(File packageFilePath, boolean reinstall, String... extraArgs) throws AndroidExecutionException {
         Validate.isReadable(packageFilePath, "File " + packageFilePath + " must represent a readable APK file");
+        // extra arguments might require installation of an already installed package, e.g. to grant permissions
+        InstalledPackageIndex.Entry installed = extraArgs.length == 0 ? packageIndex.find(packageFilePath) : null;
+        if (installed != null) {
+            log.log(Level.INFO, "Package {0} from {1} is already installed on {2}, installation skipped", new Object[] {
+                    installed.packageName, packageFilePath.getName(), getSerialNumber() });
+            return;
+        }
+        if (reinstall && deltaInstaller.install(packageFilePath, extraArgs)) {
+            return;
+        }
+        if (streamedInstaller.isSupported()) {
+            streamedInstaller.install(Collections.singletonList(packageFilePath), reinstall, extraArgs);
+            deltaInstaller.installed(packageFilePath);
+            return;
+        }
+
         try {
             String retval = delegate.installPackage(packageFilePath.getAbsolutePath(), reinstall, extraArgs);
             if (retval != null) {
                 throw new AndroidExecutionException("Unable to install APK from " + packageFilePath.getAbsolutePath()
                         + ". Command failed with status code: " + retval);
             }
+            deltaInstaller.installed(packageFilePath);
         } catch (InstallException e) {
             throw new AndroidExecutionException("Unable to install APK from " + packageFilePath.getAbsolutePath(), e);
         }
 
     }
 
+    @Override
+    public void installPackages(List<File> packageFilePaths, boolean reinstall, String... extraArgs)
+            throws AndroidExecutionException {
+        if (packageFilePaths.size() == 1) {
+            installPackage(packageFilePaths.get(0), reinstall, extraArgs);
+            return;
+        }
+        if (!streamedInstaller.isSupported()) {
+            throw new AndroidExecutionException("Unable to install split APKs {0}, device {1} requires API level {2}",
+                    packageFilePaths, getSerialNumber(), StreamedPackageInstaller.MINIMAL_API_LEVEL);
+        }
+        streamedInstaller.install(packageFilePaths, reinstall, extraArgs);
+    }
+
+    @Override
+    public AndroidPackageInfo getPackageInfo(File packageFilePath) throws AndroidExecutionException {
+        return ApkManifestReader.read(packageFilePath);
+    }
+
     @Override
     public void uninstallPackage(String packageName) throws AndroidExecutionException {
         try {
@@ -206,5 +410,4 @@ class AndroidDeviceImpl implements AndroidDevice {
         }
 
     }
-
 }
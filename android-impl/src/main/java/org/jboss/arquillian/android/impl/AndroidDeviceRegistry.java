@@ -0,0 +1,204 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+
+/**
+ * Registry of devices connected to a bridge. Devices are indexed by serial number and by AVD name, the index is an immutable
+ * snapshot which is replaced on every change, so lookups and listing never lock nor copy. AVD names are resolved lazily and
+ * only once per device, as this might require a round trip to emulator console.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class AndroidDeviceRegistry {
+
+    private volatile Snapshot snapshot = new Snapshot(new LinkedHashMap<String, AndroidDevice>(),
+            new HashMap<String, String>());
+
+    /**
+     * Returns all registered devices
+     *
+     * @return immutable snapshot of devices
+     */
+    List<AndroidDevice> getDevices() {
+        return snapshot.devices;
+    }
+
+    /**
+     * Returns device by serial number
+     *
+     * @param serialNumber the serial number
+     * @return the device or {@code null} if no such device is registered
+     */
+    AndroidDevice getBySerialNumber(String serialNumber) {
+        return serialNumber == null ? null : snapshot.bySerial.get(serialNumber);
+    }
+
+    /**
+     * Returns emulator by its AVD name
+     *
+     * @param avdName the name of Android Virtual Device
+     * @return the device or {@code null} if no such emulator is registered
+     */
+    AndroidDevice getByAvdName(String avdName) {
+        if (avdName == null) {
+            return null;
+        }
+        Snapshot current = snapshot;
+        AndroidDevice device = current.byAvdName.get(avdName);
+        if (device == null && current.hasUnresolvedEmulators()) {
+            return resolveAvdNames().byAvdName.get(avdName);
+        }
+        return device;
+    }
+
+    /**
+     * Returns AVD name of a registered emulator. The name is asked for only if it was not resolved yet.
+     *
+     * @param device the device
+     * @return the name or {@code null} if device is not an emulator or it is not able to tell its name
+     */
+    String resolveAvdName(AndroidDevice device) {
+        String avdName = snapshot.avdNames.get(device.getSerialNumber());
+        if (avdName != null || !device.isEmulator()) {
+            return avdName;
+        }
+        avdName = device.getAvdName();
+        if (avdName != null) {
+            synchronized (this) {
+                // device might have been replaced in the meantime
+                if (snapshot.bySerial.get(device.getSerialNumber()) == device) {
+                    Map<String, String> avdNames = new HashMap<String, String>(snapshot.avdNames);
+                    avdNames.put(device.getSerialNumber(), avdName);
+                    snapshot = new Snapshot(snapshot.bySerial, avdNames);
+                }
+            }
+        }
+        return avdName;
+    }
+
+    /**
+     * Returns AVD name of a device if it was already resolved
+     *
+     * @param serialNumber serial number of the device
+     * @return the name or {@code null} if not known
+     */
+    String getResolvedAvdName(String serialNumber) {
+        return snapshot.avdNames.get(serialNumber);
+    }
+
+    /**
+     * Registers a device, replacing any device with the same serial number
+     *
+     * @param device the device
+     * @return the device
+     */
+    synchronized AndroidDevice register(AndroidDevice device) {
+        Map<String, AndroidDevice> devices = new LinkedHashMap<String, AndroidDevice>(snapshot.bySerial);
+        Map<String, String> avdNames = new HashMap<String, String>(snapshot.avdNames);
+        devices.put(device.getSerialNumber(), device);
+        avdNames.remove(device.getSerialNumber());
+        snapshot = new Snapshot(devices, avdNames);
+        return device;
+    }
+
+    /**
+     * Removes a device
+     *
+     * @param serialNumber serial number of the device
+     * @return removed device or {@code null} if no such device was registered
+     */
+    synchronized AndroidDevice unregister(String serialNumber) {
+        if (!snapshot.bySerial.containsKey(serialNumber)) {
+            return null;
+        }
+        Map<String, AndroidDevice> devices = new LinkedHashMap<String, AndroidDevice>(snapshot.bySerial);
+        Map<String, String> avdNames = new HashMap<String, String>(snapshot.avdNames);
+        AndroidDevice removed = devices.remove(serialNumber);
+        avdNames.remove(serialNumber);
+        snapshot = new Snapshot(devices, avdNames);
+        return removed;
+    }
+
+    /**
+     * Removes all devices
+     */
+    synchronized void clear() {
+        snapshot = new Snapshot(new LinkedHashMap<String, AndroidDevice>(), new HashMap<String, String>());
+    }
+
+    private synchronized Snapshot resolveAvdNames() {
+        Map<String, String> avdNames = new HashMap<String, String>(snapshot.avdNames);
+        boolean resolved = false;
+        for (AndroidDevice device : snapshot.devices) {
+            if (device.isEmulator() && !avdNames.containsKey(device.getSerialNumber())) {
+                String avdName = device.getAvdName();
+                // emulator might not be able to tell its name yet, it will be asked again on next miss
+                if (avdName != null) {
+                    avdNames.put(device.getSerialNumber(), avdName);
+                    resolved = true;
+                }
+            }
+        }
+        if (resolved) {
+            snapshot = new Snapshot(snapshot.bySerial, avdNames);
+        }
+        return snapshot;
+    }
+
+    private static class Snapshot {
+        private final List<AndroidDevice> devices;
+        private final Map<String, AndroidDevice> bySerial;
+        private final Map<String, AndroidDevice> byAvdName;
+        private final Map<String, String> avdNames;
+        private final boolean unresolvedEmulators;
+
+        Snapshot(Map<String, AndroidDevice> bySerial, Map<String, String> avdNames) {
+            this.bySerial = Collections.unmodifiableMap(bySerial);
+            this.avdNames = Collections.unmodifiableMap(avdNames);
+            this.devices = Collections.unmodifiableList(new ArrayList<AndroidDevice>(bySerial.values()));
+
+            Map<String, AndroidDevice> byAvdName = new HashMap<String, AndroidDevice>();
+            for (Map.Entry<String, String> avdName : avdNames.entrySet()) {
+                byAvdName.put(avdName.getValue(), bySerial.get(avdName.getKey()));
+            }
+            this.byAvdName = Collections.unmodifiableMap(byAvdName);
+
+            boolean unresolved = false;
+            for (AndroidDevice device : devices) {
+                if (device.isEmulator() && !avdNames.containsKey(device.getSerialNumber())) {
+                    unresolved = true;
+                    break;
+                }
+            }
+            this.unresolvedEmulators = unresolved;
+        }
+
+        boolean hasUnresolvedEmulators() {
+            return unresolvedEmulators;
+        }
+    }
+}
@@ -16,17 +16,9 @@
  */
 package org.jboss.arquillian.android.impl;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.io.File;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.jboss.arquillian.android.api.AndroidBridge;
 import org.jboss.arquillian.android.api.AndroidDevice;
@@ -36,9 +28,11 @@ import org.jboss.arquillian.android.configuration.AndroidExtensionConfiguration;
 import org.jboss.arquillian.android.configuration.AndroidSdk;
 import org.jboss.arquillian.android.spi.event.AndroidBridgeInitialized;
 import org.jboss.arquillian.android.spi.event.AndroidDeviceReady;
+import org.jboss.arquillian.android.spi.event.AndroidDeviceShutdown;
 import org.jboss.arquillian.android.spi.event.AndroidVirtualDeviceAvailable;
 import org.jboss.arquillian.android.spi.event.AndroidVirtualDeviceCreated;
 import org.jboss.arquillian.core.api.Event;
+import org.jboss.arquillian.core.api.Instance;
 import org.jboss.arquillian.core.api.InstanceProducer;
 import org.jboss.arquillian.core.api.annotation.Inject;
 import org.jboss.arquillian.core.api.annotation.Observes;
@@ -46,11 +40,15 @@ import org.jboss.arquillian.test.spi.annotation.SuiteScoped;
 
 /**
  * Select either a real device or virtual device for execution. If a real device is specified via its serial number, it will
- * check if it is connected, otherwise it will use an virtual device.
+ * check if it is connected, otherwise it will use an virtual device. Virtual device might be restored from a bundle, which
+ * is exported after the device is shut down if it does not exist yet. If device matching is enabled, any connected device
+ * with required API level and ABI is preferred to a virtual device. Devices are matched using capabilities recorded in
+ * {@link DeviceCapabilityInventory}, which is refreshed only if device matching is enabled.
  *
  * Observes:
  * <ul>
  * <li>{@link AndroidBridgeInitialized}</li>
+ * <li>{@link AndroidDeviceShutdown}</li>
  * </ul>
  *
  * Creates:
@@ -75,6 +73,12 @@ public class AndroidDeviceSelector {
     @SuiteScoped
     private InstanceProducer<AndroidDevice> androidDevice;
 
+    @Inject
+    private Instance<AndroidImageStore> imageStore;
+
+    @Inject
+    private Instance<DeviceCapabilityInventory> deviceInventory;
+
     @Inject
     private Event<AndroidVirtualDeviceCreated> avdCreated;
 
@@ -84,10 +88,9 @@ public class AndroidDeviceSelector {
     @Inject
     private Event<AndroidDeviceReady> androidDeviceReady;
 
-    @SuppressWarnings("serial")
     public void getOrCreateAndroidDevice(@Observes AndroidBridgeInitialized event, ProcessExecutor executor,
-            AndroidExtensionConfiguration configuration, AndroidSdk sdk) throws AndroidConfigurationException,
-            AndroidExecutionException {
+            AndroidExtensionConfiguration configuration, AndroidSdk sdk, AndroidVirtualDeviceInventory inventory)
+            throws AndroidConfigurationException, AndroidExecutionException {
 
         String avdName = configuration.getAvdName();
         String serialId = configuration.getSerialId();
@@ -95,39 +98,44 @@ public class AndroidDeviceSelector {
 
         // get priority for device specified by serialId if such device is connected
         AndroidDevice device = checkIfRealDeviceIsConnected(bridge, serialId);
+        // remote devices are leased instead, so they are not shared with other suites
+        if (device == null && configuration.isMatchDevice() && !(bridge instanceof RemoteAndroidBridge)) {
+            device = findMatchingDevice(bridge, deviceInventory.get(), configuration, executor);
+        }
+        // otherwise take any device available at remote adb endpoints
+        if (device == null && bridge instanceof RemoteAndroidBridge) {
+            device = leaseRemoteDevice((RemoteAndroidBridge) bridge, avdName);
+        }
         if (device != null) {
             androidDevice.set(device);
             androidDeviceReady.fire(new AndroidDeviceReady(device));
             return;
         }
 
-        Set<String> devices = getAvdDeviceNames(executor, sdk);
-
         // check out avd availability
-        if (!devices.contains(avdName) || configuration.isForce()) {
+        if (!inventory.contains(avdName) || configuration.isForce()) {
             if (log.isLoggable(Level.FINE)) {
                 log.fine("Creating an Android virtual device named " + avdName);
             }
 
-            Validate.notNullOrEmpty(configuration.getSdSize(), "Memory SD card size must be defined");
-
-            try {
-                List<String> args = new ArrayList<String>(Arrays.asList(sdk.getAndroidPath(), "create", "avd", "-n", avdName, "-t", "android-" + configuration.getApiLevel(), "-f",
-                        "-p", avdName, "-c", configuration.getSdSize()));
-                if (configuration.getAbi() != null) {
-                    args.add("--abi");
-                    args.add(configuration.getAbi());
-                }
-                String[] argsArrays = new String[args.size()];
-                executor.execute(new HashMap<String, String>() {
-                    {
-                        put("Do you wish to create a custom hardware profile [no]", "no\n");
-                    }
-                }, args.toArray(argsArrays));
-            } catch (InterruptedException e) {
-                throw new AndroidExecutionException("Unable to create a new AVD Device", e);
-            } catch (ExecutionException e) {
-                throw new AndroidExecutionException("Unable to create a new AVD Device", e);
+            AndroidVirtualDeviceCreator creator = new AndroidVirtualDeviceCreator(sdk, executor, inventory,
+                    imageStore.get());
+            // devices are stored in ${basedir}/${avdName}
+            File path = new File(avdName).getAbsoluteFile();
+
+            String templateName = configuration.getAvdTemplate();
+            File bundle = getBundle(configuration);
+            if (bundle != null && bundle.isFile()) {
+                log.info("Restoring Android virtual device " + avdName + " from " + bundle.getAbsolutePath());
+                creator.restore(bundle, avdName, path);
+            } else if (templateName != null) {
+                AndroidVirtualDevice template = inventory.getDevice(templateName);
+                Validate.notNull(template, "Android virtual device template " + templateName + " does not exist in "
+                        + inventory.getAvdHome());
+                creator.cloneFrom(template, avdName, path);
+            } else {
+                Validate.notNullOrEmpty(configuration.getSdSize(), "Memory SD card size must be defined");
+                creator.create(avdName, path, configuration.getApiLevel(), configuration.getAbi(), configuration.getSdSize());
             }
 
             log.info("Android virtual device " + avdName + " was created");
@@ -141,54 +149,89 @@ public class AndroidDeviceSelector {
 
     }
 
-    private AndroidDevice checkIfRealDeviceIsConnected(AndroidBridge bridge, String serialId) {
-        // no serialId was specified
-        if (serialId == null || serialId.trim().isEmpty()) {
-            return null;
+    public void exportAndroidVirtualDevice(@Observes AndroidDeviceShutdown event, ProcessExecutor executor,
+            AndroidExtensionConfiguration configuration, AndroidSdk sdk, AndroidVirtualDeviceInventory inventory)
+            throws AndroidExecutionException {
+
+        File bundle = getBundle(configuration);
+        AndroidDevice device = event.getDevice();
+        String avdName = configuration.getAvdName();
+        // bundle is exported only once, it is not updated by later runs, a device selected by serial id is not exported
+        if (bundle == null || bundle.exists() || avdName == null || !device.isEmulator()
+                || !avdName.equals(device.getAvdName())) {
+            return;
         }
 
-        for (AndroidDevice device : bridge.getDevices()) {
-            if (serialId.equals(device.getSerialNumber())) {
-                return device;
-            }
+        AndroidVirtualDevice avd = inventory.getDevice(avdName);
+        if (avd == null) {
+            log.warning("Android virtual device " + avdName + " was not found, it will not be exported");
+            return;
         }
 
-        log.warning("SerialId " + serialId
-                + " was specified, however no such device was connected. Trying to connect to an emulator instead.");
+        log.info("Exporting Android virtual device " + avd.getName() + " to " + bundle.getAbsolutePath());
+        new AndroidVirtualDeviceCreator(sdk, executor, inventory).exportTo(avd, bundle);
+    }
 
-        return null;
+    public void releaseAndroidDevice(@Observes AndroidDeviceShutdown event, AndroidBridge bridge) {
+        if (bridge instanceof RemoteAndroidBridge) {
+            ((RemoteAndroidBridge) bridge).release(event.getDevice());
+        }
+    }
 
+    private AndroidDevice leaseRemoteDevice(RemoteAndroidBridge bridge, String avdName) throws AndroidExecutionException {
+        AndroidDevice device = bridge.lease();
+        if (device != null) {
+            log.info("Using device " + device.getSerialNumber() + " available at remote adb endpoints");
+        } else if (avdName == null) {
+            throw new AndroidExecutionException("No device is available at adb endpoints {0}", bridge.getEndpoints());
+        }
+        return device;
     }
 
-    private Set<String> getAvdDeviceNames(ProcessExecutor executor, AndroidSdk sdk) throws AndroidExecutionException {
+    private AndroidDevice findMatchingDevice(AndroidBridge bridge, DeviceCapabilityInventory capabilities,
+            AndroidExtensionConfiguration configuration, ProcessExecutor executor) throws AndroidConfigurationException,
+            AndroidExecutionException {
+
+        Validate.notNull(capabilities, "Device inventory must be set in order to match devices");
+        int apiLevel;
+        try {
+            apiLevel = Integer.parseInt(configuration.getApiLevel());
+        } catch (NumberFormatException e) {
+            throw new AndroidConfigurationException("API level must be a number in order to match devices, was "
+                    + configuration.getApiLevel());
+        }
 
-        final Pattern deviceName = Pattern.compile("[\\s]*Name: ([^\\s]+)[\\s]*");
+        // only devices which were rebooted or updated since the last run are queried for their capabilities
+        capabilities.refresh(bridge.getDevices(), executor);
+        AndroidDevice device = capabilities.find(bridge.getDevices(), apiLevel, configuration.getAbi());
+        if (device != null) {
+            log.info("Using connected device " + capabilities.get(device.getSerialNumber()));
+        } else if (configuration.getAvdName() == null) {
+            throw new AndroidExecutionException("No connected device has API level {0} and ABI {1}", apiLevel,
+                    configuration.getAbi() == null ? "(any)" : configuration.getAbi());
+        }
+        return device;
+    }
 
-        Set<String> names = new HashSet<String>();
+    private File getBundle(AndroidExtensionConfiguration configuration) {
+        return configuration.getAvdBundle() == null ? null : new File(configuration.getAvdBundle());
+    }
 
-        List<String> output;
-        try {
-            output = executor.execute(sdk.getAndroidPath(), "list", "avd");
-        } catch (InterruptedException e) {
-            throw new AndroidExecutionException("Unable to get list of available AVDs", e);
-        } catch (ExecutionException e) {
-            throw new AndroidExecutionException("Unable to get list of available AVDs", e);
+    private AndroidDevice checkIfRealDeviceIsConnected(AndroidBridge bridge, String serialId) {
+        // no serialId was specified
+        if (serialId == null || serialId.trim().isEmpty()) {
+            return null;
         }
-        for (String line : output) {
-            Matcher m;
-            if (line.trim().startsWith("Name: ") && (m = deviceName.matcher(line)).matches()) {
-                String name = m.group(1);
-                // skip a device which has no name
-                if (name == null || name.trim().length() == 0) {
-                    continue;
-                }
-                names.add(name);
-                if (log.isLoggable(Level.FINE)) {
-                    log.fine("Available Android Device: " + name);
-                }
-            }
+
+        AndroidDevice device = bridge.getDeviceBySerialNumber(serialId);
+        if (device != null) {
+            return device;
         }
 
-        return names;
+        log.warning("SerialId " + serialId
+                + " was specified, however no such device was connected. Trying to connect to an emulator instead.");
+
+        return null;
+
     }
 }
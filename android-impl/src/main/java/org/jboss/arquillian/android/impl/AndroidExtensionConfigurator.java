@@ -16,6 +16,11 @@
  */
 package org.jboss.arquillian.android.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,6 +51,9 @@ import org.jboss.arquillian.test.spi.event.suite.BeforeSuite;
  * <li>{@link AndroidExtensionConfiguration}</li>
  * <li>{@link AndroidSdk}</li>
  * <li>{@link ProcessExecutor}</li>
+ * <li>{@link AndroidVirtualDeviceInventory}</li>
+ * <li>{@link AndroidImageStore}</li>
+ * <li>{@link DeviceCapabilityInventory}</li>
  * </ul>
  *
  * Fires:
@@ -61,6 +69,16 @@ public class AndroidExtensionConfigurator {
 
     public static final String ANDROID_EXTENSION_NAME = "android";
 
+    /**
+     * Environment variable which tells adb clients and the emulator which adb server port to use
+     */
+    public static final String ADB_SERVER_PORT_ENV = "ANDROID_ADB_SERVER_PORT";
+
+    /**
+     * Environment variable which tells the emulator and SDK tools where Android Virtual Devices are stored
+     */
+    public static final String AVD_HOME_ENV = "ANDROID_AVD_HOME";
+
     @Inject
     @SuiteScoped
     private InstanceProducer<AndroidExtensionConfiguration> androidExtensionConfiguration;
@@ -73,6 +91,18 @@ public class AndroidExtensionConfigurator {
     @SuiteScoped
     private InstanceProducer<ProcessExecutor> executor;
 
+    @Inject
+    @SuiteScoped
+    private InstanceProducer<AndroidVirtualDeviceInventory> avdInventory;
+
+    @Inject
+    @SuiteScoped
+    private InstanceProducer<AndroidImageStore> imageStore;
+
+    @Inject
+    @SuiteScoped
+    private InstanceProducer<DeviceCapabilityInventory> deviceInventory;
+
     @Inject
     private Event<AndroidExtensionConfigured> afterConfiguration;
 
@@ -98,9 +128,14 @@ public class AndroidExtensionConfigurator {
                             + (configuration.getHome() == null ? "" : configuration.getHome())
                             + "). You can either set it via an environment variable ANDROID_HOME or via a property called \"home\" in Arquillian configuration.");
 
-            Validate.notAllNullsOrEmpty(
-                    new String[] { configuration.getAvdName(), configuration.getSerialId() },
-                    "You must provide either \"avdName\" if you want to use an emulator, or \"serialId\" property if you want to use a real device.");
+            if (configuration.getAdbEndpoints() != null) {
+                // fail fast, before any bridge is created
+                RemoteAndroidBridge.parseEndpoints(configuration.getAdbEndpoints());
+            } else if (!configuration.isMatchDevice()) {
+                Validate.notAllNullsOrEmpty(
+                        new String[] { configuration.getAvdName(), configuration.getSerialId() },
+                        "You must provide either \"avdName\" if you want to use an emulator, or \"serialId\" property if you want to use a real device.");
+            }
 
             if (configuration.getAvdName() != null && configuration.getSerialId() != null) {
                 log.log(Level.WARNING,
@@ -108,11 +143,106 @@ public class AndroidExtensionConfigurator {
                         new Object[] { configuration.getAvdName(), configuration.getSerialId() });
             }
 
+            if (!configuration.isIsolated() && configuration.getAdbServerPort() > 0) {
+                log.log(Level.WARNING,
+                        "Property \"adbServerPort\"({0}) is used only if \"isolated\" is set to true, shared adb server will be used instead.",
+                        configuration.getAdbServerPort());
+            }
+
             AndroidSdk sdk = new AndroidSdk(configuration);
             androidExtensionConfiguration.set(configuration);
             androidSdk.set(sdk);
-            executor.set(new ProcessExecutor());
+            Map<String, String> environment = createEnvironment(configuration);
+            ProcessExecutor processExecutor = new ProcessExecutor(environment);
+            executor.set(processExecutor);
+            avdInventory.set(AndroidVirtualDeviceInventory.forEnvironment(environment));
+            if (configuration.getImageStore() != null) {
+                imageStore.set(createImageStore(configuration, processExecutor));
+            }
+            if (configuration.getDeviceInventory() != null) {
+                deviceInventory.set(createDeviceInventory(configuration));
+            }
             afterConfiguration.fire(new AndroidExtensionConfigured());
         }
     }
+
+    /**
+     * Creates environment for processes spawned by the extension. If the extension is configured to run isolated, a private
+     * adb server port is allocated and an optional AVD home is set, so the processes do not interfere with other jobs running
+     * on the same host.
+     *
+     * @param configuration the configuration
+     * @return environment variables to be set for spawned processes
+     * @throws AndroidConfigurationException if the isolated environment cannot be created
+     */
+    private Map<String, String> createEnvironment(AndroidExtensionConfiguration configuration)
+            throws AndroidConfigurationException {
+
+        Map<String, String> environment = new HashMap<String, String>();
+        if (!configuration.isIsolated()) {
+            return environment;
+        }
+
+        if (configuration.getAdbServerPort() <= 0) {
+            configuration.setAdbServerPort(allocatePort());
+        }
+        environment.put(ADB_SERVER_PORT_ENV, String.valueOf(configuration.getAdbServerPort()));
+
+        if (configuration.getAvdHome() != null) {
+            File avdHome = new File(configuration.getAvdHome());
+            if (!avdHome.exists() && !avdHome.mkdirs()) {
+                throw new AndroidConfigurationException("Unable to create AVD home directory at " + avdHome.getAbsolutePath());
+            }
+            Validate.isReadableDirectory(avdHome, "AVD home (" + avdHome.getAbsolutePath()
+                    + ") must represent a readable directory");
+            environment.put(AVD_HOME_ENV, avdHome.getAbsolutePath());
+        }
+
+        log.log(Level.INFO, "Android extension runs isolated with private adb server port {0} and AVD home {1}",
+                new Object[] { configuration.getAdbServerPort(),
+                        configuration.getAvdHome() == null ? "(default)" : configuration.getAvdHome() });
+
+        return environment;
+    }
+
+    private AndroidImageStore createImageStore(AndroidExtensionConfiguration configuration, ProcessExecutor executor)
+            throws AndroidConfigurationException {
+        try {
+            AndroidImageStore store = new AndroidImageStore(new File(configuration.getImageStore()), executor);
+            int removed = store.gc();
+            log.log(Level.FINE, "Removed {0} unreferenced blobs from Android image store at {1}",
+                    new Object[] { removed, configuration.getImageStore() });
+            return store;
+        } catch (IOException e) {
+            throw new AndroidConfigurationException("Unable to open Android image store at " + configuration.getImageStore(), e);
+        }
+    }
+
+    private DeviceCapabilityInventory createDeviceInventory(AndroidExtensionConfiguration configuration)
+            throws AndroidConfigurationException {
+        try {
+            return new DeviceCapabilityInventory(new File(configuration.getDeviceInventory()));
+        } catch (IOException e) {
+            throw new AndroidConfigurationException("Unable to read device inventory at "
+                    + configuration.getDeviceInventory(), e);
+        }
+    }
+
+    private int allocatePort() throws AndroidConfigurationException {
+        ServerSocket socket = null;
+        try {
+            socket = new ServerSocket(0);
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new AndroidConfigurationException("Unable to allocate a port for private adb server", e);
+        } finally {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
 }
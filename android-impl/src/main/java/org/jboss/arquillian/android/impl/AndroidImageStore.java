@@ -0,0 +1,405 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A content addressed store of Android Virtual Device images. Each distinct image is stored only once as an immutable blob
+ * named by its SHA-256 digest. Devices reference blobs either via hard links, for images the emulator only reads, or via
+ * copy-on-write clones, which act as writable overlays of the blob for each device.
+ *
+ * Blobs are protected from garbage collection by leases. A lease is a file locked by the process which owns it, so leases of
+ * crashed processes are detected and dropped automatically.
+ *
+ * Store layout:
+ * <ul>
+ * <li>{@code blobs/ab/abcdef...} - immutable blobs</li>
+ * <li>{@code leases/*.lease} - digests referenced by running devices</li>
+ * <li>{@code index.properties} - digests of already imported files, keyed by path, size and modification time</li>
+ * </ul>
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidImageStore {
+    private static final Logger log = Logger.getLogger(AndroidImageStore.class.getName());
+
+    // blobs which are younger might have been imported by a process which has not acquired lease yet
+    private static final long GC_GRACE_PERIOD_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final String LEASE_SUFFIX = ".lease";
+
+    // lease files locked by this JVM, these must not be probed as closing any descriptor of the file drops the lock
+    private static final Set<File> LOCKED_LEASES = Collections.synchronizedSet(new HashSet<File>());
+
+    private final File blobs;
+
+    private final File leases;
+
+    private final File indexFile;
+
+    private final FileCloner cloner;
+
+    private final Map<String, Lease> activeLeases = new HashMap<String, Lease>();
+
+    /**
+     * Creates a store
+     *
+     * @param root root directory of the store, created if it does not exist
+     * @param executor executor used for linking and cloning of blobs
+     * @throws IOException if store cannot be created
+     */
+    public AndroidImageStore(File root, ProcessExecutor executor) throws IOException {
+        root = root.getAbsoluteFile();
+        this.blobs = new File(root, "blobs");
+        this.leases = new File(root, "leases");
+        this.indexFile = new File(root, "index.properties");
+        this.cloner = new FileCloner(executor);
+
+        mkdirs(blobs);
+        mkdirs(leases);
+    }
+
+    /**
+     * Imports a file into the store. If the same content is already stored, no data are copied.
+     *
+     * @param file the file to be imported
+     * @return digest of the file
+     * @throws IOException if file cannot be imported
+     */
+    public String put(File file) throws IOException {
+        String digest = digest(file);
+        File blob = getBlob(digest);
+        if (blob.exists()) {
+            // refresh blob so it is not collected before a lease is acquired
+            blob.setLastModified(System.currentTimeMillis());
+            return digest;
+        }
+
+        mkdirs(blob.getParentFile());
+        File tmp = new File(blob.getParentFile(), digest + "." + UUID.randomUUID() + ".tmp");
+        try {
+            cloner.clone(file, tmp);
+            tmp.setReadOnly();
+            // another process might have imported the same content in the meantime
+            if (!tmp.renameTo(blob) && !blob.exists()) {
+                throw new IOException("Unable to store " + file + " as " + blob);
+            }
+        } finally {
+            tmp.delete();
+        }
+
+        log.log(Level.FINE, "Stored {0} as blob {1}", new Object[] { file, digest });
+        return digest;
+    }
+
+    /**
+     * Creates a file with content of the blob. Read only files are hard linked, writable files are created as a copy-on-write
+     * clone if possible
+     *
+     * @param digest digest of the blob
+     * @param target the file to be created
+     * @param writable {@code true} if the file is going to be modified
+     * @throws IOException if file cannot be created
+     */
+    public void materialize(String digest, File target, boolean writable) throws IOException {
+        File blob = getBlob(digest);
+        if (!blob.isFile()) {
+            throw new IOException("Blob " + digest + " is not available in the store");
+        }
+        if (writable) {
+            cloner.clone(blob, target);
+            target.setWritable(true);
+        } else {
+            cloner.link(blob, target);
+        }
+    }
+
+    /**
+     * Acquires a lease which protects blobs from garbage collection. Any previous lease of the same owner is released.
+     *
+     * @param owner owner of the lease, e.g. name of device
+     * @param digests referenced blobs
+     * @throws IOException if lease cannot be acquired
+     */
+    public synchronized void acquire(String owner, Collection<String> digests) throws IOException {
+        release(owner);
+
+        File file = new File(leases, UUID.randomUUID().toString() + LEASE_SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        boolean acquired = false;
+        try {
+            FileLock lock = raf.getChannel().lock();
+            StringBuilder sb = new StringBuilder();
+            for (String digest : digests) {
+                sb.append(digest).append('\n');
+            }
+            raf.write(sb.toString().getBytes("UTF-8"));
+            raf.getFD().sync();
+            LOCKED_LEASES.add(file);
+            activeLeases.put(owner, new Lease(file, raf, lock));
+            acquired = true;
+        } finally {
+            if (!acquired) {
+                raf.close();
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Releases a lease
+     *
+     * @param owner owner of the lease
+     */
+    public synchronized void release(String owner) {
+        Lease lease = activeLeases.remove(owner);
+        if (lease != null) {
+            lease.release();
+        }
+    }
+
+    /**
+     * Removes blobs which are not referenced by any lease. Leases of processes which are no longer running are removed
+     * first.
+     *
+     * @return number of removed blobs
+     */
+    public synchronized int gc() {
+        Set<String> referenced = new HashSet<String>();
+
+        File[] leaseFiles = leases.listFiles();
+        if (leaseFiles != null) {
+            for (File leaseFile : leaseFiles) {
+                if (!leaseFile.getName().endsWith(LEASE_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    if (!LOCKED_LEASES.contains(leaseFile) && isStale(leaseFile)) {
+                        log.log(Level.FINE, "Removing stale lease {0}", leaseFile);
+                        leaseFile.delete();
+                    } else {
+                        referenced.addAll(readLines(leaseFile));
+                    }
+                } catch (IOException e) {
+                    // keep everything if leases cannot be determined
+                    log.log(Level.WARNING, "Unable to read lease " + leaseFile + ", garbage collection skipped", e);
+                    return 0;
+                }
+            }
+        }
+
+        int removed = 0;
+        long threshold = System.currentTimeMillis() - GC_GRACE_PERIOD_MS;
+        File[] prefixes = blobs.listFiles();
+        if (prefixes != null) {
+            for (File prefix : prefixes) {
+                File[] candidates = prefix.listFiles();
+                if (candidates == null) {
+                    continue;
+                }
+                for (File blob : candidates) {
+                    if (!referenced.contains(blob.getName()) && blob.lastModified() < threshold && blob.delete()) {
+                        log.log(Level.FINE, "Removed unreferenced blob {0}", blob.getName());
+                        removed++;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    File getBlob(String digest) {
+        return new File(new File(blobs, digest.substring(0, 2)), digest);
+    }
+
+    /**
+     * Computes digest of a file. Digests of already imported files are cached in the index, so multi-gigabyte images are not
+     * read again unless they were modified.
+     */
+    String digest(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        String stamp = file.length() + ":" + file.lastModified();
+
+        String cached;
+        synchronized (this) {
+            cached = loadIndex().getProperty(key);
+        }
+        if (cached != null && cached.startsWith(stamp + ":")) {
+            String digest = cached.substring(stamp.length() + 1);
+            if (getBlob(digest).isFile()) {
+                return digest;
+            }
+        }
+
+        // hashing is done outside of the lock so images are hashed in parallel
+        String digest = sha256(file);
+        synchronized (this) {
+            Properties index = loadIndex();
+            index.setProperty(key, stamp + ":" + digest);
+            storeIndex(index);
+        }
+        return digest;
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by the JVM", e);
+        }
+
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private boolean isStale(File leaseFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(leaseFile, "rw");
+        try {
+            FileLock lock = raf.getChannel().tryLock();
+            if (lock == null) {
+                return false;
+            }
+            lock.release();
+            return true;
+        } catch (OverlappingFileLockException e) {
+            return false;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private Properties loadIndex() throws IOException {
+        Properties index = new Properties();
+        if (indexFile.isFile()) {
+            InputStream is = new FileInputStream(indexFile);
+            try {
+                index.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        return index;
+    }
+
+    private void storeIndex(Properties index) throws IOException {
+        File tmp = new File(indexFile.getParentFile(), indexFile.getName() + "." + UUID.randomUUID() + ".tmp");
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            index.store(os, "Digests of files imported to Android image store");
+        } finally {
+            os.close();
+        }
+        if (!tmp.renameTo(indexFile)) {
+            // rename does not replace existing files on all platforms
+            indexFile.delete();
+            if (!tmp.renameTo(indexFile)) {
+                tmp.delete();
+                throw new IOException("Unable to update index " + indexFile);
+            }
+        }
+    }
+
+    private static Set<String> readLines(File file) throws IOException {
+        Set<String> lines = new HashSet<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    lines.add(line.trim());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static void mkdirs(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create directory " + directory.getAbsolutePath());
+        }
+    }
+
+    private static class Lease {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final FileLock lock;
+
+        Lease(File file, RandomAccessFile raf, FileLock lock) {
+            this.file = file;
+            this.raf = raf;
+            this.lock = lock;
+        }
+
+        void release() {
+            file.delete();
+            try {
+                lock.release();
+                raf.close();
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Unable to release lease " + file, e);
+            }
+            LOCKED_LEASES.remove(file);
+        }
+    }
+}
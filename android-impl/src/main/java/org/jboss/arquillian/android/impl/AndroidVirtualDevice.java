@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+
+/**
+ * A description of an Android Virtual Device as stored in AVD home directory
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidVirtualDevice {
+
+    private final String name;
+
+    private final File path;
+
+    private final String target;
+
+    private final String abi;
+
+    private final String sdSize;
+
+    private final boolean snapshotPresent;
+
+    AndroidVirtualDevice(String name, File path, String target, String abi, String sdSize, boolean snapshotPresent) {
+        this.name = name;
+        this.path = path;
+        this.target = target;
+        this.abi = abi;
+        this.sdSize = sdSize;
+        this.snapshotPresent = snapshotPresent;
+    }
+
+    /**
+     * @return name of the device
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return directory where device data are stored
+     */
+    public File getPath() {
+        return path;
+    }
+
+    /**
+     * @return target of the device, e.g. {@code android-10}, or {@code null} if not known
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * @return ABI of the device, e.g. {@code armeabi}, or {@code null} if not known
+     */
+    public String getAbi() {
+        return abi;
+    }
+
+    /**
+     * @return size of SD card, e.g. {@code 128M}, or {@code null} if device has no SD card
+     */
+    public String getSdSize() {
+        return sdSize;
+    }
+
+    /**
+     * @return {@code true} if device contains a snapshot which can be used to speed up the boot
+     */
+    public boolean isSnapshotPresent() {
+        return snapshotPresent;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("AVD: ");
+        sb.append(name).append(" (").append(target).append(", ").append(abi).append(") at ").append(path);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Single file bundle of Android Virtual Device data, including snapshots. Files are split into chunks which are compressed
+ * and decompressed in parallel, each chunk carries a CRC32 checksum of its data. Chunks containing only zeros are not stored,
+ * so sparse images stay sparse after restore.
+ *
+ * The format is:
+ *
+ * <pre>
+ * header:  magic, version, chunk size, target (empty if not known), file count, (file name, file length)*
+ * chunk:   file index, offset, raw length, stored length (-1 for a zero chunk), CRC32, compressed data
+ * trailer: -1, chunk count
+ * </pre>
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class AndroidVirtualDeviceBundle {
+    private static final Logger log = Logger.getLogger(AndroidVirtualDeviceBundle.class.getName());
+
+    private static final int MAGIC = 0x41564442;
+
+    private static final int VERSION = 2;
+
+    private static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    // lengths read from a bundle are validated before anything is allocated
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final int ZERO_CHUNK = -1;
+
+    private static final int TRAILER = -1;
+
+    private final ProcessExecutor executor;
+
+    private final int chunkSize;
+
+    // number of chunks being processed at once, this limits memory used by the bundle
+    private final int window;
+
+    AndroidVirtualDeviceBundle(ProcessExecutor executor) {
+        this(executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    AndroidVirtualDeviceBundle(ProcessExecutor executor, int chunkSize) {
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.window = 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Writes files into a bundle. The bundle is written to a temporary file first, so an incomplete bundle is never visible.
+     *
+     * @param bundle the bundle file
+     * @param target target of the device, might be {@code null}
+     * @param files files to be stored, stored by their name only
+     * @throws IOException if bundle cannot be written
+     * @throws InterruptedException
+     * @throws ExecutionException if compression of a chunk failed
+     */
+    void write(File bundle, String target, List<File> files) throws IOException, InterruptedException, ExecutionException {
+        File tmp = new File(bundle.getAbsoluteFile().getParentFile(), bundle.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(chunkSize);
+            out.writeUTF(target == null ? "" : target);
+            out.writeInt(files.size());
+            for (File file : files) {
+                out.writeUTF(file.getName());
+                out.writeLong(file.length());
+            }
+
+            int chunks = 0;
+            LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+            for (int i = 0; i < files.size(); i++) {
+                RandomAccessFile file = new RandomAccessFile(files.get(i), "r");
+                try {
+                    long length = file.length();
+                    for (long offset = 0; offset < length; offset += chunkSize) {
+                        byte[] data = new byte[(int) Math.min(chunkSize, length - offset)];
+                        file.seek(offset);
+                        file.readFully(data);
+                        pending.add(executor.submit(new Compression(i, offset, data)));
+                        // chunks are written in order, so the bundle can be read as a stream
+                        if (pending.size() >= window) {
+                            pending.removeFirst().get().writeTo(out);
+                        }
+                        chunks++;
+                    }
+                } finally {
+                    file.close();
+                }
+            }
+            while (!pending.isEmpty()) {
+                pending.removeFirst().get().writeTo(out);
+            }
+
+            out.writeInt(TRAILER);
+            out.writeInt(chunks);
+            out.close();
+            written = true;
+        } finally {
+            if (!written) {
+                out.close();
+                tmp.delete();
+            }
+        }
+
+        if (bundle.exists() && !bundle.delete() || !tmp.renameTo(bundle)) {
+            tmp.delete();
+            throw new IOException("Unable to write bundle " + bundle.getAbsolutePath());
+        }
+        log.log(Level.FINE, "Bundle {0} was written, size {1} bytes", new Object[] { bundle, bundle.length() });
+    }
+
+    /**
+     * Restores files from bundle into a directory. Chunks are decompressed and written in parallel.
+     *
+     * @param bundle the bundle file
+     * @param directory the target directory
+     * @return target of the device or {@code null} if it was not known
+     * @throws IOException if bundle cannot be read or it is corrupted
+     * @throws InterruptedException
+     * @throws ExecutionException if decompression of a chunk failed
+     */
+    String read(File bundle, File directory) throws IOException, InterruptedException, ExecutionException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(bundle), 64 * 1024));
+        FileChannel[] channels = null;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(bundle.getAbsolutePath() + " is not an Android Virtual Device bundle");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of bundle " + bundle.getAbsolutePath());
+            }
+            int storedChunkSize = in.readInt();
+            if (storedChunkSize <= 0 || storedChunkSize > MAX_CHUNK_SIZE) {
+                throw new IOException("Bundle " + bundle.getAbsolutePath() + " is corrupted, invalid chunk size "
+                        + storedChunkSize);
+            }
+            String target = in.readUTF();
+
+            channels = new FileChannel[in.readInt()];
+            for (int i = 0; i < channels.length; i++) {
+                String name = in.readUTF();
+                if (name.indexOf('/') != -1 || name.indexOf('\\') != -1 || name.startsWith(".")) {
+                    throw new IOException("Invalid file name " + name + " in bundle " + bundle.getAbsolutePath());
+                }
+                long length = in.readLong();
+                if (length < 0) {
+                    throw new IOException("Bundle " + bundle.getAbsolutePath() + " is corrupted, invalid length of " + name);
+                }
+                RandomAccessFile file = new RandomAccessFile(new File(directory, name), "rw");
+                // zero chunks are never written, which keeps the file sparse
+                file.setLength(0);
+                file.setLength(length);
+                channels[i] = file.getChannel();
+            }
+
+            int chunks = 0;
+            LinkedList<Future<Void>> pending = new LinkedList<Future<Void>>();
+            int index;
+            while ((index = in.readInt()) != TRAILER) {
+                if (index < 0 || index >= channels.length) {
+                    throw new IOException("Bundle " + bundle.getAbsolutePath() + " is corrupted");
+                }
+                long offset = in.readLong();
+                int rawLength = in.readInt();
+                int storedLength = in.readInt();
+                int crc = in.readInt();
+                if (rawLength <= 0 || rawLength > storedChunkSize || offset < 0
+                        || (storedLength != ZERO_CHUNK && (storedLength < 0 || storedLength > maxStoredLength(rawLength)))) {
+                    throw new IOException("Bundle " + bundle.getAbsolutePath() + " is corrupted, invalid chunk at offset "
+                            + offset);
+                }
+                if (storedLength != ZERO_CHUNK) {
+                    byte[] data = new byte[storedLength];
+                    in.readFully(data);
+                    pending.add(executor.submit(new Decompression(channels[index], offset, rawLength, crc, data)));
+                    if (pending.size() >= window) {
+                        pending.removeFirst().get();
+                    }
+                }
+                chunks++;
+            }
+            while (!pending.isEmpty()) {
+                pending.removeFirst().get();
+            }
+
+            if (in.readInt() != chunks) {
+                throw new IOException("Bundle " + bundle.getAbsolutePath() + " is corrupted, chunks are missing");
+            }
+            return target.length() == 0 ? null : target;
+        } catch (EOFException e) {
+            throw new IOException("Bundle " + bundle.getAbsolutePath() + " is truncated");
+        } finally {
+            in.close();
+            if (channels != null) {
+                for (FileChannel channel : channels) {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                }
+            }
+        }
+    }
+
+    // deflate never expands data by more than a few bytes per block, so compressed chunk fits into this bound
+    private static int maxStoredLength(int rawLength) {
+        return rawLength + rawLength / 100 + 64;
+    }
+
+    private static boolean isZero(byte[] data) {
+        for (byte b : data) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    private static class Chunk {
+        private final int index;
+        private final long offset;
+        private final int rawLength;
+        private final int crc;
+        private final byte[] data;
+
+        Chunk(int index, long offset, int rawLength, int crc, byte[] data) {
+            this.index = index;
+            this.offset = offset;
+            this.rawLength = rawLength;
+            this.crc = crc;
+            this.data = data;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(index);
+            out.writeLong(offset);
+            out.writeInt(rawLength);
+            out.writeInt(data == null ? ZERO_CHUNK : data.length);
+            out.writeInt(crc);
+            if (data != null) {
+                out.write(data);
+            }
+        }
+    }
+
+    private static class Compression implements Callable<Chunk> {
+        private final int index;
+        private final long offset;
+        private final byte[] data;
+
+        Compression(int index, long offset, byte[] data) {
+            this.index = index;
+            this.offset = offset;
+            this.data = data;
+        }
+
+        @Override
+        public Chunk call() throws Exception {
+            if (isZero(data)) {
+                return new Chunk(index, offset, data.length, 0, null);
+            }
+
+            // images are large, speed matters more than ratio
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                byte[] buffer = new byte[maxStoredLength(data.length)];
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == buffer.length) {
+                        byte[] larger = new byte[buffer.length * 2];
+                        System.arraycopy(buffer, 0, larger, 0, length);
+                        buffer = larger;
+                    }
+                    length += deflater.deflate(buffer, length, buffer.length - length);
+                }
+                byte[] compressed = new byte[length];
+                System.arraycopy(buffer, 0, compressed, 0, length);
+                return new Chunk(index, offset, data.length, crc(data), compressed);
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private static class Decompression implements Callable<Void> {
+        private final FileChannel channel;
+        private final long offset;
+        private final int rawLength;
+        private final int crc;
+        private final byte[] data;
+
+        Decompression(FileChannel channel, long offset, int rawLength, int crc, byte[] data) {
+            this.channel = channel;
+            this.offset = offset;
+            this.rawLength = rawLength;
+            this.crc = crc;
+            this.data = data;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            byte[] raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                int length = 0;
+                while (length < rawLength && !inflater.finished()) {
+                    int inflated = inflater.inflate(raw, length, rawLength - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != rawLength || crc(raw) != crc) {
+                    throw new IOException("Checksum of chunk at offset " + offset + " does not match");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Chunk at offset " + offset + " is corrupted: " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+
+            // positional writes are safe to be done concurrently
+            ByteBuffer buffer = ByteBuffer.wrap(raw);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.configuration.AndroidSdk;
+
+/**
+ * Creates Android Virtual Devices in-process. The definition files are written directly and device data are either
+ * initialized by the emulator from system image during the first boot or cloned from a golden template device, which avoids
+ * forking {@code android create avd}.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class AndroidVirtualDeviceCreator {
+    private static final Logger log = Logger.getLogger(AndroidVirtualDeviceCreator.class.getName());
+
+    private static final String SYSTEM_IMAGES_FOLDER_NAME = "system-images";
+
+    private static final String PLATFORMS_FOLDER_NAME = "platforms";
+
+    private static final String DEFAULT_ABI = "armeabi";
+
+    private static final String CONFIG_INI = "config.ini";
+
+    // files which are regenerated by emulator for each run and refer to the original device
+    private static final String[] NOT_CLONED = { "hardware-qemu.ini", "emulator-user.ini" };
+
+    // images which are only read by emulator, these can be shared by all devices
+    private static final String[] READ_ONLY_IMAGES = { "userdata.img", "system.img", "ramdisk.img" };
+
+    private static final String IMAGE_SUFFIX = ".img";
+
+    private final AndroidSdk sdk;
+
+    private final ProcessExecutor executor;
+
+    private final AndroidVirtualDeviceInventory inventory;
+
+    private final FileCloner cloner;
+
+    private final AndroidImageStore store;
+
+    AndroidVirtualDeviceCreator(AndroidSdk sdk, ProcessExecutor executor, AndroidVirtualDeviceInventory inventory) {
+        this(sdk, executor, inventory, null);
+    }
+
+    /**
+     * Creates a creator which stores images of cloned devices in an image store, if provided
+     *
+     * @param sdk the SDK
+     * @param executor the executor
+     * @param inventory inventory of devices
+     * @param store image store or {@code null} if images should be cloned directly
+     */
+    AndroidVirtualDeviceCreator(AndroidSdk sdk, ProcessExecutor executor, AndroidVirtualDeviceInventory inventory,
+            AndroidImageStore store) {
+        this.sdk = sdk;
+        this.executor = executor;
+        this.inventory = inventory;
+        this.cloner = new FileCloner(executor);
+        this.store = store;
+    }
+
+    /**
+     * Creates a new device, replacing any device of the same name
+     *
+     * @param name name of the device
+     * @param path directory where device data will be stored
+     * @param apiLevel API level of the device
+     * @param abi ABI of the device, if {@code null}, the first available ABI is used
+     * @param sdSize size of SD card or {@code null} if no SD card should be created
+     * @return the created device
+     * @throws AndroidExecutionException if device cannot be created
+     */
+    AndroidVirtualDevice create(String name, File path, String apiLevel, String abi, String sdSize)
+            throws AndroidExecutionException {
+
+        File sysdir = findSystemImage(apiLevel, abi);
+        if (abi == null) {
+            abi = sysdir.getParentFile().getName().equals(PLATFORMS_FOLDER_NAME) ? DEFAULT_ABI : sysdir.getName();
+        }
+
+        prepareDirectory(path);
+
+        Map<String, String> config = new LinkedHashMap<String, String>();
+        config.put("abi.type", abi);
+        config.put("hw.cpu.arch", getCpuArch(abi));
+        config.put("image.sysdir.1", relativize(sdk.getSdkPath(), sysdir) + "/");
+        if (sdSize != null) {
+            config.put("sdcard.size", sdSize);
+        }
+
+        try {
+            writeIni(new File(path, CONFIG_INI), config);
+            if (sdSize != null) {
+                executor.execute(sdk.getMksdcardPath(), sdSize, new File(path, "sdcard.img").getAbsolutePath());
+            }
+            writeDefinition(name, path, "android-" + apiLevel);
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to create Android Virtual Device {0}", name);
+        } catch (InterruptedException e) {
+            throw new AndroidExecutionException(e, "Unable to create SD card for Android Virtual Device {0}", name);
+        } catch (ExecutionException e) {
+            throw new AndroidExecutionException(e, "Unable to create SD card for Android Virtual Device {0}", name);
+        }
+
+        return getCreatedDevice(name);
+    }
+
+    /**
+     * Creates a new device as a clone of a template device, replacing any device of the same name. All template data
+     * including userdata, SD card and snapshots are cloned, so the device boots in the same state as the template.
+     *
+     * If an image store is available, images are imported to the store and the device references them, read only images
+     * are shared and writable images are created as copy-on-write overlays where supported. The store lease is owned by the
+     * device name.
+     *
+     * @param template the template device
+     * @param name name of the device
+     * @param path directory where device data will be stored
+     * @return the created device
+     * @throws AndroidExecutionException if device cannot be created
+     */
+    AndroidVirtualDevice cloneFrom(AndroidVirtualDevice template, String name, File path) throws AndroidExecutionException {
+
+        if (template.getPath().getAbsoluteFile().equals(path.getAbsoluteFile())) {
+            throw new AndroidExecutionException("Unable to clone Android Virtual Device {0} to itself", template.getName());
+        }
+
+        prepareDirectory(path);
+
+        List<Future<String>> clones = new ArrayList<Future<String>>();
+        for (final File source : template.getPath().listFiles()) {
+            if (!isCloned(source)) {
+                continue;
+            }
+            final File target = new File(path, source.getName());
+            clones.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    if (store != null && source.getName().endsWith(IMAGE_SUFFIX)) {
+                        String digest = store.put(source);
+                        store.materialize(digest, target, !isReadOnlyImage(source));
+                        return digest;
+                    }
+                    cloner.clone(source, target);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            List<String> digests = new ArrayList<String>();
+            for (Future<String> clone : clones) {
+                String digest = clone.get();
+                if (digest != null) {
+                    digests.add(digest);
+                }
+            }
+            if (store != null) {
+                store.acquire(name, digests);
+            }
+            writeDefinition(name, path, template.getTarget());
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to clone Android Virtual Device {0} from {1}", name,
+                    template.getName());
+        } catch (InterruptedException e) {
+            throw new AndroidExecutionException(e, "Unable to clone Android Virtual Device {0} from {1}", name,
+                    template.getName());
+        } catch (ExecutionException e) {
+            throw new AndroidExecutionException(e.getCause(), "Unable to clone Android Virtual Device {0} from {1}", name,
+                    template.getName());
+        }
+
+        return getCreatedDevice(name);
+    }
+
+    /**
+     * Exports a device, including its snapshots, into a bundle
+     *
+     * @param device the device
+     * @param bundle the bundle file
+     * @throws AndroidExecutionException if bundle cannot be created
+     */
+    void exportTo(AndroidVirtualDevice device, File bundle) throws AndroidExecutionException {
+        List<File> files = new ArrayList<File>();
+        for (File f : device.getPath().listFiles()) {
+            if (isCloned(f)) {
+                files.add(f);
+            }
+        }
+
+        try {
+            new AndroidVirtualDeviceBundle(executor).write(bundle, device.getTarget(), files);
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to export Android Virtual Device {0} to {1}", device.getName(),
+                    bundle.getAbsolutePath());
+        } catch (InterruptedException e) {
+            throw new AndroidExecutionException(e, "Unable to export Android Virtual Device {0} to {1}", device.getName(),
+                    bundle.getAbsolutePath());
+        } catch (ExecutionException e) {
+            throw new AndroidExecutionException(e.getCause(), "Unable to export Android Virtual Device {0} to {1}",
+                    device.getName(), bundle.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Creates a new device from a bundle, replacing any device of the same name
+     *
+     * @param bundle the bundle file
+     * @param name name of the device
+     * @param path directory where device data will be stored
+     * @return the created device
+     * @throws AndroidExecutionException if device cannot be restored
+     */
+    AndroidVirtualDevice restore(File bundle, String name, File path) throws AndroidExecutionException {
+
+        prepareDirectory(path);
+
+        try {
+            String target = new AndroidVirtualDeviceBundle(executor).read(bundle, path);
+            writeDefinition(name, path, target);
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to restore Android Virtual Device {0} from {1}", name,
+                    bundle.getAbsolutePath());
+        } catch (InterruptedException e) {
+            throw new AndroidExecutionException(e, "Unable to restore Android Virtual Device {0} from {1}", name,
+                    bundle.getAbsolutePath());
+        } catch (ExecutionException e) {
+            throw new AndroidExecutionException(e.getCause(), "Unable to restore Android Virtual Device {0} from {1}", name,
+                    bundle.getAbsolutePath());
+        }
+
+        return getCreatedDevice(name);
+    }
+
+    private AndroidVirtualDevice getCreatedDevice(String name) throws AndroidExecutionException {
+        inventory.invalidate();
+        AndroidVirtualDevice device = inventory.getDevice(name);
+        if (device == null) {
+            throw new AndroidExecutionException("Android Virtual Device {0} was created but it is not available in {1}", name,
+                    inventory.getAvdHome());
+        }
+        log.log(Level.FINE, "Created {0}", device);
+        return device;
+    }
+
+    private File findSystemImage(String apiLevel, String abi) throws AndroidExecutionException {
+        File images = new File(new File(sdk.getSdkPath(), SYSTEM_IMAGES_FOLDER_NAME), "android-" + apiLevel);
+
+        List<File> candidates = new ArrayList<File>();
+        if (abi != null) {
+            candidates.add(new File(images, abi));
+            candidates.add(new File(new File(images, "default"), abi));
+        } else {
+            File[] abis = images.listFiles();
+            if (abis != null) {
+                for (File f : abis) {
+                    candidates.add(f);
+                }
+            }
+        }
+        // images bundled with platform contain only the default ABI
+        if (abi == null || DEFAULT_ABI.equals(abi)) {
+            candidates.add(new File(new File(new File(sdk.getSdkPath(), PLATFORMS_FOLDER_NAME), "android-" + apiLevel),
+                    "images"));
+        }
+
+        for (File candidate : candidates) {
+            if (new File(candidate, "system.img").isFile()) {
+                return candidate;
+            }
+        }
+
+        throw new AndroidExecutionException("Unable to find system image for API level {0} and ABI {1} in Android SDK at {2}",
+                apiLevel, abi == null ? "(any)" : abi, sdk.getSdkPath());
+    }
+
+    private String getCpuArch(String abi) {
+        if (abi.startsWith("arm64")) {
+            return "arm64";
+        } else if (abi.startsWith("arm")) {
+            return "arm";
+        }
+        // x86, x86_64, mips and mips64 are named the same
+        return abi;
+    }
+
+    private void writeDefinition(String name, File path, String target) throws IOException {
+        File avdHome = inventory.getAvdHome();
+        if (!avdHome.exists() && !avdHome.mkdirs()) {
+            throw new IOException("Unable to create AVD home directory at " + avdHome.getAbsolutePath());
+        }
+
+        Map<String, String> definition = new LinkedHashMap<String, String>();
+        definition.put("avd.ini.encoding", "UTF-8");
+        definition.put("path", path.getAbsolutePath());
+        if (target != null) {
+            definition.put("target", target);
+        }
+        writeIni(new File(avdHome, name + ".ini"), definition);
+    }
+
+    private void prepareDirectory(File path) throws AndroidExecutionException {
+        if (path.exists()) {
+            // only files created by emulator and tools are removed, never any nested directories except locks
+            for (File f : path.listFiles()) {
+                if (f.isFile() || f.getName().endsWith(".lock")) {
+                    delete(f);
+                }
+            }
+        } else if (!path.mkdirs()) {
+            throw new AndroidExecutionException("Unable to create directory for Android Virtual Device at {0}",
+                    path.getAbsolutePath());
+        }
+    }
+
+    private boolean isCloned(File file) {
+        if (!file.isFile() || file.getName().endsWith(".lock")) {
+            return false;
+        }
+        for (String name : NOT_CLONED) {
+            if (name.equals(file.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isReadOnlyImage(File file) {
+        for (String name : READ_ONLY_IMAGES) {
+            if (name.equals(file.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String relativize(File base, File file) {
+        String basePath = base.getAbsolutePath();
+        String filePath = file.getAbsolutePath();
+        if (filePath.startsWith(basePath + File.separator)) {
+            filePath = filePath.substring(basePath.length() + 1);
+        }
+        return filePath.replace(File.separatorChar, '/');
+    }
+
+    private static void writeIni(File file, Map<String, String> values) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                writer.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
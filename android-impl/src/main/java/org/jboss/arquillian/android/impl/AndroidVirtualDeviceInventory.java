@@ -0,0 +1,243 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An inventory of Android Virtual Devices. Reads AVD definitions directly from AVD home directory, which is much faster than
+ * forking {@code android list avd}.
+ *
+ * The inventory is cached and reloaded only if content of the AVD home directory was changed, so checking AVD existence
+ * costs a single file system stat in most cases.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidVirtualDeviceInventory {
+    private static final Logger log = Logger.getLogger(AndroidVirtualDeviceInventory.class.getName());
+
+    static final String SDK_HOME_ENV = "ANDROID_SDK_HOME";
+
+    private static final String INI_SUFFIX = ".ini";
+
+    private static final String CONFIG_INI = "config.ini";
+
+    private static final String SNAPSHOTS_IMG = "snapshots.img";
+
+    private final File avdHome;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * Creates an inventory of devices stored in given directory
+     *
+     * @param avdHome AVD home directory
+     */
+    public AndroidVirtualDeviceInventory(File avdHome) {
+        this.avdHome = avdHome;
+    }
+
+    /**
+     * Creates an inventory of devices stored in AVD home determined from given environment. If environment does not contain
+     * AVD home definition, system environment is checked. Default AVD home is {@code ~/.android/avd}.
+     *
+     * @param environment Environment to be checked for AVD home
+     * @return the inventory
+     */
+    public static AndroidVirtualDeviceInventory forEnvironment(Map<String, String> environment) {
+        String avdHome = getVariable(environment, AndroidExtensionConfigurator.AVD_HOME_ENV);
+        if (avdHome != null) {
+            return new AndroidVirtualDeviceInventory(new File(avdHome));
+        }
+        return new AndroidVirtualDeviceInventory(new File(getAndroidHome(environment), "avd"));
+    }
+
+    /**
+     * Returns directory where Android tools store user data, such as virtual devices and the debug keystore. Default is
+     * {@code ~/.android}.
+     *
+     * @param environment Environment to be checked for SDK home
+     * @return the directory
+     */
+    static File getAndroidHome(Map<String, String> environment) {
+        String sdkHome = getVariable(environment, SDK_HOME_ENV);
+        if (sdkHome == null) {
+            sdkHome = SecurityActions.getProperty("user.home");
+        }
+        return new File(sdkHome, ".android");
+    }
+
+    /**
+     * @return AVD home directory
+     */
+    public File getAvdHome() {
+        return avdHome;
+    }
+
+    /**
+     * Returns all available Android Virtual Devices
+     *
+     * @return Unmodifiable map of devices, keyed by their names
+     */
+    public Map<String, AndroidVirtualDevice> getDevices() {
+        long modified = avdHome.lastModified();
+        Snapshot current = snapshot;
+        if (current == null || current.modified != modified) {
+            current = new Snapshot(modified, load());
+            snapshot = current;
+        }
+        return current.devices;
+    }
+
+    /**
+     * Returns device with given name
+     *
+     * @param name name of the device
+     * @return the device or {@code null} if no such device exists
+     */
+    public AndroidVirtualDevice getDevice(String name) {
+        return getDevices().get(name);
+    }
+
+    /**
+     * Checks whether a device with given name exists
+     *
+     * @param name name of the device
+     * @return {@code true} if device exists, {@code false} otherwise
+     */
+    public boolean contains(String name) {
+        return getDevices().containsKey(name);
+    }
+
+    /**
+     * Forces inventory to be reloaded during next access. This should be called after a device was modified in place, as
+     * such change is not necessarily reflected by modification time of AVD home directory.
+     */
+    public void invalidate() {
+        this.snapshot = null;
+    }
+
+    private Map<String, AndroidVirtualDevice> load() {
+        File[] definitions = avdHome.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(INI_SUFFIX);
+            }
+        });
+
+        if (definitions == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, AndroidVirtualDevice> devices = new HashMap<String, AndroidVirtualDevice>(definitions.length * 2);
+        for (File definition : definitions) {
+            String name = definition.getName().substring(0, definition.getName().length() - INI_SUFFIX.length());
+            try {
+                AndroidVirtualDevice device = readDevice(name, definition);
+                if (device != null) {
+                    devices.put(name, device);
+                    if (log.isLoggable(Level.FINE)) {
+                        log.fine("Available Android Device: " + device);
+                    }
+                }
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Unable to read Android Virtual Device definition from " + definition, e);
+            }
+        }
+        return Collections.unmodifiableMap(devices);
+    }
+
+    private AndroidVirtualDevice readDevice(String name, File definition) throws IOException {
+        Map<String, String> ini = readIni(definition);
+
+        File path = null;
+        if (ini.containsKey("path")) {
+            path = new File(ini.get("path"));
+        }
+        if ((path == null || !path.isDirectory()) && ini.containsKey("path.rel")) {
+            path = new File(avdHome.getParentFile(), ini.get("path.rel"));
+        }
+        // definition without device data is not a valid device
+        if (path == null || !path.isDirectory()) {
+            log.log(Level.FINE, "Skipping Android Virtual Device {0}, its data directory does not exist", name);
+            return null;
+        }
+
+        Map<String, String> config = Collections.emptyMap();
+        File configFile = new File(path, CONFIG_INI);
+        if (configFile.isFile()) {
+            config = readIni(configFile);
+        }
+
+        boolean snapshotPresent = Boolean.valueOf(config.get("snapshot.present")) || new File(path, SNAPSHOTS_IMG).isFile();
+        return new AndroidVirtualDevice(name, path, ini.get("target"), config.get("abi.type"), config.get("sdcard.size"),
+                snapshotPresent);
+    }
+
+    /**
+     * Reads an AVD ini file. These are not Java properties files, backslashes in paths must be preserved.
+     */
+    static Map<String, String> readIni(File file) throws IOException {
+        Map<String, String> values = new HashMap<String, String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int index = line.indexOf('=');
+                if (index == -1 || line.trim().startsWith("#")) {
+                    continue;
+                }
+                values.put(line.substring(0, index).trim(), line.substring(index + 1).trim());
+            }
+        } finally {
+            reader.close();
+        }
+        return values;
+    }
+
+    private static String getVariable(Map<String, String> environment, String name) {
+        String value = environment.get(name);
+        if (value == null) {
+            value = System.getenv(name);
+        }
+        if (value == null || value.trim().length() == 0) {
+            return null;
+        }
+        return value;
+    }
+
+    private static class Snapshot {
+        final long modified;
+        final Map<String, AndroidVirtualDevice> devices;
+
+        Snapshot(long modified, Map<String, AndroidVirtualDevice> devices) {
+            this.modified = modified;
+            this.devices = devices;
+        }
+    }
+}
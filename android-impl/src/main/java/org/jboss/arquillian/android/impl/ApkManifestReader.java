@@ -0,0 +1,432 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInfo;
+
+/**
+ * Reads package metadata from the binary {@code AndroidManifest.xml} of an APK without calling {@code aapt}. Only the
+ * manifest entry is read from the archive and parsing stops at the root element. Results are cached by the digest of the
+ * APK.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class ApkManifestReader {
+
+    static final String MANIFEST_ENTRY = "AndroidManifest.xml";
+
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_XML_TYPE = 0x0003;
+    private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+    private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+
+    private static final int UTF8_FLAG = 1 << 8;
+
+    private static final int TYPE_STRING = 0x03;
+    private static final int TYPE_INT_DEC = 0x10;
+    private static final int TYPE_INT_HEX = 0x11;
+
+    private static final int ATTR_VERSION_CODE = 0x0101021b;
+    private static final int ATTR_VERSION_NAME = 0x0101021c;
+    private static final int ATTR_MIN_SDK_VERSION = 0x0101020c;
+    private static final int ATTR_TARGET_SDK_VERSION = 0x01010270;
+
+    /**
+     * API level returned if the manifest does not declare it
+     */
+    static final int UNKNOWN_SDK_VERSION = -1;
+
+    private static final int MAX_CACHED = 64;
+
+    // digest of the APK -> metadata
+    private static final Map<String, AndroidPackageInfo> byDigest = new LinkedHashMap<String, AndroidPackageInfo>(16,
+            0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AndroidPackageInfo> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    // path, size and modification time of the APK -> its digest, so unchanged files are not hashed again
+    private static final Map<String, String> digests = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private ApkManifestReader() {
+        throw new UnsupportedOperationException("No instantiation");
+    }
+
+    /**
+     * Returns metadata of an APK
+     *
+     * @param apk the APK
+     * @return the metadata
+     * @throws AndroidExecutionException if the APK cannot be read or it does not contain a valid manifest
+     */
+    static AndroidPackageInfo read(File apk) throws AndroidExecutionException {
+        try {
+            String stamp = apk.getCanonicalPath() + ":" + apk.length() + ":" + apk.lastModified();
+            String digest;
+            synchronized (digests) {
+                digest = digests.get(stamp);
+            }
+            if (digest == null) {
+                digest = FileDigests.md5(apk);
+                synchronized (digests) {
+                    digests.put(stamp, digest);
+                }
+            }
+
+            synchronized (byDigest) {
+                AndroidPackageInfo info = byDigest.get(digest);
+                if (info != null) {
+                    return info;
+                }
+            }
+
+            AndroidPackageInfo info = parse(apk);
+            synchronized (byDigest) {
+                byDigest.put(digest, info);
+            }
+            return info;
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to read manifest of {0}", apk.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Returns the target API level declared by a manifest. The target API level defaults to the minimal one, as on the
+     * device.
+     *
+     * @param manifest content of the binary {@code AndroidManifest.xml}
+     * @return the API level or {@link #UNKNOWN_SDK_VERSION} if it is not declared or it is a codename
+     * @throws IOException if the manifest is not a valid binary XML
+     */
+    static int readTargetSdkVersion(byte[] manifest) throws IOException {
+        SdkVersionHandler handler = new SdkVersionHandler();
+        walk(new ChunkReader(new ByteArrayInputStream(manifest)), handler);
+        return handler.targetSdkVersion != UNKNOWN_SDK_VERSION ? handler.targetSdkVersion : handler.minSdkVersion;
+    }
+
+    private static AndroidPackageInfo parse(File apk) throws IOException, AndroidExecutionException {
+        ZipFile zip = new ZipFile(apk);
+        try {
+            ZipEntry entry = zip.getEntry(MANIFEST_ENTRY);
+            if (entry == null) {
+                throw new AndroidExecutionException("APK {0} does not contain {1}", apk.getAbsolutePath(), MANIFEST_ENTRY);
+            }
+            InputStream in = zip.getInputStream(entry);
+            try {
+                ManifestHandler handler = new ManifestHandler();
+                walk(new ChunkReader(in), handler);
+                if (handler.packageName == null) {
+                    throw new AndroidExecutionException("Manifest of {0} does not declare any package",
+                            apk.getAbsolutePath());
+                }
+                return new AndroidPackageInfo(handler.packageName, handler.versionCode, handler.versionName);
+            } finally {
+                in.close();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    // passes start elements of binary XML to the handler until it stops the walk or the document ends
+    private static void walk(ChunkReader in, ElementHandler handler) throws IOException {
+        if (in.readShort() != RES_XML_TYPE) {
+            throw new IOException("Manifest is not a binary XML");
+        }
+        int headerSize = in.readShort();
+        int remaining = in.readInt() - headerSize;
+        if (headerSize < 8) {
+            throw new IOException("Malformed binary XML header");
+        }
+        in.skip(headerSize - 8);
+
+        String[] strings = new String[0];
+        int[] resourceIds = new int[0];
+        while (remaining > 0) {
+            int type = in.readShort();
+            headerSize = in.readShort();
+            int size = in.readInt();
+            if (size < 8 || size > remaining || headerSize < 8 || headerSize > size) {
+                throw new IOException("Malformed binary XML chunk of type " + type);
+            }
+            byte[] chunk = in.readBytes(size - 8);
+            remaining -= size;
+            if (type == RES_STRING_POOL_TYPE) {
+                strings = readStringPool(chunk, headerSize - 8);
+            } else if (type == RES_XML_RESOURCE_MAP_TYPE) {
+                resourceIds = new int[chunk.length / 4];
+                for (int i = 0; i < resourceIds.length; i++) {
+                    resourceIds[i] = readInt(chunk, i * 4);
+                }
+            } else if (type == RES_XML_START_ELEMENT_TYPE) {
+                int extOffset = headerSize - 8;
+                String name = string(strings, readInt(chunk, extOffset + 4));
+                if (!handler.startElement(name, readAttributes(chunk, extOffset, strings, resourceIds))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static Attribute[] readAttributes(byte[] chunk, int extOffset, String[] strings, int[] resourceIds)
+            throws IOException {
+        int attributeStart = readShort(chunk, extOffset + 8);
+        int attributeSize = readShort(chunk, extOffset + 10);
+        int attributeCount = readShort(chunk, extOffset + 12);
+
+        Attribute[] attributes = new Attribute[attributeCount];
+        for (int i = 0; i < attributeCount; i++) {
+            int offset = extOffset + attributeStart + i * attributeSize;
+            int name = readInt(chunk, offset + 4);
+            int rawValue = readInt(chunk, offset + 8);
+            int dataType = readByte(chunk, offset + 15);
+            int data = readInt(chunk, offset + 16);
+
+            // framework attributes are identified by resource id, their names might be stripped
+            int resourceId = name >= 0 && name < resourceIds.length ? resourceIds[name] : 0;
+            String value = rawValue != -1 ? string(strings, rawValue) : dataType == TYPE_STRING ? string(strings, data)
+                    : null;
+            attributes[i] = new Attribute(string(strings, name), resourceId, value, dataType, data);
+        }
+        return attributes;
+    }
+
+    private static String[] readStringPool(byte[] chunk, int offsetsStart) throws IOException {
+        // offsets in the chunk header are relative to the start of the chunk, which is 8 bytes before the data read
+        int stringCount = readInt(chunk, 0);
+        int flags = readInt(chunk, 8);
+        int stringsStart = readInt(chunk, 12) - 8;
+        boolean utf8 = (flags & UTF8_FLAG) != 0;
+        if (stringCount < 0 || stringCount > chunk.length / 4) {
+            throw new IOException("Malformed binary XML string pool of " + stringCount + " strings");
+        }
+
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            int offset = stringsStart + readInt(chunk, offsetsStart + i * 4);
+            if (utf8) {
+                // character count followed by byte count, each encoded in one or two bytes
+                offset += (readByte(chunk, offset) & 0x80) != 0 ? 2 : 1;
+                int length = readByte(chunk, offset);
+                if ((length & 0x80) != 0) {
+                    length = ((length & 0x7f) << 8) | readByte(chunk, offset + 1);
+                    offset++;
+                }
+                checkBounds(chunk, offset + 1, length);
+                strings[i] = new String(chunk, offset + 1, length, "UTF-8");
+            } else {
+                int length = readShort(chunk, offset);
+                if ((length & 0x8000) != 0) {
+                    length = ((length & 0x7fff) << 16) | readShort(chunk, offset + 2);
+                    offset += 2;
+                }
+                checkBounds(chunk, offset + 2, length * 2);
+                strings[i] = new String(chunk, offset + 2, length * 2, "UTF-16LE");
+            }
+        }
+        return strings;
+    }
+
+    private static long parseVersion(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return AndroidPackageInfo.UNKNOWN_VERSION;
+        }
+    }
+
+    private static String string(String[] strings, int index) {
+        return index >= 0 && index < strings.length ? strings[index] : null;
+    }
+
+    // offsets come from the manifest itself, so a truncated or corrupted one must not index out of the chunk
+    private static void checkBounds(byte[] data, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IOException("Malformed binary XML, " + length + " bytes at offset " + offset
+                    + " exceed the chunk of " + data.length + " bytes");
+        }
+    }
+
+    private static int readByte(byte[] data, int offset) throws IOException {
+        checkBounds(data, offset, 1);
+        return data[offset] & 0xff;
+    }
+
+    private static int readShort(byte[] data, int offset) throws IOException {
+        checkBounds(data, offset, 2);
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] data, int offset) throws IOException {
+        return readShort(data, offset) | readShort(data, offset + 2) << 16;
+    }
+
+    /**
+     * Attribute of a binary XML element
+     */
+    private static class Attribute {
+        final String name;
+        final int resourceId;
+        final String value;
+        final int dataType;
+        final int data;
+
+        Attribute(String name, int resourceId, String value, int dataType, int data) {
+            this.name = name;
+            this.resourceId = resourceId;
+            this.value = value;
+            this.dataType = dataType;
+            this.data = data;
+        }
+
+        boolean is(int id, String attributeName) {
+            return resourceId == id || (resourceId == 0 && attributeName.equals(name));
+        }
+
+        boolean isInteger() {
+            return dataType == TYPE_INT_DEC || dataType == TYPE_INT_HEX;
+        }
+    }
+
+    /**
+     * Receives start elements of binary XML
+     */
+    private interface ElementHandler {
+        /**
+         * @return {@code true} to continue with the next element, {@code false} to stop reading
+         */
+        boolean startElement(String name, Attribute[] attributes);
+    }
+
+    // reads the root element, which is the manifest itself
+    private static class ManifestHandler implements ElementHandler {
+        String packageName;
+        long versionCode = AndroidPackageInfo.UNKNOWN_VERSION;
+        String versionName;
+
+        @Override
+        public boolean startElement(String name, Attribute[] attributes) {
+            for (Attribute attribute : attributes) {
+                if (attribute.is(ATTR_VERSION_CODE, "versionCode")) {
+                    if (attribute.isInteger()) {
+                        versionCode = attribute.data & 0xffffffffL;
+                    } else if (attribute.value != null) {
+                        versionCode = parseVersion(attribute.value);
+                    }
+                } else if (attribute.is(ATTR_VERSION_NAME, "versionName")) {
+                    versionName = attribute.value;
+                } else if (attribute.resourceId == 0 && "package".equals(attribute.name)) {
+                    packageName = attribute.value;
+                }
+            }
+            return false;
+        }
+    }
+
+    // reads the uses-sdk element
+    private static class SdkVersionHandler implements ElementHandler {
+        int minSdkVersion = UNKNOWN_SDK_VERSION;
+        int targetSdkVersion = UNKNOWN_SDK_VERSION;
+
+        @Override
+        public boolean startElement(String name, Attribute[] attributes) {
+            if (!"uses-sdk".equals(name)) {
+                return true;
+            }
+            minSdkVersion = 1;
+            for (Attribute attribute : attributes) {
+                int value;
+                if (attribute.isInteger()) {
+                    value = attribute.data;
+                } else {
+                    // codenames of preview platforms are not API levels
+                    long parsed = attribute.value != null ? parseVersion(attribute.value)
+                            : AndroidPackageInfo.UNKNOWN_VERSION;
+                    value = parsed == AndroidPackageInfo.UNKNOWN_VERSION ? UNKNOWN_SDK_VERSION : (int) parsed;
+                }
+
+                if (attribute.is(ATTR_MIN_SDK_VERSION, "minSdkVersion")) {
+                    minSdkVersion = value;
+                } else if (attribute.is(ATTR_TARGET_SDK_VERSION, "targetSdkVersion")) {
+                    targetSdkVersion = value;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Little endian reader of binary XML chunks
+     */
+    private static class ChunkReader {
+        private final InputStream in;
+
+        ChunkReader(InputStream in) {
+            this.in = in;
+        }
+
+        int readShort() throws IOException {
+            byte[] data = readBytes(2);
+            return ApkManifestReader.readShort(data, 0);
+        }
+
+        int readInt() throws IOException {
+            byte[] data = readBytes(4);
+            return ApkManifestReader.readInt(data, 0);
+        }
+
+        void skip(int length) throws IOException {
+            readBytes(length);
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] data = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int count = in.read(data, read, length - read);
+                if (count == -1) {
+                    throw new EOFException("Binary XML ended unexpectedly");
+                }
+                read += count;
+            }
+            return data;
+        }
+    }
+}
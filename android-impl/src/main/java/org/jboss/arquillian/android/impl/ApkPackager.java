@@ -0,0 +1,241 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+
+/**
+ * Turns an archive with already compiled resources and manifest into an installable APK in a single pass, without calling
+ * {@code aapt}, {@code zipalign} or {@code jarsigner}. Nothing is compiled, the archive is only repackaged and signed.
+ * Entries are streamed from the archive, which is a ZIP stream such as the one exported by ShrinkWrap, to the APK.
+ * Uncompressed entries are aligned to 4 bytes on the fly, so they can be mapped to memory on the device, and digests for
+ * the signature are computed in parallel while the APK is being written.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class ApkPackager {
+    private static final Logger log = Logger.getLogger(ApkPackager.class.getName());
+
+    static final int ALIGNMENT = 4;
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+
+    // files which are already compressed or must be mapped to memory, as defined by aapt
+    private static final Set<String> STORED_EXTENSIONS = new HashSet<String>(Arrays.asList(".arsc", ".jpg", ".jpeg",
+            ".png", ".gif", ".wav", ".mp2", ".mp3", ".ogg", ".aac", ".mpg", ".mpeg", ".mid", ".midi", ".smf", ".jet",
+            ".rtttl", ".imy", ".xmf", ".mp4", ".m4a", ".m4v", ".3gp", ".3gpp", ".3g2", ".3gpp2", ".amr", ".awb", ".wma",
+            ".wmv", ".webm", ".mkv"));
+
+    private final ApkSigner signer;
+
+    private final ProcessExecutor executor;
+
+    /**
+     * Creates a packager
+     *
+     * @param signer signer of created APKs
+     * @param executor executor which computes digests
+     */
+    ApkPackager(ApkSigner signer, ProcessExecutor executor) {
+        this.signer = signer;
+        this.executor = executor;
+    }
+
+    /**
+     * Creates an APK from an archive
+     *
+     * @param archive ZIP stream of the archive, existing signature is replaced
+     * @param apk the target APK
+     * @return the APK
+     * @throws AndroidExecutionException if the APK cannot be created
+     */
+    File pack(InputStream archive, File apk) throws AndroidExecutionException {
+        try {
+            OutputStream out = new FileOutputStream(apk);
+            try {
+                pack(archive, out);
+            } finally {
+                out.close();
+            }
+            return apk;
+        } catch (IOException e) {
+            apk.delete();
+            throw new AndroidExecutionException(e, "Unable to create APK {0}", apk.getAbsolutePath());
+        } catch (AndroidExecutionException e) {
+            apk.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an APK from an archive
+     *
+     * @param archive ZIP stream of the archive, existing signature is replaced
+     * @param apk stream the APK is written to, it is not closed
+     * @throws AndroidExecutionException if the APK cannot be created
+     */
+    void pack(InputStream archive, OutputStream apk) throws AndroidExecutionException {
+        long start = System.currentTimeMillis();
+        Map<String, Future<byte[]>> digests = new LinkedHashMap<String, Future<byte[]>>();
+        try {
+            ZipInputStream in = new ZipInputStream(archive);
+            CountingOutputStream counter = new CountingOutputStream(apk);
+            ZipOutputStream out = new ZipOutputStream(counter);
+
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (entry.isDirectory() || ApkSigner.isSignatureEntry(name) || digests.containsKey(name)) {
+                    continue;
+                }
+                byte[] data = read(in);
+                if (ApkManifestReader.MANIFEST_ENTRY.equals(name)) {
+                    checkTargetSdkVersion(data);
+                }
+                digests.put(name, executor.submit(signer.digest(data)));
+                write(out, counter, name, entry.getTime(), data, isStored(entry));
+            }
+
+            Map<String, byte[]> resolved = new LinkedHashMap<String, byte[]>();
+            for (Map.Entry<String, Future<byte[]>> digest : digests.entrySet()) {
+                resolved.put(digest.getKey(), digest.getValue().get());
+            }
+            for (Map.Entry<String, byte[]> signature : signer.sign(resolved).entrySet()) {
+                write(out, counter, signature.getKey(), start, signature.getValue(), false);
+            }
+            out.finish();
+            out.flush();
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to create APK");
+        } catch (InterruptedException e) {
+            throw new AndroidExecutionException(e, "Interrupted while creating APK");
+        } catch (ExecutionException e) {
+            throw new AndroidExecutionException(e.getCause(), "Unable to compute digests of APK entries");
+        } finally {
+            for (Future<byte[]> digest : digests.values()) {
+                digest.cancel(true);
+            }
+        }
+
+        log.log(Level.FINE, "Packaged {0} entries in {1} ms", new Object[] { digests.size(),
+                System.currentTimeMillis() - start });
+    }
+
+    private void checkTargetSdkVersion(byte[] manifest) throws AndroidExecutionException {
+        int targetSdkVersion;
+        try {
+            targetSdkVersion = ApkManifestReader.readTargetSdkVersion(manifest);
+        } catch (IOException e) {
+            // the device reports an invalid manifest in a more helpful way
+            log.log(Level.FINE, "Unable to read target API level of the archive", e);
+            return;
+        }
+        signer.checkTargetSdkVersion(targetSdkVersion);
+    }
+
+    private static boolean isStored(ZipEntry entry) {
+        if (entry.getMethod() == ZipEntry.STORED) {
+            return true;
+        }
+        String name = entry.getName();
+        int dot = name.lastIndexOf('.');
+        return dot != -1 && STORED_EXTENSIONS.contains(name.substring(dot).toLowerCase());
+    }
+
+    private static void write(ZipOutputStream out, CountingOutputStream counter, String name, long time, byte[] data,
+            boolean stored) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        if (time != -1) {
+            entry.setTime(time);
+        }
+        if (stored) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+
+            // pad extra field of the local header so the data starts at aligned offset
+            long dataOffset = counter.getCount() + LOCAL_HEADER_LENGTH + name.getBytes("UTF-8").length;
+            int padding = (int) ((ALIGNMENT - dataOffset % ALIGNMENT) % ALIGNMENT);
+            if (padding > 0) {
+                entry.setExtra(new byte[padding]);
+            }
+        }
+        out.putNextEntry(entry);
+        out.write(data);
+        // closing the entry flushes compressed data, so the counter is exact for the next entry
+        out.closeEntry();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.configuration.AndroidConfigurationException;
+
+/**
+ * Signs APKs with the JAR signature scheme understood by all Android versions. Digests of entries are computed by the
+ * caller, so they can be computed in parallel while the APK is being written.
+ *
+ * Only the JAR signature (v1) is produced, there is no APK Signature Scheme v2 block. Android 11 refuses to install APKs
+ * targeting API level 30 or newer without it, so such APKs are rejected by {@link #checkTargetSdkVersion(int)} before
+ * they are packaged. They have to be signed by {@code apksigner} of the SDK instead.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class ApkSigner {
+
+    static final String DEBUG_KEYSTORE = "debug.keystore";
+
+    static final String DEBUG_PASSWORD = "android";
+
+    static final String DEBUG_ALIAS = "androiddebugkey";
+
+    static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    static final String SIGNATURE_NAME = "META-INF/CERT.SF";
+
+    static final String SIGNATURE_BLOCK_NAME = "META-INF/CERT.RSA";
+
+    /**
+     * Minimal API level which accepts SHA-256 digests in JAR signatures, older devices require SHA-1
+     */
+    static final int SHA256_MINIMAL_API_LEVEL = 18;
+
+    /**
+     * Minimal target API level of APKs which must be signed with APK Signature Scheme v2
+     */
+    static final int SIGNATURE_V2_REQUIRED_API_LEVEL = 30;
+
+    private static final String CREATED_BY = "Created-By: 1.0 (Arquillian Android)";
+
+    private static final int MAX_LINE_LENGTH = 70;
+
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static final String OID_SIGNED_DATA = "1.2.840.113549.1.7.2";
+    private static final String OID_DATA = "1.2.840.113549.1.7.1";
+    private static final String OID_RSA = "1.2.840.113549.1.1.1";
+    private static final String OID_SHA1 = "1.3.14.3.2.26";
+    private static final String OID_SHA256 = "2.16.840.1.101.3.4.2.1";
+
+    private final PrivateKey key;
+
+    private final X509Certificate certificate;
+
+    private final boolean sha256;
+
+    /**
+     * Creates a signer
+     *
+     * @param key RSA private key
+     * @param certificate certificate of the key
+     * @param minSdkVersion minimal API level of devices which must accept the signature
+     * @throws AndroidConfigurationException if the key is not an RSA key
+     */
+    ApkSigner(PrivateKey key, X509Certificate certificate, int minSdkVersion) throws AndroidConfigurationException {
+        if (!"RSA".equals(key.getAlgorithm())) {
+            throw new AndroidConfigurationException("Only RSA keys are supported for signing APKs, key of "
+                    + certificate.getSubjectX500Principal() + " is " + key.getAlgorithm());
+        }
+        this.key = key;
+        this.certificate = certificate;
+        this.sha256 = minSdkVersion >= SHA256_MINIMAL_API_LEVEL;
+    }
+
+    /**
+     * Creates a signer using a key from a keystore
+     *
+     * @param keystore JKS or PKCS12 keystore
+     * @param storePassword password of the keystore
+     * @param alias alias of the key
+     * @param keyPassword password of the key
+     * @param minSdkVersion minimal API level of devices which must accept the signature
+     * @return the signer
+     * @throws AndroidConfigurationException if the key cannot be loaded
+     */
+    static ApkSigner fromKeyStore(File keystore, String storePassword, String alias, String keyPassword, int minSdkVersion)
+            throws AndroidConfigurationException {
+        try {
+            KeyStore store = load(keystore, storePassword, "JKS");
+            if (store == null) {
+                store = load(keystore, storePassword, "PKCS12");
+            }
+            if (store == null) {
+                throw new AndroidConfigurationException("Unable to read keystore " + keystore.getAbsolutePath());
+            }
+            PrivateKey key = (PrivateKey) store.getKey(alias, keyPassword.toCharArray());
+            if (key == null) {
+                throw new AndroidConfigurationException("Keystore " + keystore.getAbsolutePath()
+                        + " does not contain key " + alias);
+            }
+            return new ApkSigner(key, (X509Certificate) store.getCertificate(alias), minSdkVersion);
+        } catch (GeneralSecurityException e) {
+            throw new AndroidConfigurationException("Unable to load key " + alias + " from " + keystore.getAbsolutePath(),
+                    e);
+        }
+    }
+
+    /**
+     * Creates a signer using the debug key generated by Android tools
+     *
+     * @param environment environment to be checked for Android SDK home
+     * @param minSdkVersion minimal API level of devices which must accept the signature
+     * @return the signer
+     * @throws AndroidConfigurationException if the debug key cannot be loaded
+     */
+    static ApkSigner debugKey(Map<String, String> environment, int minSdkVersion) throws AndroidConfigurationException {
+        File keystore = new File(AndroidVirtualDeviceInventory.getAndroidHome(environment), DEBUG_KEYSTORE);
+        Validate.isReadable(keystore.getAbsolutePath(), "Debug keystore " + keystore.getAbsolutePath()
+                + " does not exist, please build any Android application to get it generated");
+        return fromKeyStore(keystore, DEBUG_PASSWORD, DEBUG_ALIAS, DEBUG_PASSWORD, minSdkVersion);
+    }
+
+    /**
+     * Returns algorithm of digests in signatures
+     *
+     * @return {@code SHA-256} or {@code SHA-1}
+     */
+    String getDigestAlgorithm() {
+        return sha256 ? "SHA-256" : "SHA-1";
+    }
+
+    /**
+     * Returns digest of the certificate, APKs signed by signers with the same certificate and digest algorithm are
+     * interchangeable
+     *
+     * @return hexadecimal MD5 digest of the encoded certificate
+     * @throws AndroidExecutionException if the certificate cannot be encoded
+     */
+    String getCertificateDigest() throws AndroidExecutionException {
+        try {
+            return FileDigests.md5(new ByteArrayInputStream(certificate.getEncoded()));
+        } catch (GeneralSecurityException e) {
+            throw new AndroidExecutionException(e, "Unable to encode certificate {0}",
+                    certificate.getSubjectX500Principal());
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to encode certificate {0}",
+                    certificate.getSubjectX500Principal());
+        }
+    }
+
+    /**
+     * Checks that a JAR signature is enough for an APK
+     *
+     * @param targetSdkVersion target API level declared by the APK
+     * @throws AndroidExecutionException if the APK requires APK Signature Scheme v2
+     */
+    void checkTargetSdkVersion(int targetSdkVersion) throws AndroidExecutionException {
+        if (targetSdkVersion >= SIGNATURE_V2_REQUIRED_API_LEVEL) {
+            throw new AndroidExecutionException(
+                    "APK targets API level {0}, which requires APK Signature Scheme v2, but only JAR signature is supported. "
+                            + "Sign the APK with apksigner before deploying it.", targetSdkVersion);
+        }
+    }
+
+    /**
+     * Checks if an entry belongs to a JAR signature, such entries are replaced when an APK is signed
+     *
+     * @param name name of the entry
+     * @return {@code true} if the entry is a part of signature
+     */
+    static boolean isSignatureEntry(String name) {
+        String upper = name.toUpperCase();
+        if (!upper.startsWith("META-INF/") || upper.indexOf('/', "META-INF/".length()) != -1) {
+            return false;
+        }
+        return upper.equals(MANIFEST_NAME) || upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA")
+                || upper.endsWith(".EC");
+    }
+
+    /**
+     * Returns a task which computes digest of an entry
+     *
+     * @param data content of the entry
+     * @return the task
+     */
+    Callable<byte[]> digest(final byte[] data) {
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws NoSuchAlgorithmException {
+                return messageDigest().digest(data);
+            }
+        };
+    }
+
+    /**
+     * Creates signature entries
+     *
+     * @param digests digests of entries of the APK, in the order of the entries
+     * @return content of the manifest, signature file and signature block, in this order
+     * @throws AndroidExecutionException if the signature cannot be created
+     */
+    Map<String, byte[]> sign(Map<String, byte[]> digests) throws AndroidExecutionException {
+        try {
+            String digestName = (sha256 ? "SHA-256" : "SHA1") + "-Digest";
+            MessageDigest digest = messageDigest();
+
+            ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+            ByteArrayOutputStream sections = new ByteArrayOutputStream();
+            header(manifest, "Manifest-Version: 1.0");
+            header(manifest, CREATED_BY);
+            manifest.write('\r');
+            manifest.write('\n');
+            for (Map.Entry<String, byte[]> entry : digests.entrySet()) {
+                ByteArrayOutputStream section = new ByteArrayOutputStream();
+                header(section, "Name: " + entry.getKey());
+                header(section, digestName + ": " + base64(entry.getValue()));
+                section.write('\r');
+                section.write('\n');
+                manifest.write(section.toByteArray());
+
+                header(sections, "Name: " + entry.getKey());
+                header(sections, digestName + ": " + base64(digest.digest(section.toByteArray())));
+                sections.write('\r');
+                sections.write('\n');
+            }
+
+            ByteArrayOutputStream signatureFile = new ByteArrayOutputStream();
+            header(signatureFile, "Signature-Version: 1.0");
+            header(signatureFile, CREATED_BY);
+            header(signatureFile, digestName + "-Manifest: " + base64(digest.digest(manifest.toByteArray())));
+            signatureFile.write('\r');
+            signatureFile.write('\n');
+            signatureFile.write(sections.toByteArray());
+
+            Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+            entries.put(MANIFEST_NAME, manifest.toByteArray());
+            entries.put(SIGNATURE_NAME, signatureFile.toByteArray());
+            entries.put(SIGNATURE_BLOCK_NAME, signatureBlock(signatureFile.toByteArray()));
+            return entries;
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to create signature of {0}",
+                    certificate.getSubjectX500Principal());
+        } catch (GeneralSecurityException e) {
+            throw new AndroidExecutionException(e, "Unable to create signature of {0}",
+                    certificate.getSubjectX500Principal());
+        }
+    }
+
+    private MessageDigest messageDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance(getDigestAlgorithm());
+    }
+
+    // PKCS#7 signed data without content, as created by jarsigner
+    private byte[] signatureBlock(byte[] signatureFile) throws GeneralSecurityException, IOException {
+        Signature signature = Signature.getInstance(sha256 ? "SHA256withRSA" : "SHA1withRSA");
+        signature.initSign(key);
+        signature.update(signatureFile);
+
+        byte[] digestAlgorithm = der(0x30, oid(sha256 ? OID_SHA256 : OID_SHA1), der(0x05));
+        byte[] signerInfo = der(0x30,
+                integer(BigInteger.ONE),
+                der(0x30, certificate.getIssuerX500Principal().getEncoded(), integer(certificate.getSerialNumber())),
+                digestAlgorithm,
+                der(0x30, oid(OID_RSA), der(0x05)),
+                der(0x04, signature.sign()));
+        byte[] signedData = der(0x30,
+                integer(BigInteger.ONE),
+                der(0x31, digestAlgorithm),
+                der(0x30, oid(OID_DATA)),
+                der(0xa0, certificate.getEncoded()),
+                der(0x31, signerInfo));
+        return der(0x30, oid(OID_SIGNED_DATA), der(0xa0, signedData));
+    }
+
+    private static KeyStore load(File keystore, String password, String type) throws GeneralSecurityException {
+        try {
+            InputStream in = new FileInputStream(keystore);
+            try {
+                KeyStore store = KeyStore.getInstance(type);
+                store.load(in, password.toCharArray());
+                return store;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // wrong format or wrong password
+            return null;
+        }
+    }
+
+    // writes a manifest header, long headers are wrapped to continuation lines
+    private static void header(ByteArrayOutputStream out, String line) throws UnsupportedEncodingException {
+        byte[] bytes = line.getBytes("UTF-8");
+        int position = Math.min(bytes.length, MAX_LINE_LENGTH);
+        out.write(bytes, 0, position);
+        while (position < bytes.length) {
+            int length = Math.min(bytes.length - position, MAX_LINE_LENGTH - 1);
+            out.write('\r');
+            out.write('\n');
+            out.write(' ');
+            out.write(bytes, position, length);
+            position += length;
+        }
+        out.write('\r');
+        out.write('\n');
+    }
+
+    static String base64(byte[] data) {
+        StringBuilder sb = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xff) << 16;
+            b |= i + 1 < data.length ? (data[i + 1] & 0xff) << 8 : 0;
+            b |= i + 2 < data.length ? data[i + 2] & 0xff : 0;
+            sb.append(BASE64[(b >> 18) & 0x3f]).append(BASE64[(b >> 12) & 0x3f]);
+            sb.append(i + 1 < data.length ? BASE64[(b >> 6) & 0x3f] : '=');
+            sb.append(i + 2 < data.length ? BASE64[b & 0x3f] : '=');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] der(int tag, byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents) {
+            length += content.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = length < 0x100 ? 1 : length < 0x10000 ? 2 : length < 0x1000000 ? 3 : 4;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write(length >> (8 * i));
+            }
+        }
+        for (byte[] content : contents) {
+            out.write(content, 0, content.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] integer(BigInteger value) {
+        return der(0x02, value.toByteArray());
+    }
+
+    private static byte[] oid(String oid) {
+        String[] parts = oid.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Integer.parseInt(parts[0]) * 40 + Integer.parseInt(parts[1]));
+        for (int i = 2; i < parts.length; i++) {
+            long value = Long.parseLong(parts[i]);
+            int groups = 1;
+            while (value >> (7 * groups) != 0) {
+                groups++;
+            }
+            for (int g = groups - 1; g >= 0; g--) {
+                out.write((int) ((value >> (7 * g)) & 0x7f) | (g == 0 ? 0 : 0x80));
+            }
+        }
+        return der(0x06, out.toByteArray());
+    }
+}
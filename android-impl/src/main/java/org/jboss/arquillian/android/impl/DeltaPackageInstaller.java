@@ -0,0 +1,515 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+
+/**
+ * Installs a new version of an installed APK by transferring only the parts which have changed. Central directories of the
+ * new APK and of the previously installed one are compared, unchanged entries are copied on the device from the installed
+ * APK and only the rest is pushed. The APK is reconstructed on the device and installed from there.
+ *
+ * Installed APKs are cached locally, per device, so their layout is known without reading them back from the device. The
+ * cache keeps at most {@link #MAX_CACHED_APKS} recently installed APKs which are not older than
+ * {@link #MAX_CACHE_AGE_MILLIS}. A reconstructed APK is installed only if its digest is the same as the digest of the new
+ * APK, which means its signature verifies as well. In all other cases, caller is supposed to fall back to a full
+ * installation.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class DeltaPackageInstaller {
+    private static final Logger log = Logger.getLogger(DeltaPackageInstaller.class.getName());
+
+    static final String WORK_DIR = "/data/local/tmp/arquillian-delta";
+
+    // the APK is reconstructed under a fixed name, a local file name might contain characters interpreted by shell
+    static final String TARGET_PATH = WORK_DIR + "/delta.apk";
+
+    static final int MAX_CACHED_APKS = 10;
+
+    static final long MAX_CACHE_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    // unchanged data are copied by whole blocks, which is fast even with old toolbox dd
+    static final int BLOCK_SIZE = 4096;
+
+    // pushing most of the file as a delta is slower than a full installation
+    private static final double MAX_DELTA_RATIO = 0.75;
+
+    private static final int MAX_COMMAND_LENGTH = 3000;
+
+    private static final String APK_SUFFIX = ".apk";
+
+    private final AndroidDevice device;
+
+    private final InstalledPackageIndex index;
+
+    private final File cacheDir;
+
+    DeltaPackageInstaller(AndroidDevice device, InstalledPackageIndex index) {
+        this(device, index, new File(new File(System.getProperty("java.io.tmpdir"), "arquillian-android-apks"), String
+                .valueOf(device.getSerialNumber()).replaceAll("[^A-Za-z0-9._-]", "_")));
+    }
+
+    DeltaPackageInstaller(AndroidDevice device, InstalledPackageIndex index, File cacheDir) {
+        this.device = device;
+        this.index = index;
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Tries to install an APK as a delta against an already installed package
+     *
+     * @param apk the APK
+     * @param extraArgs extra arguments of {@code pm install}
+     * @return {@code true} if the APK was installed, {@code false} if it has to be installed completely
+     * @throws AndroidExecutionException if the index of installed packages cannot be refreshed
+     */
+    boolean install(File apk, String... extraArgs) throws AndroidExecutionException {
+        Delta delta = null;
+        String basePath = null;
+        for (Map.Entry<File, String> base : findBases().entrySet()) {
+            try {
+                Delta candidate = Delta.create(base.getKey(), apk, BLOCK_SIZE);
+                if (delta == null || candidate.getLiteralBytes() < delta.getLiteralBytes()) {
+                    delta = candidate;
+                    basePath = base.getValue();
+                }
+            } catch (IOException e) {
+                log.log(Level.FINE, "Unable to compare " + apk + " with " + base.getKey(), e);
+            }
+        }
+        if (delta == null || delta.getLiteralBytes() > MAX_DELTA_RATIO * apk.length()) {
+            return false;
+        }
+
+        File localDir = null;
+        try {
+            localDir = createTempDir();
+            String target = TARGET_PATH;
+            device.executeShellCommand("rm -r " + WORK_DIR);
+            device.pushFiles(delta.writeLiterals(apk, localDir, WORK_DIR), null);
+            for (String command : delta.toCommands(basePath, target)) {
+                device.executeShellCommand(command);
+            }
+
+            String digest = FileDigests.md5(apk);
+            if (!digest.equalsIgnoreCase(FileDigests.remoteMd5(device, Arrays.asList(target)).get(target))) {
+                log.log(Level.WARNING, "APK {0} was not reconstructed correctly on {1}, it will be installed completely",
+                        new Object[] { apk.getName(), device.getSerialNumber() });
+                return false;
+            }
+
+            String failure = pmInstall(target, extraArgs);
+            if (failure != null) {
+                log.log(Level.WARNING, "Delta installation of {0} on {1} failed with {2}, it will be installed completely",
+                        new Object[] { apk.getName(), device.getSerialNumber(), failure });
+                return false;
+            }
+            log.log(Level.INFO, "Installed {0} on {1}, transferred {2} of {3} bytes", new Object[] { apk.getName(),
+                    device.getSerialNumber(), delta.getLiteralBytes(), apk.length() });
+            installed(apk);
+            return true;
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Unable to prepare delta of " + apk + ", it will be installed completely", e);
+            return false;
+        } finally {
+            device.executeShellCommand("rm -r " + WORK_DIR);
+            delete(localDir);
+        }
+    }
+
+    /**
+     * Remembers an installed APK, so it can be used as a base of later delta installations
+     *
+     * @param apk the installed APK
+     */
+    void installed(File apk) {
+        try {
+            File cached = new File(cacheDir, FileDigests.md5(apk) + APK_SUFFIX);
+            if (!cached.exists()) {
+                cacheDir.mkdirs();
+                copy(apk, cached);
+            } else {
+                cached.setLastModified(System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            log.log(Level.FINE, "Unable to cache " + apk, e);
+        }
+        evict();
+    }
+
+    // removes expired APKs and the least recently installed ones above the limit
+    private void evict() {
+        File[] cached = cacheDir.listFiles();
+        if (cached == null) {
+            return;
+        }
+        Arrays.sort(cached, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = second.lastModified() - first.lastModified();
+                return difference > 0 ? 1 : (difference < 0 ? -1 : 0);
+            }
+        });
+        long expired = System.currentTimeMillis() - MAX_CACHE_AGE_MILLIS;
+        for (int i = 0; i < cached.length; i++) {
+            if (i >= MAX_CACHED_APKS || cached[i].lastModified() < expired) {
+                cached[i].delete();
+            }
+        }
+    }
+
+    // cached APKs which are still installed, mapped to their location on the device
+    private Map<File, String> findBases() throws AndroidExecutionException {
+        Map<File, String> bases = new LinkedHashMap<File, String>();
+        File[] cached = cacheDir.listFiles();
+        if (cached == null || cached.length == 0) {
+            return bases;
+        }
+
+        Map<String, Long> digests = new LinkedHashMap<String, Long>();
+        for (File file : cached) {
+            digests.put(file.getName().replace(APK_SUFFIX, "").toLowerCase(), file.length());
+        }
+        Map<String, InstalledPackageIndex.Entry> installed = index.findAll(digests);
+        for (File file : cached) {
+            String digest = file.getName().replace(APK_SUFFIX, "").toLowerCase();
+            if (installed.containsKey(digest)) {
+                bases.put(file, installed.get(digest).path);
+            } else {
+                // no longer installed, so it will never be used again
+                file.delete();
+            }
+        }
+        return bases;
+    }
+
+    private String pmInstall(String remotePath, String... extraArgs) throws AndroidExecutionException {
+        StringBuilder command = new StringBuilder("pm install -r");
+        for (String arg : extraArgs) {
+            command.append(' ').append(arg);
+        }
+        command.append(' ').append(ShellBatch.quote(remotePath));
+
+        final List<String> output = new ArrayList<String>();
+        device.executeShellCommand(command.toString(), new AndroidDeviceOutputReciever() {
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    if (line.trim().length() > 0) {
+                        output.add(line.trim());
+                    }
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        for (String line : output) {
+            if (line.startsWith("Success")) {
+                return null;
+            }
+        }
+        return output.isEmpty() ? "no output" : output.get(output.size() - 1);
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("arquillian-delta", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        return dir;
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        InputStream in = new FileInputStream(source);
+        try {
+            OutputStream out = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File dir) {
+        if (dir == null) {
+            return;
+        }
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Description of a new APK as a sequence of literal parts and blocks copied from the base APK
+     */
+    static class Delta {
+
+        private final List<Part> parts = new ArrayList<Part>();
+
+        private final int blockSize;
+
+        private long literalBytes;
+
+        private Delta(int blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        /**
+         * Computes a delta between two archives
+         *
+         * @param base the base archive
+         * @param target the new archive
+         * @param blockSize size of copied blocks
+         * @return the delta
+         * @throws IOException if archives cannot be read
+         */
+        static Delta create(File base, File target, int blockSize) throws IOException {
+            ZipLayout baseLayout = ZipLayout.read(base);
+            ZipLayout targetLayout = ZipLayout.read(target);
+
+            Delta delta = new Delta(blockSize);
+            RandomAccessFile baseFile = new RandomAccessFile(base, "r");
+            RandomAccessFile targetFile = new RandomAccessFile(target, "r");
+            try {
+                long position = 0;
+                long copyFrom = -1;
+                long copyTo = -1;
+                long copyLength = 0;
+                for (ZipLayout.Segment segment : targetLayout.getSegments()) {
+                    ZipLayout.Segment previous = baseLayout.getSegment(segment.name);
+                    // local headers might differ even if central directory entries are the same
+                    if (!segment.sameEntry(previous)
+                            || !sameBytes(baseFile, previous.offset, targetFile, segment.offset, segment.length)) {
+                        continue;
+                    }
+                    if (copyLength > 0 && copyFrom + copyLength == previous.offset
+                            && copyTo + copyLength == segment.offset) {
+                        copyLength += segment.length;
+                        continue;
+                    }
+                    if (copyLength > 0) {
+                        position = delta.copy(position, copyFrom, copyTo, copyLength);
+                    }
+                    copyFrom = previous.offset;
+                    copyTo = segment.offset;
+                    copyLength = segment.length;
+                }
+                if (copyLength > 0) {
+                    position = delta.copy(position, copyFrom, copyTo, copyLength);
+                }
+                delta.literal(position, targetLayout.getLength() - position);
+            } finally {
+                baseFile.close();
+                targetFile.close();
+            }
+            return delta;
+        }
+
+        long getLiteralBytes() {
+            return literalBytes;
+        }
+
+        List<Part> getParts() {
+            return parts;
+        }
+
+        // copies whole blocks of the range, unaligned start and end are sent as literals
+        private long copy(long position, long from, long to, long length) {
+            literal(position, to - position);
+            long firstBlock = (from + blockSize - 1) / blockSize;
+            long endBlock = (from + length) / blockSize;
+            if (endBlock <= firstBlock) {
+                literal(to, length);
+                return to + length;
+            }
+            long head = firstBlock * blockSize - from;
+            long copied = (endBlock - firstBlock) * blockSize;
+            literal(to, head);
+            parts.add(new Part(to + head, copied, firstBlock));
+            literal(to + head + copied, length - head - copied);
+            return to + length;
+        }
+
+        private void literal(long offset, long length) {
+            if (length <= 0) {
+                return;
+            }
+            literalBytes += length;
+            Part last = parts.isEmpty() ? null : parts.get(parts.size() - 1);
+            if (last != null && last.isLiteral() && last.offset + last.length == offset) {
+                parts.set(parts.size() - 1, new Part(last.offset, last.length + length, -1));
+            } else {
+                parts.add(new Part(offset, length, -1));
+            }
+        }
+
+        /**
+         * Writes literal parts of the target archive to separate files
+         *
+         * @param target the target archive
+         * @param localDir local directory to store the parts
+         * @param remoteDir directory on the device the parts will be pushed to
+         * @return local files mapped to their remote paths
+         * @throws IOException if parts cannot be written
+         */
+        Map<File, String> writeLiterals(File target, File localDir, String remoteDir) throws IOException {
+            Map<File, String> files = new LinkedHashMap<File, String>();
+            RandomAccessFile in = new RandomAccessFile(target, "r");
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                for (int i = 0; i < parts.size(); i++) {
+                    Part part = parts.get(i);
+                    if (!part.isLiteral()) {
+                        continue;
+                    }
+                    File file = new File(localDir, partName(i));
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        in.seek(part.offset);
+                        long remaining = part.length;
+                        while (remaining > 0) {
+                            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                            if (read == -1) {
+                                throw new IOException("Unexpected end of " + target);
+                            }
+                            out.write(buffer, 0, read);
+                            remaining -= read;
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    files.put(file, remoteDir + "/" + partName(i));
+                }
+            } finally {
+                in.close();
+            }
+            return files;
+        }
+
+        /**
+         * Creates shell commands which reconstruct the target archive on the device
+         *
+         * @param basePath path of the base archive on the device
+         * @param targetPath path of the reconstructed archive
+         * @return the commands
+         */
+        List<String> toCommands(String basePath, String targetPath) {
+            List<String> commands = new ArrayList<String>();
+            StringBuilder command = new StringBuilder();
+            for (int i = 0; i < parts.size(); i++) {
+                Part part = parts.get(i);
+                String step;
+                if (part.isLiteral()) {
+                    step = "cat " + WORK_DIR + "/" + partName(i) + " >> " + ShellBatch.quote(targetPath);
+                } else {
+                    step = "dd if=" + ShellBatch.quote(basePath) + " bs=" + blockSize + " skip=" + part.block + " count="
+                            + (part.length / blockSize) + " >> " + ShellBatch.quote(targetPath) + " 2>/dev/null";
+                }
+                if (command.length() > 0 && command.length() + step.length() > MAX_COMMAND_LENGTH) {
+                    commands.add(command.toString());
+                    command.setLength(0);
+                }
+                if (command.length() > 0) {
+                    command.append(" && ");
+                }
+                command.append(step);
+            }
+            if (command.length() > 0) {
+                commands.add(command.toString());
+            }
+            return commands;
+        }
+
+        private static String partName(int index) {
+            return "part-" + index;
+        }
+
+        private static boolean sameBytes(RandomAccessFile first, long firstOffset, RandomAccessFile second,
+                long secondOffset, long length) throws IOException {
+            byte[] a = new byte[8192];
+            byte[] b = new byte[8192];
+            long compared = 0;
+            while (compared < length) {
+                int chunk = (int) Math.min(a.length, length - compared);
+                first.seek(firstOffset + compared);
+                first.readFully(a, 0, chunk);
+                second.seek(secondOffset + compared);
+                second.readFully(b, 0, chunk);
+                for (int i = 0; i < chunk; i++) {
+                    if (a[i] != b[i]) {
+                        return false;
+                    }
+                }
+                compared += chunk;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Part of the target archive, either sent as a literal or copied from blocks of the base archive
+     */
+    static class Part {
+        final long offset;
+        final long length;
+        final long block;
+
+        Part(long offset, long length, long block) {
+            this.offset = offset;
+            this.length = length;
+            this.block = block;
+        }
+
+        boolean isLiteral() {
+            return block < 0;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Capabilities of a device as recorded in {@link DeviceCapabilityInventory}. Capabilities are valid as long as the
+ * fingerprint of the device, composed of its boot identifier and build fingerprint, does not change.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class DeviceCapabilities {
+
+    static final int UNKNOWN = -1;
+
+    private final String serialNumber;
+
+    private final String fingerprint;
+
+    private final int apiLevel;
+
+    private final List<String> abis;
+
+    private final long totalMemory;
+
+    private final int screenWidth;
+
+    private final int screenHeight;
+
+    DeviceCapabilities(String serialNumber, String fingerprint, int apiLevel, List<String> abis, long totalMemory,
+            int screenWidth, int screenHeight) {
+        this.serialNumber = serialNumber;
+        this.fingerprint = fingerprint;
+        this.apiLevel = apiLevel;
+        this.abis = Collections.unmodifiableList(new ArrayList<String>(abis));
+        this.totalMemory = totalMemory;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+    }
+
+    String getSerialNumber() {
+        return serialNumber;
+    }
+
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    int getApiLevel() {
+        return apiLevel;
+    }
+
+    List<String> getAbis() {
+        return abis;
+    }
+
+    /**
+     * Returns total memory of the device
+     *
+     * @return memory in bytes or {@link #UNKNOWN}
+     */
+    long getTotalMemory() {
+        return totalMemory;
+    }
+
+    int getScreenWidth() {
+        return screenWidth;
+    }
+
+    int getScreenHeight() {
+        return screenHeight;
+    }
+
+    /**
+     * Checks whether the device satisfies requirements
+     *
+     * @param apiLevel required API level
+     * @param abi required ABI, {@code null} if any ABI is accepted
+     * @return {@code true} if the device has the API level and supports the ABI
+     */
+    boolean matches(int apiLevel, String abi) {
+        return this.apiLevel == apiLevel && (abi == null || abis.contains(abi));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(serialNumber).append(": API level ").append(apiLevel).append(", ABIs ").append(abis);
+        if (totalMemory != UNKNOWN) {
+            sb.append(", memory ").append(totalMemory / (1024 * 1024)).append("M");
+        }
+        if (screenWidth != UNKNOWN) {
+            sb.append(", screen ").append(screenWidth).append("x").append(screenHeight);
+        }
+        return sb.toString();
+    }
+}
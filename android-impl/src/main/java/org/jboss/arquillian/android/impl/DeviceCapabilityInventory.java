@@ -0,0 +1,401 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
+import org.jboss.arquillian.android.api.AndroidDeviceProperties;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.impl.ParallelDeviceTasks.DeviceTask;
+
+/**
+ * Inventory of device capabilities which is kept on disk, so devices are matched to requirements without being queried
+ * in every run. Entries are keyed by serial number of the device and they are replaced only if the fingerprint of the
+ * device changes, that is, after the device was rebooted or its system was updated. Checking the fingerprint costs a
+ * single shell command per device. Updates of the file by concurrent suites are serialized by a file lock.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class DeviceCapabilityInventory {
+    private static final Logger log = Logger.getLogger(DeviceCapabilityInventory.class.getName());
+
+    static final String BUILD_FINGERPRINT = "ro.build.fingerprint";
+
+    static final String MEMINFO_PATH = "/proc/meminfo";
+
+    /**
+     * Number of devices of the same adb server probed at the same time
+     */
+    static final int MAX_PROBES_PER_ENDPOINT = 8;
+
+    /**
+     * Suffix of the file which is locked while the inventory file is updated
+     */
+    static final String LOCK_SUFFIX = ".lock";
+
+    // a file lock is held by the whole JVM, so inventories of the same JVM are excluded by a monitor
+    private static final Object STORE_MONITOR = new Object();
+
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String API_LEVEL = "apiLevel";
+    private static final String ABIS = "abis";
+    private static final String TOTAL_MEMORY = "totalMemory";
+    private static final String SCREEN_WIDTH = "screenWidth";
+    private static final String SCREEN_HEIGHT = "screenHeight";
+
+    private static final Pattern MEM_TOTAL_PATTERN = Pattern.compile("^MemTotal:\\s+(\\d+)\\s*kB.*");
+    private static final Pattern SCREEN_SIZE_PATTERN = Pattern.compile("^(Physical|Override) size:\\s*(\\d+)x(\\d+).*");
+
+    private final File file;
+
+    private final Map<String, DeviceCapabilities> entries;
+
+    /**
+     * Opens an inventory, existing entries are loaded from the file
+     *
+     * @param file the file the inventory is stored in, it does not have to exist
+     * @throws IOException if the file cannot be read
+     */
+    public DeviceCapabilityInventory(File file) throws IOException {
+        this.file = file;
+        this.entries = new HashMap<String, DeviceCapabilities>();
+        for (DeviceCapabilities capabilities : parse(loadLocked()).values()) {
+            entries.put(capabilities.getSerialNumber(), capabilities);
+        }
+    }
+
+    /**
+     * Returns recorded capabilities of a device without contacting it
+     *
+     * @param serialNumber serial number of the device
+     * @return capabilities or {@code null} if the device is not known
+     */
+    synchronized DeviceCapabilities get(String serialNumber) {
+        return entries.get(serialNumber);
+    }
+
+    /**
+     * Checks fingerprints of all online devices in parallel and queries capabilities of the devices which are not known
+     * or whose fingerprint has changed. The inventory file is rewritten only if any entry was updated. Devices which cannot
+     * be probed are skipped.
+     *
+     * @param devices the devices
+     * @param executor executor which provides threads
+     * @return current capabilities of the probed devices
+     */
+    Map<AndroidDevice, DeviceCapabilities> refresh(Collection<AndroidDevice> devices, ProcessExecutor executor) {
+        List<AndroidDevice> online = new ArrayList<AndroidDevice>();
+        for (AndroidDevice device : devices) {
+            if (device.isOnline()) {
+                online.add(device);
+            }
+        }
+
+        final Set<String> updated = Collections.synchronizedSet(new HashSet<String>());
+        Map<AndroidDevice, Future<DeviceCapabilities>> futures = ParallelDeviceTasks.submit(online,
+                new DeviceTask<DeviceCapabilities>() {
+                    @Override
+                    public DeviceCapabilities execute(AndroidDevice device) throws AndroidExecutionException {
+                        String fingerprint = probeFingerprint(device);
+                        DeviceCapabilities known = get(device.getSerialNumber());
+                        if (known != null && known.getFingerprint().equals(fingerprint)) {
+                            return known;
+                        }
+                        DeviceCapabilities current = query(device, fingerprint);
+                        synchronized (DeviceCapabilityInventory.this) {
+                            entries.put(current.getSerialNumber(), current);
+                        }
+                        updated.add(current.getSerialNumber());
+                        return current;
+                    }
+                }, executor, MAX_PROBES_PER_ENDPOINT);
+
+        Map<AndroidDevice, DeviceCapabilities> results = new LinkedHashMap<AndroidDevice, DeviceCapabilities>();
+        for (Map.Entry<AndroidDevice, Future<DeviceCapabilities>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.log(Level.WARNING, "Unable to determine capabilities of device {0}: {1}", new Object[] {
+                        entry.getKey().getSerialNumber(), e.getCause().getMessage() });
+            }
+        }
+
+        if (!updated.isEmpty()) {
+            try {
+                store(updated);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Unable to update device inventory " + file, e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Finds a device which satisfies requirements using recorded capabilities only
+     *
+     * @param devices candidate devices
+     * @param apiLevel required API level
+     * @param abi required ABI, {@code null} if any ABI is accepted
+     * @return the first matching online device or {@code null} if there is no such device
+     */
+    AndroidDevice find(Collection<AndroidDevice> devices, int apiLevel, String abi) {
+        for (AndroidDevice device : devices) {
+            DeviceCapabilities capabilities = get(device.getSerialNumber());
+            if (device.isOnline() && capabilities != null && capabilities.matches(apiLevel, abi)) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    // boot identifier changes with every boot, build fingerprint with every system update
+    private String probeFingerprint(AndroidDevice device) throws AndroidExecutionException {
+        final StringBuilder fingerprint = new StringBuilder();
+        // devices without boot identifier are recognized by build fingerprint only
+        String command = "cat " + DevicePropertyCache.BOOT_ID_PATH + " 2>/dev/null ; getprop " + BUILD_FINGERPRINT;
+        device.executeShellCommand(command, new AndroidDeviceOutputReciever() {
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    if (line.trim().length() > 0) {
+                        fingerprint.append(fingerprint.length() == 0 ? "" : " ").append(line.trim());
+                    }
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        return fingerprint.toString();
+    }
+
+    // properties are fetched again, a snapshot cached by the device might predate the change of the fingerprint
+    private DeviceCapabilities query(AndroidDevice device, String fingerprint) throws AndroidExecutionException {
+        final Map<String, String> properties = new HashMap<String, String>();
+        final long[] totalMemory = new long[] { DeviceCapabilities.UNKNOWN };
+        final int[] screen = new int[] { DeviceCapabilities.UNKNOWN, DeviceCapabilities.UNKNOWN };
+        // screen size is not available before API level 18, memory is still reported then
+        device.executeShellCommand("getprop && cat " + MEMINFO_PATH + " && wm size", new AndroidDeviceOutputReciever() {
+            private boolean overridden;
+
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    Matcher m = DevicePropertyCache.PROPERTY_PATTERN.matcher(line);
+                    if (m.matches()) {
+                        properties.put(m.group(1), m.group(2));
+                        continue;
+                    }
+                    m = MEM_TOTAL_PATTERN.matcher(line.trim());
+                    if (m.matches()) {
+                        totalMemory[0] = Long.parseLong(m.group(1)) * 1024;
+                        continue;
+                    }
+                    m = SCREEN_SIZE_PATTERN.matcher(line.trim());
+                    if (m.matches() && !overridden) {
+                        screen[0] = Integer.parseInt(m.group(2));
+                        screen[1] = Integer.parseInt(m.group(3));
+                        overridden = "Override".equals(m.group(1));
+                    }
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+
+        AndroidDeviceProperties snapshot = new AndroidDeviceProperties(null, properties);
+        DeviceCapabilities capabilities = new DeviceCapabilities(device.getSerialNumber(), fingerprint,
+                snapshot.getApiLevel(), snapshot.getAbis(), totalMemory[0], screen[0], screen[1]);
+        log.log(Level.FINE, "Recorded capabilities of {0}", capabilities);
+        return capabilities;
+    }
+
+    /**
+     * Merges updated entries with the current content of the file, which might have been changed by other suites. Suites
+     * running in other processes are excluded by a lock of a file next to the inventory, so none of their updates is lost.
+     */
+    private synchronized void store(final Set<String> updated) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+
+        locked(parent, new LockedOperation<Void>() {
+            @Override
+            public Void run() throws IOException {
+                merge(parent, updated);
+                return null;
+            }
+        });
+    }
+
+    // the file is replaced while it is stored, so it is read under the lock as well
+    private Properties loadLocked() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory()) {
+            return new Properties();
+        }
+        return locked(parent, new LockedOperation<Properties>() {
+            @Override
+            public Properties run() throws IOException {
+                return load();
+            }
+        });
+    }
+
+    private <T> T locked(File parent, LockedOperation<T> operation) throws IOException {
+        synchronized (STORE_MONITOR) {
+            RandomAccessFile raf = new RandomAccessFile(new File(parent, file.getName() + LOCK_SUFFIX), "rw");
+            try {
+                FileLock lock = raf.getChannel().lock();
+                try {
+                    return operation.run();
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private void merge(File parent, Set<String> updated) throws IOException {
+        Properties properties = load();
+        Map<String, DeviceCapabilities> stored = parse(properties);
+        synchronized (updated) {
+            for (String serialNumber : updated) {
+                stored.put(serialNumber, entries.get(serialNumber));
+            }
+        }
+
+        properties = new Properties();
+        for (DeviceCapabilities capabilities : stored.values()) {
+            String prefix = capabilities.getSerialNumber() + ".";
+            properties.setProperty(prefix + FINGERPRINT, capabilities.getFingerprint());
+            properties.setProperty(prefix + API_LEVEL, String.valueOf(capabilities.getApiLevel()));
+            properties.setProperty(prefix + ABIS, join(capabilities.getAbis()));
+            properties.setProperty(prefix + TOTAL_MEMORY, String.valueOf(capabilities.getTotalMemory()));
+            properties.setProperty(prefix + SCREEN_WIDTH, String.valueOf(capabilities.getScreenWidth()));
+            properties.setProperty(prefix + SCREEN_HEIGHT, String.valueOf(capabilities.getScreenHeight()));
+        }
+
+        File tmp = new File(parent, file.getName() + "." + UUID.randomUUID() + ".tmp");
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            properties.store(os, "Capabilities of Android devices");
+        } finally {
+            os.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // rename does not replace existing files on all platforms
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Unable to update device inventory " + file);
+            }
+        }
+    }
+
+    private Properties load() throws IOException {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            InputStream is = new FileInputStream(file);
+            try {
+                properties.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        return properties;
+    }
+
+    // entries which are incomplete or malformed are dropped, they will be recorded again
+    private static Map<String, DeviceCapabilities> parse(Properties properties) {
+        Map<String, DeviceCapabilities> parsed = new LinkedHashMap<String, DeviceCapabilities>();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.endsWith("." + FINGERPRINT)) {
+                continue;
+            }
+            String serialNumber = key.substring(0, key.length() - FINGERPRINT.length() - 1);
+            String prefix = serialNumber + ".";
+            try {
+                String abis = properties.getProperty(prefix + ABIS, "");
+                parsed.put(serialNumber, new DeviceCapabilities(serialNumber, properties.getProperty(key),
+                        Integer.parseInt(properties.getProperty(prefix + API_LEVEL)),
+                        abis.length() == 0 ? Collections.<String> emptyList() : Arrays.asList(abis.split(",")),
+                        Long.parseLong(properties.getProperty(prefix + TOTAL_MEMORY)),
+                        Integer.parseInt(properties.getProperty(prefix + SCREEN_WIDTH)),
+                        Integer.parseInt(properties.getProperty(prefix + SCREEN_HEIGHT))));
+            } catch (NumberFormatException e) {
+                log.log(Level.FINE, "Ignoring malformed inventory entry of {0}", serialNumber);
+            }
+        }
+        return parsed;
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            sb.append(sb.length() == 0 ? "" : ",").append(value);
+        }
+        return sb.toString();
+    }
+
+    private interface LockedOperation<T> {
+        T run() throws IOException;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
+import org.jboss.arquillian.android.api.AndroidDeviceProperties;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+
+/**
+ * Caches system properties of a device. All properties are fetched by a single {@code getprop} call together with the
+ * boot identifier of the device. The snapshot is revalidated by comparing the boot identifier at most once per
+ * revalidation interval, so it is replaced after the device reboots.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class DevicePropertyCache {
+
+    static final String BOOT_ID_PATH = "/proc/sys/kernel/random/boot_id";
+
+    static final long REVALIDATION_MILLIS = 5000;
+
+    static final Pattern PROPERTY_PATTERN = Pattern.compile("^\\[([^]]+)\\]: \\[(.*)\\]\\s*$");
+
+    private final AndroidDevice device;
+
+    private final long revalidationMillis;
+
+    private volatile AndroidDeviceProperties snapshot;
+
+    private long validated;
+
+    DevicePropertyCache(AndroidDevice device) {
+        this(device, REVALIDATION_MILLIS);
+    }
+
+    DevicePropertyCache(AndroidDevice device, long revalidationMillis) {
+        this.device = device;
+        this.revalidationMillis = revalidationMillis;
+    }
+
+    /**
+     * Returns current snapshot of properties, fetching it from the device if needed
+     *
+     * @return the snapshot
+     * @throws AndroidExecutionException if properties cannot be fetched
+     */
+    synchronized AndroidDeviceProperties get() throws AndroidExecutionException {
+        long now = System.currentTimeMillis();
+        AndroidDeviceProperties current = snapshot;
+        if (current != null && now - validated < revalidationMillis) {
+            return current;
+        }
+        if (current != null && current.getBootId() != null && current.getBootId().equals(fetchBootId())) {
+            validated = now;
+            return current;
+        }
+        current = fetch();
+        snapshot = current;
+        validated = now;
+        return current;
+    }
+
+    /**
+     * Returns the last snapshot without contacting the device
+     *
+     * @return the snapshot or {@code null} if properties were not fetched yet
+     */
+    AndroidDeviceProperties peek() {
+        return snapshot;
+    }
+
+    /**
+     * Drops the snapshot, properties are fetched again with the next request
+     */
+    void invalidate() {
+        snapshot = null;
+    }
+
+    private String fetchBootId() throws AndroidExecutionException {
+        final StringBuilder bootId = new StringBuilder();
+        device.executeShellCommand("cat " + BOOT_ID_PATH, new AndroidDeviceOutputReciever() {
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    if (bootId.length() == 0 && isBootId(line)) {
+                        bootId.append(line.trim());
+                    }
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        return bootId.length() == 0 ? null : bootId.toString();
+    }
+
+    private AndroidDeviceProperties fetch() throws AndroidExecutionException {
+        final Map<String, String> properties = new HashMap<String, String>();
+        final StringBuilder bootId = new StringBuilder();
+        device.executeShellCommand("cat " + BOOT_ID_PATH + " && getprop", new AndroidDeviceOutputReciever() {
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    Matcher m = PROPERTY_PATTERN.matcher(line);
+                    if (m.matches()) {
+                        properties.put(m.group(1), m.group(2));
+                    } else if (bootId.length() == 0 && isBootId(line)) {
+                        bootId.append(line.trim());
+                    }
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        return new AndroidDeviceProperties(bootId.length() == 0 ? null : bootId.toString(), properties);
+    }
+
+    // boot identifier is an UUID
+    private static boolean isBootId(String line) {
+        String value = line.trim();
+        return value.length() == 36 && value.charAt(8) == '-' && value.indexOf(' ') == -1;
+    }
+}
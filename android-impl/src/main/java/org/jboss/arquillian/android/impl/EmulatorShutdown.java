@@ -42,7 +42,9 @@ import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jboss.arquillian.android.api.AndroidBridge;
 import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
 import org.jboss.arquillian.android.api.AndroidExecutionException;
 import org.jboss.arquillian.android.configuration.AndroidExtensionConfiguration;
 import org.jboss.arquillian.android.spi.event.AndroidDeviceShutdown;
@@ -52,12 +54,8 @@ import org.jboss.arquillian.core.api.annotation.Inject;
 import org.jboss.arquillian.core.api.annotation.Observes;
 import org.jboss.arquillian.test.spi.event.suite.AfterSuite;
 
-import com.android.ddmlib.AndroidDebugBridge;
-import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
-import com.android.ddmlib.IDevice;
-
 /**
- * Brings Android Emulator down
+ * Brings Android Emulator down and removes port forwardings of the device
  *
  * Observes:
  * <ul>
@@ -81,9 +79,19 @@ public class EmulatorShutdown {
     @Inject
     private Instance<AndroidEmulator> androidEmulator;
 
-    public void shutdownEmulator(@Observes AfterSuite event, AndroidExtensionConfiguration configuration, AndroidDevice device,
-            ProcessExecutor executor) throws AndroidExecutionException
+    @Inject
+    private Instance<AndroidImageStore> imageStore;
+
+    public void shutdownEmulator(@Observes AfterSuite event, AndroidExtensionConfiguration configuration, AndroidBridge bridge,
+            AndroidDevice device, ProcessExecutor executor) throws AndroidExecutionException
     {
+        // forwardings of a real device would outlive the suite and block its ports
+        try {
+            device.removePortForwardings();
+        } catch (AndroidExecutionException e) {
+            log.log(Level.WARNING, "Unable to remove port forwardings of " + device.getSerialNumber(), e);
+        }
+
         AndroidEmulator emulator = androidEmulator.get();
 
         // we created the emulator, test shut it down
@@ -94,16 +102,25 @@ public class EmulatorShutdown {
             log.log(Level.INFO, "Waiting {0} seconds for emulator {1} to be disconnected and shutdown.", new Object[] {
                     countdown.timeout(), device.getAvdName() });
             try {
-                final DeviceDisconnectDiscovery listener = new DeviceDisconnectDiscovery(device);
-                AndroidDebugBridge.addDeviceChangeListener(listener);
-                stopEmulator(p, executor, device, countdown);
-                waitUntilShutDownIsComplete(device, listener, executor, countdown);
-                AndroidDebugBridge.removeDeviceChangeListener(listener);
+                final DeviceDisconnectDiscovery listener = new DeviceDisconnectDiscovery();
+                bridge.addDeviceListenerBySerialNumber(device.getSerialNumber(), listener);
+                try {
+                    stopEmulator(p, executor, device, countdown);
+                    waitUntilShutDownIsComplete(device, listener, executor, countdown);
+                } finally {
+                    bridge.removeDeviceListener(listener);
+                }
             } finally {
                 executor.removeShutdownHook(p);
             }
         }
 
+        // images of the device are no longer in use
+        AndroidImageStore store = imageStore.get();
+        if (store != null && device.getAvdName() != null) {
+            store.release(device.getAvdName());
+        }
+
         androidDeviceShutdown.fire(new AndroidDeviceShutdown(device));
 
     }
@@ -258,25 +275,18 @@ public class EmulatorShutdown {
         };
     }
 
-    private static class DeviceDisconnectDiscovery implements IDeviceChangeListener {
-
-        private boolean offline;
+    private static class DeviceDisconnectDiscovery implements AndroidDeviceListener {
 
-        private final AndroidDevice connectedDevice;
-
-        public DeviceDisconnectDiscovery(AndroidDevice connectedDevice) {
-            this.connectedDevice = connectedDevice;
-        }
+        // written by bridge threads, read by the polling thread
+        private volatile boolean offline;
 
         @Override
-        public void deviceChanged(IDevice device, int changeMask) {
+        public void deviceChanged(AndroidDevice device) {
         }
 
         @Override
-        public void deviceDisconnected(IDevice device) {
-            if (device.getAvdName().equals(connectedDevice.getAvdName())) {
-                this.offline = true;
-            }
+        public void deviceDisconnected(AndroidDevice device) {
+            this.offline = true;
             log.log(Level.FINE, "Discovered an emulator device id={0} disconnected from ADB bus", device.getSerialNumber());
         }
 
@@ -285,7 +295,7 @@ public class EmulatorShutdown {
         }
 
         @Override
-        public void deviceConnected(IDevice device) {
+        public void deviceConnected(AndroidDevice device) {
         }
     }
 }
@@ -29,6 +29,7 @@ import java.util.logging.Logger;
 
 import org.jboss.arquillian.android.api.AndroidBridge;
 import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
 import org.jboss.arquillian.android.api.AndroidExecutionException;
 import org.jboss.arquillian.android.configuration.AndroidExtensionConfiguration;
 import org.jboss.arquillian.android.configuration.AndroidSdk;
@@ -40,10 +41,6 @@ import org.jboss.arquillian.core.api.annotation.Inject;
 import org.jboss.arquillian.core.api.annotation.Observes;
 import org.jboss.arquillian.test.spi.annotation.SuiteScoped;
 
-import com.android.ddmlib.AndroidDebugBridge;
-import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
-import com.android.ddmlib.IDevice;
-
 /**
  * Starts an emulator and either connects to an existing device or creates one
  *
@@ -88,14 +85,7 @@ public class EmulatorStartup {
         }
 
         String name = configuration.getAvdName();
-        AndroidDevice running = null;
-        for (AndroidDevice device : bridge.getDevices()) {
-            if (equalsIgnoreNulls(name, device.getAvdName())) {
-                running = device;
-                break;
-            }
-
-        }
+        AndroidDevice running = bridge.getDeviceByAvdName(name);
 
         if (running == null) {
 
@@ -103,9 +93,9 @@ public class EmulatorStartup {
             log.log(Level.INFO, "Waiting {0} seconds for emulator {1} to be started and connected.", new Object[] {
                     countdown.timeout(), name });
 
-            // discover what device was added here
+            // discover what device was added here, only the emulator running our AVD is reported
             DeviceConnectDiscovery deviceDiscovery = new DeviceConnectDiscovery();
-            AndroidDebugBridge.addDeviceChangeListener(deviceDiscovery);
+            bridge.addDeviceListenerByAvdName(name, deviceDiscovery);
 
             Process emulator = startEmulator(executor, sdk, name, configuration.getEmulatorOptions());
             androidEmulator.set(new AndroidEmulator(emulator));
@@ -113,10 +103,10 @@ public class EmulatorStartup {
             log.log(Level.FINE, "Emulator process started, {0} seconds remaining to start the device {1}", new Object[] {
                     countdown.timeLeft(), name });
 
-            waitUntilBootUpIsComplete(deviceDiscovery, executor, sdk, countdown);
+            waitUntilBootUpIsComplete(bridge, name, deviceDiscovery, executor, sdk, countdown);
             running = deviceDiscovery.getDiscoveredDevice();
 
-            AndroidDebugBridge.removeDeviceChangeListener(deviceDiscovery);
+            bridge.removeDeviceListener(deviceDiscovery);
 
         } else {
             log.info("Emulator for device " + name + " is already started, device serial is " + running.getSerialNumber()
@@ -145,14 +135,21 @@ public class EmulatorStartup {
 
     }
 
-    private void waitUntilBootUpIsComplete(final DeviceConnectDiscovery deviceDiscovery, final ProcessExecutor executor,
-            final AndroidSdk sdk,
+    private void waitUntilBootUpIsComplete(final AndroidBridge bridge, final String name,
+            final DeviceConnectDiscovery deviceDiscovery, final ProcessExecutor executor, final AndroidSdk sdk,
             final CountDownWatch countdown) throws AndroidExecutionException {
 
         try {
             boolean isOnline = executor.scheduleUntilTrue(new Callable<Boolean>() {
                 @Override
                 public Boolean call() throws Exception {
+                    // AVD name might be learned without any device change being reported, so look the device up as well
+                    if (!deviceDiscovery.isOnline()) {
+                        AndroidDevice device = bridge.getDeviceByAvdName(name);
+                        if (device != null) {
+                            deviceDiscovery.discover(device);
+                        }
+                    }
                     return deviceDiscovery.isOnline();
                 }
             }, countdown.timeLeft(), countdown.getTimeUnit().convert(1, TimeUnit.SECONDS), countdown.getTimeUnit());
@@ -215,45 +212,38 @@ public class EmulatorStartup {
         return properties;
     }
 
-    private boolean equalsIgnoreNulls(String current, String other) {
-        if (current == null && other == null) {
-            return false;
-        } else if (current == null && other != null) {
-            return false;
-        } else if (current != null && other == null) {
-            return false;
-        }
-
-        return current.equals(other);
-    }
+    private static class DeviceConnectDiscovery implements AndroidDeviceListener {
 
-    private class DeviceConnectDiscovery implements IDeviceChangeListener {
+        // written by bridge threads, read by the polling thread
+        private volatile AndroidDevice discoveredDevice;
 
-        private IDevice discoveredDevice;
-
-        private boolean online;
+        private volatile boolean online;
 
         @Override
-        public void deviceChanged(IDevice device, int changeMask) {
-            if (discoveredDevice.equals(device) && (changeMask & IDevice.CHANGE_STATE) == 1) {
-                if (device.isOnline()) {
-                    this.online = true;
-                }
-            }
+        public void deviceChanged(AndroidDevice device) {
+            // AVD name of an emulator might not be known until it is connected for a while
+            discover(device);
         }
 
         @Override
-        public void deviceConnected(IDevice device) {
-            this.discoveredDevice = device;
+        public void deviceConnected(AndroidDevice device) {
+            discover(device);
             log.log(Level.FINE, "Discovered an emulator device id={0} connected to ADB bus", device.getSerialNumber());
         }
 
+        private void discover(AndroidDevice device) {
+            this.discoveredDevice = device;
+            if (device.isOnline()) {
+                this.online = true;
+            }
+        }
+
         @Override
-        public void deviceDisconnected(IDevice device) {
+        public void deviceDisconnected(AndroidDevice device) {
         }
 
         public AndroidDevice getDiscoveredDevice() {
-            return new AndroidDeviceImpl(discoveredDevice);
+            return discoveredDevice;
         }
 
         public boolean isOnline() {
@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clones files as cheaply as the underlying file system allows. A copy-on-write clone (reflink) is tried first, which is
+ * instant on file systems such as Btrfs or XFS. If that is not possible, the file is copied while holes are preserved, so
+ * mostly empty disk images do not occupy any extra space.
+ *
+ * Hard links are used only for files which are never modified, such as blobs of {@link AndroidImageStore}, as cloned images
+ * are written to by the emulator.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class FileCloner {
+    private static final Logger log = Logger.getLogger(FileCloner.class.getName());
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    // reflinks are not supported on Windows at all, on other systems we find out during first attempt
+    private static volatile boolean reflinkSupported = File.separatorChar == '/';
+
+    private static volatile boolean hardlinkSupported = File.separatorChar == '/';
+
+    private final ProcessExecutor executor;
+
+    FileCloner(ProcessExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Clones a file
+     *
+     * @param source the source file
+     * @param target the target file, overwritten if exists
+     * @throws IOException if file cannot be cloned
+     */
+    void clone(File source, File target) throws IOException {
+        if (reflinkSupported && reflink(source, target)) {
+            return;
+        }
+        copySparse(source, target);
+    }
+
+    /**
+     * Links a file which is never going to be modified. A hard link is created if possible, otherwise the file is cloned.
+     *
+     * @param source the source file
+     * @param target the target file, overwritten if exists
+     * @throws IOException if file cannot be linked nor cloned
+     */
+    void link(File source, File target) throws IOException {
+        if (hardlinkSupported && (!target.exists() || target.delete())
+                && run("ln", source.getAbsolutePath(), target.getAbsolutePath()) && target.length() == source.length()) {
+            return;
+        }
+        if (hardlinkSupported) {
+            log.fine("File system does not support hard links, files will be cloned");
+            hardlinkSupported = false;
+        }
+        clone(source, target);
+    }
+
+    private boolean reflink(File source, File target) {
+        if (run("cp", "--reflink=always", source.getAbsolutePath(), target.getAbsolutePath())
+                && target.length() == source.length()) {
+            return true;
+        }
+
+        log.fine("File system does not support reflinks, files will be copied");
+        reflinkSupported = false;
+        return false;
+    }
+
+    private boolean run(String... command) {
+        try {
+            Process p = executor.spawn(command);
+            try {
+                return p.waitFor() == 0;
+            } finally {
+                executor.removeShutdownHook(p);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.log(Level.FINE, "Unable to execute " + command[0], e);
+        }
+        return false;
+    }
+
+    /**
+     * Copies a file. Blocks which contain only zeros are not written, so they become holes in the target file on file
+     * systems which support sparse files.
+     *
+     * @param source the source file
+     * @param target the target file, overwritten if exists
+     * @throws IOException if file cannot be copied
+     */
+    static void copySparse(File source, File target) throws IOException {
+        FileChannel in = new FileInputStream(source).getChannel();
+        RandomAccessFile out = new RandomAccessFile(target, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                buffer.clear();
+                int read = in.read(buffer, position);
+                if (read == -1) {
+                    break;
+                }
+                buffer.flip();
+                if (!isZero(buffer)) {
+                    long writePosition = position;
+                    while (buffer.hasRemaining()) {
+                        writePosition += channel.write(buffer, writePosition);
+                    }
+                }
+                position += read;
+            }
+            // trailing holes are created by setting length
+            out.setLength(size);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private static boolean isZero(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        int i = buffer.position();
+        for (; i + 8 <= limit; i += 8) {
+            if (buffer.getLong(i) != 0L) {
+                return false;
+            }
+        }
+        for (; i < limit; i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+
+/**
+ * Compares content of local files and files on a device by their MD5 digests. Remote digests of many files are computed by a
+ * single {@code md5sum} invocation, devices without {@code md5sum} are treated as if the files differed.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class FileDigests {
+    private static final Logger log = Logger.getLogger(FileDigests.class.getName());
+
+    // keeps shell request within limits of older adbd
+    private static final int MAX_COMMAND_LENGTH = 3000;
+
+    private FileDigests() {
+        throw new UnsupportedOperationException("No instantiation");
+    }
+
+    /**
+     * Finds files which have the same content on both sides
+     *
+     * @param device the device
+     * @param files local files mapped to remote paths
+     * @return remote paths of files with the same content
+     * @throws AndroidExecutionException if remote digests cannot be computed
+     */
+    static Set<String> findSameContent(AndroidDevice device, Map<File, String> files) throws AndroidExecutionException {
+        Set<String> same = new HashSet<String>();
+        if (files.isEmpty()) {
+            return same;
+        }
+        Map<String, String> remote = remoteMd5(device, files.values());
+        for (Map.Entry<File, String> entry : files.entrySet()) {
+            String digest = remote.get(entry.getValue());
+            if (digest == null) {
+                continue;
+            }
+            try {
+                if (digest.equalsIgnoreCase(md5(entry.getKey()))) {
+                    same.add(entry.getValue());
+                }
+            } catch (IOException e) {
+                log.log(Level.FINE, "Unable to compute digest of " + entry.getKey(), e);
+            }
+        }
+        return same;
+    }
+
+    /**
+     * Computes MD5 digests of files on the device
+     *
+     * @param device the device
+     * @param paths paths of the files
+     * @return hexadecimal digests mapped by paths, files which cannot be read are missing
+     * @throws AndroidExecutionException if shell command cannot be executed
+     */
+    static Map<String, String> remoteMd5(AndroidDevice device, Iterable<String> paths) throws AndroidExecutionException {
+        final Map<String, String> digests = new HashMap<String, String>();
+        AndroidDeviceOutputReciever parser = new AndroidDeviceOutputReciever() {
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    line = line.trim();
+                    int space = line.indexOf(' ');
+                    if (space == 32 && line.substring(0, 32).matches("[0-9a-fA-F]{32}")) {
+                        digests.put(line.substring(space).trim(), line.substring(0, 32));
+                    }
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+
+        List<String> command = new ArrayList<String>();
+        int length = 0;
+        for (String path : paths) {
+            String quoted = ShellBatch.quote(path);
+            if (!command.isEmpty() && length + quoted.length() > MAX_COMMAND_LENGTH) {
+                device.executeShellCommand(md5sum(command), parser);
+                command.clear();
+                length = 0;
+            }
+            command.add(quoted);
+            length += quoted.length() + 1;
+        }
+        device.executeShellCommand(md5sum(command), parser);
+        return digests;
+    }
+
+    /**
+     * Computes MD5 digest of a local file
+     *
+     * @param file the file
+     * @return hexadecimal digest
+     * @throws IOException if file cannot be read
+     */
+    static String md5(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return md5(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Computes MD5 digest of a stream, the stream is read to its end but not closed
+     *
+     * @param in the stream
+     * @return hexadecimal digest
+     * @throws IOException if stream cannot be read
+     */
+    static String md5(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported by this JVM", e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static String md5sum(List<String> paths) {
+        StringBuilder sb = new StringBuilder("md5sum");
+        for (String path : paths) {
+            sb.append(' ').append(path);
+        }
+        return sb.toString();
+    }
+}
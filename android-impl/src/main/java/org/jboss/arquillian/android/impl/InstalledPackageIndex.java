@@ -0,0 +1,373 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+
+/**
+ * Index of third party packages installed on a device. Every package is stored with its version code, size and a digest of
+ * its APK, so installation of an APK which is already present on the device can be skipped.
+ *
+ * The index is refreshed incrementally from {@code pm list packages}. Sizes and modification times of listed APKs are read by
+ * sync protocol in a single session, a digest is kept only while the APK keeps its path, size and modification time. Older
+ * devices reinstall a package to the same path, so the path alone does not tell the APK was replaced. An APK is digested on
+ * the device only when an APK of the same size is looked up. The index is stored on the device, so it survives restarts of
+ * the JVM.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class InstalledPackageIndex {
+    private static final Logger log = Logger.getLogger(InstalledPackageIndex.class.getName());
+
+    static final String INDEX_PATH = "/data/local/tmp/arquillian-packages.idx";
+
+    private static final String HEADER = "# arquillian-android package index 3";
+
+    private static final String LIST_PACKAGES_CMD = "pm list packages -f -3";
+
+    // version codes are not listed by package manager before API 28
+    private static final String LIST_PACKAGES_WITH_VERSION_CMD = LIST_PACKAGES_CMD + " --show-versioncode";
+
+    private static final String VERSION_CODE = " versionCode:";
+
+    private final AndroidDevice device;
+
+    private final InetSocketAddress server;
+
+    private Map<String, Entry> entries;
+
+    private boolean versionCodeUnsupported;
+
+    /**
+     * Creates an index
+     *
+     * @param device the device
+     * @param server address of adb server the device is connected to, used to read sizes of APKs by sync protocol
+     */
+    InstalledPackageIndex(AndroidDevice device, InetSocketAddress server) {
+        this.device = device;
+        this.server = server;
+    }
+
+    /**
+     * Finds an installed package with the same content as given APK
+     *
+     * @param apk the APK file
+     * @return the package or {@code null} if no installed package has the same APK
+     * @throws AndroidExecutionException if the APK cannot be read or the index cannot be refreshed
+     */
+    Entry find(File apk) throws AndroidExecutionException {
+        String digest;
+        try {
+            digest = FileDigests.md5(apk);
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to compute digest of {0}", apk);
+        }
+        return findAll(Collections.singletonMap(digest, apk.length())).get(digest);
+    }
+
+    /**
+     * Finds installed packages by digests of their APKs. Only installed APKs of the same size as one of looked up APKs are
+     * digested.
+     *
+     * @param apks MD5 digests of APKs mapped to their sizes
+     * @return found packages mapped by digests of their APKs, APKs which are not installed are missing
+     * @throws AndroidExecutionException if the index cannot be refreshed
+     */
+    synchronized Map<String, Entry> findAll(Map<String, Long> apks) throws AndroidExecutionException {
+        refresh();
+
+        // digest only candidates, APKs of a different size cannot have the same content
+        List<String> digested = new ArrayList<String>();
+        for (Entry entry : entries.values()) {
+            if (entry.digest == null && (entry.size == Entry.UNKNOWN_SIZE || apks.containsValue(entry.size))) {
+                digested.add(entry.path);
+            }
+        }
+        if (!digested.isEmpty()) {
+            Map<String, String> digests = FileDigests.remoteMd5(device, digested);
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.digest == null && digests.containsKey(entry.path)) {
+                    e.setValue(new Entry(entry.packageName, entry.versionCode, digests.get(entry.path), entry.size,
+                            entry.mtime, entry.path));
+                }
+            }
+            log.log(Level.FINE, "Computed digests of {0} packages installed on {1}",
+                    new Object[] { digested.size(), device.getSerialNumber() });
+            save();
+        }
+
+        Map<String, Entry> found = new LinkedHashMap<String, Entry>();
+        for (Entry entry : entries.values()) {
+            if (entry.digest == null) {
+                continue;
+            }
+            for (Map.Entry<String, Long> apk : apks.entrySet()) {
+                if (apk.getKey().equalsIgnoreCase(entry.digest)
+                        && (entry.size == Entry.UNKNOWN_SIZE || entry.size == apk.getValue().longValue())) {
+                    found.put(apk.getKey(), entry);
+                }
+            }
+        }
+        return found;
+    }
+
+    private void refresh() throws AndroidExecutionException {
+        if (entries == null) {
+            entries = load();
+        }
+
+        Map<String, Entry> listed = listPackages();
+        List<String> paths = new ArrayList<String>();
+        for (Entry entry : listed.values()) {
+            paths.add(entry.path);
+        }
+        Map<String, SyncSession.Stat> stats = stat(paths);
+
+        Map<String, Entry> refreshed = new LinkedHashMap<String, Entry>();
+        boolean changed = listed.size() != entries.size();
+        for (Entry entry : listed.values()) {
+            Entry known = entries.get(entry.packageName);
+            SyncSession.Stat stat = stats.get(entry.path);
+            if (known != null && stat != null && known.path.equals(entry.path) && known.size == stat.size
+                    && known.mtime == stat.mtime
+                    && (entry.versionCode == Entry.UNKNOWN_VERSION || entry.versionCode == known.versionCode)) {
+                // digest of an unchanged APK is kept
+                refreshed.put(entry.packageName, known);
+            } else {
+                // APK of an unknown size is always digested
+                Entry replaced = new Entry(entry.packageName, entry.versionCode, null, stat == null ? Entry.UNKNOWN_SIZE
+                        : stat.size, stat == null ? Entry.UNKNOWN_TIME : stat.mtime, entry.path);
+                refreshed.put(entry.packageName, replaced);
+                changed |= known == null || !known.toString().equals(replaced.toString());
+            }
+        }
+
+        entries = refreshed;
+        if (changed) {
+            save();
+        }
+    }
+
+    // APKs are read in a single sync session, APKs which cannot be read are missing
+    private Map<String, SyncSession.Stat> stat(List<String> paths) {
+        Map<String, SyncSession.Stat> stats = new HashMap<String, SyncSession.Stat>();
+        if (paths.isEmpty()) {
+            return stats;
+        }
+        SyncSession session = null;
+        try {
+            session = SyncSession.open(server, device.getSerialNumber());
+            List<SyncSession.Stat> read = session.stat(paths);
+            for (int i = 0; i < paths.size(); i++) {
+                if (read.get(i).isFile()) {
+                    stats.put(paths.get(i), read.get(i));
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.FINE, "Unable to read sizes of packages installed on " + device.getSerialNumber(), e);
+        } finally {
+            if (session != null) {
+                session.close();
+            }
+        }
+        return stats;
+    }
+
+    private Map<String, Entry> listPackages() throws AndroidExecutionException {
+        final Map<String, Entry> packages = new LinkedHashMap<String, Entry>();
+        final boolean[] unsupported = new boolean[] { versionCodeUnsupported };
+        AndroidDeviceOutputReciever parser = new AndroidDeviceOutputReciever() {
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    Entry entry = Entry.parseListing(line.trim());
+                    if (entry != null) {
+                        packages.put(entry.packageName, entry);
+                    } else if (line.startsWith("Error") || line.contains("Unknown option")) {
+                        unsupported[0] = true;
+                    }
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+
+        if (!versionCodeUnsupported) {
+            device.executeShellCommand(LIST_PACKAGES_WITH_VERSION_CMD, parser);
+            versionCodeUnsupported = unsupported[0];
+        }
+        if (versionCodeUnsupported) {
+            packages.clear();
+            device.executeShellCommand(LIST_PACKAGES_CMD, parser);
+        }
+        return packages;
+    }
+
+    private Map<String, Entry> load() throws AndroidExecutionException {
+        final Map<String, Entry> loaded = new LinkedHashMap<String, Entry>();
+        final boolean[] current = new boolean[1];
+        device.executeShellCommand("cat " + INDEX_PATH, new AndroidDeviceOutputReciever() {
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    // an index stored in another format is dropped
+                    current[0] |= HEADER.equals(line.trim());
+                    Entry entry = current[0] ? Entry.parse(line.trim()) : null;
+                    if (entry != null) {
+                        loaded.put(entry.packageName, entry);
+                    }
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        log.log(Level.FINE, "Loaded index of {0} packages installed on {1}", new Object[] { loaded.size(),
+                device.getSerialNumber() });
+        return loaded;
+    }
+
+    private void save() throws AndroidExecutionException {
+        File file = null;
+        try {
+            file = File.createTempFile("arquillian-packages", ".idx");
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                writer.append(HEADER).append('\n');
+                for (Entry entry : entries.values()) {
+                    writer.append(entry.toString()).append('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            // a stale index of the same size might be written within the same second, so it must not be skipped
+            device.executeShellCommand("rm -f " + INDEX_PATH);
+            device.pushFiles(Collections.singletonMap(file, INDEX_PATH), null);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Unable to store index of installed packages on " + device.getSerialNumber(), e);
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * A package installed on the device
+     */
+    static class Entry {
+        static final int UNKNOWN_VERSION = -1;
+
+        static final long UNKNOWN_SIZE = -1;
+
+        static final long UNKNOWN_TIME = -1;
+
+        private static final String NO_DIGEST = "-";
+
+        final String packageName;
+        final int versionCode;
+        final String digest;
+        final long size;
+        final long mtime;
+        final String path;
+
+        Entry(String packageName, int versionCode, String digest, long size, long mtime, String path) {
+            this.packageName = packageName;
+            this.versionCode = versionCode;
+            this.digest = digest;
+            this.size = size;
+            this.mtime = mtime;
+            this.path = path;
+        }
+
+        /**
+         * Parses a line of {@code pm list packages -f}, e.g. {@code package:/data/app/org.example-1.apk=org.example}
+         */
+        static Entry parseListing(String line) {
+            if (!line.startsWith("package:")) {
+                return null;
+            }
+            int versionCode = UNKNOWN_VERSION;
+            int version = line.lastIndexOf(VERSION_CODE);
+            if (version != -1) {
+                try {
+                    versionCode = Integer.parseInt(line.substring(version + VERSION_CODE.length()).trim());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                line = line.substring(0, version);
+            }
+            // path might contain equal signs as well
+            int separator = line.lastIndexOf('=');
+            if (separator == -1) {
+                return null;
+            }
+            return new Entry(line.substring(separator + 1), versionCode, null, UNKNOWN_SIZE, UNKNOWN_TIME, line.substring(
+                    "package:".length(), separator));
+        }
+
+        /**
+         * Parses a line of stored index
+         */
+        static Entry parse(String line) {
+            if (line.startsWith("#")) {
+                return null;
+            }
+            String[] fields = line.split(" ", 6);
+            if (fields.length != 6 || !(NO_DIGEST.equals(fields[2]) || fields[2].matches("[0-9a-fA-F]{32}"))) {
+                return null;
+            }
+            try {
+                return new Entry(fields[0], Integer.parseInt(fields[1]), NO_DIGEST.equals(fields[2]) ? null : fields[2],
+                        Long.parseLong(fields[3]), Long.parseLong(fields[4]), fields[5]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return packageName + " " + versionCode + " " + (digest == null ? NO_DIGEST : digest) + " " + size + " " + mtime
+                    + " " + path;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidBridge;
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInstallation;
+import org.jboss.arquillian.android.api.AndroidTransferListener;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
+
+/**
+ * Implementation of Android Bridge which speaks ADB host protocol directly, without ddmlib. Devices are tracked by a single
+ * {@code host:track-devices} connection, adb server pushes the device list whenever it changes, so device changes are
+ * propagated without any polling.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class NativeAndroidBridge implements AndroidBridge {
+    private static final Logger log = Logger.getLogger(NativeAndroidBridge.class.getName());
+
+    private static final String ADB_SERVER_PORT_ENV = "ANDROID_ADB_SERVER_PORT";
+
+    private final InetSocketAddress server;
+
+    private final File adbLocation;
+
+    private final boolean privateServer;
+
+    private final ProcessExecutor executor;
+
+    private final AndroidDeviceRegistry registry = new AndroidDeviceRegistry();
+
+    private final AndroidDeviceDispatcher dispatcher;
+
+    private volatile AdbConnection tracker;
+
+    private volatile boolean connected;
+
+    /**
+     * Creates a bridge
+     *
+     * @param server address of adb server
+     * @param adbLocation location of adb binary used to start adb server if it is not running or {@code null} if server
+     *        should not be started
+     * @param privateServer {@code true} if adb server is owned by this bridge and it should be killed when bridge is
+     *        disconnected
+     * @param executor executor used to spawn adb processes and to track devices
+     */
+    NativeAndroidBridge(InetSocketAddress server, File adbLocation, boolean privateServer, ProcessExecutor executor) {
+        this.server = server;
+        this.adbLocation = adbLocation;
+        this.privateServer = privateServer;
+        this.executor = executor;
+        this.dispatcher = new AndroidDeviceDispatcher(registry, executor);
+    }
+
+    /**
+     * Returns address of adb server, either a private one or the one shared by the host
+     *
+     * @param privateServerPort port of a private adb server or {@code 0} to use shared adb server
+     * @return the address
+     */
+    static InetSocketAddress getServerAddress(int privateServerPort) {
+        int port = AdbConnection.DEFAULT_PORT;
+        if (privateServerPort > 0) {
+            port = privateServerPort;
+        } else if (System.getenv(ADB_SERVER_PORT_ENV) != null) {
+            try {
+                port = Integer.parseInt(System.getenv(ADB_SERVER_PORT_ENV).trim());
+            } catch (NumberFormatException e) {
+                log.log(Level.WARNING, "Invalid {0} value, using default adb server port", ADB_SERVER_PORT_ENV);
+            }
+        }
+        return new InetSocketAddress("127.0.0.1", port);
+    }
+
+    @Override
+    public List<AndroidDevice> getDevices() {
+        Validate.stateNotNull(tracker, "Android debug bridge must be set. Please call connect() method before execution");
+        return registry.getDevices();
+    }
+
+    @Override
+    public AndroidDevice getDeviceBySerialNumber(String serialNumber) {
+        Validate.stateNotNull(tracker, "Android debug bridge must be set. Please call connect() method before execution");
+        return registry.getBySerialNumber(serialNumber);
+    }
+
+    @Override
+    public AndroidDevice getDeviceByAvdName(String avdName) {
+        Validate.stateNotNull(tracker, "Android debug bridge must be set. Please call connect() method before execution");
+        return registry.getByAvdName(avdName);
+    }
+
+    @Override
+    public AndroidPackageInstallation installPackages(Collection<AndroidDevice> devices, List<File> packageFilePaths,
+            boolean reinstall, String... extraArgs) {
+        return ParallelDeviceTasks.installPackages(devices, packageFilePaths, reinstall, extraArgs, executor);
+    }
+
+    @Override
+    public Map<AndroidDevice, AndroidTransferStatistics> pushFiles(Collection<AndroidDevice> devices, Map<File, String> files,
+            AndroidTransferListener listener) throws AndroidExecutionException {
+        return ParallelDeviceTasks.pushFiles(devices, files, listener, executor,
+                ParallelDeviceTasks.MAX_TRANSFERS_PER_ENDPOINT);
+    }
+
+    @Override
+    public void connect() throws AndroidExecutionException {
+        AdbConnection connection;
+        try {
+            connection = openTracker();
+        } catch (IOException e) {
+            if (adbLocation == null) {
+                throw new AndroidExecutionException(e, "Unable to connect to adb server at {0}", server);
+            }
+            startServer();
+            try {
+                connection = openTracker();
+            } catch (IOException ex) {
+                throw new AndroidExecutionException(ex, "Unable to connect to adb server at {0}", server);
+            }
+        }
+
+        try {
+            // server sends the device list immediately, so there is no need to wait for an initial device list
+            updateDevices(connection.readHexString());
+        } catch (IOException e) {
+            connection.close();
+            throw new AndroidExecutionException(e, "Unable to get list of devices from adb server at {0}", server);
+        }
+
+        this.tracker = connection;
+        this.connected = true;
+        executor.submit(new DeviceTracker(connection));
+        log.log(Level.FINE, "Connected to adb server at {0}", server);
+    }
+
+    /**
+     * Checks whether the bridge was ever connected, so it tracks devices or it was disconnected
+     *
+     * @return {@code true} if {@link #connect()} succeeded at least once
+     */
+    boolean isStarted() {
+        return tracker != null;
+    }
+
+    @Override
+    public boolean isConnected() {
+        Validate.stateNotNull(tracker, "Android debug bridge must be set. Please call connect() method before execution");
+        return connected;
+    }
+
+    @Override
+    public void disconnect() throws AndroidExecutionException {
+        Validate.stateNotNull(tracker, "Android debug bridge must be set. Please call connect() method before execution");
+
+        connected = false;
+        tracker.close();
+        registry.clear();
+
+        if (privateServer && adbLocation != null) {
+            runAdb("kill-server");
+        }
+    }
+
+    @Override
+    public void addDeviceListener(AndroidDeviceListener listener) {
+        dispatcher.addListener(listener);
+    }
+
+    @Override
+    public void addDeviceListenerBySerialNumber(String serialNumber, AndroidDeviceListener listener) {
+        dispatcher.addListenerBySerialNumber(serialNumber, listener);
+    }
+
+    @Override
+    public void addDeviceListenerByAvdName(String avdName, AndroidDeviceListener listener) {
+        dispatcher.addListenerByAvdName(avdName, listener);
+    }
+
+    @Override
+    public void removeDeviceListener(AndroidDeviceListener listener) {
+        dispatcher.removeListener(listener);
+    }
+
+    private AdbConnection openTracker() throws IOException {
+        AdbConnection connection = AdbConnection.open(server);
+        try {
+            connection.send("host:track-devices");
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    private void startServer() throws AndroidExecutionException {
+        log.log(Level.INFO, "Starting adb server at port {0}", server.getPort());
+        runAdb("start-server");
+    }
+
+    private void runAdb(String command) throws AndroidExecutionException {
+        try {
+            executor.execute(adbLocation.getAbsolutePath(), "-P", String.valueOf(server.getPort()), command);
+        } catch (InterruptedException e) {
+            throw new AndroidExecutionException(e, "Unable to execute adb {0} at port {1}", command, server.getPort());
+        } catch (ExecutionException e) {
+            throw new AndroidExecutionException(e, "Unable to execute adb {0} at port {1}", command, server.getPort());
+        }
+    }
+
+    // called by connect and by tracker thread, which might still be finishing when bridge is reconnected
+    private synchronized void updateDevices(String list) {
+        Map<String, String> states = AdbServerProbe.parseDevices(list);
+
+        for (AndroidDevice registered : registry.getDevices()) {
+            if (!states.containsKey(registered.getSerialNumber())) {
+                String avdName = registry.getResolvedAvdName(registered.getSerialNumber());
+                NativeAndroidDevice device = (NativeAndroidDevice) registry.unregister(registered.getSerialNumber());
+                device.setState(NativeAndroidDevice.STATE_OFFLINE);
+                dispatcher.deviceDisconnected(device, avdName);
+            }
+        }
+
+        for (Map.Entry<String, String> entry : states.entrySet()) {
+            NativeAndroidDevice device = (NativeAndroidDevice) registry.getBySerialNumber(entry.getKey());
+            if (device == null) {
+                device = new NativeAndroidDevice(server, entry.getKey(), entry.getValue());
+                dispatcher.deviceConnected(registry.register(device));
+            } else if (device.setState(entry.getValue())) {
+                dispatcher.deviceChanged(device);
+            }
+        }
+    }
+
+    private class DeviceTracker implements Callable<Void> {
+
+        private final AdbConnection connection;
+
+        DeviceTracker(AdbConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                String list;
+                while ((list = connection.readHexString()) != null) {
+                    updateDevices(list);
+                }
+            } catch (IOException e) {
+                if (isCurrent() && connected) {
+                    log.log(Level.WARNING, "Connection to adb server at " + server + " was lost", e);
+                }
+            } finally {
+                connection.close();
+                // a tracker replaced by reconnection must not touch state of the new connection
+                if (isCurrent()) {
+                    boolean lost = connected;
+                    connected = false;
+                    // devices of a server which is gone are no longer available
+                    if (lost) {
+                        updateDevices("");
+                    }
+                }
+            }
+            return null;
+        }
+
+        private boolean isCurrent() {
+            return tracker == connection;
+        }
+    }
+}
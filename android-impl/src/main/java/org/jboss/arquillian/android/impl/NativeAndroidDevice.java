@@ -0,0 +1,612 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
+import org.jboss.arquillian.android.api.AndroidDeviceProperties;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInfo;
+import org.jboss.arquillian.android.api.AndroidPortForwarding;
+import org.jboss.arquillian.android.api.AndroidShellResult;
+import org.jboss.arquillian.android.api.AndroidTransferListener;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
+
+/**
+ * Android Device accessed directly via ADB host protocol
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class NativeAndroidDevice implements AndroidDevice {
+    private static final Logger log = Logger.getLogger(NativeAndroidDevice.class.getName());
+
+    static final String STATE_ONLINE = "device";
+
+    static final String STATE_OFFLINE = "offline";
+
+    private static final String EMULATOR_PREFIX = "emulator-";
+
+    private static final String[] AVD_NAME_PROPERTIES = { "ro.boot.qemu.avd_name", "ro.kernel.qemu.avd_name" };
+
+    private static final String TMP_DIR = "/data/local/tmp/";
+
+    private static final int FILE_MODE = 0644;
+
+
+    private final InetSocketAddress server;
+
+    private final String serial;
+
+    private volatile String state;
+
+    private volatile String avdName;
+
+    private final DevicePropertyCache propertyCache = new DevicePropertyCache(this);
+
+    private final InstalledPackageIndex packageIndex;
+
+    private final DeltaPackageInstaller deltaInstaller;
+
+    private final StreamedPackageInstaller streamedInstaller;
+
+    private final PortForwardingManager portForwardings;
+
+    NativeAndroidDevice(InetSocketAddress server, String serial, String state) {
+        this.server = server;
+        this.serial = serial;
+        this.state = state;
+        this.packageIndex = new InstalledPackageIndex(this, server);
+        this.deltaInstaller = new DeltaPackageInstaller(this, packageIndex);
+        this.streamedInstaller = new StreamedPackageInstaller(server, this);
+        this.portForwardings = new PortForwardingManager(server, serial);
+    }
+
+    @Override
+    public String getSerialNumber() {
+        return serial;
+    }
+
+    /**
+     * Returns address of the adb server the device is connected to
+     *
+     * @return the address
+     */
+    InetSocketAddress getServer() {
+        return server;
+    }
+
+    @Override
+    public String getAvdName() {
+        if (avdName == null && isEmulator() && !isOffline()) {
+            avdName = queryAvdName();
+        }
+        return avdName;
+    }
+
+    @Override
+    public Map<String, String> getProperties() {
+        if (isOnline()) {
+            try {
+                return propertyCache.get().asMap();
+            } catch (AndroidExecutionException e) {
+                log.log(Level.WARNING, "Unable to get properties of device " + serial, e);
+            }
+        }
+        AndroidDeviceProperties snapshot = propertyCache.peek();
+        return snapshot == null ? Collections.<String, String> emptyMap() : snapshot.asMap();
+    }
+
+    @Override
+    public String getProperty(String name) throws IOException, AndroidExecutionException {
+        return propertyCache.get().get(name);
+    }
+
+    @Override
+    public AndroidDeviceProperties getPropertySnapshot() throws AndroidExecutionException {
+        return propertyCache.get();
+    }
+
+    @Override
+    public boolean isOnline() {
+        return STATE_ONLINE.equals(state);
+    }
+
+    @Override
+    public boolean isEmulator() {
+        return serial.startsWith(EMULATOR_PREFIX);
+    }
+
+    @Override
+    public boolean isOffline() {
+        return STATE_OFFLINE.equals(state);
+    }
+
+    @Override
+    public void executeShellCommand(String command) throws AndroidExecutionException {
+        final String commandString = command;
+        executeShellCommand(command, new AndroidDeviceOutputReciever() {
+            @Override
+            public void processNewLines(String[] lines) {
+                if (log.isLoggable(Level.FINEST)) {
+                    for (String line : lines) {
+                        log.log(Level.FINEST, "Shell command {0}: {1}", new Object[] { commandString, line });
+                    }
+                }
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+    }
+
+    @Override
+    public void executeShellCommand(String command, AndroidDeviceOutputReciever reciever) throws AndroidExecutionException {
+        AdbConnection connection = null;
+        try {
+            connection = AdbConnection.openTransport(server, serial);
+            connection.send("shell:" + command);
+
+            ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+            CharBuffer chars = CharBuffer.allocate(16 * 1024);
+            CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            StringBuilder pending = new StringBuilder();
+            while (!reciever.isCancelled() && connection.read(buffer) != -1) {
+                buffer.flip();
+                // incomplete characters stay in buffer until next read
+                decoder.decode(buffer, chars, false);
+                buffer.compact();
+                chars.flip();
+                pending.append(chars);
+                chars.clear();
+                String[] lines = takeLines(pending);
+                if (lines.length > 0) {
+                    reciever.processNewLines(lines);
+                }
+            }
+            if (pending.length() > 0 && !reciever.isCancelled()) {
+                reciever.processNewLines(new String[] { pending.toString() });
+            }
+        } catch (IOException e) {
+            throw new AndroidExecutionException("Unable to execute command '" + command + "'", e);
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    @Override
+    public AndroidTransferStatistics executeRawShellCommand(String command, WritableByteChannel output)
+            throws AndroidExecutionException {
+        return RawShellOutput.toChannel(server, serial, command, output);
+    }
+
+    @Override
+    public AndroidTransferStatistics executeRawShellCommand(String command, File output) throws AndroidExecutionException {
+        return RawShellOutput.toFile(this, command, output);
+    }
+
+    @Override
+    public List<AndroidShellResult> executeShellCommands(List<String> commands, boolean failFast)
+            throws AndroidExecutionException {
+        return new ShellBatch(commands, failFast).execute(this);
+    }
+
+    @Override
+    public AndroidTransferStatistics pushFiles(Map<File, String> files, AndroidTransferListener listener)
+            throws AndroidExecutionException {
+        long start = System.nanoTime();
+        SyncSession session = null;
+        try {
+            session = SyncSession.open(server, serial);
+            List<String> remotePaths = new ArrayList<String>(files.values());
+            List<SyncSession.Stat> stats = session.stat(remotePaths);
+
+            // files of the same size but different modification time are compared by content
+            Map<File, String> transferred = new LinkedHashMap<File, String>();
+            Map<File, String> compared = new LinkedHashMap<File, String>();
+            List<String> skipped = new ArrayList<String>();
+            int i = 0;
+            for (Map.Entry<File, String> entry : files.entrySet()) {
+                SyncSession.Stat stat = stats.get(i++);
+                File local = entry.getKey();
+                if (!stat.isFile() || stat.size != local.length()) {
+                    transferred.put(local, entry.getValue());
+                } else if (stat.mtime == local.lastModified() / 1000) {
+                    skipped.add(entry.getValue());
+                } else {
+                    compared.put(local, entry.getValue());
+                }
+            }
+            Set<String> same = FileDigests.findSameContent(this, compared);
+            for (Map.Entry<File, String> entry : compared.entrySet()) {
+                if (same.contains(entry.getValue())) {
+                    skipped.add(entry.getValue());
+                } else {
+                    transferred.put(entry.getKey(), entry.getValue());
+                }
+            }
+            notifySkipped(skipped, listener);
+
+            long bytes = session.push(transferred, FILE_MODE, this, listener);
+            AndroidTransferStatistics statistics = new AndroidTransferStatistics(bytes, System.nanoTime() - start,
+                    transferred.size(), skipped.size());
+            log.log(Level.FINE, "Pushed files to {0}: {1}", new Object[] { serial, statistics });
+            return statistics;
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to push files to {0}", serial);
+        } finally {
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
+    @Override
+    public AndroidTransferStatistics pullFiles(Map<String, File> files, AndroidTransferListener listener)
+            throws AndroidExecutionException {
+        long start = System.nanoTime();
+        SyncSession session = null;
+        try {
+            session = SyncSession.open(server, serial);
+            List<SyncSession.Stat> stats = session.stat(new ArrayList<String>(files.keySet()));
+
+            Map<String, File> transferred = new LinkedHashMap<String, File>();
+            Map<File, String> compared = new LinkedHashMap<File, String>();
+            Map<String, Long> mtimes = new HashMap<String, Long>();
+            List<String> skipped = new ArrayList<String>();
+            int i = 0;
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                SyncSession.Stat stat = stats.get(i++);
+                File local = entry.getValue();
+                mtimes.put(entry.getKey(), stat.mtime);
+                if (!local.isFile() || stat.size != local.length()) {
+                    transferred.put(entry.getKey(), local);
+                } else if (stat.mtime == local.lastModified() / 1000) {
+                    skipped.add(entry.getKey());
+                } else {
+                    compared.put(local, entry.getKey());
+                }
+            }
+            Set<String> same = FileDigests.findSameContent(this, compared);
+            for (Map.Entry<File, String> entry : compared.entrySet()) {
+                if (same.contains(entry.getValue())) {
+                    skipped.add(entry.getValue());
+                } else {
+                    transferred.put(entry.getValue(), entry.getKey());
+                }
+            }
+            notifySkipped(skipped, listener);
+
+            long bytes = session.pull(transferred, this, listener);
+            // same modification time allows to skip the file next time without comparing content
+            for (Map.Entry<String, File> entry : transferred.entrySet()) {
+                entry.getValue().setLastModified(mtimes.get(entry.getKey()) * 1000);
+            }
+            AndroidTransferStatistics statistics = new AndroidTransferStatistics(bytes, System.nanoTime() - start,
+                    transferred.size(), skipped.size());
+            log.log(Level.FINE, "Pulled files from {0}: {1}", new Object[] { serial, statistics });
+            return statistics;
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to pull files from {0}", serial);
+        } finally {
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
+    @Override
+    public void createPortForwarding(int localPort, int remotePort) throws AndroidExecutionException {
+        try {
+            hostRequest("forward:tcp:" + localPort + ";tcp:" + remotePort);
+        } catch (IOException e) {
+            throw new AndroidExecutionException("Unable to forward port (" + localPort + " to " + remotePort + ").", e);
+        }
+    }
+
+    @Override
+    public void removePortForwarding(int localPort, int remotePort) throws AndroidExecutionException {
+        try {
+            hostRequest("killforward:tcp:" + localPort);
+        } catch (IOException e) {
+            throw new AndroidExecutionException("Unable to remove port forwarding (" + localPort + " to " + remotePort
+                    + ").", e);
+        }
+    }
+
+    @Override
+    public AndroidPortForwarding forwardPort(int localPort, String remoteSocket) throws AndroidExecutionException {
+        return portForwardings.forward(localPort, remoteSocket);
+    }
+
+    @Override
+    public void removePortForwardings() throws AndroidExecutionException {
+        portForwardings.removeAll();
+    }
+
+    @Override
+    public void installPackage(File packageFilePath, boolean reinstall, String... extraArgs) throws AndroidExecutionException {
+        Validate.isReadable(packageFilePath, "File " + packageFilePath + " must represent a readable APK file");
+
+        // extra arguments might require installation of an already installed package, e.g. to grant permissions
+        InstalledPackageIndex.Entry installed = extraArgs.length == 0 ? packageIndex.find(packageFilePath) : null;
+        if (installed != null) {
+            log.log(Level.INFO, "Package {0} from {1} is already installed on {2}, installation skipped", new Object[] {
+                    installed.packageName, packageFilePath.getName(), getSerialNumber() });
+            return;
+        }
+        if (reinstall && deltaInstaller.install(packageFilePath, extraArgs)) {
+            return;
+        }
+        if (streamedInstaller.isSupported()) {
+            streamedInstaller.install(Collections.singletonList(packageFilePath), reinstall, extraArgs);
+            deltaInstaller.installed(packageFilePath);
+            return;
+        }
+
+        String remotePath = TMP_DIR + packageFilePath.getName();
+        try {
+            push(packageFilePath, remotePath);
+        } catch (IOException e) {
+            throw new AndroidExecutionException("Unable to install APK from " + packageFilePath.getAbsolutePath(), e);
+        }
+
+        try {
+            StringBuilder command = new StringBuilder("pm install");
+            if (reinstall) {
+                command.append(" -r");
+            }
+            for (String arg : extraArgs) {
+                command.append(' ').append(arg);
+            }
+            command.append(" \"").append(remotePath).append('"');
+
+            String failure = getFailure(command.toString());
+            if (failure != null) {
+                throw new AndroidExecutionException("Unable to install APK from " + packageFilePath.getAbsolutePath()
+                        + ". Command failed with status code: " + failure);
+            }
+            deltaInstaller.installed(packageFilePath);
+        } finally {
+            executeShellCommand("rm \"" + remotePath + "\"");
+        }
+    }
+
+    @Override
+    public void installPackages(List<File> packageFilePaths, boolean reinstall, String... extraArgs)
+            throws AndroidExecutionException {
+        if (packageFilePaths.size() == 1) {
+            installPackage(packageFilePaths.get(0), reinstall, extraArgs);
+            return;
+        }
+        if (!streamedInstaller.isSupported()) {
+            throw new AndroidExecutionException("Unable to install split APKs {0}, device {1} requires API level {2}",
+                    packageFilePaths, getSerialNumber(), StreamedPackageInstaller.MINIMAL_API_LEVEL);
+        }
+        streamedInstaller.install(packageFilePaths, reinstall, extraArgs);
+    }
+
+    @Override
+    public AndroidPackageInfo getPackageInfo(File packageFilePath) throws AndroidExecutionException {
+        return ApkManifestReader.read(packageFilePath);
+    }
+
+    @Override
+    public void uninstallPackage(String packageName) throws AndroidExecutionException {
+        String failure = getFailure("pm uninstall " + packageName);
+        if (failure != null) {
+            log.log(Level.FINE, "Uninstallation of {0} returned {1}", new Object[] { packageName, failure });
+        }
+    }
+
+    private void notifySkipped(List<String> skipped, AndroidTransferListener listener) {
+        if (listener != null) {
+            for (String remotePath : skipped) {
+                listener.fileSkipped(this, remotePath);
+            }
+        }
+    }
+
+    /**
+     * Copies a file to the device using sync protocol
+     *
+     * @param local the local file
+     * @param remotePath path on the device
+     * @throws IOException if file cannot be copied
+     */
+    void push(File local, String remotePath) throws IOException {
+        SyncSession session = SyncSession.open(server, serial);
+        try {
+            session.push(Collections.singletonMap(local, remotePath), FILE_MODE, this, null);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Updates state of the device
+     *
+     * @param state the new state
+     * @return {@code true} if state has changed
+     */
+    boolean setState(String state) {
+        if (state.equals(this.state)) {
+            return false;
+        }
+        this.state = state;
+        // device might have been rebooted
+        propertyCache.invalidate();
+        return true;
+    }
+
+    private void hostRequest(String request) throws IOException {
+        AdbConnection connection = AdbConnection.open(server);
+        try {
+            connection.send("host-serial:" + serial + ":" + request);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private String getFailure(String command) throws AndroidExecutionException {
+        final List<String> output = new ArrayList<String>();
+        executeShellCommand(command, new AndroidDeviceOutputReciever() {
+            @Override
+            public void processNewLines(String[] lines) {
+                Collections.addAll(output, lines);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        for (String line : output) {
+            if (line.startsWith("Success")) {
+                return null;
+            }
+        }
+        for (String line : output) {
+            if (line.startsWith("Failure")) {
+                return line;
+            }
+        }
+        return output.toString();
+    }
+
+    private String queryAvdName() {
+        // emulator console listens on loopback of the host running the emulator, so it is reachable only for a local server
+        if (server.getAddress() != null && server.getAddress().isLoopbackAddress()) {
+            String name = queryConsoleAvdName();
+            if (name != null) {
+                return name;
+            }
+        }
+        return queryAvdNameProperty();
+    }
+
+    // emulator console listens on the port from serial number
+    private String queryConsoleAvdName() {
+        Socket socket = null;
+        try {
+            int port = Integer.parseInt(serial.substring(EMULATOR_PREFIX.length()));
+            socket = new Socket();
+            socket.connect(new InetSocketAddress("127.0.0.1", port), AdbConnection.CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(AdbConnection.CONNECT_TIMEOUT_MS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+
+            // banner ends by OK
+            String line;
+            while ((line = in.readLine()) != null && !line.startsWith("OK")) {
+                if (line.startsWith("KO")) {
+                    return null;
+                }
+            }
+
+            out.write("avd name\r\n");
+            out.flush();
+            String name = in.readLine();
+            String status = in.readLine();
+            if (name != null && status != null && status.startsWith("OK")) {
+                return name.trim();
+            }
+        } catch (NumberFormatException e) {
+            log.log(Level.FINE, "Unable to determine emulator console port of {0}", serial);
+        } catch (IOException e) {
+            log.log(Level.FINE, "Unable to get AVD name of " + serial + " from emulator console", e);
+        } finally {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return null;
+    }
+
+    // recent emulators tell their AVD name by a property as well, which works regardless of adb server location
+    private String queryAvdNameProperty() {
+        if (!isOnline()) {
+            return null;
+        }
+        try {
+            for (String property : AVD_NAME_PROPERTIES) {
+                String name = getProperty(property);
+                if (name != null && name.length() != 0) {
+                    return name;
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.FINE, "Unable to get AVD name of " + serial + " from its properties", e);
+        } catch (AndroidExecutionException e) {
+            log.log(Level.FINE, "Unable to get AVD name of " + serial + " from its properties", e);
+        }
+        return null;
+    }
+
+    private static String[] takeLines(StringBuilder pending) {
+        List<String> lines = new ArrayList<String>();
+        int start = 0;
+        int nl;
+        while ((nl = pending.indexOf("\n", start)) != -1) {
+            int end = nl > start && pending.charAt(nl - 1) == '\r' ? nl - 1 : nl;
+            lines.add(pending.substring(start, end));
+            start = nl + 1;
+        }
+        pending.delete(0, start);
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public String toString() {
+        return "NativeAndroidDevice " + serial + " (" + state + ")";
+    }
+}
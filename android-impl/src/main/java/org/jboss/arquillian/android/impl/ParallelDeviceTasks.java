@@ -0,0 +1,233 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInstallation;
+import org.jboss.arquillian.android.api.AndroidTransferListener;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
+
+/**
+ * Executes the same task on many devices in parallel. Only a limited number of devices is served at the same time, every
+ * device is processed even if the task fails for some of them and all the failures are reported together.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class ParallelDeviceTasks {
+    private static final Logger log = Logger.getLogger(ParallelDeviceTasks.class.getName());
+
+    /**
+     * Default number of devices of the same adb server installed at the same time
+     */
+    static final int MAX_INSTALLS_PER_ENDPOINT = 4;
+
+    /**
+     * Default number of devices of the same adb server files are transferred to at the same time
+     */
+    static final int MAX_TRANSFERS_PER_ENDPOINT = 4;
+
+    private static final Object LOCAL_ENDPOINT = "local";
+
+    private ParallelDeviceTasks() {
+        throw new UnsupportedOperationException("No instantiation");
+    }
+
+    /**
+     * A task executed for a single device
+     *
+     * @param <T> result type
+     */
+    interface DeviceTask<T> {
+        T execute(AndroidDevice device) throws AndroidExecutionException;
+    }
+
+    /**
+     * Executes the task on all devices and waits for the results. Devices are grouped by the adb server they are connected to,
+     * as in {@link #submit(Collection, DeviceTask, ProcessExecutor, int)}.
+     *
+     * @param devices the devices
+     * @param task the task
+     * @param executor executor which provides threads
+     * @param maxConcurrencyPerEndpoint maximal number of devices of the same adb server served at the same time
+     * @return results of the task, in the order of the devices
+     * @throws AndroidExecutionException if the task failed for any of the devices
+     */
+    static <T> Map<AndroidDevice, T> execute(Collection<AndroidDevice> devices, DeviceTask<T> task,
+            ProcessExecutor executor, int maxConcurrencyPerEndpoint) throws AndroidExecutionException {
+
+        Map<AndroidDevice, Future<T>> futures = submit(devices, task, executor, maxConcurrencyPerEndpoint);
+
+        Map<AndroidDevice, T> results = new LinkedHashMap<AndroidDevice, T>();
+        Map<AndroidDevice, Throwable> failures = new LinkedHashMap<AndroidDevice, Throwable>();
+        for (Map.Entry<AndroidDevice, Future<T>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException e) {
+                throw new AndroidExecutionException(e, "Interrupted while executing task on devices {0}", devices);
+            } catch (ExecutionException e) {
+                failures.put(entry.getKey(), e.getCause());
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            List<String> serials = new ArrayList<String>(failures.size());
+            for (AndroidDevice device : failures.keySet()) {
+                serials.add(device.getSerialNumber());
+            }
+            throw new AndroidExecutionException(failures.values().iterator().next(),
+                    "Task failed on {0} of {1} devices: {2}", failures.size(), devices.size(), serials);
+        }
+
+        return results;
+    }
+
+    /**
+     * Submits the task for all devices without waiting for the results. Devices are grouped by the adb server they are
+     * connected to and at most {@code maxConcurrencyPerEndpoint} devices of the same group are served at the same time, so
+     * that a single adb server or USB hub is not flooded with transfers.
+     *
+     * @param devices the devices
+     * @param task the task
+     * @param executor executor which provides threads
+     * @param maxConcurrencyPerEndpoint maximal number of devices of the same adb server served at the same time
+     * @return futures of the task per device, in the order of the devices
+     */
+    static <T> Map<AndroidDevice, Future<T>> submit(Collection<AndroidDevice> devices, DeviceTask<T> task,
+            ProcessExecutor executor, int maxConcurrencyPerEndpoint) {
+
+        Map<Object, List<AndroidDevice>> groups = new LinkedHashMap<Object, List<AndroidDevice>>();
+        for (AndroidDevice device : devices) {
+            Object endpoint = endpointOf(device);
+            List<AndroidDevice> group = groups.get(endpoint);
+            if (group == null) {
+                group = new ArrayList<AndroidDevice>();
+                groups.put(endpoint, group);
+            }
+            group.add(device);
+        }
+        return start(groups, task, executor, maxConcurrencyPerEndpoint);
+    }
+
+    /**
+     * Installs the same application on all devices concurrently
+     *
+     * @param devices the devices
+     * @param packageFilePaths APK files of the application
+     * @param reinstall {@code true} if the application should be reinstalled if already present
+     * @param extraArgs additional arguments passed to the package manager
+     * @param executor executor which provides threads
+     * @return the installation, which provides a future per device
+     */
+    static AndroidPackageInstallation installPackages(Collection<AndroidDevice> devices,
+            final List<File> packageFilePaths, final boolean reinstall, final String[] extraArgs, ProcessExecutor executor) {
+        return new AndroidPackageInstallation(submit(devices, new DeviceTask<Void>() {
+            @Override
+            public Void execute(AndroidDevice device) throws AndroidExecutionException {
+                device.installPackages(packageFilePaths, reinstall, extraArgs);
+                return null;
+            }
+        }, executor, MAX_INSTALLS_PER_ENDPOINT));
+    }
+
+    /**
+     * Pushes the same set of files to all devices
+     *
+     * @param devices the devices
+     * @param files local files mapped to remote paths
+     * @param listener listener notified about transfers, might be {@code null}
+     * @param executor executor which provides threads
+     * @param maxConcurrencyPerEndpoint maximal number of devices of the same adb server served at the same time
+     * @return statistics of the transfer per device
+     * @throws AndroidExecutionException if the transfer failed for any of the devices
+     */
+    static Map<AndroidDevice, AndroidTransferStatistics> pushFiles(Collection<AndroidDevice> devices,
+            final Map<File, String> files, final AndroidTransferListener listener, ProcessExecutor executor,
+            int maxConcurrencyPerEndpoint) throws AndroidExecutionException {
+        return execute(devices, new DeviceTask<AndroidTransferStatistics>() {
+            @Override
+            public AndroidTransferStatistics execute(AndroidDevice device) throws AndroidExecutionException {
+                return device.pushFiles(files, listener);
+            }
+        }, executor, maxConcurrencyPerEndpoint);
+    }
+
+    private static <T> Map<AndroidDevice, Future<T>> start(Map<Object, List<AndroidDevice>> groups,
+            final DeviceTask<T> task, ProcessExecutor executor, int maxConcurrency) {
+
+        Map<AndroidDevice, Future<T>> futures = new LinkedHashMap<AndroidDevice, Future<T>>();
+        for (List<AndroidDevice> group : groups.values()) {
+            final ConcurrentLinkedQueue<FutureTask<T>> queue = new ConcurrentLinkedQueue<FutureTask<T>>();
+            for (final AndroidDevice device : group) {
+                FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+                    @Override
+                    public T call() throws AndroidExecutionException {
+                        try {
+                            return task.execute(device);
+                        } catch (AndroidExecutionException e) {
+                            log.log(Level.WARNING, "Task failed on device " + device.getSerialNumber(), e);
+                            throw e;
+                        } catch (RuntimeException e) {
+                            log.log(Level.WARNING, "Task failed on device " + device.getSerialNumber(), e);
+                            throw e;
+                        }
+                    }
+                });
+                futures.put(device, future);
+                queue.add(future);
+            }
+
+            int workers = Math.max(1, Math.min(maxConcurrency, group.size()));
+            for (int i = 0; i < workers; i++) {
+                executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        FutureTask<T> future;
+                        while ((future = queue.poll()) != null) {
+                            future.run();
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+        return futures;
+    }
+
+    // devices connected to the same adb server share its connection and usually the USB hub as well
+    private static Object endpointOf(AndroidDevice device) {
+        if (device instanceof NativeAndroidDevice) {
+            return ((NativeAndroidDevice) device).getServer();
+        }
+        return LOCAL_ENDPOINT;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPortForwarding;
+
+/**
+ * Manages port forwardings of a device. Forwardings to the same socket on the device are shared by all users and they are
+ * removed once released by the last of them.
+ *
+ * Free local ports are claimed by adb server itself. A candidate port is forwarded without rebinding, so if another job on
+ * the same host claimed the port in the meantime, the request is rejected and another port is tried. Explicitly requested
+ * ports are never rebound either. A port forwarded by someone else is reported instead of being taken over, even if it
+ * leads to the same socket of the same device, as it might belong to another suite using the same adb server. Only a
+ * forwarding this manager failed to remove is reused.
+ *
+ * Ports are opened by the adb server, so forwardings are created only for adb servers running on this host. A forwarding
+ * created by a remote adb server would listen on the remote host, where it is not reachable by local clients.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class PortForwardingManager {
+    private static final Logger log = Logger.getLogger(PortForwardingManager.class.getName());
+
+    static final int MAX_ALLOCATION_ATTEMPTS = 10;
+
+    private final InetSocketAddress server;
+
+    private final String serial;
+
+    // forwardings keyed by local port
+    private final Map<Integer, Forwarding> forwardings = new LinkedHashMap<Integer, Forwarding>();
+
+    // remote sockets of forwardings which could not be removed, keyed by local port
+    private final Map<Integer, String> leaked = new HashMap<Integer, String>();
+
+    PortForwardingManager(InetSocketAddress server, String serial) {
+        this.server = server;
+        this.serial = serial;
+    }
+
+    /**
+     * Forwards a local port to a socket on the device, sharing an existing forwarding if possible
+     *
+     * @param localPort the local port, {@code 0} if a free port should be allocated
+     * @param remoteSocket socket on the device in adb format
+     * @return the forwarding
+     * @throws AndroidExecutionException if the forwarding cannot be created
+     */
+    synchronized AndroidPortForwarding forward(int localPort, String remoteSocket) throws AndroidExecutionException {
+        if (remoteSocket == null || remoteSocket.indexOf(':') == -1) {
+            throw new IllegalArgumentException("Remote socket must be in adb format, such as tcp:8080, but was "
+                    + remoteSocket);
+        }
+
+        if (server.isUnresolved() || !server.getAddress().isLoopbackAddress()) {
+            throw new AndroidExecutionException(
+                    "Unable to forward local port to {0} of {1}, device is connected to remote adb server {2}, which would "
+                            + "open the port on its own host", remoteSocket, serial, server);
+        }
+
+        Forwarding forwarding = find(localPort, remoteSocket);
+        if (forwarding == null) {
+            if (localPort == 0) {
+                forwarding = allocate(remoteSocket);
+            } else if (forwardings.containsKey(localPort)) {
+                throw new AndroidExecutionException("Local port {0} of {1} is already forwarded to {2}",
+                        String.valueOf(localPort), serial, forwardings.get(localPort).remoteSocket);
+            } else {
+                forwarding = claim(localPort, remoteSocket);
+            }
+            forwardings.put(forwarding.localPort, forwarding);
+        }
+        forwarding.references++;
+        return new Handle(forwarding);
+    }
+
+    /**
+     * Removes all forwardings, regardless of their references
+     *
+     * @throws AndroidExecutionException if any of the forwardings cannot be removed
+     */
+    synchronized void removeAll() throws AndroidExecutionException {
+        List<Forwarding> removed = new ArrayList<Forwarding>(forwardings.values());
+        forwardings.clear();
+
+        AndroidExecutionException failure = null;
+        for (Forwarding forwarding : removed) {
+            forwarding.references = 0;
+            try {
+                remove(forwarding);
+            } catch (AndroidExecutionException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Forwarding find(int localPort, String remoteSocket) {
+        for (Forwarding forwarding : forwardings.values()) {
+            if (forwarding.remoteSocket.equals(remoteSocket) && (localPort == 0 || forwarding.localPort == localPort)) {
+                return forwarding;
+            }
+        }
+        return null;
+    }
+
+    private Forwarding allocate(String remoteSocket) throws AndroidExecutionException {
+        for (int attempt = 1;; attempt++) {
+            int localPort = freePort();
+            try {
+                return create(localPort, remoteSocket);
+            } catch (AndroidExecutionException e) {
+                if (attempt >= MAX_ALLOCATION_ATTEMPTS) {
+                    throw e;
+                }
+                log.log(Level.FINE, "Local port {0} was claimed by someone else, trying another one",
+                        String.valueOf(localPort));
+            }
+        }
+    }
+
+    private Forwarding claim(int localPort, String remoteSocket) throws AndroidExecutionException {
+        try {
+            return create(localPort, remoteSocket);
+        } catch (AndroidExecutionException e) {
+            if (!remoteSocket.equals(leaked.get(localPort)) || !isForwarded(localPort, remoteSocket)) {
+                throw new AndroidExecutionException(e,
+                        "Local port {0} is already forwarded, possibly by another job, use port 0 to allocate a free port",
+                        String.valueOf(localPort));
+            }
+            leaked.remove(localPort);
+            log.log(Level.FINE, "Reusing forwarding of local port {0} to {1} of {2} which was not removed", new Object[] {
+                    String.valueOf(localPort), remoteSocket, serial });
+            return new Forwarding(localPort, remoteSocket);
+        }
+    }
+
+    private boolean isForwarded(int localPort, String remoteSocket) throws AndroidExecutionException {
+        String list;
+        try {
+            AdbConnection connection = AdbConnection.open(server);
+            try {
+                connection.send("host:list-forward");
+                list = connection.readHexString();
+            } finally {
+                connection.close();
+            }
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to list forwardings of adb server {0}", server);
+        }
+        // each line contains serial number, local socket and remote socket
+        String expected = serial + " tcp:" + localPort + " " + remoteSocket;
+        for (String line : (list == null ? "" : list).split("\n")) {
+            if (line.trim().equals(expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Forwarding create(int localPort, String remoteSocket) throws AndroidExecutionException {
+        String request = "forward:norebind:tcp:" + localPort + ";" + remoteSocket;
+        try {
+            AdbConnection connection = AdbConnection.open(server);
+            try {
+                connection.sendConfirmed("host-serial:" + serial + ":" + request);
+            } finally {
+                connection.close();
+            }
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to forward local port {0} to {1} of {2}",
+                    String.valueOf(localPort), remoteSocket, serial);
+        }
+        log.log(Level.FINE, "Forwarded local port {0} to {1} of {2}", new Object[] { String.valueOf(localPort),
+                remoteSocket, serial });
+        return new Forwarding(localPort, remoteSocket);
+    }
+
+    private void remove(Forwarding forwarding) throws AndroidExecutionException {
+        try {
+            AdbConnection connection = AdbConnection.open(server);
+            try {
+                connection.sendOptionallyConfirmed("host-serial:" + serial + ":killforward:tcp:" + forwarding.localPort);
+            } finally {
+                connection.close();
+            }
+            leaked.remove(forwarding.localPort);
+        } catch (IOException e) {
+            leaked.put(forwarding.localPort, forwarding.remoteSocket);
+            throw new AndroidExecutionException(e, "Unable to remove forwarding of local port {0} to {1} of {2}",
+                    String.valueOf(forwarding.localPort), forwarding.remoteSocket, serial);
+        }
+    }
+
+    private void release(Handle handle) throws AndroidExecutionException {
+        Forwarding forwarding = handle.forwarding;
+        synchronized (this) {
+            // forwarding might have been removed already
+            if (handle.released || forwarding.references == 0) {
+                handle.released = true;
+                return;
+            }
+            handle.released = true;
+            if (--forwarding.references > 0) {
+                return;
+            }
+            forwardings.remove(forwarding.localPort);
+            remove(forwarding);
+        }
+    }
+
+    private static int freePort() throws AndroidExecutionException {
+        ServerSocket socket = null;
+        try {
+            socket = new ServerSocket(0);
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new AndroidExecutionException("Unable to find a free local port", e);
+        } finally {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static class Forwarding {
+        private final int localPort;
+        private final String remoteSocket;
+        private int references;
+
+        Forwarding(int localPort, String remoteSocket) {
+            this.localPort = localPort;
+            this.remoteSocket = remoteSocket;
+        }
+    }
+
+    private class Handle implements AndroidPortForwarding {
+        private final Forwarding forwarding;
+        private boolean released;
+
+        Handle(Forwarding forwarding) {
+            this.forwarding = forwarding;
+        }
+
+        @Override
+        public int getLocalPort() {
+            return forwarding.localPort;
+        }
+
+        @Override
+        public String getRemoteSocket() {
+            return forwarding.remoteSocket;
+        }
+
+        @Override
+        public void release() throws AndroidExecutionException {
+            PortForwardingManager.this.release(this);
+        }
+
+        @Override
+        public String toString() {
+            return "tcp:" + forwarding.localPort + " -> " + forwarding.remoteSocket + " of " + serial;
+        }
+    }
+}
@@ -49,11 +49,32 @@ public class ProcessExecutor {
     private final ShutDownThreadHolder shutdownThreads;
     private final ExecutorService service;
     private final ScheduledExecutorService scheduledService;
+    private final Map<String, String> environment;
 
     public ProcessExecutor() {
+        this(Collections.<String, String> emptyMap());
+    }
+
+    /**
+     * Creates an executor which spawns all processes with given environment variables added to the environment inherited
+     * from the current JVM
+     *
+     * @param environment Environment variables to be set for spawned processes
+     */
+    public ProcessExecutor(Map<String, String> environment) {
         this.shutdownThreads = new ShutDownThreadHolder();
         this.service = Executors.newCachedThreadPool();
         this.scheduledService = Executors.newScheduledThreadPool(1);
+        this.environment = Collections.unmodifiableMap(new HashMap<String, String>(environment));
+    }
+
+    /**
+     * Returns environment variables which are set for every spawned process
+     *
+     * @return Unmodifiable map of environment variables
+     */
+    public Map<String, String> getEnvironment() {
+        return environment;
     }
 
     /**
@@ -123,7 +144,7 @@ public class ProcessExecutor {
      * @throws ExecutionException
      */
     public Process spawn(String... command) throws InterruptedException, ExecutionException {
-        Future<Process> processFuture = service.submit(new SpawnedProcess(true, command));
+        Future<Process> processFuture = service.submit(new SpawnedProcess(true, environment, command));
         Process process = processFuture.get();
         service.submit(new ProcessOutputConsumer(new ProcessWithId(process, command[0])));
         shutdownThreads.addHookFor(process);
@@ -132,7 +153,7 @@ public class ProcessExecutor {
     }
 
     public List<String> execute(Map<String, String> input, String... command) throws InterruptedException, ExecutionException {
-        Future<Process> processFuture = service.submit(new SpawnedProcess(true, command));
+        Future<Process> processFuture = service.submit(new SpawnedProcess(true, environment, command));
         Process process = processFuture.get();
         return service.submit(new ProcessOutputConsumer(new ProcessWithId(process, command[0]), input)).get();
     }
@@ -146,6 +167,23 @@ public class ProcessExecutor {
         return this;
     }
 
+    /**
+     * Stops accepting new tasks. Threads of the executor are released once the running tasks finish.
+     */
+    public void shutdown() {
+        service.shutdown();
+        scheduledService.shutdown();
+    }
+
+    /**
+     * Checks whether the executor was shut down
+     *
+     * @return {@code true} if the executor no longer accepts tasks
+     */
+    public boolean isShutdown() {
+        return service.isShutdown();
+    }
+
     private static class ShutDownThreadHolder {
 
         private final Map<Process, Thread> shutdownThreads;
@@ -193,16 +231,19 @@ public class ProcessExecutor {
     private static class SpawnedProcess implements Callable<Process> {
 
         private final String[] command;
+        private final Map<String, String> environment;
         private boolean redirectErrorStream;
 
-        public SpawnedProcess(boolean redirectErrorStream, String... command) {
+        public SpawnedProcess(boolean redirectErrorStream, Map<String, String> environment, String... command) {
             this.redirectErrorStream = redirectErrorStream;
+            this.environment = environment;
             this.command = command;
         }
 
         @Override
         public Process call() throws Exception {
             ProcessBuilder builder = new ProcessBuilder(InputSanitizer.sanitizeArguments(command));
+            builder.environment().putAll(environment);
             builder.redirectErrorStream(redirectErrorStream);
             return builder.start();
         }
@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
+
+/**
+ * Transfers raw output of shell commands to channels and files
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class RawShellOutput {
+    private static final Logger log = Logger.getLogger(RawShellOutput.class.getName());
+
+    private RawShellOutput() {
+        throw new UnsupportedOperationException("No instantiation");
+    }
+
+    /**
+     * Executes a command over ADB host protocol and transfers its output to a channel without any alteration
+     *
+     * @param server address of adb server
+     * @param serial serial number of the device
+     * @param command the command
+     * @param output the channel
+     * @return statistics of the transfer
+     * @throws AndroidExecutionException if the command cannot be executed or the output cannot be written
+     */
+    static AndroidTransferStatistics toChannel(InetSocketAddress server, String serial, String command,
+            WritableByteChannel output) throws AndroidExecutionException {
+        long start = System.nanoTime();
+        AdbConnection connection = null;
+        try {
+            connection = AdbConnection.openTransport(server, serial);
+            try {
+                // exec service does not allocate a pty, so the output is not altered by line discipline
+                connection.send("exec:" + command);
+            } catch (IOException e) {
+                log.log(Level.FINE, "Device {0} does not support exec service, using shell service", serial);
+                connection.close();
+                connection = AdbConnection.openTransport(server, serial);
+                connection.send("shell:" + command);
+            }
+            long bytes = connection.transferTo(output);
+            return new AndroidTransferStatistics(bytes, System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new AndroidExecutionException("Unable to execute command '" + command + "'", e);
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Executes a command and stores its output in a file. Incomplete file is removed if the command cannot be executed.
+     *
+     * @param device the device
+     * @param command the command
+     * @param output the file
+     * @return statistics of the transfer
+     * @throws AndroidExecutionException if the command cannot be executed or the file cannot be written
+     */
+    static AndroidTransferStatistics toFile(AndroidDevice device, String command, File output)
+            throws AndroidExecutionException {
+        FileOutputStream stream = null;
+        boolean completed = false;
+        try {
+            stream = new FileOutputStream(output);
+            AndroidTransferStatistics statistics = device.executeRawShellCommand(command, stream.getChannel());
+            stream.close();
+            completed = true;
+            log.log(Level.FINE, "Output of {0} was stored in {1}, {2}", new Object[] { command, output, statistics });
+            return statistics;
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to store output of {0} in {1}", command, output);
+        } finally {
+            if (!completed) {
+                closeQuietly(stream);
+                output.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(FileOutputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.api.AndroidBridge;
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInstallation;
+import org.jboss.arquillian.android.api.AndroidTransferListener;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
+import org.jboss.arquillian.android.configuration.AndroidConfigurationException;
+
+/**
+ * Android Bridge aggregating adb servers running on remote hosts, such as machines with USB hubs in a device farm. Every
+ * endpoint is tracked by its own {@link NativeAndroidBridge}, so devices of all endpoints are visible as devices of a single
+ * bridge. Endpoints which are not reachable or which lost their connection are reconnected in background.
+ *
+ * Devices can be leased by {@link #lease()}, which balances leases across endpoints, so suites sharing the bridge do not
+ * pile up on devices of a single host.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class RemoteAndroidBridge implements AndroidBridge {
+    private static final Logger log = Logger.getLogger(RemoteAndroidBridge.class.getName());
+
+    /** Delay between attempts to reconnect endpoints which are not connected */
+    static final long KEEPALIVE_INTERVAL_MS = 2000;
+
+    private final List<InetSocketAddress> addresses;
+
+    private final List<NativeAndroidBridge> endpoints;
+
+    private final ProcessExecutor executor;
+
+    // serial numbers of leased devices mapped to index of their endpoint
+    private final Map<String, Integer> leases = new HashMap<String, Integer>();
+
+    private int nextEndpoint;
+
+    private volatile boolean connected;
+
+    private volatile Future<Void> keepalive;
+
+    /**
+     * Creates a bridge
+     *
+     * @param addresses addresses of remote adb servers
+     * @param executor executor used to track devices and to keep endpoints connected
+     */
+    RemoteAndroidBridge(List<InetSocketAddress> addresses, ProcessExecutor executor) {
+        this.addresses = Collections.unmodifiableList(new ArrayList<InetSocketAddress>(addresses));
+        this.endpoints = new ArrayList<NativeAndroidBridge>(addresses.size());
+        for (InetSocketAddress address : addresses) {
+            // remote servers are never started nor killed by this bridge
+            endpoints.add(createEndpoint(address, executor));
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Parses a comma separated list of adb server endpoints in {@code host:port} format. Port might be omitted, default adb
+     * server port is used then.
+     *
+     * @param endpoints the list
+     * @return addresses of the endpoints
+     * @throws AndroidConfigurationException if the list is not valid
+     */
+    static List<InetSocketAddress> parseEndpoints(String endpoints) throws AndroidConfigurationException {
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+        for (String endpoint : endpoints.split(",")) {
+            endpoint = endpoint.trim();
+            if (endpoint.length() == 0) {
+                continue;
+            }
+            int colon = endpoint.lastIndexOf(':');
+            String host = colon == -1 ? endpoint : endpoint.substring(0, colon);
+            int port = AdbConnection.DEFAULT_PORT;
+            if (colon != -1) {
+                try {
+                    port = Integer.parseInt(endpoint.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    throw new AndroidConfigurationException("Invalid port of adb endpoint " + endpoint);
+                }
+            }
+            if (host.length() == 0 || port <= 0 || port > 65535) {
+                throw new AndroidConfigurationException("Invalid adb endpoint " + endpoint
+                        + ", it must be specified as host:port");
+            }
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            if (address.isUnresolved()) {
+                throw new AndroidConfigurationException("Unable to resolve host of adb endpoint " + endpoint);
+            }
+            addresses.add(address);
+        }
+        if (addresses.isEmpty()) {
+            throw new AndroidConfigurationException("No adb endpoint was found in " + endpoints);
+        }
+        return addresses;
+    }
+
+    /**
+     * Returns addresses of all endpoints
+     *
+     * @return unmodifiable list of addresses
+     */
+    List<InetSocketAddress> getEndpoints() {
+        return addresses;
+    }
+
+    @Override
+    public List<AndroidDevice> getDevices() {
+        List<AndroidDevice> devices = new ArrayList<AndroidDevice>();
+        for (NativeAndroidBridge endpoint : endpoints) {
+            if (endpoint.isStarted()) {
+                devices.addAll(endpoint.getDevices());
+            }
+        }
+        return Collections.unmodifiableList(devices);
+    }
+
+    @Override
+    public AndroidDevice getDeviceBySerialNumber(String serialNumber) {
+        for (NativeAndroidBridge endpoint : endpoints) {
+            if (endpoint.isStarted()) {
+                AndroidDevice device = endpoint.getDeviceBySerialNumber(serialNumber);
+                if (device != null) {
+                    return device;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public AndroidDevice getDeviceByAvdName(String avdName) {
+        for (NativeAndroidBridge endpoint : endpoints) {
+            if (endpoint.isStarted()) {
+                AndroidDevice device = endpoint.getDeviceByAvdName(avdName);
+                if (device != null) {
+                    return device;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Leases an online device which is not leased yet. The device is taken from the endpoint with the least leased devices,
+     * endpoints with the same number of leases take turns.
+     *
+     * @return the device or {@code null} if there is no device available
+     */
+    synchronized AndroidDevice lease() {
+        int[] load = new int[endpoints.size()];
+        for (Integer index : leases.values()) {
+            load[index]++;
+        }
+
+        AndroidDevice selected = null;
+        int selectedIndex = -1;
+        for (int i = 0; i < endpoints.size(); i++) {
+            int index = (nextEndpoint + i) % endpoints.size();
+            if (selected != null && load[index] >= load[selectedIndex]) {
+                continue;
+            }
+            AndroidDevice device = getAvailableDevice(endpoints.get(index));
+            if (device != null) {
+                selected = device;
+                selectedIndex = index;
+            }
+        }
+
+        if (selected != null) {
+            leases.put(selected.getSerialNumber(), selectedIndex);
+            nextEndpoint = (selectedIndex + 1) % endpoints.size();
+            log.log(Level.FINE, "Leased device {0} from adb endpoint {1}", new Object[] { selected.getSerialNumber(),
+                    addresses.get(selectedIndex) });
+        }
+        return selected;
+    }
+
+    /**
+     * Returns a leased device, so it can be leased again
+     *
+     * @param device the device
+     */
+    synchronized void release(AndroidDevice device) {
+        leases.remove(device.getSerialNumber());
+    }
+
+    @Override
+    public AndroidPackageInstallation installPackages(Collection<AndroidDevice> devices, List<File> packageFilePaths,
+            boolean reinstall, String... extraArgs) {
+        return ParallelDeviceTasks.installPackages(devices, packageFilePaths, reinstall, extraArgs, executor);
+    }
+
+    @Override
+    public Map<AndroidDevice, AndroidTransferStatistics> pushFiles(Collection<AndroidDevice> devices, Map<File, String> files,
+            AndroidTransferListener listener) throws AndroidExecutionException {
+        return ParallelDeviceTasks.pushFiles(devices, files, listener, executor,
+                ParallelDeviceTasks.MAX_TRANSFERS_PER_ENDPOINT);
+    }
+
+    @Override
+    public void connect() throws AndroidExecutionException {
+        List<Future<Boolean>> connections = new ArrayList<Future<Boolean>>(endpoints.size());
+        for (final NativeAndroidBridge endpoint : endpoints) {
+            connections.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return reconnect(endpoint);
+                }
+            }));
+        }
+
+        int available = 0;
+        for (Future<Boolean> connection : connections) {
+            try {
+                if (connection.get()) {
+                    available++;
+                }
+            } catch (InterruptedException e) {
+                throw new AndroidExecutionException(e, "Interrupted while connecting to adb endpoints {0}", addresses);
+            } catch (ExecutionException e) {
+                throw new AndroidExecutionException(e.getCause(), "Unable to connect to adb endpoints {0}", addresses);
+            }
+        }
+        if (available == 0) {
+            throw new AndroidExecutionException("Unable to connect to any of adb endpoints {0}", addresses);
+        }
+
+        connected = true;
+        keepalive = executor.submit(new Keepalive());
+        log.log(Level.INFO, "Connected to {0} of {1} adb endpoints", new Object[] { available, endpoints.size() });
+    }
+
+    @Override
+    public boolean isConnected() {
+        if (!connected) {
+            return false;
+        }
+        for (NativeAndroidBridge endpoint : endpoints) {
+            if (endpoint.isStarted() && endpoint.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void disconnect() throws AndroidExecutionException {
+        connected = false;
+        if (keepalive != null) {
+            keepalive.cancel(true);
+        }
+        for (NativeAndroidBridge endpoint : endpoints) {
+            if (endpoint.isStarted()) {
+                endpoint.disconnect();
+            }
+        }
+        synchronized (this) {
+            leases.clear();
+        }
+    }
+
+    @Override
+    public void addDeviceListener(AndroidDeviceListener listener) {
+        for (NativeAndroidBridge endpoint : endpoints) {
+            endpoint.addDeviceListener(listener);
+        }
+    }
+
+    @Override
+    public void addDeviceListenerBySerialNumber(String serialNumber, AndroidDeviceListener listener) {
+        for (NativeAndroidBridge endpoint : endpoints) {
+            endpoint.addDeviceListenerBySerialNumber(serialNumber, listener);
+        }
+    }
+
+    @Override
+    public void addDeviceListenerByAvdName(String avdName, AndroidDeviceListener listener) {
+        for (NativeAndroidBridge endpoint : endpoints) {
+            endpoint.addDeviceListenerByAvdName(avdName, listener);
+        }
+    }
+
+    @Override
+    public void removeDeviceListener(AndroidDeviceListener listener) {
+        for (NativeAndroidBridge endpoint : endpoints) {
+            endpoint.removeDeviceListener(listener);
+        }
+    }
+
+    /**
+     * Creates a bridge tracking a single endpoint, might be overridden to track the endpoint differently
+     *
+     * @param address address of the endpoint
+     * @param executor executor
+     * @return the bridge
+     */
+    NativeAndroidBridge createEndpoint(InetSocketAddress address, ProcessExecutor executor) {
+        return new NativeAndroidBridge(address, null, false, executor);
+    }
+
+    private AndroidDevice getAvailableDevice(NativeAndroidBridge endpoint) {
+        if (!endpoint.isStarted()) {
+            return null;
+        }
+        for (AndroidDevice device : endpoint.getDevices()) {
+            if (device.isOnline() && !leases.containsKey(device.getSerialNumber())) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    private boolean reconnect(NativeAndroidBridge endpoint) {
+        try {
+            if (endpoint.isStarted()) {
+                endpoint.disconnect();
+            }
+            endpoint.connect();
+            return true;
+        } catch (AndroidExecutionException e) {
+            log.log(Level.FINE, "Adb endpoint is not available: {0}", e.getMessage());
+            return false;
+        }
+    }
+
+    private class Keepalive implements Callable<Void> {
+        @Override
+        public Void call() throws Exception {
+            while (connected) {
+                Thread.sleep(KEEPALIVE_INTERVAL_MS);
+                for (int i = 0; i < endpoints.size() && connected; i++) {
+                    NativeAndroidBridge endpoint = endpoints.get(i);
+                    if (!endpoint.isStarted() || !endpoint.isConnected()) {
+                        if (reconnect(endpoint)) {
+                            log.log(Level.INFO, "Reconnected to adb endpoint {0}", addresses.get(i));
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -204,6 +204,62 @@ final class SecurityActions {
         return declaredAccessableFields;
     }
 
+    /**
+     * Sets a value of a static field, regardless of its visibility
+     *
+     * @param source Class which declares the field
+     * @param fieldName Name of the field
+     * @param value New value
+     * @throws IllegalStateException if the field could not be set
+     */
+    static void setStaticFieldValue(final Class<?> source, final String fieldName, final Object value)
+            throws IllegalStateException {
+        try {
+            AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
+                public Void run() throws Exception {
+                    Field field = source.getDeclaredField(fieldName);
+                    if (!field.isAccessible()) {
+                        field.setAccessible(true);
+                    }
+                    field.set(null, value);
+                    return null;
+                }
+            });
+        }
+        // Unwrap
+        catch (final PrivilegedActionException pae) {
+            throw new IllegalStateException("Unable to set field " + fieldName + " of " + source.getName(), pae.getCause());
+        }
+    }
+
+    /**
+     * Sets a value of an instance field, regardless of its visibility
+     *
+     * @param target Object which owns the field
+     * @param fieldName Name of the field declared by class of the object
+     * @param value New value
+     * @throws IllegalStateException if the field could not be set
+     */
+    static void setFieldValue(final Object target, final String fieldName, final Object value) throws IllegalStateException {
+        try {
+            AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
+                public Void run() throws Exception {
+                    Field field = target.getClass().getDeclaredField(fieldName);
+                    if (!field.isAccessible()) {
+                        field.setAccessible(true);
+                    }
+                    field.set(target, value);
+                    return null;
+                }
+            });
+        }
+        // Unwrap
+        catch (final PrivilegedActionException pae) {
+            throw new IllegalStateException("Unable to set field " + fieldName + " of " + target.getClass().getName(),
+                    pae.getCause());
+        }
+    }
+
     static String getProperty(final String key) {
         try {
             String value = AccessController.doPrivileged(new PrivilegedExceptionAction<String>() {
@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidShellResult;
+
+/**
+ * Executes several shell commands in a single shell session. Every command is followed by an {@code echo} of a sentinel with
+ * index and exit status of the command, so the output of the session can be split back to output of the commands.
+ *
+ * Commands are concatenated into scripts which do not exceed {@link #MAX_SCRIPT_LENGTH}, as adbd rejects longer shell
+ * requests on older devices. Usually all commands fit into a single script.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class ShellBatch implements AndroidDeviceOutputReciever {
+
+    /** Maximal length of a script passed to a single shell session */
+    static final int MAX_SCRIPT_LENGTH = 4000;
+
+    private static final Random random = new Random();
+
+    private final List<String> commands;
+
+    private final boolean failFast;
+
+    private final String sentinel;
+
+    private final List<AndroidShellResult> results = new ArrayList<AndroidShellResult>();
+
+    private List<String> output = new ArrayList<String>();
+
+    /**
+     * Quotes an argument of a shell command, so it is passed as is
+     *
+     * @param argument the argument
+     * @return the quoted argument
+     */
+    static String quote(String argument) {
+        return "'" + argument.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Creates a batch
+     *
+     * @param commands the commands
+     * @param failFast {@code true} if execution should stop after the first command which failed
+     */
+    ShellBatch(List<String> commands, boolean failFast) {
+        this.commands = new ArrayList<String>(commands);
+        this.failFast = failFast;
+        // sentinel must not appear in output of the commands
+        this.sentinel = "__ARQ_" + Long.toHexString(random.nextLong() & Long.MAX_VALUE) + "__";
+    }
+
+    /**
+     * Executes commands on the device
+     *
+     * @param device the device
+     * @return results of executed commands
+     * @throws AndroidExecutionException if a shell session cannot be executed
+     */
+    List<AndroidShellResult> execute(AndroidDevice device) throws AndroidExecutionException {
+        int next = 0;
+        while (next < commands.size()) {
+            StringBuilder script = new StringBuilder(getFragment(next));
+            int end = next + 1;
+            while (end < commands.size() && script.length() + getFragment(end).length() <= MAX_SCRIPT_LENGTH) {
+                script.append(getFragment(end++));
+            }
+
+            device.executeShellCommand(script.toString(), this);
+
+            // shell session ended before all commands were executed
+            if (results.size() < end) {
+                break;
+            }
+            if (failFast && !results.get(results.size() - 1).isSuccess()) {
+                break;
+            }
+            next = end;
+        }
+        return results;
+    }
+
+    /**
+     * Returns part of the script which executes command at given index
+     *
+     * @param index the index
+     * @return the part of the script
+     */
+    String getFragment(int index) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(commands.get(index)).append('\n');
+        sb.append("s=$?\n");
+        sb.append("echo \"").append(sentinel).append(' ').append(index).append(" $s\"\n");
+        if (failFast) {
+            sb.append("case $s in 0) ;; *) exit $s ;; esac\n");
+        }
+        return sb.toString();
+    }
+
+    String getSentinel() {
+        return sentinel;
+    }
+
+    List<AndroidShellResult> getResults() {
+        return results;
+    }
+
+    @Override
+    public void processNewLines(String[] lines) {
+        for (String line : lines) {
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            int position = line.indexOf(sentinel);
+            if (position == -1) {
+                output.add(line);
+                continue;
+            }
+            // output of the command does not have to end with a new line
+            if (position > 0) {
+                output.add(line.substring(0, position));
+            }
+            String[] status = line.substring(position + sentinel.length()).trim().split(" ");
+            try {
+                int index = Integer.parseInt(status[0]);
+                int exitStatus = Integer.parseInt(status[1]);
+                results.add(new AndroidShellResult(commands.get(index), output, exitStatus));
+            } catch (RuntimeException e) {
+                // not a sentinel written by the script
+                output.add(line);
+                continue;
+            }
+            output = new ArrayList<String>();
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+}
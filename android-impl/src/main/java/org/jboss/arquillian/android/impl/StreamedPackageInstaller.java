@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+
+/**
+ * Installs APKs by streaming them to package manager, so they are not stored in a temporary location on the device first.
+ * A single APK is streamed by {@code pm install -S}, an application split to multiple APKs is installed within an install
+ * session. Streaming requires {@code exec} service and package manager of API level 21 or newer.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class StreamedPackageInstaller {
+    private static final Logger log = Logger.getLogger(StreamedPackageInstaller.class.getName());
+
+    static final int MINIMAL_API_LEVEL = 21;
+
+    private static final Pattern SESSION_PATTERN = Pattern.compile("\\[(\\d+)\\]");
+
+    private final InetSocketAddress server;
+
+    private final AndroidDevice device;
+
+    StreamedPackageInstaller(InetSocketAddress server, AndroidDevice device) {
+        this.server = server;
+        this.device = device;
+    }
+
+    /**
+     * Checks whether the device is able to install streamed APKs
+     *
+     * @return {@code true} if streaming is supported
+     */
+    boolean isSupported() {
+        if (server == null) {
+            return false;
+        }
+        try {
+            return device.getPropertySnapshot().getApiLevel() >= MINIMAL_API_LEVEL;
+        } catch (AndroidExecutionException e) {
+            log.log(Level.FINE, "Unable to get API level of " + device.getSerialNumber(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Installs an application
+     *
+     * @param apks the base APK optionally followed by split APKs
+     * @param reinstall {@code true} if an installed application should be replaced
+     * @param extraArgs extra arguments of {@code pm install}
+     * @throws AndroidExecutionException if installation failed
+     */
+    void install(List<File> apks, boolean reinstall, String... extraArgs) throws AndroidExecutionException {
+        if (apks.isEmpty()) {
+            throw new AndroidExecutionException("No APK to be installed was specified");
+        }
+        for (File apk : apks) {
+            Validate.isReadable(apk, "File " + apk + " must represent a readable APK file");
+        }
+        if (apks.size() == 1) {
+            File apk = apks.get(0);
+            String output = execute(command("pm install", reinstall, extraArgs) + " -S " + apk.length(), apk);
+            if (!isSuccess(output)) {
+                throw new AndroidExecutionException("Unable to install APK from " + apk.getAbsolutePath()
+                        + ". Command failed with status code: " + output);
+            }
+            return;
+        }
+
+        long total = 0;
+        for (File apk : apks) {
+            total += apk.length();
+        }
+        String output = execute(command("pm install-create", reinstall, extraArgs) + " -S " + total, null);
+        Matcher session = SESSION_PATTERN.matcher(output);
+        if (!isSuccess(output) || !session.find()) {
+            throw new AndroidExecutionException("Unable to create install session for " + apks
+                    + ". Command failed with status code: " + output);
+        }
+        String sessionId = session.group(1);
+
+        boolean committed = false;
+        try {
+            for (int i = 0; i < apks.size(); i++) {
+                File apk = apks.get(i);
+                // split names must be unique within the session
+                String splitName = i + "_" + apk.getName();
+                output = execute("pm install-write -S " + apk.length() + " " + sessionId + " " + splitName, apk);
+                if (!isSuccess(output)) {
+                    throw new AndroidExecutionException("Unable to install APK from " + apk.getAbsolutePath()
+                            + ". Command failed with status code: " + output);
+                }
+            }
+            output = execute("pm install-commit " + sessionId, null);
+            if (!isSuccess(output)) {
+                throw new AndroidExecutionException("Unable to install APKs " + apks
+                        + ". Command failed with status code: " + output);
+            }
+            committed = true;
+        } finally {
+            if (!committed) {
+                abandon(sessionId);
+            }
+        }
+    }
+
+    private void abandon(String sessionId) {
+        try {
+            execute("pm install-abandon " + sessionId, null);
+        } catch (AndroidExecutionException e) {
+            log.log(Level.FINE, "Unable to abandon install session " + sessionId, e);
+        }
+    }
+
+    private static boolean isSuccess(String output) {
+        for (String line : output.split("\n")) {
+            if (line.trim().startsWith("Success")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String command(String command, boolean reinstall, String... extraArgs) {
+        StringBuilder sb = new StringBuilder(command);
+        if (reinstall) {
+            sb.append(" -r");
+        }
+        for (String arg : extraArgs) {
+            sb.append(' ').append(arg);
+        }
+        return sb.toString();
+    }
+
+    // executes a command, streaming content of the file to its standard input
+    private String execute(String command, File input) throws AndroidExecutionException {
+        AdbConnection connection = null;
+        try {
+            connection = AdbConnection.openTransport(server, device.getSerialNumber());
+            connection.send("exec:" + command);
+            if (input != null) {
+                FileInputStream in = new FileInputStream(input);
+                try {
+                    FileChannel channel = in.getChannel();
+                    connection.transferFrom(channel);
+                } finally {
+                    in.close();
+                }
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            connection.transferTo(Channels.newChannel(output));
+            return output.toString("UTF-8").trim();
+        } catch (IOException e) {
+            throw new AndroidExecutionException(e, "Unable to execute {0} on {1}", command, device.getSerialNumber());
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+}
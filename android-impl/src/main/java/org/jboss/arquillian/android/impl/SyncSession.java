@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidTransferListener;
+
+/**
+ * A sync protocol session transferring many files over a single connection. Device answers sync requests in order, so up to
+ * {@link #WINDOW} requests are sent ahead before their responses are read. This hides the round trip of every file, which
+ * dominates transfers of small files.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class SyncSession {
+
+    /** Number of requests sent before waiting for their responses */
+    static final int WINDOW = 64;
+
+    private static final int S_IFMT = 0170000;
+
+    private static final int S_IFREG = 0100000;
+
+    private final AdbConnection connection;
+
+    private final byte[] data = new byte[AdbConnection.SYNC_DATA_MAX];
+
+    private SyncSession(AdbConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Opens a sync session with a device
+     *
+     * @param server address of adb server
+     * @param serial serial number of the device
+     * @return the session
+     * @throws IOException if device is not available
+     */
+    static SyncSession open(InetSocketAddress server, String serial) throws IOException {
+        AdbConnection connection = AdbConnection.openTransport(server, serial);
+        try {
+            connection.send("sync:");
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        return new SyncSession(connection);
+    }
+
+    /**
+     * Returns status of files on the device
+     *
+     * @param paths paths of the files
+     * @return status of each file, in order of paths
+     * @throws IOException if status cannot be retrieved
+     */
+    List<Stat> stat(List<String> paths) throws IOException {
+        List<Stat> stats = new ArrayList<Stat>(paths.size());
+        ByteBuffer response = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int start = 0; start < paths.size(); start += WINDOW) {
+            int end = Math.min(start + WINDOW, paths.size());
+            for (int i = start; i < end; i++) {
+                byte[] path = paths.get(i).getBytes("UTF-8");
+                connection.writeSyncRequest("STAT", path, 0, path.length);
+            }
+            for (int i = start; i < end; i++) {
+                response.clear();
+                connection.readFully(response);
+                String id = new String(response.array(), 0, 4, "UTF-8");
+                if (!"STAT".equals(id)) {
+                    throw new IOException("Status of " + paths.get(i) + " failed, unexpected response " + id);
+                }
+                stats.add(new Stat(response.getInt(4), response.getInt(8) & 0xffffffffL, response.getInt(12) & 0xffffffffL));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Pushes files to the device. Modification time of the files is preserved.
+     *
+     * @param files local files mapped to remote paths
+     * @param mode access mode of created files
+     * @param device device notified to the listener
+     * @param listener listener notified when a file is transferred, might be {@code null}
+     * @return number of transferred bytes
+     * @throws IOException if any of the files cannot be pushed
+     */
+    long push(Map<File, String> files, int mode, AndroidDevice device, AndroidTransferListener listener) throws IOException {
+        long total = 0;
+        LinkedList<Map.Entry<File, String>> pending = new LinkedList<Map.Entry<File, String>>();
+        for (Map.Entry<File, String> entry : files.entrySet()) {
+            send(entry.getKey(), entry.getValue(), mode);
+            pending.add(entry);
+            if (pending.size() == WINDOW) {
+                total += awaitPushed(pending.removeFirst(), device, listener);
+            }
+        }
+        while (!pending.isEmpty()) {
+            total += awaitPushed(pending.removeFirst(), device, listener);
+        }
+        return total;
+    }
+
+    /**
+     * Pulls files from the device
+     *
+     * @param files remote paths mapped to local files
+     * @param device device notified to the listener
+     * @param listener listener notified when a file is transferred, might be {@code null}
+     * @return number of transferred bytes
+     * @throws IOException if any of the files cannot be pulled
+     */
+    long pull(Map<String, File> files, AndroidDevice device, AndroidTransferListener listener) throws IOException {
+        long total = 0;
+        List<Map.Entry<String, File>> entries = new ArrayList<Map.Entry<String, File>>(files.entrySet());
+        int requested = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            // keep the window of requests filled
+            while (requested < entries.size() && requested < i + WINDOW) {
+                byte[] path = entries.get(requested++).getKey().getBytes("UTF-8");
+                connection.writeSyncRequest("RECV", path, 0, path.length);
+            }
+            Map.Entry<String, File> entry = entries.get(i);
+            long bytes = receive(entry.getKey(), entry.getValue());
+            total += bytes;
+            if (listener != null) {
+                listener.fileTransferred(device, entry.getKey(), bytes);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Ends the session
+     */
+    void close() {
+        try {
+            connection.writeSyncRequest("QUIT", 0);
+        } catch (IOException e) {
+            // connection is closed anyway
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void send(File local, String remotePath, int mode) throws IOException {
+        byte[] header = (remotePath + "," + mode).getBytes("UTF-8");
+        connection.writeSyncRequest("SEND", header, 0, header.length);
+        FileInputStream in = new FileInputStream(local);
+        try {
+            int read;
+            while ((read = in.read(data)) != -1) {
+                connection.writeSyncRequest("DATA", data, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        connection.writeSyncRequest("DONE", (int) (local.lastModified() / 1000));
+    }
+
+    private long awaitPushed(Map.Entry<File, String> entry, AndroidDevice device, AndroidTransferListener listener)
+            throws IOException {
+        connection.readSyncResponse("OKAY", "Push of " + entry.getKey().getAbsolutePath() + " to " + entry.getValue());
+        long bytes = entry.getKey().length();
+        if (listener != null) {
+            listener.fileTransferred(device, entry.getValue(), bytes);
+        }
+        return bytes;
+    }
+
+    private long receive(String remotePath, File local) throws IOException {
+        File parent = local.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        long total = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(AdbConnection.SYNC_DATA_MAX);
+        FileChannel out = new FileOutputStream(local).getChannel();
+        boolean completed = false;
+        try {
+            int length;
+            while ((length = connection.readSyncResponse("DATA", "DONE", "Pull of " + remotePath)) != -1) {
+                buffer.clear();
+                buffer.limit(length);
+                connection.readFully(buffer);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                total += length;
+            }
+            completed = true;
+        } finally {
+            out.close();
+            if (!completed) {
+                local.delete();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Status of a file on the device
+     */
+    static class Stat {
+        final int mode;
+        final long size;
+        final long mtime;
+
+        Stat(int mode, long size, long mtime) {
+            this.mode = mode;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        boolean isFile() {
+            return (mode & S_IFMT) == S_IFREG;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Physical layout of a ZIP archive as described by its central directory. Every entry is represented by a segment which
+ * spans its local header, data and data descriptor up to the start of the next entry.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+class ZipLayout {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int EOCD_LENGTH = 22;
+
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+
+    private final Map<String, Segment> segments;
+
+    private final long centralDirectoryOffset;
+
+    private final long length;
+
+    private ZipLayout(Map<String, Segment> segments, long centralDirectoryOffset, long length) {
+        this.segments = segments;
+        this.centralDirectoryOffset = centralDirectoryOffset;
+        this.length = length;
+    }
+
+    /**
+     * Reads layout of an archive
+     *
+     * @param file the archive
+     * @return the layout
+     * @throws IOException if the file cannot be read or it is not a ZIP archive
+     */
+    static ZipLayout read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            byte[] tail = new byte[(int) Math.min(length, EOCD_LENGTH + MAX_COMMENT_LENGTH)];
+            raf.seek(length - tail.length);
+            raf.readFully(tail);
+
+            int eocd = -1;
+            for (int i = tail.length - EOCD_LENGTH; i >= 0; i--) {
+                if (readInt(tail, i) == EOCD_SIGNATURE) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd == -1) {
+                throw new IOException("End of central directory was not found in " + file);
+            }
+
+            int entries = readShort(tail, eocd + 10);
+            long size = readInt(tail, eocd + 12) & 0xffffffffL;
+            long offset = readInt(tail, eocd + 16) & 0xffffffffL;
+            if (offset + size > length) {
+                throw new IOException("Central directory of " + file + " is out of bounds");
+            }
+
+            byte[] directory = new byte[(int) size];
+            raf.seek(offset);
+            raf.readFully(directory);
+
+            List<Segment> list = new ArrayList<Segment>(entries);
+            int position = 0;
+            for (int i = 0; i < entries; i++) {
+                if (position + CENTRAL_HEADER_LENGTH > directory.length
+                        || readInt(directory, position) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new IOException("Corrupted central directory of " + file);
+                }
+                int method = readShort(directory, position + 10);
+                long crc = readInt(directory, position + 16) & 0xffffffffL;
+                long compressedSize = readInt(directory, position + 20) & 0xffffffffL;
+                int nameLength = readShort(directory, position + 28);
+                int extraLength = readShort(directory, position + 30);
+                int commentLength = readShort(directory, position + 32);
+                long localOffset = readInt(directory, position + 42) & 0xffffffffL;
+                String name = new String(directory, position + CENTRAL_HEADER_LENGTH, nameLength, "UTF-8");
+                list.add(new Segment(name, method, crc, compressedSize, localOffset));
+                position += CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+            }
+
+            // segment ends where the next one starts
+            Collections.sort(list, new Comparator<Segment>() {
+                @Override
+                public int compare(Segment o1, Segment o2) {
+                    return o1.offset < o2.offset ? -1 : o1.offset == o2.offset ? 0 : 1;
+                }
+            });
+            Map<String, Segment> segments = new LinkedHashMap<String, Segment>();
+            for (int i = 0; i < list.size(); i++) {
+                Segment segment = list.get(i);
+                segment.length = (i + 1 < list.size() ? list.get(i + 1).offset : offset) - segment.offset;
+                segments.put(segment.name, segment);
+            }
+            return new ZipLayout(segments, offset, length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns segments of all entries ordered by their position in the archive
+     *
+     * @return the segments
+     */
+    List<Segment> getSegments() {
+        return new ArrayList<Segment>(segments.values());
+    }
+
+    Segment getSegment(String name) {
+        return segments.get(name);
+    }
+
+    long getCentralDirectoryOffset() {
+        return centralDirectoryOffset;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return readShort(data, offset) | readShort(data, offset + 2) << 16;
+    }
+
+    /**
+     * Part of the archive which belongs to a single entry
+     */
+    static class Segment {
+        final String name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long offset;
+        long length;
+
+        Segment(String name, int method, long crc, long compressedSize, long offset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+        }
+
+        /**
+         * Checks whether the other segment describes the same entry data
+         *
+         * @param other the other segment
+         * @return {@code true} if name, compression, checksum and sizes are the same
+         */
+        boolean sameEntry(Segment other) {
+            return other != null && name.equals(other.name) && method == other.method && crc == other.crc
+                    && compressedSize == other.compressedSize && length == other.length;
+        }
+    }
+}
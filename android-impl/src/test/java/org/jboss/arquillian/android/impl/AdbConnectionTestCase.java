@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests handling of malformed replies of adb server
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AdbConnectionTestCase {
+
+    @Test
+    public void syncFailureIsRead() throws Exception {
+        byte[] message = "No such file or directory".getBytes("UTF-8");
+        try {
+            readSyncResponse(syncFailure(message.length, message));
+            Assert.fail("Failure was not reported");
+        } catch (IOException e) {
+            Assert.assertEquals("pull /sdcard/missing failed: No such file or directory", e.getMessage());
+        }
+    }
+
+    @Test
+    public void negativeFailureLengthIsRejected() throws Exception {
+        assertInvalidLength(-1);
+    }
+
+    @Test
+    public void oversizedFailureLengthIsRejected() throws Exception {
+        assertInvalidLength(Integer.MAX_VALUE);
+    }
+
+    private static void assertInvalidLength(int length) throws Exception {
+        try {
+            readSyncResponse(syncFailure(length, new byte[0]));
+            Assert.fail("Invalid length was accepted");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("invalid length " + length));
+        }
+    }
+
+    private static byte[] syncFailure(int length, byte[] message) {
+        ByteBuffer reply = ByteBuffer.allocate(8 + message.length).order(ByteOrder.LITTLE_ENDIAN);
+        reply.put(new byte[] { 'F', 'A', 'I', 'L' }).putInt(length).put(message);
+        return reply.array();
+    }
+
+    // replies with given bytes to the first connection and reads a sync response from it
+    private static void readSyncResponse(final byte[] reply) throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        Thread replier = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    try {
+                        OutputStream out = socket.getOutputStream();
+                        out.write(reply);
+                        out.flush();
+                        // keep the connection open until the client is done
+                        socket.getInputStream().read();
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // client closed the connection
+                }
+            }
+        });
+        replier.start();
+
+        AdbConnection connection = AdbConnection.open(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()));
+        try {
+            connection.readSyncResponse("DATA", "pull /sdcard/missing");
+        } finally {
+            connection.close();
+            server.close();
+            replier.join(5000);
+        }
+    }
+}
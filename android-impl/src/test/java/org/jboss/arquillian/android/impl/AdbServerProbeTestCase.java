@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import org.jboss.arquillian.android.testsupport.FakeAdbServer;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests probing of a running adb server
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AdbServerProbeTestCase {
+
+    @Test
+    public void runningServerIsProbed() throws Exception {
+        FakeAdbServer server = new FakeAdbServer().start();
+        try {
+            server.connect(new FakeDevice("0123456789ABCDEF"));
+            server.connect(new FakeDevice("emulator-5554"));
+
+            AdbServerProbe probe = AdbServerProbe.probe(server.getAddress());
+            Assert.assertNotNull("Server was found", probe);
+            Assert.assertTrue(probe.getVersion() >= AdbServerProbe.MINIMAL_VERSION);
+            Assert.assertEquals(2, probe.getDevices().size());
+            Assert.assertEquals("device", probe.getDevices().get("emulator-5554"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void missingServerIsNotProbed() throws Exception {
+        FakeAdbServer server = new FakeAdbServer().start();
+        InetSocketAddress address = server.getAddress();
+        server.close();
+
+        Assert.assertNull(AdbServerProbe.probe(address));
+    }
+
+    @Test
+    public void deviceListIsParsed() {
+        Map<String, String> devices = AdbServerProbe.parseDevices("emulator-5554\toffline\n0123456789ABCDEF\tdevice\n");
+        Assert.assertEquals(2, devices.size());
+        Assert.assertEquals("offline", devices.get("emulator-5554"));
+        Assert.assertEquals("emulator-5554", devices.keySet().iterator().next());
+    }
+}
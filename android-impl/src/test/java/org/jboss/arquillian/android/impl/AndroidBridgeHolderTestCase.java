@@ -0,0 +1,244 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.arquillian.android.api.AndroidBridge;
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInstallation;
+import org.jboss.arquillian.android.api.AndroidTransferListener;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests sharing of Android Debug Bridge
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidBridgeHolderTestCase {
+
+    private static final File ADB = new File("adb");
+
+    private static final ProcessExecutor EXECUTOR = new ProcessExecutor();
+
+    private List<FakeBridge> created;
+
+    private AndroidBridgeHolder holder;
+
+    @Before
+    public void createHolder() {
+        created = new ArrayList<FakeBridge>();
+        holder = new AndroidBridgeHolder() {
+            @Override
+            AndroidBridge createBridge(File adbLocation, boolean forceNewBridge, int privateServerPort,
+                    boolean nativeBridge, ProcessExecutor executor) {
+                FakeBridge bridge = new FakeBridge();
+                created.add(bridge);
+                return bridge;
+            }
+        };
+    }
+
+    @After
+    public void releaseHolder() throws AndroidExecutionException {
+        while (holder.getReferences() > 0) {
+            holder.release(created.get(created.size() - 1));
+        }
+    }
+
+    @Test
+    public void bridgeIsReusedBySuites() throws AndroidExecutionException {
+        AndroidBridge first = holder.acquire(ADB, false, 0, false, EXECUTOR);
+        AndroidBridge second = holder.acquire(ADB, false, 0, false, EXECUTOR);
+        Assert.assertSame("Bridge is shared", first, second);
+        Assert.assertEquals(2, holder.getReferences());
+
+        Assert.assertFalse("Bridge is still used", holder.release(first));
+        Assert.assertTrue("Last reference was released", holder.release(second));
+        Assert.assertEquals(0, holder.getReferences());
+        Assert.assertTrue("Unused bridge stays connected", first.isConnected());
+
+        Assert.assertSame("Bridge is reused by following suite", first, holder.acquire(ADB, false, 0, false, EXECUTOR));
+        Assert.assertEquals("Bridge was created once", 1, created.size());
+        Assert.assertEquals("Bridge was connected once", 1, created.get(0).connects);
+    }
+
+    @Test
+    public void staleBridgeIsReconnected() throws AndroidExecutionException {
+        FakeBridge bridge = (FakeBridge) holder.acquire(ADB, false, 0, false, EXECUTOR);
+        holder.release(bridge);
+
+        bridge.connected = false;
+        Assert.assertSame(bridge, holder.acquire(ADB, false, 0, false, EXECUTOR));
+        Assert.assertTrue("Bridge was reconnected", bridge.isConnected());
+        Assert.assertEquals(2, bridge.connects);
+    }
+
+    @Test
+    public void bridgeToDifferentServerReplacesUnusedBridge() throws AndroidExecutionException {
+        FakeBridge first = (FakeBridge) holder.acquire(ADB, false, 0, false, EXECUTOR);
+        holder.release(first);
+
+        AndroidBridge second = holder.acquire(ADB, false, 5038, false, EXECUTOR);
+        Assert.assertNotSame(first, second);
+        Assert.assertFalse("Previous bridge was terminated", first.isConnected());
+    }
+
+    @Test
+    public void privateServerBridgeIsTerminatedOnLastRelease() throws AndroidExecutionException {
+        AndroidBridge first = holder.acquire(ADB, false, 5038, false, EXECUTOR);
+        AndroidBridge second = holder.acquire(ADB, false, 5038, false, EXECUTOR);
+        Assert.assertSame("Bridge is shared while used", first, second);
+
+        Assert.assertFalse(holder.release(first));
+        Assert.assertTrue("Bridge to private server stays connected while used", first.isConnected());
+        Assert.assertTrue(holder.release(second));
+        Assert.assertFalse("Bridge to private server was terminated", first.isConnected());
+
+        Assert.assertNotSame("Next suite gets a new bridge", first, holder.acquire(ADB, false, 5038, false, EXECUTOR));
+    }
+
+    @Test
+    public void bridgeDoesNotKeepSuiteExecutor() throws AndroidExecutionException {
+        final List<ProcessExecutor> executors = new ArrayList<ProcessExecutor>();
+        holder = new AndroidBridgeHolder() {
+            @Override
+            AndroidBridge createBridge(File adbLocation, boolean forceNewBridge, int privateServerPort,
+                    boolean nativeBridge, ProcessExecutor executor) {
+                executors.add(executor);
+                FakeBridge bridge = new FakeBridge();
+                created.add(bridge);
+                return bridge;
+            }
+        };
+
+        ProcessExecutor suiteExecutor = new ProcessExecutor(Collections.singletonMap("ANDROID_SDK_HOME", "/tmp"));
+        holder.acquire(ADB, false, 0, false, suiteExecutor);
+        Assert.assertNotSame("Bridge owns its executor", suiteExecutor, executors.get(0));
+        Assert.assertEquals("Executor environment is kept", suiteExecutor.getEnvironment(), executors.get(0)
+                .getEnvironment());
+    }
+
+    @Test
+    public void executorOfBridgeIsShutDownWithBridge() throws AndroidExecutionException {
+        final List<ProcessExecutor> executors = new ArrayList<ProcessExecutor>();
+        holder = new AndroidBridgeHolder() {
+            @Override
+            AndroidBridge createBridge(File adbLocation, boolean forceNewBridge, int privateServerPort,
+                    boolean nativeBridge, ProcessExecutor executor) {
+                executors.add(executor);
+                FakeBridge bridge = new FakeBridge();
+                created.add(bridge);
+                return bridge;
+            }
+        };
+
+        AndroidBridge shared = holder.acquire(ADB, false, 0, false, EXECUTOR);
+        holder.release(shared);
+        Assert.assertFalse("Unused shared bridge keeps its executor", executors.get(0).isShutdown());
+
+        AndroidBridge isolated = holder.acquire(ADB, false, 5038, false, EXECUTOR);
+        Assert.assertTrue("Executor of replaced bridge was shut down", executors.get(0).isShutdown());
+        holder.release(isolated);
+        Assert.assertTrue("Executor of terminated bridge was shut down", executors.get(1).isShutdown());
+        Assert.assertFalse("Executor of suite is left running", EXECUTOR.isShutdown());
+    }
+
+    @Test(expected = AndroidExecutionException.class)
+    public void bridgeToDifferentServerIsRejectedWhileUsed() throws AndroidExecutionException {
+        holder.acquire(ADB, false, 0, false, EXECUTOR);
+        holder.acquire(ADB, false, 5038, false, EXECUTOR);
+    }
+
+    private static class FakeBridge implements AndroidBridge {
+
+        private boolean connected;
+
+        private int connects;
+
+        @Override
+        public List<AndroidDevice> getDevices() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public AndroidDevice getDeviceBySerialNumber(String serialNumber) {
+            return null;
+        }
+
+        @Override
+        public AndroidDevice getDeviceByAvdName(String avdName) {
+            return null;
+        }
+
+        @Override
+        public void connect() throws AndroidExecutionException {
+            connected = true;
+            connects++;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void disconnect() throws AndroidExecutionException {
+            connected = false;
+        }
+
+        @Override
+        public void addDeviceListener(AndroidDeviceListener listener) {
+        }
+
+        @Override
+        public void addDeviceListenerBySerialNumber(String serialNumber, AndroidDeviceListener listener) {
+        }
+
+        @Override
+        public void addDeviceListenerByAvdName(String avdName, AndroidDeviceListener listener) {
+        }
+
+        @Override
+        public void removeDeviceListener(AndroidDeviceListener listener) {
+        }
+
+        @Override
+        public AndroidPackageInstallation installPackages(Collection<AndroidDevice> devices, List<File> packageFilePaths,
+                boolean reinstall, String... extraArgs) {
+            return null;
+        }
+
+        @Override
+        public Map<AndroidDevice, AndroidTransferStatistics> pushFiles(Collection<AndroidDevice> devices,
+                Map<File, String> files, AndroidTransferListener listener) {
+            return Collections.emptyMap();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.arquillian.android.api.AndroidBridge;
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
+import org.jboss.arquillian.android.testsupport.FakeAdbServer;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.jboss.arquillian.android.testsupport.FakeEmulatorConsole;
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.android.ddmlib.AndroidDebugBridge;
+
+/**
+ * Tests ddmlib based bridge against a fake adb server. The fake server is used as a private adb server, so the bridge neither
+ * starts nor kills a real one.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidBridgeImplTestCase {
+
+    private static final String AVD_NAME = "foobar-test-device";
+
+    private static final String SERIAL = "0123456789ABCDEF";
+
+    private static final String PACKAGE = "org.example.ddmlib";
+
+    private FakeAdbServer server;
+
+    private FakeEmulatorConsole console;
+
+    private File adb;
+
+    private AndroidBridgeImpl bridge;
+
+    @Before
+    public void connectBridge() throws Exception {
+        server = new FakeAdbServer().start();
+        console = new FakeEmulatorConsole(AVD_NAME).start();
+
+        // bridge only kills the private server on disconnect, which is closed by the test instead
+        adb = File.createTempFile("adb", ".sh");
+        FileOutputStream out = new FileOutputStream(adb);
+        try {
+            out.write("#!/bin/sh\nexit 0\n".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        adb.setExecutable(true);
+
+        bridge = new AndroidBridgeImpl(adb, false, server.getPort(), new ProcessExecutor());
+        bridge.connect();
+    }
+
+    @After
+    public void disconnectBridge() throws Exception {
+        bridge.disconnect();
+        console.close();
+        server.close();
+        adb.delete();
+    }
+
+    @Test
+    public void emulatorIsFoundByAvdNameAfterBuildInfoChange() throws Exception {
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        bridge.addDeviceListenerByAvdName(AVD_NAME, new AndroidDeviceListener() {
+            @Override
+            public void deviceConnected(AndroidDevice device) {
+            }
+
+            @Override
+            public void deviceChanged(AndroidDevice device) {
+            }
+
+            @Override
+            public void deviceDisconnected(AndroidDevice device) {
+                disconnected.countDown();
+            }
+        });
+
+        // ddmlib learns AVD name after it reported the last change of the device, so it has to be looked up
+        server.connect(new FakeDevice(console.getSerialNumber()).setProperty("ro.build.version.sdk", "10"));
+        AndroidDevice emulator = null;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (emulator == null && System.currentTimeMillis() < deadline) {
+            emulator = bridge.getDeviceByAvdName(AVD_NAME);
+            Thread.sleep(50);
+        }
+
+        Assert.assertNotNull("Emulator was found by AVD name", emulator);
+        Assert.assertEquals(console.getSerialNumber(), emulator.getSerialNumber());
+        Assert.assertTrue("Emulator is online", emulator.isOnline());
+
+        server.disconnect(console.getSerialNumber());
+        Assert.assertTrue("Listener of AVD name was notified", disconnected.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void isolatedBridgeRedirectsDdmlibOnlyWhileConnected() throws Exception {
+        bridge.disconnect();
+        InetSocketAddress shared = AndroidDebugBridge.getSocketAddress();
+        Assert.assertFalse("Address of shared adb server was restored", shared.getPort() == server.getPort());
+
+        // bridge of an isolated suite with adbServerPort set to the fake server
+        AndroidBridgeHolder holder = AndroidBridgeHolder.getInstance();
+        AndroidBridge isolated = holder.acquire(adb, false, server.getPort(), false, new ProcessExecutor());
+        try {
+            Assert.assertTrue("ddmlib bridge is used", isolated instanceof AndroidBridgeImpl);
+            Assert.assertEquals(server.getPort(), AndroidDebugBridge.getSocketAddress().getPort());
+            server.connect(new FakeDevice(SERIAL));
+            Assert.assertNotNull(awaitDevice(isolated, SERIAL));
+        } finally {
+            Assert.assertTrue("Bridge to private server was terminated", holder.release(isolated));
+        }
+        Assert.assertEquals("Address of shared adb server was restored", shared, AndroidDebugBridge.getSocketAddress());
+
+        bridge.connect();
+    }
+
+    @Test
+    public void rawOutputIsNotAlteredByShell() throws Exception {
+        byte[] screenshot = new byte[300 * 1024];
+        new Random(17).nextBytes(screenshot);
+        server.connect(new FakeDevice(SERIAL).putFile("/sdcard/screen.png", screenshot));
+        AndroidDevice device = awaitDevice(SERIAL);
+
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        AndroidTransferStatistics statistics = device.executeRawShellCommand("cat /sdcard/screen.png",
+                Channels.newChannel(memory));
+        Assert.assertEquals(screenshot.length, statistics.getBytes());
+        Assert.assertArrayEquals(screenshot, memory.toByteArray());
+    }
+
+    @Test
+    public void filesArePushedAndPulledBySyncService() throws Exception {
+        FakeDevice fake = new FakeDevice(SERIAL);
+        server.connect(fake);
+        AndroidDevice device = awaitDevice(SERIAL);
+
+        File local = TestFiles.writeRandom(File.createTempFile("push", ".bin"), 100 * 1024, 17);
+        File pulled = File.createTempFile("pull", ".bin");
+        try {
+            byte[] data = FileClonerTestCase.read(local);
+            Map<AndroidDevice, AndroidTransferStatistics> pushed = bridge.pushFiles(Collections.singletonList(device),
+                    Collections.singletonMap(local, "/sdcard/push.bin"), null);
+            Assert.assertEquals(1, pushed.get(device).getFiles());
+            Assert.assertArrayEquals(data, fake.getFile("/sdcard/push.bin"));
+
+            // unchanged file is not transferred again
+            pushed = bridge.pushFiles(Collections.singletonList(device), Collections.singletonMap(local, "/sdcard/push.bin"),
+                    null);
+            Assert.assertEquals(1, pushed.get(device).getSkippedFiles());
+
+            pulled.delete();
+            device.pullFiles(Collections.singletonMap("/sdcard/push.bin", pulled), null);
+            Assert.assertArrayEquals(data, FileClonerTestCase.read(pulled));
+        } finally {
+            local.delete();
+            pulled.delete();
+        }
+    }
+
+    @Test
+    public void unchangedPackageIsNotReinstalled() throws Exception {
+        FakeDevice fake = new FakeDevice(SERIAL).setProperty("ro.build.version.sdk", "23")
+                .setInstalledPackageName(PACKAGE);
+        server.connect(fake);
+        AndroidDevice device = awaitDevice(SERIAL);
+
+        File apk = TestFiles.writeRandom(File.createTempFile("indexed", ".apk"), 64 * 1024, 17);
+        try {
+            device.installPackage(apk, true);
+            device.installPackage(apk, true);
+            Assert.assertEquals(1, countShellCommands(fake, "pm install"));
+            Assert.assertNotNull("Index is stored on the device", fake.getFile(InstalledPackageIndex.INDEX_PATH));
+        } finally {
+            apk.delete();
+        }
+    }
+
+    @Test
+    public void apksAreStreamedToDevice() throws Exception {
+        FakeDevice fake = new FakeDevice(SERIAL).setProperty("ro.build.version.sdk", "23")
+                .setInstalledPackageName(PACKAGE);
+        server.connect(fake);
+        AndroidDevice device = awaitDevice(SERIAL);
+
+        File base = TestFiles.writeRandom(File.createTempFile("base", ".apk"), 300 * 1024, 17);
+        File split = TestFiles.writeRandom(File.createTempFile("split", ".apk"), 50 * 1024, 42);
+        try {
+            device.installPackage(base, true);
+            Assert.assertTrue(fake.getShellCommands().contains("pm install -r -S " + base.length()));
+            Assert.assertArrayEquals(FileClonerTestCase.read(base), fake.getFile("/data/app/" + PACKAGE + "-1.apk"));
+
+            device.installPackages(Arrays.asList(base, split), false);
+            long total = base.length() + split.length();
+            Assert.assertTrue(fake.getShellCommands().contains("pm install-create -S " + total));
+            Assert.assertTrue(fake.getInstallSessions().isEmpty());
+        } finally {
+            base.delete();
+            split.delete();
+        }
+    }
+
+    private AndroidDevice awaitDevice(String serialNumber) throws InterruptedException {
+        return awaitDevice(bridge, serialNumber);
+    }
+
+    private static AndroidDevice awaitDevice(AndroidBridge bridge, String serialNumber) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        AndroidDevice device;
+        while (((device = bridge.getDeviceBySerialNumber(serialNumber)) == null || !device.isOnline())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertNotNull("Device was connected", device);
+        return device;
+    }
+
+    private static int countShellCommands(FakeDevice fake, String prefix) {
+        int count = 0;
+        for (String command : fake.getShellCommands()) {
+            if (command.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
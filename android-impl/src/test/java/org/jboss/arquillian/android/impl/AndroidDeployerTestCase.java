@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInfo;
+import org.jboss.arquillian.android.testsupport.FakeApk;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests deployment of archives with cached APKs
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidDeployerTestCase {
+
+    private static final String SERIAL = "0123456789DEPLOY";
+
+    private static final String PACKAGE = "org.example.deployed";
+
+    private final FakeDevice fake = new FakeDevice(SERIAL).setProperty("ro.build.version.sdk", "23")
+            .setInstalledPackageName(PACKAGE);
+
+    @Rule
+    public NativeBridgeRule adb = new NativeBridgeRule(fake);
+
+    private File workdir;
+
+    private File cacheDir;
+
+    private ProcessExecutor executor;
+
+    @Before
+    public void createDirectory() throws Exception {
+        workdir = TestFiles.createDirectory("deployer");
+        cacheDir = new File(workdir, "cache");
+        ApkPackagerTestCase.createDebugKeystore(workdir);
+        executor = new ProcessExecutor(Collections.singletonMap(AndroidVirtualDeviceInventory.SDK_HOME_ENV,
+                workdir.getAbsolutePath()));
+    }
+
+    @After
+    public void deleteDirectory() {
+        TestFiles.delete(workdir);
+    }
+
+    @Test
+    public void archiveIsPackagedAndInstalled() throws Exception {
+        AndroidPackageInfo info = deployer().deploy("app", archive(1));
+        Assert.assertEquals(PACKAGE, info.getPackageName());
+        Assert.assertEquals(1, info.getVersionCode());
+        Assert.assertTrue(fake.getInstalledPackages().contains(PACKAGE));
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+    }
+
+    @Test
+    public void sameArchiveIsNotPackagedOrInstalledAgain() throws Exception {
+        AndroidDeployerImpl deployer = deployer();
+        deployer.deploy("app", archive(1));
+        File apk = cacheDir.listFiles()[0];
+        long packaged = apk.lastModified();
+        int installs = installs();
+
+        deployer.undeploy("app");
+        Assert.assertTrue("Application is left installed", fake.getInstalledPackages().contains(PACKAGE));
+        deployer.deploy("again", archive(1));
+        Assert.assertEquals(installs, installs());
+
+        // next suite reuses both the cache and the installed application
+        AndroidDeployerImpl next = deployer();
+        next.deploy("app", archive(1));
+        Assert.assertEquals(packaged, apk.lastModified());
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+        Assert.assertEquals(installs, installs());
+    }
+
+    @Test
+    public void changedArchiveReplacesReleasedApplication() throws Exception {
+        AndroidDeployerImpl deployer = deployer();
+        deployer.deploy("app", archive(1));
+        deployer.undeploy("app");
+        int installs = installs();
+
+        Assert.assertEquals(2, deployer.deploy("app", archive(2)).getVersionCode());
+        Assert.assertEquals(installs + 1, installs());
+
+        // the first version is no longer installed, so it is not reused
+        deployer.undeploy("app");
+        Assert.assertEquals(1, deployer.deploy("app", archive(1)).getVersionCode());
+        Assert.assertEquals(installs + 2, installs());
+        Assert.assertEquals(2, cacheDir.listFiles().length);
+    }
+
+    @Test
+    public void archivesDifferingOnlyInTimestampsShareApk() throws Exception {
+        long time = System.currentTimeMillis() - 3600000L;
+        AndroidDeployerImpl deployer = deployer();
+        deployer.deploy("app", archive(1, time, false));
+        deployer.undeploy("app");
+        int installs = installs();
+
+        // a later export of the same content, with its entries in a different order
+        deployer().deploy("app", archive(1, time + 10000L, true));
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+        Assert.assertEquals(installs, installs());
+    }
+
+    @Test
+    public void apkIsPackagedAgainForDifferentCertificate() throws Exception {
+        deployer().deploy("app", archive(1));
+
+        File otherHome = new File(workdir, "other");
+        ApkPackagerTestCase.createDebugKeystore(otherHome);
+        ProcessExecutor otherExecutor = new ProcessExecutor(Collections.singletonMap(
+                AndroidVirtualDeviceInventory.SDK_HOME_ENV, otherHome.getAbsolutePath()));
+        AndroidDevice device = adb.getDevice(SERIAL);
+        new AndroidDeployerImpl(device, otherExecutor, cacheDir).deploy("app", archive(1));
+
+        Assert.assertEquals("APK signed by another key is not reused", 2, cacheDir.listFiles().length);
+    }
+
+    @Test
+    public void unknownDeploymentIsReported() throws Exception {
+        try {
+            deployer().undeploy("unknown");
+            Assert.fail("Unknown deployment was undeployed");
+        } catch (AndroidExecutionException e) {
+            // expected
+        }
+    }
+
+    private AndroidDeployerImpl deployer() {
+        AndroidDevice device = adb.getDevice(SERIAL);
+        return new AndroidDeployerImpl(device, executor, cacheDir);
+    }
+
+    private int installs() {
+        int installs = 0;
+        for (String command : fake.getShellCommands()) {
+            if (command.startsWith("pm install")) {
+                installs++;
+            }
+        }
+        return installs;
+    }
+
+    private static InputStream archive(int versionCode) throws Exception {
+        return archive(versionCode, System.currentTimeMillis(), false);
+    }
+
+    // an archive as exported by ShrinkWrap, entries carry the time of the export
+    private static InputStream archive(int versionCode, long time, boolean reversed) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        try {
+            if (reversed) {
+                put(zip, "classes.dex", new byte[2048], time);
+            }
+            put(zip, "AndroidManifest.xml", new FakeApk(PACKAGE).setVersionCode(versionCode).getManifest(), time);
+            if (!reversed) {
+                put(zip, "classes.dex", new byte[2048], time);
+            }
+        } finally {
+            zip.close();
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private static void put(ZipOutputStream zip, String name, byte[] data, long time) throws Exception {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(time);
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
+import org.jboss.arquillian.android.impl.AndroidDeviceRegistryTestCase.StubDevice;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests routing of device changes to listeners
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidDeviceDispatcherTestCase {
+
+    private AndroidDeviceRegistry registry;
+
+    private ProcessExecutor executor;
+
+    private AndroidDeviceDispatcher dispatcher;
+
+    @Before
+    public void createDispatcher() {
+        registry = new AndroidDeviceRegistry();
+        executor = new ProcessExecutor();
+        dispatcher = new AndroidDeviceDispatcher(registry, executor);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void changesAreRoutedBySerialNumber() {
+        RecordingListener all = new RecordingListener();
+        RecordingListener phone = new RecordingListener();
+        dispatcher.addListener(all);
+        dispatcher.addListenerBySerialNumber("0123456789ABCDEF", phone);
+
+        dispatcher.deviceConnected(registry.register(new StubDevice("0123456789ABCDEF", null)));
+        dispatcher.deviceConnected(registry.register(new StubDevice("emulator-5554", "First")));
+        dispatcher.deviceDisconnected(registry.unregister("0123456789ABCDEF"), null);
+
+        Assert.assertEquals(3, all.events.size());
+        Assert.assertEquals(2, phone.events.size());
+        Assert.assertEquals("connected 0123456789ABCDEF", phone.events.get(0));
+        Assert.assertEquals("disconnected 0123456789ABCDEF", phone.events.get(1));
+    }
+
+    @Test
+    public void changesAreRoutedByAvdName() throws InterruptedException {
+        RecordingListener first = new RecordingListener();
+        dispatcher.addListenerByAvdName("First", first);
+
+        StubDevice emulator = new StubDevice("emulator-5554", "First");
+        dispatcher.deviceConnected(registry.register(new StubDevice("0123456789ABCDEF", null)));
+        dispatcher.deviceConnected(registry.register(new StubDevice("emulator-5556", "Second")));
+        dispatcher.deviceConnected(registry.register(emulator));
+        dispatcher.deviceChanged(emulator);
+
+        // name is known only before the device is unregistered
+        String avdName = registry.getResolvedAvdName("emulator-5554");
+        dispatcher.deviceDisconnected(registry.unregister("emulator-5554"), avdName);
+
+        first.await(3);
+        Assert.assertEquals(3, first.events.size());
+        Assert.assertEquals("changed emulator-5554", first.events.get(1));
+        Assert.assertEquals("disconnected emulator-5554", first.events.get(2));
+        Assert.assertEquals("AVD name is asked only once", 1, emulator.avdNameQueries);
+    }
+
+    @Test
+    public void avdNameIsNotResolvedByReportingThread() throws InterruptedException {
+        final CountDownLatch console = new CountDownLatch(1);
+        StubDevice emulator = new StubDevice("emulator-5554", "First") {
+            @Override
+            public String getAvdName() {
+                try {
+                    console.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getAvdName();
+            }
+        };
+        RecordingListener bySerial = new RecordingListener();
+        RecordingListener byAvdName = new RecordingListener();
+        dispatcher.addListenerBySerialNumber("emulator-5554", bySerial);
+        dispatcher.addListenerByAvdName("First", byAvdName);
+
+        // would block until the console answers if the name was resolved by the reporting thread
+        dispatcher.deviceConnected(registry.register(emulator));
+        dispatcher.deviceChanged(emulator);
+        Assert.assertEquals(2, bySerial.events.size());
+
+        console.countDown();
+        byAvdName.await(2);
+        Assert.assertEquals("connected emulator-5554", byAvdName.events.get(0));
+        Assert.assertEquals("changed emulator-5554", byAvdName.events.get(1));
+    }
+
+    @Test
+    public void removedListenerIsNotNotified() {
+        RecordingListener listener = new RecordingListener();
+        dispatcher.addListener(listener);
+        dispatcher.addListenerBySerialNumber("emulator-5554", listener);
+        dispatcher.addListenerByAvdName("First", listener);
+        dispatcher.removeListener(listener);
+
+        dispatcher.deviceConnected(registry.register(new StubDevice("emulator-5554", "First")));
+        Assert.assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    public void failingListenerDoesNotAffectOthers() {
+        RecordingListener listener = new RecordingListener();
+        dispatcher.addListener(new RecordingListener() {
+            @Override
+            public void deviceConnected(AndroidDevice device) {
+                throw new IllegalStateException("Listener failure");
+            }
+        });
+        dispatcher.addListener(listener);
+
+        dispatcher.deviceConnected(registry.register(new StubDevice("emulator-5554", "First")));
+        Assert.assertEquals(1, listener.events.size());
+    }
+
+    private static class RecordingListener implements AndroidDeviceListener {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        // changes for listeners by AVD name are published by another thread
+        void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+
+        @Override
+        public void deviceConnected(AndroidDevice device) {
+            events.add("connected " + device.getSerialNumber());
+        }
+
+        @Override
+        public void deviceChanged(AndroidDevice device) {
+            events.add("changed " + device.getSerialNumber());
+        }
+
+        @Override
+        public void deviceDisconnected(AndroidDevice device) {
+            events.add("disconnected " + device.getSerialNumber());
+        }
+    }
+}
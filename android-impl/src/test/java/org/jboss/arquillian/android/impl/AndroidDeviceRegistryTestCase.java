@@ -0,0 +1,222 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
+import org.jboss.arquillian.android.api.AndroidDeviceProperties;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInfo;
+import org.jboss.arquillian.android.api.AndroidPortForwarding;
+import org.jboss.arquillian.android.api.AndroidShellResult;
+import org.jboss.arquillian.android.api.AndroidTransferListener;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests indexing of connected devices
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidDeviceRegistryTestCase {
+
+    @Test
+    public void devicesAreFoundBySerialAndAvdName() {
+        AndroidDeviceRegistry registry = new AndroidDeviceRegistry();
+        StubDevice phone = new StubDevice("0123456789ABCDEF", null);
+        StubDevice emulator = new StubDevice("emulator-5554", "SnapshotEnabled");
+        registry.register(phone);
+        registry.register(emulator);
+
+        Assert.assertSame(phone, registry.getBySerialNumber("0123456789ABCDEF"));
+        Assert.assertSame(emulator, registry.getByAvdName("SnapshotEnabled"));
+        Assert.assertSame(emulator, registry.getByAvdName("SnapshotEnabled"));
+        Assert.assertNull(registry.getByAvdName("Missing"));
+        Assert.assertEquals("AVD name is asked only once", 1, emulator.avdNameQueries);
+    }
+
+    @Test
+    public void unresolvedAvdNameIsAskedAgain() {
+        AndroidDeviceRegistry registry = new AndroidDeviceRegistry();
+        StubDevice emulator = new StubDevice("emulator-5554", null);
+        registry.register(emulator);
+
+        Assert.assertNull(registry.getByAvdName("SnapshotEnabled"));
+        emulator.avdName = "SnapshotEnabled";
+        Assert.assertSame(emulator, registry.getByAvdName("SnapshotEnabled"));
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByChanges() {
+        AndroidDeviceRegistry registry = new AndroidDeviceRegistry();
+        registry.register(new StubDevice("emulator-5554", "First"));
+        List<AndroidDevice> snapshot = registry.getDevices();
+
+        registry.register(new StubDevice("emulator-5556", "Second"));
+        registry.unregister("emulator-5554");
+
+        Assert.assertEquals(1, snapshot.size());
+        Assert.assertEquals("emulator-5554", snapshot.get(0).getSerialNumber());
+        Assert.assertEquals(1, registry.getDevices().size());
+        Assert.assertNull(registry.getByAvdName("First"));
+        Assert.assertNotNull(registry.getByAvdName("Second"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotIsImmutable() {
+        AndroidDeviceRegistry registry = new AndroidDeviceRegistry();
+        registry.getDevices().add(new StubDevice("emulator-5554", "First"));
+    }
+
+    static class StubDevice implements AndroidDevice {
+
+        private final String serial;
+
+        String avdName;
+
+        int avdNameQueries;
+
+        StubDevice(String serial, String avdName) {
+            this.serial = serial;
+            this.avdName = avdName;
+        }
+
+        @Override
+        public String getSerialNumber() {
+            return serial;
+        }
+
+        @Override
+        public String getAvdName() {
+            avdNameQueries++;
+            return avdName;
+        }
+
+        @Override
+        public Map<String, String> getProperties() {
+            return null;
+        }
+
+        @Override
+        public String getProperty(String name) throws IOException, AndroidExecutionException {
+            return null;
+        }
+
+        @Override
+        public AndroidDeviceProperties getPropertySnapshot() throws AndroidExecutionException {
+            return null;
+        }
+
+        @Override
+        public boolean isOnline() {
+            return true;
+        }
+
+        @Override
+        public boolean isEmulator() {
+            return serial.startsWith("emulator-");
+        }
+
+        @Override
+        public boolean isOffline() {
+            return false;
+        }
+
+        @Override
+        public void executeShellCommand(String command) throws AndroidExecutionException {
+        }
+
+        @Override
+        public void executeShellCommand(String command, AndroidDeviceOutputReciever reciever)
+                throws AndroidExecutionException {
+        }
+
+        @Override
+        public AndroidTransferStatistics executeRawShellCommand(String command, WritableByteChannel output)
+                throws AndroidExecutionException {
+            return null;
+        }
+
+        @Override
+        public AndroidTransferStatistics executeRawShellCommand(String command, File output)
+                throws AndroidExecutionException {
+            return null;
+        }
+
+        @Override
+        public AndroidTransferStatistics pushFiles(Map<File, String> files, AndroidTransferListener listener)
+                throws AndroidExecutionException {
+            return null;
+        }
+
+        @Override
+        public AndroidTransferStatistics pullFiles(Map<String, File> files, AndroidTransferListener listener)
+                throws AndroidExecutionException {
+            return null;
+        }
+
+        @Override
+        public List<AndroidShellResult> executeShellCommands(List<String> commands, boolean failFast)
+                throws AndroidExecutionException {
+            return null;
+        }
+
+        @Override
+        public void createPortForwarding(int localPort, int remotePort) throws AndroidExecutionException {
+        }
+
+        @Override
+        public void removePortForwarding(int localPort, int remotePort) throws AndroidExecutionException {
+        }
+
+        @Override
+        public AndroidPortForwarding forwardPort(int localPort, String remoteSocket) throws AndroidExecutionException {
+            return null;
+        }
+
+        @Override
+        public void removePortForwardings() throws AndroidExecutionException {
+        }
+
+        @Override
+        public void installPackage(File packageFilePath, boolean reinstall, String... extraArgs)
+                throws AndroidExecutionException {
+        }
+
+        @Override
+        public void installPackages(List<File> packageFilePaths, boolean reinstall, String... extraArgs)
+                throws AndroidExecutionException {
+        }
+
+        @Override
+        public AndroidPackageInfo getPackageInfo(File packageFilePath) throws AndroidExecutionException {
+            return null;
+        }
+
+        @Override
+        public void uninstallPackage(String packageName) throws AndroidExecutionException {
+        }
+    }
+}
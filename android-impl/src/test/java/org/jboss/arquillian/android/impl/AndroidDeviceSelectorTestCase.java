@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+
+import org.jboss.arquillian.android.configuration.AndroidExtensionConfiguration;
+import org.jboss.arquillian.android.spi.event.AndroidDeviceShutdown;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests export of Android virtual device after the device was shut down
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidDeviceSelectorTestCase {
+
+    @Test
+    public void emulatorSelectedBySerialIdIsNotExported() throws Exception {
+        File bundle = new File(System.getProperty("java.io.tmpdir"), "not-exported-" + System.nanoTime() + ".zip");
+        AndroidExtensionConfiguration configuration = new AndroidExtensionConfiguration();
+        configuration.setSerialId("emulator-5554");
+        configuration.setAvdBundle(bundle.getAbsolutePath());
+
+        new AndroidDeviceSelector().exportAndroidVirtualDevice(new AndroidDeviceShutdown(
+                new AndroidDeviceRegistryTestCase.StubDevice("emulator-5554", "foobar-test-device")), null, configuration, null,
+                null);
+        Assert.assertFalse("Bundle was not exported", bundle.exists());
+    }
+}
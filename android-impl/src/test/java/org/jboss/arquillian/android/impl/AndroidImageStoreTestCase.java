@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests content addressed storage of AVD images
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidImageStoreTestCase {
+
+    private File workdir;
+
+    private AndroidImageStore store;
+
+    @Before
+    public void createStore() throws IOException {
+        workdir = TestFiles.createDirectory("image-store");
+        store = new AndroidImageStore(new File(workdir, "store"), new ProcessExecutor());
+    }
+
+    @After
+    public void deleteStore() {
+        TestFiles.delete(workdir);
+    }
+
+    @Test
+    public void sameContentIsStoredOnce() throws IOException {
+        String first = store.put(write("a.img", "userdata"));
+        String second = store.put(write("b.img", "userdata"));
+        String third = store.put(write("c.img", "sdcard"));
+
+        Assert.assertEquals("Same content has the same digest", first, second);
+        Assert.assertFalse("Different content has different digest", first.equals(third));
+        Assert.assertTrue("Blob was stored", store.getBlob(first).isFile());
+    }
+
+    @Test
+    public void materializedFilesHaveBlobContent() throws IOException {
+        String digest = store.put(write("userdata.img", "userdata"));
+
+        File readOnly = new File(workdir, "shared.img");
+        File writable = new File(workdir, "overlay.img");
+        store.materialize(digest, readOnly, false);
+        store.materialize(digest, writable, true);
+
+        Assert.assertEquals("userdata", read(readOnly));
+        Assert.assertEquals("userdata", read(writable));
+        Assert.assertTrue("Writable image can be modified", writable.canWrite());
+    }
+
+    @Test
+    public void gcRemovesOnlyUnreferencedBlobs() throws IOException {
+        String leased = store.put(write("a.img", "leased"));
+        String unreferenced = store.put(write("b.img", "unreferenced"));
+        String recent = store.put(write("c.img", "recent"));
+        age(leased);
+        age(unreferenced);
+
+        store.acquire("device", Collections.singleton(leased));
+        Assert.assertEquals("One blob was removed", 1, store.gc());
+        Assert.assertTrue("Leased blob is kept", store.getBlob(leased).isFile());
+        Assert.assertFalse("Unreferenced blob is removed", store.getBlob(unreferenced).exists());
+        Assert.assertTrue("Recently stored blob is kept", store.getBlob(recent).isFile());
+
+        store.release("device");
+        Assert.assertEquals("Released blob was removed", 1, store.gc());
+        Assert.assertFalse("Released blob is removed", store.getBlob(leased).exists());
+    }
+
+    private void age(String digest) {
+        store.getBlob(digest).setLastModified(System.currentTimeMillis() - 24 * 60 * 60 * 1000L);
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(workdir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(FileClonerTestCase.read(file), "UTF-8");
+    }
+}
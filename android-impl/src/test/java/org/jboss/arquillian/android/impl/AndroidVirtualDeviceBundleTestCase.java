@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests export and restore of Android Virtual Device bundles
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidVirtualDeviceBundleTestCase {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private File workdir;
+
+    private File source;
+
+    private File target;
+
+    private AndroidVirtualDeviceBundle bundle;
+
+    @Before
+    public void createDevice() throws IOException {
+        workdir = TestFiles.createDirectory("avd-bundle");
+        source = new File(workdir, "source");
+        target = new File(workdir, "target");
+        source.mkdirs();
+        target.mkdirs();
+
+        byte[] random = new byte[3 * CHUNK_SIZE + 123];
+        new Random(42).nextBytes(random);
+
+        RandomAccessFile file = new RandomAccessFile(new File(source, "userdata-qemu.img"), "rw");
+        try {
+            file.write(random);
+            // a hole spanning several chunks
+            file.seek(10 * CHUNK_SIZE);
+            file.write(random, 0, 1000);
+            file.setLength(20 * CHUNK_SIZE + 5);
+        } finally {
+            file.close();
+        }
+
+        file = new RandomAccessFile(new File(source, "config.ini"), "rw");
+        try {
+            file.write("abi.type=x86\n".getBytes("UTF-8"));
+        } finally {
+            file.close();
+        }
+
+        bundle = new AndroidVirtualDeviceBundle(new ProcessExecutor(), CHUNK_SIZE);
+    }
+
+    @After
+    public void deleteDevice() {
+        TestFiles.delete(workdir);
+    }
+
+    @Test
+    public void restoredDeviceHasSameContent() throws Exception {
+        File bundleFile = new File(workdir, "device.avdb");
+        bundle.write(bundleFile, "android-17", Arrays.asList(source.listFiles()));
+
+        Assert.assertTrue("Bundle is compressed", bundleFile.length() < new File(source, "userdata-qemu.img").length());
+        Assert.assertEquals("android-17", bundle.read(bundleFile, target));
+
+        for (File f : source.listFiles()) {
+            File restored = new File(target, f.getName());
+            Assert.assertEquals("Restored file has the same size", f.length(), restored.length());
+            Assert.assertTrue("Restored file has the same content",
+                    Arrays.equals(FileClonerTestCase.read(f), FileClonerTestCase.read(restored)));
+        }
+    }
+
+    @Test
+    public void corruptedBundleIsRejected() throws Exception {
+        File bundleFile = new File(workdir, "device.avdb");
+        bundle.write(bundleFile, "android-17", Arrays.asList(source.listFiles()));
+
+        // flip a byte in compressed data of a chunk
+        RandomAccessFile file = new RandomAccessFile(bundleFile, "rw");
+        try {
+            file.seek(file.length() / 2);
+            int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        try {
+            bundle.read(bundleFile, target);
+            Assert.fail("Corrupted bundle was restored");
+        } catch (ExecutionException e) {
+            Assert.assertTrue("Corruption was detected", e.getCause() instanceof IOException);
+        } catch (IOException e) {
+            // corruption detected while reading the stream
+        }
+    }
+
+    @Test
+    public void unknownTargetIsRestored() throws Exception {
+        File bundleFile = new File(workdir, "device.avdb");
+        bundle.write(bundleFile, null, Arrays.asList(new File(source, "config.ini")));
+        Assert.assertNull(bundle.read(bundleFile, target));
+    }
+
+    @Test
+    public void corruptedLengthsAreRejectedBeforeAllocation() throws Exception {
+        File bundleFile = new File(workdir, "device.avdb");
+        File config = new File(source, "config.ini");
+        bundle.write(bundleFile, "android-17", Arrays.asList(config));
+
+        // magic, version, chunk size, target, file count, file name, file length, then file index and offset of the chunk
+        long rawLengthPosition = 4 + 4 + 4 + (2 + "android-17".length()) + 4 + (2 + config.getName().length()) + 8 + 4 + 8;
+        RandomAccessFile file = new RandomAccessFile(bundleFile, "rw");
+        try {
+            file.seek(rawLengthPosition);
+            file.writeInt(-5);
+            file.writeInt(Integer.MAX_VALUE);
+        } finally {
+            file.close();
+        }
+
+        try {
+            bundle.read(bundleFile, target);
+            Assert.fail("Corrupted bundle was restored");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("corrupted"));
+        }
+    }
+}
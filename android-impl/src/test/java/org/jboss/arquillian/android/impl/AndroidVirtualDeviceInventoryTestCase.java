@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reading of Android Virtual Devices directly from AVD home
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class AndroidVirtualDeviceInventoryTestCase {
+
+    private File avdHome;
+
+    @Before
+    public void createAvdHome() throws IOException {
+        avdHome = TestFiles.createDirectory("avd-home");
+    }
+
+    @After
+    public void deleteAvdHome() {
+        TestFiles.delete(avdHome);
+    }
+
+    @Test
+    public void emptyInventory() {
+        AndroidVirtualDeviceInventory inventory = new AndroidVirtualDeviceInventory(new File(avdHome, "missing"));
+        Assert.assertTrue("Inventory without AVD home is empty", inventory.getDevices().isEmpty());
+    }
+
+    @Test
+    public void deviceRead() throws IOException {
+        createDevice("foobar", "android-10", "armeabi", "128M", true);
+
+        AndroidVirtualDeviceInventory inventory = new AndroidVirtualDeviceInventory(avdHome);
+        Assert.assertTrue("Device foobar exists", inventory.contains("foobar"));
+
+        AndroidVirtualDevice device = inventory.getDevice("foobar");
+        Assert.assertEquals("android-10", device.getTarget());
+        Assert.assertEquals("armeabi", device.getAbi());
+        Assert.assertEquals("128M", device.getSdSize());
+        Assert.assertTrue("Device has snapshot", device.isSnapshotPresent());
+    }
+
+    @Test
+    public void inventoryInvalidated() throws IOException {
+        AndroidVirtualDeviceInventory inventory = new AndroidVirtualDeviceInventory(avdHome);
+        Assert.assertFalse("Device foobar does not exist yet", inventory.contains("foobar"));
+
+        createDevice("foobar", "android-15", "x86", null, false);
+        inventory.invalidate();
+
+        AndroidVirtualDevice device = inventory.getDevice("foobar");
+        Assert.assertNotNull("Device foobar was found after invalidation", device);
+        Assert.assertNull("Device has no SD card", device.getSdSize());
+        Assert.assertFalse("Device has no snapshot", device.isSnapshotPresent());
+    }
+
+    @Test
+    public void definitionWithoutDataSkipped() throws IOException {
+        write(new File(avdHome, "broken.ini"), "target=android-10\npath=" + new File(avdHome, "broken.avd") + "\n");
+
+        AndroidVirtualDeviceInventory inventory = new AndroidVirtualDeviceInventory(avdHome);
+        Assert.assertFalse("Device without data directory is not available", inventory.contains("broken"));
+    }
+
+    private void createDevice(String name, String target, String abi, String sdSize, boolean snapshot) throws IOException {
+        File path = new File(avdHome, name + ".avd");
+        path.mkdirs();
+        write(new File(avdHome, name + ".ini"), "target=" + target + "\npath=" + path.getAbsolutePath() + "\n");
+
+        StringBuilder config = new StringBuilder();
+        config.append("abi.type=").append(abi).append("\n");
+        if (sdSize != null) {
+            config.append("sdcard.size=").append(sdSize).append("\n");
+        }
+        if (snapshot) {
+            config.append("snapshot.present=true\n");
+        }
+        write(new File(path, "config.ini"), config.toString());
+    }
+
+    private void write(File file, String content) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInfo;
+import org.jboss.arquillian.android.testsupport.FakeApk;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reading of package metadata from binary manifests
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class ApkManifestReaderTestCase {
+
+    private File apk;
+
+    @Before
+    public void createFile() throws Exception {
+        apk = File.createTempFile("manifest", ".apk");
+    }
+
+    @After
+    public void deleteFile() {
+        apk.delete();
+    }
+
+    @Test
+    public void utf16Manifest() throws Exception {
+        new FakeApk("org.example.utf16").setVersionCode(42).setVersionName("1.2.3")
+                .addEntry("classes.dex", new byte[1024]).writeTo(apk);
+        AndroidPackageInfo info = ApkManifestReader.read(apk);
+        Assert.assertEquals("org.example.utf16", info.getPackageName());
+        Assert.assertEquals(42, info.getVersionCode());
+        Assert.assertEquals("1.2.3", info.getVersionName());
+    }
+
+    @Test
+    public void utf8Manifest() throws Exception {
+        new FakeApk("org.example.utf8").setVersionCode(7).setUtf8(true).writeTo(apk);
+        AndroidPackageInfo info = ApkManifestReader.read(apk);
+        Assert.assertEquals("org.example.utf8", info.getPackageName());
+        Assert.assertEquals(7, info.getVersionCode());
+        Assert.assertNull(info.getVersionName());
+    }
+
+    @Test
+    public void missingVersionIsUnknown() throws Exception {
+        new FakeApk("org.example.noversion").writeTo(apk);
+        Assert.assertEquals(AndroidPackageInfo.UNKNOWN_VERSION, ApkManifestReader.read(apk).getVersionCode());
+    }
+
+    @Test
+    public void targetSdkVersionIsRead() throws Exception {
+        Assert.assertEquals(30, ApkManifestReader.readTargetSdkVersion(new FakeApk("org.example.target")
+                .setTargetSdkVersion(30).setVersionName("1.0").getManifest()));
+        Assert.assertEquals(19, ApkManifestReader.readTargetSdkVersion(new FakeApk("org.example.target")
+                .setTargetSdkVersion(19).setUtf8(true).getManifest()));
+        Assert.assertEquals(ApkManifestReader.UNKNOWN_SDK_VERSION,
+                ApkManifestReader.readTargetSdkVersion(new FakeApk("org.example.target").getManifest()));
+    }
+
+    @Test
+    public void sameContentIsCached() throws Exception {
+        new FakeApk("org.example.cached").setVersionCode(1).writeTo(apk);
+        File copy = File.createTempFile("copy", ".apk");
+        try {
+            new FakeApk("org.example.cached").setVersionCode(1).writeTo(copy);
+            copy.setLastModified(apk.lastModified());
+            Assert.assertSame(ApkManifestReader.read(apk), ApkManifestReader.read(copy));
+        } finally {
+            copy.delete();
+        }
+
+        // changed file is read again
+        new FakeApk("org.example.cached").setVersionCode(2).writeTo(apk);
+        apk.setLastModified(apk.lastModified() + 2000);
+        Assert.assertEquals(2, ApkManifestReader.read(apk).getVersionCode());
+    }
+
+    @Test
+    public void missingManifestIsReported() throws Exception {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(apk));
+        try {
+            out.putNextEntry(new ZipEntry("classes.dex"));
+            out.write(new byte[16]);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        try {
+            ApkManifestReader.read(apk);
+            Assert.fail("Missing manifest was not reported");
+        } catch (AndroidExecutionException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(ApkManifestReader.MANIFEST_ENTRY));
+        }
+    }
+
+    @Test
+    public void truncatedManifestIsReported() throws Exception {
+        byte[] manifest = new FakeApk("org.example.truncated").setVersionCode(1).getManifest();
+        for (int length : new int[] { 4, 40, manifest.length / 2 }) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(manifest, 0, truncated, 0, length);
+            writeManifest(truncated);
+            try {
+                ApkManifestReader.read(apk);
+                Assert.fail("Manifest truncated to " + length + " bytes was not reported");
+            } catch (AndroidExecutionException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains(apk.getAbsolutePath()));
+            }
+        }
+    }
+
+    @Test
+    public void offsetsOutOfChunkAreReported() throws Exception {
+        // string count of the string pool, which follows the 8 bytes of XML header and 8 bytes of chunk header
+        byte[] manifest = new FakeApk("org.example.corrupted").setTargetSdkVersion(19).getManifest();
+        manifest[16] = (byte) 0xff;
+        try {
+            ApkManifestReader.readTargetSdkVersion(manifest);
+            Assert.fail("Corrupted string pool was not reported");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Malformed"));
+        }
+
+        writeManifest(manifest);
+        try {
+            ApkManifestReader.read(apk);
+            Assert.fail("Corrupted string pool was not reported");
+        } catch (AndroidExecutionException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(apk.getAbsolutePath()));
+        }
+    }
+
+    private void writeManifest(byte[] manifest) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(apk));
+        try {
+            out.putNextEntry(new ZipEntry(ApkManifestReader.MANIFEST_ENTRY));
+            out.write(manifest);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+}
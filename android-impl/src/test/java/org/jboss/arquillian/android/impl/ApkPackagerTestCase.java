@@ -0,0 +1,233 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.testsupport.FakeApk;
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests in-process packaging of APKs
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class ApkPackagerTestCase {
+
+    private static final String PACKAGE = "org.example.packaged";
+
+    private File workdir;
+
+    private ApkSigner signer;
+
+    private ProcessExecutor executor;
+
+    @Before
+    public void createKeystore() throws Exception {
+        workdir = TestFiles.createDirectory("packager");
+
+        createDebugKeystore(workdir);
+
+        executor = new ProcessExecutor();
+        signer = ApkSigner.debugKey(Collections.singletonMap(AndroidVirtualDeviceInventory.SDK_HOME_ENV,
+                workdir.getAbsolutePath()), 21);
+    }
+
+    @After
+    public void deleteWorkdir() {
+        TestFiles.delete(workdir);
+    }
+
+    @Test
+    public void archiveIsPackagedSignedAndAligned() throws Exception {
+        File apk = new ApkPackager(signer, executor).pack(archive(), new File(workdir, "packaged.apk"));
+
+        Assert.assertEquals(PACKAGE, ApkManifestReader.read(apk).getPackageName());
+
+        // every entry is verified by the JDK while it is being read
+        JarFile jar = new JarFile(apk, true);
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            int signed = 0;
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+                read(jar.getInputStream(entry));
+                Assert.assertNotNull("Entry " + entry.getName() + " is signed", entry.getCodeSigners());
+                signed++;
+            }
+            Assert.assertEquals(5, signed);
+            Assert.assertNull("Directories are not packaged", jar.getEntry("res/"));
+            Assert.assertNull("Old signature was replaced", jar.getEntry("META-INF/OLD.SF"));
+            Assert.assertEquals(ZipEntry.STORED, jar.getEntry("resources.arsc").getMethod());
+            Assert.assertEquals(ZipEntry.DEFLATED, jar.getEntry("classes.dex").getMethod());
+        } finally {
+            jar.close();
+        }
+
+        for (ZipLayout.Segment segment : ZipLayout.read(apk).getSegments()) {
+            if (segment.method == ZipEntry.STORED) {
+                Assert.assertEquals("Entry " + segment.name + " is aligned", 0, dataOffset(apk, segment.offset)
+                        % ApkPackager.ALIGNMENT);
+            }
+        }
+    }
+
+    @Test
+    public void legacyDevicesGetSha1Digests() throws Exception {
+        ApkSigner legacy = ApkSigner.debugKey(Collections.singletonMap(AndroidVirtualDeviceInventory.SDK_HOME_ENV,
+                workdir.getAbsolutePath()), 10);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ApkPackager(legacy, executor).pack(archive(), out);
+        ZipInputStream apk = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        try {
+            ZipEntry entry;
+            while ((entry = apk.getNextEntry()) != null) {
+                String content = new String(read(apk), "UTF-8");
+                if (entry.getName().equals(ApkSigner.SIGNATURE_NAME)) {
+                    Assert.assertTrue(content, content.contains("SHA1-Digest-Manifest: "));
+                } else if (entry.getName().equals(ApkSigner.MANIFEST_NAME)) {
+                    for (String line : content.split("\r\n")) {
+                        Assert.assertTrue("Line " + line + " is wrapped", line.getBytes("UTF-8").length <= 72);
+                    }
+                }
+            }
+        } finally {
+            apk.close();
+        }
+    }
+
+    @Test
+    public void apkRequiringV2SignatureIsRejected() throws Exception {
+        File apk = new File(workdir, "rejected.apk");
+        try {
+            new ApkPackager(signer, executor).pack(archive(new FakeApk(PACKAGE).setTargetSdkVersion(30)), apk);
+            Assert.fail("APK targeting API level 30 was signed with JAR signature only");
+        } catch (AndroidExecutionException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Signature Scheme v2"));
+        }
+        Assert.assertFalse("Incomplete APK was deleted", apk.exists());
+
+        new ApkPackager(signer, executor).pack(archive(new FakeApk(PACKAGE).setTargetSdkVersion(29)), apk);
+        Assert.assertEquals(PACKAGE, ApkManifestReader.read(apk).getPackageName());
+    }
+
+    @Test
+    public void signatureFilesAreRecognized() {
+        Assert.assertTrue(ApkSigner.isSignatureEntry("META-INF/MANIFEST.MF"));
+        Assert.assertTrue(ApkSigner.isSignatureEntry("META-INF/cert.rsa"));
+        Assert.assertTrue(ApkSigner.isSignatureEntry("META-INF/ANDROIDD.SF"));
+        Assert.assertFalse(ApkSigner.isSignatureEntry("META-INF/services/org.example.Service"));
+        Assert.assertFalse(ApkSigner.isSignatureEntry("assets/META-INF/CERT.SF"));
+    }
+
+    @Test
+    public void base64IsEncoded() throws Exception {
+        Assert.assertEquals("TWFu", ApkSigner.base64("Man".getBytes("UTF-8")));
+        Assert.assertEquals("TWE=", ApkSigner.base64("Ma".getBytes("UTF-8")));
+        Assert.assertEquals("TQ==", ApkSigner.base64("M".getBytes("UTF-8")));
+    }
+
+    /**
+     * Creates a debug keystore as Android tools do
+     *
+     * @param sdkHome SDK home the keystore is stored to
+     */
+    static void createDebugKeystore(File sdkHome) throws Exception {
+        File androidHome = new File(sdkHome, ".android");
+        androidHome.mkdirs();
+        File keystore = new File(androidHome, ApkSigner.DEBUG_KEYSTORE);
+        String keytool = new File(new File(System.getProperty("java.home"), "bin"), "keytool").getAbsolutePath();
+        Process p = new ProcessBuilder(keytool, "-genkeypair", "-keystore", keystore.getAbsolutePath(), "-storepass",
+                ApkSigner.DEBUG_PASSWORD, "-keypass", ApkSigner.DEBUG_PASSWORD, "-alias", ApkSigner.DEBUG_ALIAS,
+                "-keyalg", "RSA", "-keysize", "2048", "-validity", "1", "-dname", "CN=Android Debug,O=Android,C=US")
+                .redirectErrorStream(true).start();
+        read(p.getInputStream());
+        Assert.assertEquals(0, p.waitFor());
+    }
+
+    // a ZIP stream as exported by ShrinkWrap, everything deflated and with directory entries
+    private InputStream archive() throws Exception {
+        return archive(new FakeApk(PACKAGE).setVersionCode(3));
+    }
+
+    private InputStream archive(FakeApk manifest) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        try {
+            put(zip, "res/", new byte[0]);
+            put(zip, "AndroidManifest.xml", manifest.getManifest());
+            put(zip, "classes.dex", new byte[10000]);
+            put(zip, "resources.arsc", new byte[333]);
+            put(zip, "res/drawable/icon.png", new byte[] { 1, 2, 3, 4, 5 });
+            put(zip, "res/layout/main_with_a_very_long_name_which_needs_to_be_wrapped_in_manifest.xml", new byte[77]);
+            put(zip, "META-INF/OLD.SF", new byte[12]);
+        } finally {
+            zip.close();
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private static void put(ZipOutputStream zip, String name, byte[] data) throws Exception {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static long dataOffset(File apk, long headerOffset) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(apk, "r");
+        try {
+            raf.seek(headerOffset + 26);
+            int nameLength = raf.read() | raf.read() << 8;
+            int extraLength = raf.read() | raf.read() << 8;
+            return headerOffset + 30 + nameLength + extraLength;
+        } finally {
+            raf.close();
+        }
+    }
+}
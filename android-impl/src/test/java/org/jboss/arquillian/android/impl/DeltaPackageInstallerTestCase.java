@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.jboss.arquillian.android.testsupport.ShellHandler;
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests installation of APKs by transferring only changed entries
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class DeltaPackageInstallerTestCase {
+
+    private static final String SERIAL = "0123456789ABCDEF";
+
+    private static final String PACKAGE = "org.example.tests";
+
+    private static final String INSTALLED_PATH = "/data/app/" + PACKAGE + "-2.apk";
+
+    private final FakeDevice fake = new FakeDevice(SERIAL).setInstalledPackageName(PACKAGE);
+
+    @Rule
+    public NativeBridgeRule adb = new NativeBridgeRule(fake);
+
+    private File workdir;
+
+    private File base;
+
+    private File changed;
+
+    @Before
+    public void createApks() throws Exception {
+        workdir = TestFiles.createDirectory("delta-install");
+        base = createApk(new File(workdir, "tests.apk"), -1);
+        changed = createApk(new File(workdir, "tests-changed.apk"), 7);
+    }
+
+    @After
+    public void deleteApks() {
+        TestFiles.delete(workdir);
+    }
+
+    @Test
+    public void onlyChangedEntriesAreSent() throws Exception {
+        DeltaPackageInstaller.Delta delta = DeltaPackageInstaller.Delta.create(base, changed,
+                DeltaPackageInstaller.BLOCK_SIZE);
+        Assert.assertTrue("Delta is small, was " + delta.getLiteralBytes(),
+                delta.getLiteralBytes() * 10 < changed.length());
+
+        DeltaPackageInstaller installer = install();
+        Assert.assertTrue(installer.install(changed));
+        Assert.assertArrayEquals(FileClonerTestCase.read(changed), fake.getFile(INSTALLED_PATH));
+        for (String path : fake.getFilePaths()) {
+            Assert.assertFalse("Working directory was removed", path.startsWith(DeltaPackageInstaller.WORK_DIR));
+        }
+    }
+
+    @Test
+    public void nameOfApkIsNotInterpretedByShell() throws Exception {
+        DeltaPackageInstaller installer = install();
+        File renamed = new File(workdir, "tests $(reboot) changed.apk");
+        Assert.assertTrue(changed.renameTo(renamed));
+
+        Assert.assertTrue(installer.install(renamed));
+        Assert.assertArrayEquals(FileClonerTestCase.read(renamed), fake.getFile(INSTALLED_PATH));
+        for (String command : fake.getShellCommands()) {
+            Assert.assertFalse(command, command.contains("reboot"));
+        }
+    }
+
+    @Test
+    public void cacheIsEvicted() throws Exception {
+        File cacheDir = new File(workdir, "cache");
+        DeltaPackageInstaller installer = new DeltaPackageInstaller(adb.getDevice(SERIAL), null, cacheDir);
+        File expired = TestFiles.writeRandom(new File(workdir, "expired.apk"), 1024, 0);
+        installer.installed(expired);
+        File[] cached = cacheDir.listFiles();
+        Assert.assertEquals(1, cached.length);
+        cached[0].setLastModified(System.currentTimeMillis() - DeltaPackageInstaller.MAX_CACHE_AGE_MILLIS - 1000);
+
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= DeltaPackageInstaller.MAX_CACHED_APKS + 2; i++) {
+            File apk = TestFiles.writeRandom(new File(workdir, "cached" + i + ".apk"), 1024, i);
+            installer.installed(apk);
+            // installed one after another
+            new File(cacheDir, FileDigests.md5(apk) + ".apk").setLastModified(now - 60000 + i * 1000L);
+        }
+        Assert.assertEquals(DeltaPackageInstaller.MAX_CACHED_APKS, cacheDir.listFiles().length);
+        Assert.assertFalse("Expired APK was removed", cached[0].exists());
+        Assert.assertFalse("Least recently installed APK was removed", new File(cacheDir, FileDigests.md5(new File(workdir,
+                "cached1.apk")) + ".apk").exists());
+    }
+
+    @Test
+    public void deltaIsUsedByDevice() throws Exception {
+        AndroidDevice device = adb.getDevice(SERIAL);
+        device.installPackage(base, true);
+        device.installPackage(changed, true);
+        Assert.assertArrayEquals(FileClonerTestCase.read(changed), fake.getFile(INSTALLED_PATH));
+
+        boolean copied = false;
+        for (String command : fake.getShellCommands()) {
+            copied |= command.startsWith("dd if=");
+        }
+        Assert.assertTrue("Unchanged entries were copied on the device", copied);
+    }
+
+    @Test
+    public void corruptedApkIsNotInstalled() throws Exception {
+        DeltaPackageInstaller installer = install();
+        // blocks of the installed APK are not copied
+        fake.onShell(new ShellHandler() {
+            @Override
+            public String execute(FakeDevice device, String command) {
+                return command.startsWith("dd if=") ? "" : null;
+            }
+        });
+        Assert.assertFalse(installer.install(changed));
+        Assert.assertArrayEquals(FileClonerTestCase.read(base), fake.getFile("/data/app/" + PACKAGE + "-1.apk"));
+    }
+
+    @Test
+    public void failedInstallationIsReported() throws Exception {
+        DeltaPackageInstaller installer = install();
+        fake.setInstallResult("Failure [INSTALL_PARSE_FAILED_NO_CERTIFICATES]");
+        Assert.assertFalse(installer.install(changed));
+    }
+
+    @Test
+    public void unknownBaseIsIgnored() throws Exception {
+        AndroidDevice device = adb.getDevice(SERIAL);
+        InstalledPackageIndex index = new InstalledPackageIndex(device, adb.getServer().getAddress());
+        DeltaPackageInstaller installer = new DeltaPackageInstaller(device, index, new File(workdir, "cache"));
+        Assert.assertFalse(installer.install(changed));
+        Assert.assertEquals(0, fake.getInstalledPackages().size());
+    }
+
+    private DeltaPackageInstaller install() throws Exception {
+        AndroidDevice device = adb.getDevice(SERIAL);
+        device.installPackage(base, true);
+        InstalledPackageIndex index = new InstalledPackageIndex(device, adb.getServer().getAddress());
+        DeltaPackageInstaller installer = new DeltaPackageInstaller(device, index, new File(workdir, "cache"));
+        installer.installed(base);
+        return installer;
+    }
+
+    // creates an archive with 40 entries, one of them might be changed
+    private static File createApk(File file, int changedEntry) throws IOException {
+        Random random = new Random(17);
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < 40; i++) {
+                byte[] data = new byte[10000 + random.nextInt(20000)];
+                random.nextBytes(data);
+                if (i == changedEntry) {
+                    data[0]++;
+                }
+                ZipEntry entry = new ZipEntry("res/raw/entry" + i + ".bin");
+                entry.setTime(1300000000000L);
+                zip.putNextEntry(entry);
+                zip.write(data);
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests persistent inventory of device capabilities
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class DeviceCapabilityInventoryTestCase {
+
+    private static final String PHONE = "0123456789PHONE";
+
+    private static final String TABLET = "0123456789TABLET";
+
+    private static final String PROBE = "cat " + DevicePropertyCache.BOOT_ID_PATH + " 2>/dev/null ; getprop "
+            + DeviceCapabilityInventory.BUILD_FINGERPRINT;
+
+    private final FakeDevice phone = new FakeDevice(PHONE).setProperty("ro.build.version.sdk", "23")
+            .setProperty("ro.product.cpu.abilist", "arm64-v8a,armeabi-v7a")
+            .setProperty("ro.build.fingerprint", "fake/phone/generic:6.0/MRA58K:user/release-keys")
+            .putFile(DeviceCapabilityInventory.MEMINFO_PATH,
+                    "MemTotal:        2048000 kB\nMemFree:          512000 kB\n".getBytes(Charset.forName("UTF-8")))
+            .setScreenSize(1080, 1920);
+
+    private final FakeDevice tablet = new FakeDevice(TABLET).setProperty("ro.build.version.sdk", "19").setProperty(
+            "ro.product.cpu.abi", "x86");
+
+    @Rule
+    public NativeBridgeRule adb = new NativeBridgeRule(phone, tablet);
+
+    private File file;
+
+    private ProcessExecutor executor;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("inventory", ".properties");
+        file.delete();
+        executor = adb.getExecutor();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+        new File(file.getPath() + DeviceCapabilityInventory.LOCK_SUFFIX).delete();
+    }
+
+    @Test
+    public void capabilitiesAreRecorded() throws Exception {
+        Map<AndroidDevice, DeviceCapabilities> refreshed = new DeviceCapabilityInventory(file).refresh(adb.getDevices(),
+                executor);
+        Assert.assertEquals(2, refreshed.size());
+        Assert.assertTrue(file.isFile());
+
+        // a later run reads capabilities from the file
+        DeviceCapabilityInventory inventory = new DeviceCapabilityInventory(file);
+        DeviceCapabilities capabilities = inventory.get(PHONE);
+        Assert.assertEquals(23, capabilities.getApiLevel());
+        Assert.assertEquals(Arrays.asList("arm64-v8a", "armeabi-v7a"), capabilities.getAbis());
+        Assert.assertEquals(2048000L * 1024, capabilities.getTotalMemory());
+        Assert.assertEquals(1080, capabilities.getScreenWidth());
+        Assert.assertEquals(1920, capabilities.getScreenHeight());
+
+        capabilities = inventory.get(TABLET);
+        Assert.assertEquals(19, capabilities.getApiLevel());
+        Assert.assertEquals(Arrays.asList("x86"), capabilities.getAbis());
+        Assert.assertEquals(DeviceCapabilities.UNKNOWN, capabilities.getTotalMemory());
+        Assert.assertEquals(DeviceCapabilities.UNKNOWN, capabilities.getScreenWidth());
+    }
+
+    @Test
+    public void unchangedDevicesAreOnlyProbed() throws Exception {
+        new DeviceCapabilityInventory(file).refresh(adb.getDevices(), executor);
+        long modified = file.lastModified();
+        int phoneCommands = phone.getShellCommands().size();
+        int tabletCommands = tablet.getShellCommands().size();
+
+        DeviceCapabilityInventory inventory = new DeviceCapabilityInventory(file);
+        Assert.assertEquals(2, inventory.refresh(adb.getDevices(), executor).size());
+        Assert.assertEquals(Arrays.asList(PROBE), since(phone.getShellCommands(), phoneCommands));
+        Assert.assertEquals(Arrays.asList(PROBE), since(tablet.getShellCommands(), tabletCommands));
+        Assert.assertEquals(modified, file.lastModified());
+    }
+
+    @Test
+    public void rebootedDeviceIsQueriedAgain() throws Exception {
+        new DeviceCapabilityInventory(file).refresh(adb.getDevices(), executor);
+        int tabletCommands = tablet.getShellCommands().size();
+        phone.setProperty("ro.build.version.sdk", "24").reboot();
+
+        DeviceCapabilityInventory inventory = new DeviceCapabilityInventory(file);
+        inventory.refresh(adb.getDevices(), executor);
+        Assert.assertEquals(24, inventory.get(PHONE).getApiLevel());
+        Assert.assertEquals(Arrays.asList(PROBE), since(tablet.getShellCommands(), tabletCommands));
+
+        // other entries are kept when the file is rewritten
+        Assert.assertEquals(24, new DeviceCapabilityInventory(file).get(PHONE).getApiLevel());
+        Assert.assertEquals(19, new DeviceCapabilityInventory(file).get(TABLET).getApiLevel());
+    }
+
+    @Test
+    public void concurrentUpdatesAreMerged() throws Exception {
+        final AndroidDevice[] devices = new AndroidDevice[] { adb.getDevice(PHONE),
+                adb.getDevice(TABLET) };
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int i = 0; i < 8; i++) {
+            // every suite knows an empty inventory and records a single device
+            final DeviceCapabilityInventory inventory = new DeviceCapabilityInventory(file);
+            final AndroidDevice device = devices[i % devices.length];
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        inventory.refresh(Collections.singletonList(device), executor);
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(Collections.emptyList(), failures);
+        DeviceCapabilityInventory merged = new DeviceCapabilityInventory(file);
+        Assert.assertNotNull(merged.get(PHONE));
+        Assert.assertNotNull(merged.get(TABLET));
+    }
+
+    @Test
+    public void devicesAreMatchedToRequirements() throws Exception {
+        DeviceCapabilityInventory inventory = new DeviceCapabilityInventory(file);
+        List<AndroidDevice> devices = adb.getDevices();
+        Assert.assertNull(inventory.find(devices, 23, null));
+
+        inventory.refresh(devices, executor);
+        Assert.assertEquals(PHONE, inventory.find(devices, 23, null).getSerialNumber());
+        Assert.assertEquals(PHONE, inventory.find(devices, 23, "armeabi-v7a").getSerialNumber());
+        Assert.assertEquals(TABLET, inventory.find(devices, 19, "x86").getSerialNumber());
+        Assert.assertNull(inventory.find(devices, 23, "x86"));
+        Assert.assertNull(inventory.find(devices, 10, null));
+    }
+
+    private static List<String> since(List<String> commands, int from) {
+        return commands.subList(from, commands.size());
+    }
+}
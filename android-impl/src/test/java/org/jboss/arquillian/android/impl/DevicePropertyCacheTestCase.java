@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceProperties;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests caching of device properties
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class DevicePropertyCacheTestCase {
+
+    private static final String SERIAL = "0123456789PROPS";
+
+    private final FakeDevice fake = new FakeDevice(SERIAL).setProperty("ro.build.version.sdk", "23")
+            .setProperty("ro.product.cpu.abilist", "arm64-v8a,armeabi-v7a").setProperty("ro.debuggable", "1");
+
+    @Rule
+    public NativeBridgeRule adb = new NativeBridgeRule(fake);
+
+    private AndroidDevice device;
+
+    @Before
+    public void findDevice() {
+        device = adb.getDevice(SERIAL);
+    }
+
+    @Test
+    public void propertiesAreFetchedOnce() throws Exception {
+        Assert.assertEquals("23", device.getProperty("ro.build.version.sdk"));
+        Assert.assertEquals("Fake", device.getProperty("ro.product.model"));
+        Assert.assertEquals(23, device.getPropertySnapshot().getApiLevel());
+        Assert.assertEquals(fake.getBootId(), device.getPropertySnapshot().getBootId());
+        Assert.assertEquals("23", device.getProperties().get("ro.build.version.sdk"));
+        Assert.assertEquals(1, fake.getShellCommands().size());
+    }
+
+    @Test
+    public void rebootInvalidatesSnapshot() throws Exception {
+        DevicePropertyCache cache = new DevicePropertyCache(device, 0);
+        Assert.assertEquals("23", cache.get().get("ro.build.version.sdk"));
+
+        // same boot, only the boot identifier is checked
+        fake.setProperty("ro.build.version.sdk", "24");
+        Assert.assertEquals("23", cache.get().get("ro.build.version.sdk"));
+        Assert.assertEquals("cat " + DevicePropertyCache.BOOT_ID_PATH, fake.getShellCommands().get(1));
+
+        fake.reboot();
+        Assert.assertEquals("24", cache.get().get("ro.build.version.sdk"));
+        Assert.assertEquals(fake.getBootId(), cache.get().getBootId());
+    }
+
+    @Test
+    public void typedAccessors() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("ro.debuggable", "1");
+        properties.put("ro.secure", "false");
+        properties.put("ro.kernel.qemu", "maybe");
+        properties.put("ro.product.cpu.abi", "x86");
+        properties.put("ro.product.cpu.abi2", "armeabi-v7a");
+        AndroidDeviceProperties snapshot = new AndroidDeviceProperties("boot", properties);
+
+        Assert.assertTrue(snapshot.getBoolean("ro.debuggable", false));
+        Assert.assertFalse(snapshot.getBoolean("ro.secure", true));
+        Assert.assertTrue(snapshot.getBoolean("ro.kernel.qemu", true));
+        Assert.assertEquals(AndroidDeviceProperties.UNKNOWN_API_LEVEL, snapshot.getApiLevel());
+        Assert.assertEquals(Arrays.asList("x86", "armeabi-v7a"), snapshot.getAbis());
+        Assert.assertEquals(Collections.emptyList(),
+                new AndroidDeviceProperties(null, Collections.<String, String> emptyMap()).getAbis());
+    }
+
+    @Test
+    public void abiListIsPreferred() throws Exception {
+        Assert.assertEquals(Arrays.asList("arm64-v8a", "armeabi-v7a"), device.getPropertySnapshot().getAbis());
+        Assert.assertTrue(device.getPropertySnapshot().getBoolean("ro.debuggable", false));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests cloning of AVD data files
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class FileClonerTestCase {
+
+    private File source;
+
+    private File target;
+
+    @Before
+    public void createFiles() throws IOException {
+        source = File.createTempFile("clone-source", ".img");
+        target = File.createTempFile("clone-target", ".img");
+
+        // data, a large hole and data again, file ends with a hole
+        RandomAccessFile file = new RandomAccessFile(source, "rw");
+        try {
+            file.write(pattern(1000, (byte) 1));
+            file.seek(1024 * 1024);
+            file.write(pattern(70000, (byte) 2));
+            file.setLength(3 * 1024 * 1024 + 17);
+        } finally {
+            file.close();
+        }
+    }
+
+    @After
+    public void deleteFiles() {
+        source.delete();
+        target.delete();
+    }
+
+    @Test
+    public void sparseCopyPreservesContent() throws IOException {
+        FileCloner.copySparse(source, target);
+        assertSameContent();
+    }
+
+    @Test
+    public void cloneOverwritesTarget() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(target, "rw");
+        try {
+            file.write(pattern(5 * 1024 * 1024, (byte) 3));
+        } finally {
+            file.close();
+        }
+
+        new FileCloner(new ProcessExecutor()).clone(source, target);
+        assertSameContent();
+    }
+
+    private void assertSameContent() throws IOException {
+        Assert.assertEquals("Cloned file has the same size", source.length(), target.length());
+        Assert.assertTrue("Cloned file has the same content", Arrays.equals(read(source), read(target)));
+    }
+
+    private static byte[] pattern(int length, byte value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, value);
+        return data;
+    }
+
+    static byte[] read(File f) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(f, "r");
+        try {
+            byte[] data = new byte[(int) file.length()];
+            file.readFully(data);
+            return data;
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests bulk file transfers against a fake adb server
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class FileSyncTestCase {
+
+    private static final String SERIAL = "0123456789ABCDEF";
+
+    private static final String SECOND_SERIAL = "emulator-5580";
+
+    @Rule
+    public NativeBridgeRule adb = new NativeBridgeRule(new FakeDevice(SERIAL), new FakeDevice(SECOND_SERIAL));
+
+    private File workdir;
+
+    private final Random random = new Random(17);
+
+    @Before
+    public void createDirectory() throws Exception {
+        workdir = TestFiles.createDirectory("file-sync");
+    }
+
+    @After
+    public void deleteDirectory() {
+        TestFiles.delete(workdir);
+    }
+
+    @Test
+    public void unchangedFilesAreSkipped() throws Exception {
+        // more files than fit into a single pipelined window
+        Map<File, String> files = new LinkedHashMap<File, String>();
+        for (int i = 0; i < 150; i++) {
+            files.put(write("file" + i + ".bin", 1024 + i), "/sdcard/data/file" + i + ".bin");
+        }
+        AndroidDevice device = adb.getDevice(SERIAL);
+
+        AndroidTransferStatistics statistics = device.pushFiles(files, null);
+        Assert.assertEquals(150, statistics.getFiles());
+        Assert.assertEquals(0, statistics.getSkippedFiles());
+        FakeDevice fake = adb.getServer().getDevice(SERIAL);
+        for (Map.Entry<File, String> entry : files.entrySet()) {
+            Assert.assertArrayEquals(FileClonerTestCase.read(entry.getKey()), fake.getFile(entry.getValue()));
+        }
+
+        statistics = device.pushFiles(files, null);
+        Assert.assertEquals(0, statistics.getFiles());
+        Assert.assertEquals(150, statistics.getSkippedFiles());
+        Assert.assertEquals("Content is not compared when size and time match", 0, fake.getShellCommands().size());
+
+        // same content with a different time is recognized by digest, same size with different content is pushed
+        File touched = new File(workdir, "file0.bin");
+        touched.setLastModified(touched.lastModified() - 3600 * 1000);
+        File changed = write("file1.bin", 1025);
+        changed.setLastModified(touched.lastModified());
+        statistics = device.pushFiles(files, null);
+        Assert.assertEquals(1, statistics.getFiles());
+        Assert.assertEquals(149, statistics.getSkippedFiles());
+        Assert.assertEquals(1, fake.getShellCommands().size());
+        Assert.assertTrue(fake.getShellCommands().get(0).startsWith("md5sum "));
+        Assert.assertArrayEquals(FileClonerTestCase.read(changed), fake.getFile("/sdcard/data/file1.bin"));
+    }
+
+    @Test
+    public void filesArePulled() throws Exception {
+        FakeDevice fake = adb.getServer().getDevice(SERIAL);
+        Map<String, File> files = new LinkedHashMap<String, File>();
+        for (int i = 0; i < 100; i++) {
+            byte[] data = new byte[100 * i];
+            random.nextBytes(data);
+            fake.putFile("/sdcard/results/result" + i + ".xml", data, 1300000000L + i);
+            files.put("/sdcard/results/result" + i + ".xml", new File(workdir, "results/result" + i + ".xml"));
+        }
+        AndroidDevice device = adb.getDevice(SERIAL);
+
+        AndroidTransferStatistics statistics = device.pullFiles(files, null);
+        Assert.assertEquals(100, statistics.getFiles());
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            Assert.assertArrayEquals(fake.getFile(entry.getKey()), FileClonerTestCase.read(entry.getValue()));
+        }
+        Assert.assertEquals(1300000099000L, files.get("/sdcard/results/result99.xml").lastModified());
+
+        statistics = device.pullFiles(files, null);
+        Assert.assertEquals(0, statistics.getFiles());
+        Assert.assertEquals(100, statistics.getSkippedFiles());
+    }
+
+    @Test
+    public void filesArePushedToAllDevices() throws Exception {
+        Map<File, String> files = new LinkedHashMap<File, String>();
+        for (int i = 0; i < 10; i++) {
+            files.put(write("file" + i + ".bin", 4096), "/sdcard/file" + i + ".bin");
+        }
+
+        Map<AndroidDevice, AndroidTransferStatistics> statistics = adb.getBridge()
+                .pushFiles(adb.getDevices(), files, null);
+        Assert.assertEquals(2, statistics.size());
+        for (AndroidTransferStatistics s : statistics.values()) {
+            Assert.assertEquals(10, s.getFiles());
+        }
+        Assert.assertEquals(10, adb.getServer().getDevice(SECOND_SERIAL).getFilePaths().size());
+    }
+
+    @Test
+    public void failuresAreAggregated() throws Exception {
+        final List<String> executed = new ArrayList<String>();
+        List<AndroidDevice> devices = Arrays.<AndroidDevice> asList(new AndroidDeviceRegistryTestCase.StubDevice("a", null),
+                new AndroidDeviceRegistryTestCase.StubDevice("b", null), new AndroidDeviceRegistryTestCase.StubDevice("c", null));
+        try {
+            ParallelDeviceTasks.execute(devices, new ParallelDeviceTasks.DeviceTask<Void>() {
+                @Override
+                public Void execute(AndroidDevice device) throws AndroidExecutionException {
+                    synchronized (executed) {
+                        executed.add(device.getSerialNumber());
+                    }
+                    if (!"b".equals(device.getSerialNumber())) {
+                        throw new AndroidExecutionException("Failed on {0}", device.getSerialNumber());
+                    }
+                    return null;
+                }
+            }, adb.getExecutor(), 1);
+            Assert.fail("Failures were reported");
+        } catch (AndroidExecutionException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("[a, c]"));
+            Assert.assertEquals("Failed on a", e.getCause().getMessage());
+        }
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), executed);
+    }
+
+    private File write(String name, int size) throws IOException {
+        return TestFiles.writeRandom(new File(workdir, name), size, random.nextLong());
+    }
+}
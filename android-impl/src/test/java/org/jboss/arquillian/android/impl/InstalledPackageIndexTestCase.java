@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests skipping of installation of packages already present on a device
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class InstalledPackageIndexTestCase {
+
+    private static final String SERIAL = "0123456789ABCDEF";
+
+    private static final String PACKAGE = "org.openqa.selenium.android.app";
+
+    private final FakeDevice fake = new FakeDevice(SERIAL).setInstalledPackageName(PACKAGE);
+
+    @Rule
+    public NativeBridgeRule adb = new NativeBridgeRule(fake);
+
+    private File apk;
+
+    @Before
+    public void createApk() throws Exception {
+        apk = write(File.createTempFile("android-server", ".apk"), 17);
+    }
+
+    @After
+    public void deleteApk() {
+        apk.delete();
+    }
+
+    @Test
+    public void unchangedPackageIsNotReinstalled() throws Exception {
+        AndroidDevice device = adb.getDevice(SERIAL);
+        device.installPackage(apk, true);
+        device.installPackage(apk, true);
+        Assert.assertEquals(1, countShellCommands("pm install"));
+        Assert.assertNotNull("Index is stored on the device", fake.getFile(InstalledPackageIndex.INDEX_PATH));
+
+        write(apk, 42);
+        device.installPackage(apk, true);
+        Assert.assertEquals("Changed package was installed", 2, countShellCommands("pm install"));
+    }
+
+    @Test
+    public void packageReplacedAtSamePathIsInstalledAgain() throws Exception {
+        AndroidDevice device = adb.getDevice(SERIAL);
+        device.installPackage(apk, true);
+        device.installPackage(apk, true);
+        Assert.assertEquals("Digest of installed package is known", 1, countShellCommands("pm install"));
+
+        // older devices reinstall a package to the same path, a package installed by someone else has the same size
+        String path = "/data/app/" + PACKAGE + "-1.apk";
+        fake.putFile(path, FileClonerTestCase.read(TestFiles.writeRandom(apk, 64 * 1024, 42)), 1300000000L);
+        TestFiles.writeRandom(apk, 64 * 1024, 17);
+
+        device.installPackage(apk, true);
+        Assert.assertEquals("Package with stale digest was installed", 2, countShellCommands("pm install"));
+    }
+
+    @Test
+    public void indexIsLoadedFromDevice() throws Exception {
+        AndroidDevice device = adb.getDevice(SERIAL);
+        device.installPackage(apk, true);
+        device.installPackage(apk, true);
+        int digests = countShellCommands("md5sum");
+
+        InstalledPackageIndex index = new InstalledPackageIndex(device, adb.getServer().getAddress());
+        InstalledPackageIndex.Entry entry = index.find(apk);
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(PACKAGE, entry.packageName);
+        Assert.assertEquals("/data/app/" + PACKAGE + "-1.apk", entry.path);
+        Assert.assertEquals("Known packages are not digested again", digests, countShellCommands("md5sum"));
+    }
+
+    @Test
+    public void packageInstalledBeforehandIsRecognized() throws Exception {
+        fake.addPackage(PACKAGE).putFile("/data/app/" + PACKAGE + "-1.apk", FileClonerTestCase.read(apk));
+        adb.getDevice(SERIAL).installPackage(apk, true);
+        Assert.assertEquals(0, countShellCommands("pm install"));
+    }
+
+    @Test
+    public void packagesOfDifferentSizeAreNotDigested() throws Exception {
+        fake.addPackage(PACKAGE).putFile("/data/app/" + PACKAGE + "-1.apk", new byte[32 * 1024]);
+        InstalledPackageIndex index = new InstalledPackageIndex(adb.getDevice(SERIAL), adb.getServer().getAddress());
+        Assert.assertNull(index.find(apk));
+        Assert.assertEquals("Installed APK of different size was not digested", 0, countShellCommands("md5sum"));
+    }
+
+    @Test
+    public void packageIsInstalledAgainWithExtraArguments() throws Exception {
+        AndroidDevice device = adb.getDevice(SERIAL);
+        device.installPackage(apk, true);
+        device.installPackage(apk, true, "-g");
+        Assert.assertEquals(2, countShellCommands("pm install"));
+    }
+
+    @Test
+    public void uninstalledPackageIsInstalledAgain() throws Exception {
+        AndroidDevice device = adb.getDevice(SERIAL);
+        device.installPackage(apk, true);
+        device.uninstallPackage(PACKAGE);
+        device.installPackage(apk, true);
+        Assert.assertEquals(2, countShellCommands("pm install"));
+        Assert.assertTrue(fake.getInstalledPackages().contains(PACKAGE));
+    }
+
+    @Test
+    public void packageListingIsParsed() {
+        InstalledPackageIndex.Entry entry = InstalledPackageIndex.Entry
+                .parseListing("package:/data/app/~~a1B2==/org.example-X9y==/base.apk=org.example versionCode:42");
+        Assert.assertEquals("org.example", entry.packageName);
+        Assert.assertEquals("/data/app/~~a1B2==/org.example-X9y==/base.apk", entry.path);
+        Assert.assertEquals(42, entry.versionCode);
+
+        entry = InstalledPackageIndex.Entry.parseListing("package:/data/app/org.example-1.apk=org.example");
+        Assert.assertEquals(InstalledPackageIndex.Entry.UNKNOWN_VERSION, entry.versionCode);
+        Assert.assertNull(InstalledPackageIndex.Entry.parseListing("Error: Unknown option: --show-versioncode"));
+    }
+
+    private int countShellCommands(String prefix) {
+        int count = 0;
+        for (String command : fake.getShellCommands()) {
+            if (command.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static File write(File file, long seed) throws IOException {
+        return TestFiles.writeRandom(file, 64 * 1024, seed);
+    }
+}
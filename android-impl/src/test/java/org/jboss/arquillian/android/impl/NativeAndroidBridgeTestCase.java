@@ -0,0 +1,217 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidDeviceListener;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidTransferStatistics;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.jboss.arquillian.android.testsupport.FakeEmulatorConsole;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests native bridge against a fake adb server
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class NativeAndroidBridgeTestCase {
+
+    private static final String SERIAL = "0123456789ABCDEF";
+
+    @Rule
+    public NativeBridgeRule adb = new NativeBridgeRule(new FakeDevice(SERIAL));
+
+    @Test
+    public void initialDeviceListIsAvailableAfterConnect() {
+        Assert.assertTrue(adb.getBridge().isConnected());
+        List<AndroidDevice> devices = adb.getDevices();
+        Assert.assertEquals(1, devices.size());
+        Assert.assertEquals(SERIAL, devices.get(0).getSerialNumber());
+        Assert.assertTrue(devices.get(0).isOnline());
+        Assert.assertFalse(devices.get(0).isEmulator());
+    }
+
+    @Test
+    public void deviceChangesArePushed() throws Exception {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch online = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        adb.getBridge().addDeviceListener(new AndroidDeviceListener() {
+            @Override
+            public void deviceConnected(AndroidDevice device) {
+                if ("emulator-5580".equals(device.getSerialNumber())) {
+                    connected.countDown();
+                }
+            }
+
+            @Override
+            public void deviceChanged(AndroidDevice device) {
+                if ("emulator-5580".equals(device.getSerialNumber()) && device.isOnline()) {
+                    online.countDown();
+                }
+            }
+
+            @Override
+            public void deviceDisconnected(AndroidDevice device) {
+                if (SERIAL.equals(device.getSerialNumber())) {
+                    disconnected.countDown();
+                }
+            }
+        });
+
+        adb.getServer().connect(new FakeDevice("emulator-5580"), 50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue("Device was connected", connected.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue("Device went online", online.await(5, TimeUnit.SECONDS));
+        adb.getServer().disconnect(SERIAL);
+        Assert.assertTrue("Device was disconnected", disconnected.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, adb.getDevices().size());
+    }
+
+    @Test
+    public void deviceServicesAreUsed() throws Exception {
+        AndroidDevice device = adb.getDevices().get(0);
+        Assert.assertEquals("17", device.getProperty("ro.build.version.sdk"));
+        Assert.assertEquals("Properties are cached", 1, adb.getServer().getDevice(SERIAL).getShellCommands().size());
+
+        device.createPortForwarding(14444, 8080);
+        Assert.assertEquals(SERIAL + " tcp:8080", adb.getServer().getForwards().get("tcp:14444"));
+        device.removePortForwarding(14444, 8080);
+        Assert.assertTrue(adb.getServer().getForwards().isEmpty());
+    }
+
+    @Test
+    public void rawOutputIsStreamed() throws Exception {
+        byte[] screenshot = new byte[300 * 1024];
+        new Random(17).nextBytes(screenshot);
+        adb.getServer().getDevice(SERIAL).putFile("/sdcard/screen.png", screenshot);
+        AndroidDevice device = adb.getDevices().get(0);
+
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        AndroidTransferStatistics statistics = device.executeRawShellCommand("cat /sdcard/screen.png",
+                Channels.newChannel(memory));
+        Assert.assertEquals(screenshot.length, statistics.getBytes());
+        Assert.assertArrayEquals(screenshot, memory.toByteArray());
+
+        File file = File.createTempFile("screen", ".png");
+        try {
+            device.executeRawShellCommand("cat /sdcard/screen.png", file);
+            Assert.assertArrayEquals(screenshot, FileClonerTestCase.read(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void packageIsPushedAndInstalled() throws Exception {
+        File apk = File.createTempFile("fake", ".apk");
+        try {
+            FileOutputStream out = new FileOutputStream(apk);
+            try {
+                out.write(new byte[200 * 1024]);
+            } finally {
+                out.close();
+            }
+
+            FakeDevice fake = adb.getServer().getDevice(SERIAL).setInstalledPackageName("org.example.fake");
+            AndroidDevice device = adb.getDevices().get(0);
+            device.installPackage(apk, true);
+            Assert.assertTrue(fake.getInstalledPackages().contains("org.example.fake"));
+            Assert.assertFalse("Temporary file was removed",
+                    fake.getFilePaths().contains("/data/local/tmp/" + apk.getName()));
+
+            // the same APK would not be installed again
+            out = new FileOutputStream(apk);
+            try {
+                out.write(new byte[100 * 1024]);
+            } finally {
+                out.close();
+            }
+            fake.setInstallResult("Failure [INSTALL_FAILED_INVALID_APK]");
+            try {
+                device.installPackage(apk, true);
+                Assert.fail("Installation failure was not reported");
+            } catch (AndroidExecutionException e) {
+                Assert.assertTrue(e.getMessage().contains("INSTALL_FAILED_INVALID_APK"));
+            }
+        } finally {
+            apk.delete();
+        }
+    }
+
+    @Test
+    public void reconnectedBridgeIsNotDisconnectedByPreviousTracker() throws Exception {
+        adb.getBridge().disconnect();
+        adb.getBridge().connect();
+        // give the previous tracker time to finish
+        Thread.sleep(200);
+        Assert.assertTrue("Bridge stays connected", adb.getBridge().isConnected());
+        Assert.assertEquals("Devices are still tracked", 1, adb.getDevices().size());
+    }
+
+    @Test
+    public void avdNameIsTakenFromEmulatorConsole() throws Exception {
+        FakeEmulatorConsole console = new FakeEmulatorConsole("foobar-test-device").start();
+        try {
+            adb.getServer().connect(new FakeDevice(console.getSerialNumber()));
+            Assert.assertEquals(console.getSerialNumber(), awaitAvdName("foobar-test-device").getSerialNumber());
+        } finally {
+            console.close();
+        }
+    }
+
+    @Test
+    public void avdNameIsTakenFromPropertiesWithoutConsole() throws Exception {
+        // nothing listens on console port of this emulator
+        adb.getServer().connect(
+                new FakeDevice("emulator-1").setProperty("ro.kernel.qemu.avd_name", "foobar-test-device"));
+        Assert.assertEquals("emulator-1", awaitAvdName("foobar-test-device").getSerialNumber());
+    }
+
+    @Test
+    public void lostServerConnectionIsDetected() throws Exception {
+        adb.getServer().close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (adb.getBridge().isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertFalse(adb.getBridge().isConnected());
+    }
+
+    private AndroidDevice awaitAvdName(String avdName) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        AndroidDevice device;
+        while ((device = adb.getBridge().getDeviceByAvdName(avdName)) == null
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertNotNull("Emulator was found by AVD name", device);
+        return device;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.util.List;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.testsupport.FakeAdbServerRule;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+
+/**
+ * Connects a {@link NativeAndroidBridge} to a fake adb server with devices before each test and disconnects it after
+ * the test
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class NativeBridgeRule extends FakeAdbServerRule {
+
+    private final ProcessExecutor executor = new ProcessExecutor();
+
+    private NativeAndroidBridge bridge;
+
+    public NativeBridgeRule(FakeDevice... devices) {
+        super(devices);
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        super.before();
+        bridge = new NativeAndroidBridge(getServer().getAddress(), null, false, executor);
+        bridge.connect();
+    }
+
+    @Override
+    protected void after() {
+        try {
+            bridge.disconnect();
+        } catch (AndroidExecutionException e) {
+            throw new IllegalStateException("Unable to disconnect bridge from fake adb server", e);
+        } finally {
+            super.after();
+        }
+    }
+
+    NativeAndroidBridge getBridge() {
+        return bridge;
+    }
+
+    ProcessExecutor getExecutor() {
+        return executor;
+    }
+
+    AndroidDevice getDevice(String serialNumber) {
+        return bridge.getDeviceBySerialNumber(serialNumber);
+    }
+
+    List<AndroidDevice> getDevices() {
+        return bridge.getDevices();
+    }
+}
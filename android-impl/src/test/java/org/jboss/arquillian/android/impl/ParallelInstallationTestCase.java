@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPackageInstallation;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests installation of an application on many devices at once
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class ParallelInstallationTestCase {
+
+    private static final String PACKAGE = "org.example.parallel";
+
+    private final List<FakeDevice> fakes = createDevices(3);
+
+    @Rule
+    public NativeBridgeRule adb = new NativeBridgeRule(fakes.toArray(new FakeDevice[fakes.size()]));
+
+    private File apk;
+
+    @Before
+    public void createApk() throws Exception {
+        apk = TestFiles.writeRandom(File.createTempFile("parallel", ".apk"), 64 * 1024, 17);
+    }
+
+    @After
+    public void deleteApk() {
+        apk.delete();
+    }
+
+    @Test
+    public void applicationIsInstalledOnAllDevices() throws Exception {
+        List<AndroidDevice> devices = adb.getDevices();
+        List<File> apks = Collections.singletonList(apk);
+        AndroidPackageInstallation installation = adb.getBridge().installPackages(devices, apks, true);
+        installation.await();
+
+        Assert.assertEquals(devices.size(), installation.getFutures().size());
+        for (AndroidDevice device : devices) {
+            Assert.assertTrue(installation.getFuture(device).isDone());
+        }
+        for (FakeDevice fake : fakes) {
+            Assert.assertTrue(fake.getInstalledPackages().contains(PACKAGE));
+        }
+    }
+
+    @Test
+    public void failuresAreReportedTogether() throws Exception {
+        fakes.get(1).setInstallResult("Failure [INSTALL_FAILED_INSUFFICIENT_STORAGE]");
+        List<AndroidDevice> devices = adb.getDevices();
+        List<File> apks = Collections.singletonList(apk);
+        AndroidPackageInstallation installation = adb.getBridge().installPackages(devices, apks, true);
+        try {
+            installation.await();
+            Assert.fail("Installation failure was not reported");
+        } catch (AndroidExecutionException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("1 of 3"));
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("PARALLEL1"));
+            Assert.assertNotNull(e.getCause());
+        }
+
+        // other devices are not affected by the failure
+        Assert.assertTrue(fakes.get(0).getInstalledPackages().contains(PACKAGE));
+        Assert.assertFalse(fakes.get(1).getInstalledPackages().contains(PACKAGE));
+        Assert.assertTrue(fakes.get(2).getInstalledPackages().contains(PACKAGE));
+    }
+
+    @Test
+    public void concurrencyIsBoundedPerEndpoint() throws Exception {
+        List<AndroidDevice> devices = new ArrayList<AndroidDevice>();
+        for (int i = 0; i < 6; i++) {
+            devices.add(new AndroidDeviceRegistryTestCase.StubDevice("stub" + i, null));
+        }
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(2);
+        Map<AndroidDevice, Future<Integer>> futures = ParallelDeviceTasks.submit(devices,
+                new ParallelDeviceTasks.DeviceTask<Integer>() {
+                    @Override
+                    public Integer execute(AndroidDevice device) throws AndroidExecutionException {
+                        int current = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), current));
+                        }
+                        started.countDown();
+                        try {
+                            // let the other worker catch up
+                            started.await(5, TimeUnit.SECONDS);
+                            Thread.sleep(20);
+                        } catch (InterruptedException e) {
+                            throw new AndroidExecutionException(e, "Interrupted");
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                        return current;
+                    }
+                }, new ProcessExecutor(), 2);
+
+        for (Future<Integer> future : futures.values()) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void devicesOfDifferentEndpointsAreServedConcurrently() throws Exception {
+        List<AndroidDevice> devices = new ArrayList<AndroidDevice>();
+        for (int port : new int[] { 5037, 5038 }) {
+            InetSocketAddress server = new InetSocketAddress("127.0.0.1", port);
+            for (int i = 0; i < 2; i++) {
+                devices.add(new NativeAndroidDevice(server, "PARALLEL" + port + "-" + i, NativeAndroidDevice.STATE_ONLINE));
+            }
+        }
+
+        final Map<InetSocketAddress, AtomicInteger> running = new ConcurrentHashMap<InetSocketAddress, AtomicInteger>();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(2);
+        ParallelDeviceTasks.execute(devices, new ParallelDeviceTasks.DeviceTask<Void>() {
+            @Override
+            public Void execute(AndroidDevice device) throws AndroidExecutionException {
+                InetSocketAddress server = ((NativeAndroidDevice) device).getServer();
+                running.putIfAbsent(server, new AtomicInteger());
+                int current = running.get(server).incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), current));
+                }
+                started.countDown();
+                try {
+                    // the other endpoint is not blocked by this one
+                    Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new AndroidExecutionException(e, "Interrupted");
+                } finally {
+                    running.get(server).decrementAndGet();
+                }
+                return null;
+            }
+        }, new ProcessExecutor(), 1);
+
+        Assert.assertEquals("Devices of the same endpoint are served one by one", 1, maxRunning.get());
+    }
+
+    private static List<FakeDevice> createDevices(int count) {
+        List<FakeDevice> devices = new ArrayList<FakeDevice>();
+        for (int i = 0; i < count; i++) {
+            devices.add(new FakeDevice("PARALLEL" + i).setProperty("ro.build.version.sdk", "23")
+                    .setInstalledPackageName(PACKAGE));
+        }
+        return devices;
+    }
+}
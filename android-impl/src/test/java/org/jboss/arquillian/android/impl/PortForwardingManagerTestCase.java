@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidPortForwarding;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests allocation and reference counting of port forwardings
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class PortForwardingManagerTestCase {
+
+    private static final String SERIAL = "0123456789FORWARD";
+
+    private static final String DEVTOOLS = "localabstract:chrome_devtools_remote";
+
+    @Rule
+    public NativeBridgeRule adb = new NativeBridgeRule(new FakeDevice(SERIAL));
+
+    private AndroidDevice device;
+
+    @Before
+    public void findDevice() {
+        device = adb.getDevice(SERIAL);
+    }
+
+    @Test
+    public void allocatedForwardingIsShared() throws Exception {
+        AndroidPortForwarding first = device.forwardPort(0, "tcp:8080");
+        AndroidPortForwarding second = device.forwardPort(0, "tcp:8080");
+        Assert.assertTrue(first.getLocalPort() > 0);
+        Assert.assertEquals(first.getLocalPort(), second.getLocalPort());
+        Assert.assertEquals(1, adb.getServer().getForwards().size());
+        Assert.assertEquals(SERIAL + " tcp:8080", adb.getServer().getForwards().get("tcp:" + first.getLocalPort()));
+
+        // releasing the same forwarding twice does not drop the reference of the other user
+        first.release();
+        first.release();
+        Assert.assertEquals(1, adb.getServer().getForwards().size());
+        second.release();
+        Assert.assertTrue(adb.getServer().getForwards().isEmpty());
+    }
+
+    @Test
+    public void abstractSocketsAreForwarded() throws Exception {
+        AndroidPortForwarding devtools = device.forwardPort(0, DEVTOOLS);
+        AndroidPortForwarding webdriver = device.forwardPort(0, "tcp:8080");
+        Assert.assertFalse(devtools.getLocalPort() == webdriver.getLocalPort());
+        Map<String, String> forwards = adb.getServer().getForwards();
+        Assert.assertEquals(SERIAL + " " + DEVTOOLS, forwards.get("tcp:" + devtools.getLocalPort()));
+        Assert.assertEquals(DEVTOOLS, devtools.getRemoteSocket());
+    }
+
+    @Test
+    public void configuredPortForwardedToSameSocketByOtherSuiteIsNotAdopted() throws Exception {
+        // created by another suite using the same adb server
+        device.createPortForwarding(14444, 8080);
+
+        try {
+            device.forwardPort(14444, "tcp:8080");
+            Assert.fail("Forwarding of another suite was adopted");
+        } catch (AndroidExecutionException e) {
+            Assert.assertEquals(SERIAL + " tcp:8080", adb.getServer().getForwards().get("tcp:14444"));
+        }
+    }
+
+    @Test
+    public void failedRemovalIsReportedAndForwardingIsReused() throws Exception {
+        AndroidPortForwarding forwarding = device.forwardPort(14444, "tcp:8080");
+        // removed behind the back of the manager, so its removal fails
+        device.removePortForwarding(14444, 8080);
+        try {
+            forwarding.release();
+            Assert.fail("Failed removal was not reported");
+        } catch (AndroidExecutionException e) {
+            // expected
+        }
+
+        // the forwarding is possibly still there, manager reuses it instead of failing
+        device.createPortForwarding(14444, 8080);
+        Assert.assertEquals(14444, device.forwardPort(14444, "tcp:8080").getLocalPort());
+        try {
+            device.forwardPort(14444, DEVTOOLS);
+            Assert.fail("Local port forwarded to another socket must not be rebound");
+        } catch (AndroidExecutionException e) {
+            Assert.assertEquals(SERIAL + " tcp:8080", adb.getServer().getForwards().get("tcp:14444"));
+        }
+    }
+
+    @Test
+    public void configuredPortForwardedElsewhereIsNotTakenOver() throws Exception {
+        // claimed by another job running on the same host
+        device.createPortForwarding(14444, 1234);
+
+        try {
+            device.forwardPort(14444, "tcp:8080");
+            Assert.fail("Local port forwarded by another job was rebound");
+        } catch (AndroidExecutionException e) {
+            Assert.assertEquals(SERIAL + " tcp:1234", adb.getServer().getForwards().get("tcp:14444"));
+        }
+    }
+
+    @Test
+    public void forwardingOnRemoteServerIsRejected() throws Exception {
+        PortForwardingManager remote = new PortForwardingManager(new InetSocketAddress("192.0.2.1", 5037), SERIAL);
+        try {
+            remote.forward(0, "tcp:8080");
+            Assert.fail("Port was forwarded on a remote adb server");
+        } catch (AndroidExecutionException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("remote adb server"));
+        }
+    }
+
+    @Test
+    public void allForwardingsAreRemovedOnShutdown() throws Exception {
+        AndroidPortForwarding webdriver = device.forwardPort(0, "tcp:8080");
+        device.forwardPort(0, DEVTOOLS);
+        device.forwardPort(0, DEVTOOLS);
+        Assert.assertEquals(2, adb.getServer().getForwards().size());
+
+        device.removePortForwardings();
+        Assert.assertTrue(adb.getServer().getForwards().isEmpty());
+
+        // users releasing their forwardings later are not affected
+        webdriver.release();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.configuration.AndroidConfigurationException;
+import org.jboss.arquillian.android.testsupport.FakeAdbServer;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests aggregation of remote adb servers, replaced by fake servers
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class RemoteAndroidBridgeTestCase {
+
+    private FakeAdbServer first;
+
+    private FakeAdbServer second;
+
+    private RemoteAndroidBridge bridge;
+
+    @Before
+    public void startServers() throws Exception {
+        first = new FakeAdbServer().start();
+        first.connect(new FakeDevice("FIRST0001"));
+        first.connect(new FakeDevice("FIRST0002"));
+        second = new FakeAdbServer().start();
+        second.connect(new FakeDevice("SECOND0001"));
+    }
+
+    @After
+    public void stopServers() throws Exception {
+        if (bridge != null) {
+            bridge.disconnect();
+        }
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void devicesOfAllEndpointsAreAvailable() throws Exception {
+        bridge = new RemoteAndroidBridge(Arrays.asList(first.getAddress(), second.getAddress()), new ProcessExecutor());
+        bridge.connect();
+
+        Assert.assertTrue(bridge.isConnected());
+        Assert.assertEquals(3, bridge.getDevices().size());
+        Assert.assertEquals("SECOND0001", bridge.getDeviceBySerialNumber("SECOND0001").getSerialNumber());
+        Assert.assertNull(bridge.getDeviceBySerialNumber("MISSING"));
+    }
+
+    @Test
+    public void leasesAreBalancedAcrossEndpoints() throws Exception {
+        bridge = new RemoteAndroidBridge(Arrays.asList(first.getAddress(), second.getAddress()), new ProcessExecutor());
+        bridge.connect();
+
+        AndroidDevice lease1 = bridge.lease();
+        AndroidDevice lease2 = bridge.lease();
+        AndroidDevice lease3 = bridge.lease();
+        Assert.assertTrue(lease1.getSerialNumber().startsWith("FIRST"));
+        Assert.assertEquals("SECOND0001", lease2.getSerialNumber());
+        Assert.assertTrue(lease3.getSerialNumber().startsWith("FIRST"));
+        Assert.assertNull("All devices are leased", bridge.lease());
+
+        bridge.release(lease2);
+        Assert.assertEquals("SECOND0001", bridge.lease().getSerialNumber());
+    }
+
+    @Test
+    public void unavailableEndpointIsReconnected() throws Exception {
+        int port = second.getPort();
+        second.close();
+
+        bridge = new RemoteAndroidBridge(Arrays.asList(first.getAddress(), new InetSocketAddress("127.0.0.1", port)),
+                new ProcessExecutor());
+        bridge.connect();
+        Assert.assertEquals(2, bridge.getDevices().size());
+
+        second = new FakeAdbServer().start(port);
+        second.connect(new FakeDevice("SECOND0001"));
+
+        long deadline = System.currentTimeMillis() + 4 * RemoteAndroidBridge.KEEPALIVE_INTERVAL_MS;
+        while (bridge.getDeviceBySerialNumber("SECOND0001") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertNotNull("Device of reconnected endpoint is available", bridge.getDeviceBySerialNumber("SECOND0001"));
+    }
+
+    @Test
+    public void endpointsAreParsed() throws Exception {
+        List<InetSocketAddress> endpoints = RemoteAndroidBridge.parseEndpoints("127.0.0.1:5038, localhost");
+        Assert.assertEquals(2, endpoints.size());
+        Assert.assertEquals(5038, endpoints.get(0).getPort());
+        Assert.assertEquals(AdbConnection.DEFAULT_PORT, endpoints.get(1).getPort());
+    }
+
+    @Test(expected = AndroidConfigurationException.class)
+    public void invalidEndpointIsRejected() throws Exception {
+        RemoteAndroidBridge.parseEndpoints("127.0.0.1:adb");
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.arquillian.android.api.AndroidDeviceOutputReciever;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.api.AndroidShellResult;
+import org.jboss.arquillian.android.impl.AndroidDeviceRegistryTestCase.StubDevice;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests execution of shell commands in a batch
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class ShellBatchTestCase {
+
+    @Test
+    public void commandsAreExecutedInSingleSession() throws Exception {
+        ScriptedDevice device = new ScriptedDevice();
+        device.on("getprop ro.product.model", 0, "Fake");
+        device.on("ls /missing", 1, "ls: /missing: No such file or directory");
+        device.on("echo -n done", 0, "done");
+
+        List<AndroidShellResult> results = new ShellBatch(Arrays.asList("getprop ro.product.model", "ls /missing",
+                "echo -n done"), false).execute(device);
+
+        Assert.assertEquals(1, device.sessions);
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals(Arrays.asList("Fake"), results.get(0).getOutput());
+        Assert.assertFalse(results.get(1).isSuccess());
+        Assert.assertEquals(1, results.get(1).getExitStatus());
+        Assert.assertEquals("ls /missing", results.get(1).getCommand());
+        Assert.assertEquals(Arrays.asList("done"), results.get(2).getOutput());
+    }
+
+    @Test
+    public void failFastStopsAfterFailure() throws Exception {
+        ScriptedDevice device = new ScriptedDevice();
+        device.on("ls /missing", 1, "ls: /missing: No such file or directory");
+
+        List<AndroidShellResult> results = new ShellBatch(Arrays.asList("true", "ls /missing", "rm /sdcard/file"), true)
+                .execute(device);
+
+        Assert.assertEquals(2, results.size());
+        Assert.assertFalse(results.get(1).isSuccess());
+        Assert.assertFalse("Command after failure was not executed", device.executed.contains("rm /sdcard/file"));
+    }
+
+    @Test
+    public void longBatchIsSplitIntoSessions() throws Exception {
+        ScriptedDevice device = new ScriptedDevice();
+        List<String> commands = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            commands.add("touch /sdcard/file-with-quite-a-long-name-" + i);
+        }
+
+        List<AndroidShellResult> results = new ShellBatch(commands, false).execute(device);
+
+        Assert.assertEquals(200, results.size());
+        Assert.assertTrue(device.sessions > 1);
+        Assert.assertTrue(device.longestScript <= ShellBatch.MAX_SCRIPT_LENGTH);
+        Assert.assertEquals(commands.get(199), results.get(199).getCommand());
+    }
+
+    /**
+     * Device interpreting scripts generated by batch, commands which are not scripted succeed without output
+     */
+    private static class ScriptedDevice extends StubDevice {
+
+        final Map<String, String> outputs = new HashMap<String, String>();
+
+        final Map<String, Integer> statuses = new HashMap<String, Integer>();
+
+        final List<String> executed = new ArrayList<String>();
+
+        int sessions;
+
+        int longestScript;
+
+        ScriptedDevice() {
+            super("emulator-5554", null);
+        }
+
+        void on(String command, int status, String output) {
+            statuses.put(command, status);
+            outputs.put(command, output);
+        }
+
+        @Override
+        public void executeShellCommand(String script, AndroidDeviceOutputReciever reciever)
+                throws AndroidExecutionException {
+            sessions++;
+            longestScript = Math.max(longestScript, script.length());
+
+            int status = 0;
+            // output without new line is glued to the following line
+            String pending = "";
+            for (String line : script.split("\n")) {
+                if (line.equals("s=$?")) {
+                    continue;
+                } else if (line.startsWith("echo \"__ARQ_")) {
+                    String sentinel = line.substring(6, line.length() - 1).replace("$s", String.valueOf(status));
+                    reciever.processNewLines(new String[] { pending + sentinel + "\r" });
+                    pending = "";
+                } else if (line.startsWith("case ")) {
+                    if (status != 0) {
+                        return;
+                    }
+                } else {
+                    executed.add(line);
+                    status = statuses.containsKey(line) ? statuses.get(line) : 0;
+                    String output = outputs.get(line);
+                    if (output != null && line.startsWith("echo -n")) {
+                        pending = output;
+                    } else if (output != null) {
+                        reciever.processNewLines(new String[] { output });
+                    }
+                }
+            }
+        }
+    }
+}
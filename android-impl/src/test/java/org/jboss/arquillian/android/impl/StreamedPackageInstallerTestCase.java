@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.impl;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.jboss.arquillian.android.api.AndroidDevice;
+import org.jboss.arquillian.android.api.AndroidExecutionException;
+import org.jboss.arquillian.android.testsupport.FakeDevice;
+import org.jboss.arquillian.android.testsupport.TestFiles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests installation of APKs streamed directly to package manager
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class StreamedPackageInstallerTestCase {
+
+    private static final String SERIAL = "0123456789STREAM";
+
+    private static final String PACKAGE = "org.example.streamed";
+
+    private final FakeDevice fake = new FakeDevice(SERIAL).setProperty("ro.build.version.sdk", "23")
+            .setInstalledPackageName(PACKAGE);
+
+    @Rule
+    public NativeBridgeRule adb = new NativeBridgeRule(fake);
+
+    private File base;
+
+    private File split;
+
+    @Before
+    public void createApks() throws Exception {
+        base = TestFiles.writeRandom(File.createTempFile("base", ".apk"), 300 * 1024, 17);
+        split = TestFiles.writeRandom(File.createTempFile("split", ".apk"), 50 * 1024, 42);
+    }
+
+    @After
+    public void deleteApks() {
+        base.delete();
+        split.delete();
+    }
+
+    @Test
+    public void apkIsStreamed() throws Exception {
+        adb.getDevice(SERIAL).installPackage(base, true);
+        Assert.assertTrue(fake.getInstalledPackages().contains(PACKAGE));
+        Assert.assertArrayEquals(FileClonerTestCase.read(base), fake.getFile("/data/app/" + PACKAGE + "-1.apk"));
+        Assert.assertTrue(fake.getShellCommands().contains("pm install -r -S " + base.length()));
+        Assert.assertFalse("APK was not stored on the device",
+                fake.getFilePaths().contains("/data/local/tmp/" + base.getName()));
+    }
+
+    @Test
+    public void splitsAreInstalledInSession() throws Exception {
+        adb.getDevice(SERIAL).installPackages(Arrays.asList(base, split), false);
+        Assert.assertTrue(fake.getInstalledPackages().contains(PACKAGE));
+        Assert.assertArrayEquals(FileClonerTestCase.read(base), fake.getFile("/data/app/" + PACKAGE + "-1.apk"));
+        Assert.assertTrue(fake.getShellCommands().contains("pm install-create -S " + (base.length() + split.length())));
+        Assert.assertTrue(fake.getInstallSessions().isEmpty());
+    }
+
+    @Test
+    public void failedSessionIsAbandoned() throws Exception {
+        fake.setInstallResult("Failure [INSTALL_FAILED_INVALID_APK]");
+        try {
+            adb.getDevice(SERIAL).installPackages(Arrays.asList(base, split), true);
+            Assert.fail("Installation failure was not reported");
+        } catch (AndroidExecutionException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("INSTALL_FAILED_INVALID_APK"));
+        }
+        Assert.assertTrue(fake.getInstallSessions().isEmpty());
+    }
+
+    @Test
+    public void olderDeviceUsesTemporaryCopy() throws Exception {
+        fake.setProperty("ro.build.version.sdk", "17");
+        AndroidDevice device = adb.getDevice(SERIAL);
+        device.installPackage(base, true);
+        Assert.assertTrue(fake.getShellCommands().contains("pm install -r \"/data/local/tmp/" + base.getName() + "\""));
+        try {
+            device.installPackages(Arrays.asList(base, split), true);
+            Assert.fail("Split APKs are not supported");
+        } catch (AndroidExecutionException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,609 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.testsupport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.android.testsupport.FakeDevice.FakeFile;
+
+/**
+ * An embeddable adb server which serves {@link FakeDevice}s. It speaks the ADB host protocol, including device tracking,
+ * transport selection, port forwarding requests, shell and sync services, so extension can be tested and benchmarked without
+ * Android SDK and devices.
+ *
+ * <pre>
+ * FakeAdbServer server = new FakeAdbServer().start();
+ * server.connect(new FakeDevice(&quot;emulator-5554&quot;), 100, TimeUnit.MILLISECONDS);
+ * ...
+ * server.close();
+ * </pre>
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class FakeAdbServer implements Closeable {
+    private static final Logger log = Logger.getLogger(FakeAdbServer.class.getName());
+
+    private static final String VERSION = "0020";
+
+    private static final int SYNC_DATA_MAX = 64 * 1024;
+
+    private static final int S_IFREG = 0100000;
+
+    private static final int S_IFDIR = 0040000;
+
+    private final Map<String, FakeDevice> devices = new LinkedHashMap<String, FakeDevice>();
+
+    private final Map<String, String> forwards = new LinkedHashMap<String, String>();
+
+    private final List<OutputStream> trackers = new CopyOnWriteArrayList<OutputStream>();
+
+    private final List<String> requests = new CopyOnWriteArrayList<String>();
+
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private ServerSocket serverSocket;
+
+    /**
+     * Starts the server on a free port
+     *
+     * @return the server
+     * @throws IOException if server cannot be started
+     */
+    public FakeAdbServer start() throws IOException {
+        return start(0);
+    }
+
+    /**
+     * Starts the server on given port of loopback interface
+     *
+     * @param port the port, {@code 0} to choose a free port
+     * @return the server
+     * @throws IOException if server cannot be started
+     */
+    public FakeAdbServer start(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+        connections.submit(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+        return this;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress("127.0.0.1", getPort());
+    }
+
+    /**
+     * Connects a device which is online immediately
+     *
+     * @param device the device
+     * @return the server
+     */
+    public FakeAdbServer connect(FakeDevice device) {
+        device.setState(FakeDevice.STATE_ONLINE);
+        synchronized (devices) {
+            devices.put(device.getSerialNumber(), device);
+        }
+        notifyTrackers();
+        return this;
+    }
+
+    /**
+     * Connects a device which is offline first and goes online after a delay, which simulates device boot
+     *
+     * @param device the device
+     * @param onlineAfter the delay
+     * @param unit unit of the delay
+     * @return the server
+     */
+    public FakeAdbServer connect(final FakeDevice device, long onlineAfter, TimeUnit unit) {
+        device.setState(FakeDevice.STATE_OFFLINE);
+        synchronized (devices) {
+            devices.put(device.getSerialNumber(), device);
+        }
+        notifyTrackers();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                device.setState(FakeDevice.STATE_ONLINE);
+                notifyTrackers();
+            }
+        }, onlineAfter, unit);
+        return this;
+    }
+
+    /**
+     * Disconnects a device immediately
+     *
+     * @param serial serial number of the device
+     * @return the server
+     */
+    public FakeAdbServer disconnect(String serial) {
+        synchronized (devices) {
+            devices.remove(serial);
+        }
+        synchronized (forwards) {
+            forwards.values().removeAll(forwardsOf(serial));
+        }
+        notifyTrackers();
+        return this;
+    }
+
+    /**
+     * Disconnects a device after a delay
+     *
+     * @param serial serial number of the device
+     * @param after the delay
+     * @param unit unit of the delay
+     * @return the server
+     */
+    public FakeAdbServer disconnect(final String serial, long after, TimeUnit unit) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                disconnect(serial);
+            }
+        }, after, unit);
+        return this;
+    }
+
+    public FakeDevice getDevice(String serial) {
+        synchronized (devices) {
+            return devices.get(serial);
+        }
+    }
+
+    public List<FakeDevice> getDevices() {
+        synchronized (devices) {
+            return new ArrayList<FakeDevice>(devices.values());
+        }
+    }
+
+    /**
+     * Returns active port forwardings, keyed by local specification, e.g. {@code tcp:14444}
+     *
+     * @return forwardings with values in form {@code serial remote}
+     */
+    public Map<String, String> getForwards() {
+        synchronized (forwards) {
+            return new LinkedHashMap<String, String>(forwards);
+        }
+    }
+
+    /**
+     * Returns all host requests received by the server in order they were received
+     *
+     * @return the requests
+     */
+    public List<String> getRequests() {
+        return new ArrayList<String>(requests);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        for (OutputStream tracker : trackers) {
+            tracker.close();
+        }
+        trackers.clear();
+        scheduler.shutdownNow();
+        connections.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket client = serverSocket.accept();
+                connections.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(client);
+                    }
+                });
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        boolean keepOpen = false;
+        try {
+            client.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            OutputStream out = client.getOutputStream();
+            String request = readRequest(in);
+            requests.add(request);
+
+            if ("host:version".equals(request)) {
+                okay(out, VERSION);
+            } else if ("host:devices".equals(request) || "host:devices-l".equals(request)) {
+                okay(out, deviceList());
+            } else if ("host:track-devices".equals(request)) {
+                synchronized (out) {
+                    okay(out, deviceList());
+                }
+                trackers.add(out);
+                keepOpen = true;
+            } else if ("host:kill".equals(request)) {
+                okay(out);
+                close();
+            } else if ("host:list-forward".equals(request)) {
+                okay(out, forwardList());
+            } else if (request.startsWith("host:transport")) {
+                FakeDevice device = selectDevice(request.substring("host:".length()), out);
+                if (device != null) {
+                    okay(out);
+                    deviceService(device, readRequest(in), in, out);
+                }
+            } else if (request.startsWith("host-serial:")) {
+                hostSerial(request.substring("host-serial:".length()), out);
+            } else {
+                fail(out, "unknown host service");
+            }
+        } catch (IOException e) {
+            log.log(Level.FINEST, "Client disconnected", e);
+        } finally {
+            if (!keepOpen) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private FakeDevice selectDevice(String transport, OutputStream out) throws IOException {
+        FakeDevice device = null;
+        if (transport.startsWith("transport:")) {
+            device = getDevice(transport.substring("transport:".length()));
+        } else {
+            // transport-any, transport-usb and transport-local select the only device
+            List<FakeDevice> all = getDevices();
+            if (all.size() > 1) {
+                fail(out, "more than one device");
+                return null;
+            }
+            device = all.isEmpty() ? null : all.get(0);
+        }
+
+        if (device == null) {
+            fail(out, "device not found");
+            return null;
+        } else if (!FakeDevice.STATE_ONLINE.equals(device.getState())) {
+            fail(out, "device offline");
+            return null;
+        }
+        return device;
+    }
+
+    private void hostSerial(String request, OutputStream out) throws IOException {
+        FakeDevice device = null;
+        for (FakeDevice candidate : getDevices()) {
+            if (request.startsWith(candidate.getSerialNumber() + ":")) {
+                device = candidate;
+                break;
+            }
+        }
+        if (device == null) {
+            fail(out, "device not found");
+            return;
+        }
+
+        String serial = device.getSerialNumber();
+        String command = request.substring(serial.length() + 1);
+        if ("get-state".equals(command)) {
+            okay(out, device.getState());
+        } else if ("get-serialno".equals(command)) {
+            okay(out, serial);
+        } else if (command.startsWith("forward:")) {
+            String spec = command.substring("forward:".length());
+            boolean norebind = spec.startsWith("norebind:");
+            if (norebind) {
+                spec = spec.substring("norebind:".length());
+            }
+            int separator = spec.indexOf(';');
+            if (separator == -1) {
+                fail(out, "malformed forward spec");
+                return;
+            }
+            String local = spec.substring(0, separator);
+            synchronized (forwards) {
+                if (norebind && forwards.containsKey(local)) {
+                    fail(out, "cannot rebind existing socket");
+                    return;
+                }
+                forwards.put(local, serial + " " + spec.substring(separator + 1));
+            }
+            // adb server confirms both request and forward setup
+            okay(out);
+            okay(out);
+        } else if (command.startsWith("killforward:")) {
+            String local = command.substring("killforward:".length());
+            synchronized (forwards) {
+                if (forwards.remove(local) == null) {
+                    fail(out, "listener '" + local + "' not found");
+                    return;
+                }
+            }
+            // like forward, removal is confirmed twice by adb server
+            okay(out);
+            okay(out);
+        } else if ("killforward-all".equals(command)) {
+            synchronized (forwards) {
+                forwards.values().removeAll(forwardsOf(serial));
+            }
+            okay(out);
+        } else {
+            fail(out, "unknown host service");
+        }
+    }
+
+    private void deviceService(FakeDevice device, String service, DataInputStream in, OutputStream out) throws IOException {
+        if (service.startsWith("shell:") || service.startsWith("exec:")) {
+            String command = service.substring(service.indexOf(':') + 1);
+            okay(out);
+            // only exec service passes standard input without alteration
+            int stdin = service.startsWith("exec:") ? FakeDevice.stdinLength(command) : -1;
+            byte[] input = null;
+            if (stdin >= 0) {
+                input = new byte[stdin];
+                in.readFully(input);
+            }
+            byte[] output = device.shellOutput(command, input);
+            // shell service runs the command in a pty, which turns every line feed into carriage return and line feed
+            out.write(service.startsWith("shell:") ? ptyOutput(output) : output);
+            out.flush();
+        } else if ("sync:".equals(service)) {
+            okay(out);
+            sync(device, in, out);
+        } else if (service.startsWith("reboot:")) {
+            okay(out);
+        } else {
+            fail(out, "unknown device service");
+        }
+    }
+
+    private static byte[] ptyOutput(byte[] output) {
+        ByteArrayOutputStream translated = new ByteArrayOutputStream(output.length + output.length / 64);
+        for (int i = 0; i < output.length; i++) {
+            if (output[i] == '\n' && (i == 0 || output[i - 1] != '\r')) {
+                translated.write('\r');
+            }
+            translated.write(output[i]);
+        }
+        return translated.toByteArray();
+    }
+
+    private void sync(FakeDevice device, DataInputStream in, OutputStream out) throws IOException {
+        while (true) {
+            String id = readId(in);
+            int length = readInt(in);
+            if ("QUIT".equals(id)) {
+                return;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            String path = new String(payload, "UTF-8");
+
+            if ("SEND".equals(id)) {
+                int comma = path.lastIndexOf(',');
+                int mode = comma == -1 ? 0644 : Integer.parseInt(path.substring(comma + 1));
+                String target = comma == -1 ? path : path.substring(0, comma);
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                String chunk;
+                while ("DATA".equals(chunk = readId(in))) {
+                    byte[] buffer = new byte[readInt(in)];
+                    in.readFully(buffer);
+                    data.write(buffer);
+                }
+                int mtime = readInt(in);
+                if (!"DONE".equals(chunk)) {
+                    syncFail(out, "invalid data message " + chunk);
+                    return;
+                }
+                device.putFakeFile(target, new FakeFile(data.toByteArray(), S_IFREG | (mode & 07777), mtime));
+                syncMessage(out, "OKAY", 0);
+            } else if ("RECV".equals(id)) {
+                FakeFile file = device.getFakeFile(path);
+                if (file == null) {
+                    syncFail(out, "No such file or directory");
+                    continue;
+                }
+                byte[] data = file.getData();
+                for (int offset = 0; offset < data.length; offset += SYNC_DATA_MAX) {
+                    int size = Math.min(SYNC_DATA_MAX, data.length - offset);
+                    syncMessage(out, "DATA", size);
+                    out.write(data, offset, size);
+                }
+                syncMessage(out, "DONE", 0);
+            } else if ("STAT".equals(id)) {
+                FakeFile file = device.getFakeFile(path);
+                boolean directory = file == null && isDirectory(device, path);
+                syncMessage(out, "STAT", file != null ? file.getMode() : directory ? S_IFDIR | 0755 : 0);
+                writeInt(out, file != null ? file.getData().length : 0);
+                writeInt(out, file != null ? (int) file.getMtime() : 0);
+            } else if ("LIST".equals(id)) {
+                String prefix = path.endsWith("/") ? path : path + "/";
+                for (String candidate : device.getFilePaths()) {
+                    FakeFile file = device.getFakeFile(candidate);
+                    if (file != null && candidate.startsWith(prefix) && candidate.indexOf('/', prefix.length()) == -1) {
+                        byte[] name = candidate.substring(prefix.length()).getBytes("UTF-8");
+                        syncMessage(out, "DENT", file.getMode());
+                        writeInt(out, file.getData().length);
+                        writeInt(out, (int) file.getMtime());
+                        writeInt(out, name.length);
+                        out.write(name);
+                    }
+                }
+                syncMessage(out, "DONE", 0);
+                writeInt(out, 0);
+                writeInt(out, 0);
+                writeInt(out, 0);
+            } else {
+                syncFail(out, "unknown sync request " + id);
+                return;
+            }
+            out.flush();
+        }
+    }
+
+    private boolean isDirectory(FakeDevice device, String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        for (String candidate : device.getFilePaths()) {
+            if (candidate.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Collection<String> forwardsOf(String serial) {
+        List<String> values = new ArrayList<String>();
+        for (String value : forwards.values()) {
+            if (value.startsWith(serial + " ")) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    private String deviceList() {
+        StringBuilder sb = new StringBuilder();
+        for (FakeDevice device : getDevices()) {
+            sb.append(device.getSerialNumber()).append('\t').append(device.getState()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String forwardList() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> forward : getForwards().entrySet()) {
+            String[] value = forward.getValue().split(" ");
+            sb.append(value[0]).append(' ').append(forward.getKey()).append(' ').append(value[1]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void notifyTrackers() {
+        String list = deviceList();
+        for (OutputStream tracker : trackers) {
+            try {
+                synchronized (tracker) {
+                    tracker.write(hex(list));
+                    tracker.flush();
+                }
+            } catch (IOException e) {
+                trackers.remove(tracker);
+            }
+        }
+    }
+
+    private static String readRequest(DataInputStream in) throws IOException {
+        byte[] length = new byte[4];
+        in.readFully(length);
+        byte[] request = new byte[Integer.parseInt(new String(length, "UTF-8"), 16)];
+        in.readFully(request);
+        return new String(request, "UTF-8");
+    }
+
+    private static String readId(InputStream in) throws IOException {
+        byte[] id = new byte[4];
+        new DataInputStream(in).readFully(id);
+        return new String(id, "UTF-8");
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        byte[] value = new byte[4];
+        new DataInputStream(in).readFully(value);
+        return (value[0] & 0xff) | (value[1] & 0xff) << 8 | (value[2] & 0xff) << 16 | (value[3] & 0xff) << 24;
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(new byte[] { (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24) });
+    }
+
+    private static void syncMessage(OutputStream out, String id, int value) throws IOException {
+        out.write(id.getBytes("UTF-8"));
+        writeInt(out, value);
+    }
+
+    private static void syncFail(OutputStream out, String message) throws IOException {
+        byte[] data = message.getBytes("UTF-8");
+        syncMessage(out, "FAIL", data.length);
+        out.write(data);
+        out.flush();
+    }
+
+    private static byte[] hex(String value) throws IOException {
+        byte[] data = value.getBytes("UTF-8");
+        byte[] message = new byte[data.length + 4];
+        System.arraycopy(String.format("%04x", data.length).getBytes("UTF-8"), 0, message, 0, 4);
+        System.arraycopy(data, 0, message, 4, data.length);
+        return message;
+    }
+
+    private static void okay(OutputStream out) throws IOException {
+        out.write("OKAY".getBytes("UTF-8"));
+        out.flush();
+    }
+
+    private static void okay(OutputStream out, String value) throws IOException {
+        out.write("OKAY".getBytes("UTF-8"));
+        out.write(hex(value));
+        out.flush();
+    }
+
+    private static void fail(OutputStream out, String message) throws IOException {
+        out.write("FAIL".getBytes("UTF-8"));
+        out.write(hex(message));
+        out.flush();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.testsupport;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * Starts a {@link FakeAdbServer} with connected devices before each test and closes it after the test. Devices are
+ * connected before the test starts, so a bridge connected in an extending rule sees them immediately.
+ *
+ * <pre>
+ * private final FakeDevice fake = new FakeDevice(&quot;0123456789ABCDEF&quot;);
+ *
+ * &#064;Rule
+ * public FakeAdbServerRule adb = new FakeAdbServerRule(fake);
+ * </pre>
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class FakeAdbServerRule extends ExternalResource {
+
+    private final List<FakeDevice> devices;
+
+    private FakeAdbServer server;
+
+    public FakeAdbServerRule(FakeDevice... devices) {
+        this.devices = Arrays.asList(devices);
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        server = new FakeAdbServer().start();
+        for (FakeDevice device : devices) {
+            server.connect(device);
+        }
+    }
+
+    @Override
+    protected void after() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to stop fake adb server", e);
+        }
+    }
+
+    /**
+     * Returns the running server
+     *
+     * @return the server
+     */
+    public FakeAdbServer getServer() {
+        return server;
+    }
+}
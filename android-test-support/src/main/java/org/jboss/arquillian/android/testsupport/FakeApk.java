@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.testsupport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds APKs with a binary {@code AndroidManifest.xml} as produced by {@code aapt}
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class FakeApk {
+
+    private static final String ANDROID_NAMESPACE = "http://schemas.android.com/apk/res/android";
+
+    private static final int ATTR_VERSION_CODE = 0x0101021b;
+    private static final int ATTR_VERSION_NAME = 0x0101021c;
+    private static final int ATTR_TARGET_SDK_VERSION = 0x01010270;
+
+    private final String packageName;
+
+    private Integer versionCode;
+
+    private String versionName;
+
+    private Integer targetSdkVersion;
+
+    private boolean utf8;
+
+    private final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+
+    public FakeApk(String packageName) {
+        this.packageName = packageName;
+    }
+
+    public FakeApk setVersionCode(int versionCode) {
+        this.versionCode = versionCode;
+        return this;
+    }
+
+    public FakeApk setVersionName(String versionName) {
+        this.versionName = versionName;
+        return this;
+    }
+
+    /**
+     * Declares the target API level in a {@code uses-sdk} element
+     */
+    public FakeApk setTargetSdkVersion(int targetSdkVersion) {
+        this.targetSdkVersion = targetSdkVersion;
+        return this;
+    }
+
+    /**
+     * Stores strings of the manifest in UTF-8 instead of UTF-16
+     */
+    public FakeApk setUtf8(boolean utf8) {
+        this.utf8 = utf8;
+        return this;
+    }
+
+    public FakeApk addEntry(String name, byte[] data) {
+        entries.put(name, data);
+        return this;
+    }
+
+    /**
+     * Writes the APK
+     *
+     * @param file the target file
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public File writeTo(File file) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            out.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+            out.write(getManifest());
+            out.closeEntry();
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Returns the manifest encoded as binary XML
+     *
+     * @return the binary XML
+     */
+    public byte[] getManifest() throws IOException {
+        // attribute names with resource ids come first, in the order of the resource map
+        List<String> strings = new ArrayList<String>();
+        strings.add("versionCode");
+        strings.add("versionName");
+        strings.add("targetSdkVersion");
+        strings.add("package");
+        strings.add("manifest");
+        strings.add("uses-sdk");
+        strings.add("android");
+        strings.add(ANDROID_NAMESPACE);
+        strings.add(packageName);
+        if (versionName != null) {
+            strings.add(versionName);
+        }
+
+        Chunks body = new Chunks();
+        byte[] pool = stringPool(strings);
+        body.write(pool, 0, pool.length);
+
+        body.short16(0x0180).short16(8).int32(8 + 12).int32(ATTR_VERSION_CODE).int32(ATTR_VERSION_NAME)
+                .int32(ATTR_TARGET_SDK_VERSION);
+
+        body.short16(0x0100).short16(16).int32(24).int32(1).int32(-1).int32(6).int32(7);
+
+        List<int[]> attributes = new ArrayList<int[]>();
+        // namespace, name, raw value, type, data
+        attributes.add(new int[] { -1, 3, 8, 0x03, 8 });
+        if (versionCode != null) {
+            attributes.add(new int[] { 7, 0, -1, 0x10, versionCode });
+        }
+        if (versionName != null) {
+            attributes.add(new int[] { 7, 1, 9, 0x03, 9 });
+        }
+        startElement(body, 4, attributes);
+        if (targetSdkVersion != null) {
+            startElement(body, 5, Collections.singletonList(new int[] { 7, 2, -1, 0x10, targetSdkVersion }));
+            body.short16(0x0103).short16(16).int32(24).int32(1).int32(-1).int32(-1).int32(5);
+        }
+
+        body.short16(0x0103).short16(16).int32(24).int32(1).int32(-1).int32(-1).int32(4);
+        body.short16(0x0101).short16(16).int32(24).int32(1).int32(-1).int32(6).int32(7);
+
+        Chunks xml = new Chunks();
+        xml.short16(0x0003).short16(8).int32(8 + body.size());
+        xml.write(body.toByteArray(), 0, body.size());
+        return xml.toByteArray();
+    }
+
+    private static void startElement(Chunks body, int name, List<int[]> attributes) {
+        body.short16(0x0102).short16(16).int32(16 + 20 + 20 * attributes.size()).int32(1).int32(-1);
+        body.int32(-1).int32(name).short16(20).short16(20).short16(attributes.size()).short16(0).short16(0).short16(0);
+        for (int[] attribute : attributes) {
+            body.int32(attribute[0]).int32(attribute[1]).int32(attribute[2]);
+            body.short16(8).byte8(0).byte8(attribute[3]).int32(attribute[4]);
+        }
+    }
+
+    private byte[] stringPool(List<String> strings) throws UnsupportedEncodingException {
+        Chunks data = new Chunks();
+        List<Integer> offsets = new ArrayList<Integer>();
+        for (String string : strings) {
+            offsets.add(data.size());
+            if (utf8) {
+                byte[] bytes = string.getBytes("UTF-8");
+                data.byte8(string.length()).byte8(bytes.length);
+                data.write(bytes, 0, bytes.length);
+                data.byte8(0);
+            } else {
+                byte[] bytes = string.getBytes("UTF-16LE");
+                data.short16(string.length());
+                data.write(bytes, 0, bytes.length);
+                data.short16(0);
+            }
+        }
+        while (data.size() % 4 != 0) {
+            data.byte8(0);
+        }
+
+        int headerSize = 28;
+        int stringsStart = headerSize + 4 * strings.size();
+        Chunks pool = new Chunks();
+        pool.short16(0x0001).short16(headerSize).int32(stringsStart + data.size());
+        pool.int32(strings.size()).int32(0).int32(utf8 ? 1 << 8 : 0).int32(stringsStart).int32(0);
+        for (Integer offset : offsets) {
+            pool.int32(offset);
+        }
+        pool.write(data.toByteArray(), 0, data.size());
+        return pool.toByteArray();
+    }
+
+    // little endian output
+    private static class Chunks extends ByteArrayOutputStream {
+
+        Chunks byte8(int value) {
+            write(value);
+            return this;
+        }
+
+        Chunks short16(int value) {
+            return byte8(value & 0xff).byte8((value >> 8) & 0xff);
+        }
+
+        Chunks int32(int value) {
+            return short16(value & 0xffff).short16((value >> 16) & 0xffff);
+        }
+    }
+}
@@ -0,0 +1,679 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.testsupport;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A scriptable virtual device served by {@link FakeAdbServer}. The device has properties, a file system populated by sync
+ * protocol, installed packages and scripted shell responses. Following shell commands are understood out of the box:
+ * {@code getprop}, {@code echo}, {@code rm}, {@code cat}, {@code dd}, {@code md5sum}, {@code pm install} including streamed
+ * and session installs, {@code pm uninstall}, {@code pm list packages} and {@code wm size} if the screen size is set. Commands can be chained by {@code &&} or {@code ;} and their
+ * output redirected to a file by {@code >} or {@code >>}. Output of {@code cat} is the raw content of a file, so it can be
+ * used to test binary output. Installed APKs are kept in {@code /data/app} as package manager does. Installed package name
+ * is derived from the name of installed file without {@code .apk} suffix unless set by
+ * {@link #setInstalledPackageName(String)}. Boot identifier is available at {@link #BOOT_ID_PATH} and it changes with
+ * {@link #reboot()}.
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class FakeDevice {
+
+    public static final String STATE_ONLINE = "device";
+
+    public static final String STATE_OFFLINE = "offline";
+
+    public static final String BOOT_ID_PATH = "/proc/sys/kernel/random/boot_id";
+
+    private static final int S_IFREG = 0100000;
+
+    private final String serial;
+
+    private volatile String state = STATE_ONLINE;
+
+    private final Map<String, String> properties = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+    private final Map<String, FakeFile> files = Collections.synchronizedMap(new LinkedHashMap<String, FakeFile>());
+
+    private final Set<String> packages = Collections.synchronizedSet(new LinkedHashSet<String>());
+
+    private final Map<String, String> packagePaths = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+    private final Map<String, List<byte[]>> installSessions = Collections
+            .synchronizedMap(new LinkedHashMap<String, List<byte[]>>());
+
+    private final AtomicInteger nextInstallSession = new AtomicInteger(1000);
+
+    private final Map<String, String> shellResponses = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+
+    private final List<ShellHandler> shellHandlers = new CopyOnWriteArrayList<ShellHandler>();
+
+    private final List<String> shellCommands = new CopyOnWriteArrayList<String>();
+
+    private volatile String installResult = "Success";
+
+    private volatile String installedPackageName;
+
+    private volatile String screenSize;
+
+    private volatile long shellLatencyMillis;
+
+    /**
+     * Creates a device. Serial numbers starting with {@code emulator-} represent emulators.
+     *
+     * @param serial serial number of the device
+     */
+    private volatile String bootId = UUID.randomUUID().toString();
+
+    public FakeDevice(String serial) {
+        this.serial = serial;
+        properties.put("ro.build.version.sdk", "17");
+        properties.put("ro.product.model", "Fake");
+    }
+
+    public String getSerialNumber() {
+        return serial;
+    }
+
+    /**
+     * Simulates a reboot, the device gets a new boot identifier
+     *
+     * @return this device
+     */
+    public FakeDevice reboot() {
+        this.bootId = UUID.randomUUID().toString();
+        return this;
+    }
+
+    public String getBootId() {
+        return bootId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    void setState(String state) {
+        this.state = state;
+    }
+
+    public FakeDevice setProperty(String name, String value) {
+        properties.put(name, value);
+        return this;
+    }
+
+    public Map<String, String> getProperties() {
+        synchronized (properties) {
+            return new LinkedHashMap<String, String>(properties);
+        }
+    }
+
+    /**
+     * Sets output of a shell command
+     *
+     * @param command the exact command
+     * @param output output of the command
+     * @return the device
+     */
+    public FakeDevice onShell(String command, String output) {
+        shellResponses.put(command, output);
+        return this;
+    }
+
+    /**
+     * Registers a handler of shell commands. Handlers are consulted before built-in commands.
+     *
+     * @param handler the handler
+     * @return the device
+     */
+    public FakeDevice onShell(ShellHandler handler) {
+        shellHandlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Sets the screen size reported by {@code wm size}
+     *
+     * @param width width in pixels
+     * @param height height in pixels
+     * @return this device
+     */
+    public FakeDevice setScreenSize(int width, int height) {
+        this.screenSize = width + "x" + height;
+        return this;
+    }
+
+    /**
+     * Sets output of {@code pm install}, e.g. {@code Failure [INSTALL_FAILED_INVALID_APK]}
+     *
+     * @param installResult the output
+     * @return the device
+     */
+    public FakeDevice setInstallResult(String installResult) {
+        this.installResult = installResult;
+        return this;
+    }
+
+    /**
+     * Sets name of package registered by successful {@code pm install}
+     *
+     * @param installedPackageName name of the package or {@code null} to derive it from file name
+     * @return the device
+     */
+    public FakeDevice setInstalledPackageName(String installedPackageName) {
+        this.installedPackageName = installedPackageName;
+        return this;
+    }
+
+    /**
+     * Delays output of every shell command
+     *
+     * @param latency the delay
+     * @param unit unit of the delay
+     * @return the device
+     */
+    public FakeDevice setShellLatency(long latency, TimeUnit unit) {
+        this.shellLatencyMillis = unit.toMillis(latency);
+        return this;
+    }
+
+    public FakeDevice putFile(String path, byte[] data) {
+        return putFile(path, data, System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Stores a regular file
+     *
+     * @param path path of the file
+     * @param data content of the file
+     * @param mtime modification time in seconds since epoch
+     * @return the device
+     */
+    public FakeDevice putFile(String path, byte[] data, long mtime) {
+        files.put(path, new FakeFile(data, S_IFREG | 0644, mtime));
+        return this;
+    }
+
+    public byte[] getFile(String path) {
+        FakeFile file = files.get(path);
+        return file == null ? null : file.getData();
+    }
+
+    public Set<String> getFilePaths() {
+        synchronized (files) {
+            return new LinkedHashSet<String>(files.keySet());
+        }
+    }
+
+    public FakeDevice addPackage(String packageName) {
+        packages.add(packageName);
+        return this;
+    }
+
+    public Set<String> getInstalledPackages() {
+        synchronized (packages) {
+            return new LinkedHashSet<String>(packages);
+        }
+    }
+
+    /**
+     * Returns identifiers of install sessions which were neither committed nor abandoned
+     *
+     * @return the identifiers
+     */
+    public Set<String> getInstallSessions() {
+        synchronized (installSessions) {
+            return new LinkedHashSet<String>(installSessions.keySet());
+        }
+    }
+
+    /**
+     * Returns shell commands executed on the device in order of execution
+     *
+     * @return the commands
+     */
+    public List<String> getShellCommands() {
+        return new ArrayList<String>(shellCommands);
+    }
+
+    FakeFile getFakeFile(String path) {
+        return files.get(path);
+    }
+
+    void putFakeFile(String path, FakeFile file) {
+        files.put(path, file);
+    }
+
+    byte[] shellOutput(String command, byte[] input) throws UnsupportedEncodingException {
+        if (input == null) {
+            return shellOutput(command);
+        }
+        return shell(command, input).getBytes("UTF-8");
+    }
+
+    byte[] shellOutput(String command) throws UnsupportedEncodingException {
+        List<String> args = tokenize(command);
+        if (args.size() == 2 && "cat".equals(args.get(0)) && shellResponses.get(command) == null && shellHandlers.isEmpty()) {
+            FakeFile file = files.get(args.get(1));
+            if (file != null) {
+                shellCommands.add(command);
+                return file.getData();
+            }
+        }
+        return shell(command).getBytes("UTF-8");
+    }
+
+    String shell(String command) {
+        return shell(command, null);
+    }
+
+    private String shell(String command, byte[] input) {
+        shellCommands.add(command);
+        if (shellLatencyMillis > 0) {
+            try {
+                Thread.sleep(shellLatencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (ShellHandler handler : shellHandlers) {
+            String output = handler.execute(this, command);
+            if (output != null) {
+                return output;
+            }
+        }
+        String response = shellResponses.get(command);
+        if (response != null) {
+            return response;
+        }
+        if (input != null) {
+            return packageManager(tokenize(command), input);
+        }
+        StringBuilder output = new StringBuilder();
+        for (String part : command.split(" && | ; ")) {
+            output.append(redirect(tokenize(part)));
+        }
+        return output.toString();
+    }
+
+    // writes output of a command to a file if it is redirected by > or >>
+    private String redirect(List<String> args) {
+        List<String> command = new ArrayList<String>();
+        String target = null;
+        boolean append = false;
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if ((">".equals(arg) || ">>".equals(arg)) && i + 1 < args.size()) {
+                append = ">>".equals(arg);
+                target = args.get(++i);
+            } else if (!arg.startsWith("2>")) {
+                command.add(arg);
+            }
+        }
+        if (target == null) {
+            return builtIn(command);
+        }
+
+        byte[] data = binaryOutput(command);
+        FakeFile previous = files.get(target);
+        if (append && previous != null) {
+            byte[] joined = new byte[previous.getData().length + data.length];
+            System.arraycopy(previous.getData(), 0, joined, 0, previous.getData().length);
+            System.arraycopy(data, 0, joined, previous.getData().length, data.length);
+            data = joined;
+        }
+        files.put(target, new FakeFile(data, S_IFREG | 0644, System.currentTimeMillis() / 1000));
+        return "";
+    }
+
+    private byte[] binaryOutput(List<String> args) {
+        if (args.size() == 2 && "cat".equals(args.get(0)) && files.containsKey(args.get(1))) {
+            return files.get(args.get(1)).getData();
+        } else if (!args.isEmpty() && "dd".equals(args.get(0))) {
+            return dd(args);
+        }
+        try {
+            return builtIn(args).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // supports if, bs, skip and count operands
+    private byte[] dd(List<String> args) {
+        Map<String, String> operands = new LinkedHashMap<String, String>();
+        for (String arg : args.subList(1, args.size())) {
+            int separator = arg.indexOf('=');
+            if (separator != -1) {
+                operands.put(arg.substring(0, separator), arg.substring(separator + 1));
+            }
+        }
+        FakeFile file = files.get(operands.get("if"));
+        if (file == null) {
+            return new byte[0];
+        }
+        byte[] data = file.getData();
+        int blockSize = operands.containsKey("bs") ? Integer.parseInt(operands.get("bs")) : 512;
+        int skip = operands.containsKey("skip") ? Integer.parseInt(operands.get("skip")) : 0;
+        int from = Math.min(data.length, blockSize * skip);
+        int to = data.length;
+        if (operands.containsKey("count")) {
+            to = Math.min(data.length, from + blockSize * Integer.parseInt(operands.get("count")));
+        }
+        byte[] copy = new byte[to - from];
+        System.arraycopy(data, from, copy, 0, copy.length);
+        return copy;
+    }
+
+    private String builtIn(List<String> args) {
+        if (args.isEmpty()) {
+            return "";
+        }
+        String name = args.get(0);
+        if ("getprop".equals(name)) {
+            if (args.size() > 1) {
+                String value = properties.get(args.get(1));
+                return (value == null ? "" : value) + "\r\n";
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> property : getProperties().entrySet()) {
+                sb.append('[').append(property.getKey()).append("]: [").append(property.getValue()).append("]\r\n");
+            }
+            return sb.toString();
+        } else if ("echo".equals(name)) {
+            return join(args.subList(1, args.size())) + "\r\n";
+        } else if ("rm".equals(name)) {
+            boolean recursive = false;
+            for (String arg : args.subList(1, args.size())) {
+                if (arg.startsWith("-")) {
+                    recursive |= arg.contains("r");
+                } else {
+                    files.remove(arg);
+                    if (recursive) {
+                        for (String path : getFilePaths()) {
+                            if (path.startsWith(arg + "/")) {
+                                files.remove(path);
+                            }
+                        }
+                    }
+                }
+            }
+            return "";
+        } else if ("cat".equals(name) && args.size() > 1) {
+            FakeFile file = files.get(args.get(1));
+            if (file == null && BOOT_ID_PATH.equals(args.get(1))) {
+                return bootId + "\n";
+            } else if (file == null) {
+                return "cat: " + args.get(1) + ": No such file or directory\r\n";
+            }
+            try {
+                return new String(file.getData(), "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        } else if ("dd".equals(name)) {
+            try {
+                return new String(dd(args), "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        } else if ("md5sum".equals(name)) {
+            return md5sum(args.subList(1, args.size()));
+        } else if ("pm".equals(name) && args.size() > 1) {
+            return packageManager(args, null);
+        } else if ("wm".equals(name) && args.size() > 1 && "size".equals(args.get(1)) && screenSize != null) {
+            return "Physical size: " + screenSize + "\r\n";
+        }
+        return "/system/bin/sh: " + name + ": not found\r\n";
+    }
+
+    private String packageManager(List<String> args, byte[] input) {
+        String action = args.get(1);
+        if ("install".equals(action) && input != null) {
+            return install(installedPackageName != null ? installedPackageName : "streamed", input);
+        } else if ("install".equals(action)) {
+            String path = args.get(args.size() - 1);
+            if (!files.containsKey(path)) {
+                return "Failure [INSTALL_FAILED_INVALID_URI]\r\n";
+            }
+            return install(installedPackageName != null ? installedPackageName : packageName(path), files.get(path)
+                    .getData());
+        } else if ("install-create".equals(action)) {
+            String session = String.valueOf(nextInstallSession.incrementAndGet());
+            installSessions.put(session, new CopyOnWriteArrayList<byte[]>());
+            return "Success: created install session [" + session + "]\r\n";
+        } else if ("install-write".equals(action)) {
+            List<String> operands = operands(args);
+            List<byte[]> session = operands.isEmpty() ? null : installSessions.get(operands.get(0));
+            byte[] data = input != null ? input : operands.size() > 2 ? getFile(operands.get(2)) : null;
+            if (session == null || data == null) {
+                return "Error: unable to write to install session\r\n";
+            }
+            session.add(data);
+            return "Success: streamed " + data.length + " bytes\r\n";
+        } else if ("install-commit".equals(action)) {
+            List<byte[]> session = installSessions.remove(args.get(args.size() - 1));
+            if (session == null || session.isEmpty()) {
+                return "Failure [INSTALL_FAILED_INVALID_APK]\r\n";
+            }
+            return install(installedPackageName != null ? installedPackageName : "streamed", session.get(0));
+        } else if ("install-abandon".equals(action)) {
+            return installSessions.remove(args.get(args.size() - 1)) != null ? "Success\r\n" : "Error: no session\r\n";
+        } else if ("uninstall".equals(action)) {
+            String packageName = args.get(args.size() - 1);
+            String installed = packagePaths.remove(packageName);
+            if (installed != null) {
+                files.remove(installed);
+            }
+            return packages.remove(packageName) ? "Success\r\n" : "Failure [DELETE_FAILED_INTERNAL_ERROR]\r\n";
+        } else if ("list".equals(action) && args.size() > 2 && "packages".equals(args.get(2))) {
+            boolean paths = false;
+            for (String option : args.subList(3, args.size())) {
+                if ("-f".equals(option)) {
+                    paths = true;
+                } else if (!"-3".equals(option)) {
+                    // behaves like package manager of older devices
+                    return "Error: Unknown option: " + option + "\r\n";
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String p : getInstalledPackages()) {
+                sb.append("package:");
+                if (paths) {
+                    String installed = packagePaths.get(p);
+                    sb.append(installed != null ? installed : "/data/app/" + p + "-1.apk").append('=');
+                }
+                sb.append(p).append("\r\n");
+            }
+            return sb.toString();
+        }
+        return "Error: unknown command '" + action + "'\r\n";
+    }
+
+    private String md5sum(List<String> paths) {
+        StringBuilder sb = new StringBuilder();
+        for (String path : paths) {
+            FakeFile file = files.get(path);
+            if (file == null) {
+                sb.append("md5sum: ").append(path).append(": No such file or directory\r\n");
+                continue;
+            }
+            try {
+                byte[] digest = MessageDigest.getInstance("MD5").digest(file.getData());
+                for (byte b : digest) {
+                    sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            sb.append("  ").append(path).append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    private String install(String packageName, byte[] data) {
+        if (installResult.startsWith("Success")) {
+            // package manager keeps a copy of the APK, alternating its name on reinstallation
+            String previous = packagePaths.get(packageName);
+            String installed = "/data/app/" + packageName
+                    + (previous != null && previous.endsWith("-1.apk") ? "-2.apk" : "-1.apk");
+            if (previous != null) {
+                files.remove(previous);
+            }
+            files.put(installed, new FakeFile(data, S_IFREG | 0644, System.currentTimeMillis() / 1000));
+            packagePaths.put(packageName, installed);
+            packages.add(packageName);
+        }
+        return installResult + "\r\n";
+    }
+
+    /**
+     * Returns length of data package manager reads from standard input for given command
+     *
+     * @param command the command
+     * @return length of the data or {@code -1} if the command does not read standard input
+     */
+    static int stdinLength(String command) {
+        List<String> args = tokenize(command);
+        if (args.size() < 2 || !"pm".equals(args.get(0))) {
+            return -1;
+        }
+        String action = args.get(1);
+        int size = -1;
+        for (int i = 2; i < args.size() - 1; i++) {
+            if ("-S".equals(args.get(i))) {
+                size = Integer.parseInt(args.get(i + 1));
+            }
+        }
+        // APK is read from standard input if its path is missing or it is -
+        List<String> operands = operands(args);
+        int path = "install".equals(action) ? 0 : "install-write".equals(action) ? 2 : -1;
+        if (path == -1 || (operands.size() > path && !"-".equals(operands.get(path)))) {
+            return -1;
+        }
+        return size;
+    }
+
+    // arguments of package manager command which are not options
+    private static List<String> operands(List<String> args) {
+        List<String> operands = new ArrayList<String>();
+        for (int i = 2; i < args.size(); i++) {
+            String arg = args.get(i);
+            if ("-S".equals(arg)) {
+                i++;
+            } else if (!arg.startsWith("-") || "-".equals(arg)) {
+                operands.add(arg);
+            }
+        }
+        return operands;
+    }
+
+    private static String packageName(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return name.endsWith(".apk") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    // splits command by whitespace, respecting quotes
+    static List<String> tokenize(String command) {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder current = null;
+        char quote = 0;
+        for (char c : command.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                if (current == null) {
+                    current = new StringBuilder();
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (current != null) {
+                    tokens.add(current.toString());
+                    current = null;
+                }
+            } else {
+                if (current == null) {
+                    current = new StringBuilder();
+                }
+                current.append(c);
+            }
+        }
+        if (current != null) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    @Override
+    public String toString() {
+        return "FakeDevice " + serial + " (" + state + ")";
+    }
+
+    static class FakeFile {
+        private final byte[] data;
+        private final int mode;
+        private final long mtime;
+
+        FakeFile(byte[] data, int mode, long mtime) {
+            this.data = data;
+            this.mode = mode;
+            this.mtime = mtime;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        int getMode() {
+            return mode;
+        }
+
+        long getMtime() {
+            return mtime;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.testsupport;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An embeddable emulator console which tells AVD name of an emulator. Emulator serial number is derived from console port, so
+ * a {@link FakeDevice} served by {@link FakeAdbServer} has to use {@link #getSerialNumber()} to be recognized as an emulator
+ * running this console.
+ *
+ * <pre>
+ * FakeEmulatorConsole console = new FakeEmulatorConsole(&quot;foobar-test-device&quot;).start();
+ * server.connect(new FakeDevice(console.getSerialNumber()));
+ * ...
+ * console.close();
+ * </pre>
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public class FakeEmulatorConsole implements Closeable {
+    private static final Logger log = Logger.getLogger(FakeEmulatorConsole.class.getName());
+
+    private final String avdName;
+
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+
+    private ServerSocket serverSocket;
+
+    public FakeEmulatorConsole(String avdName) {
+        this.avdName = avdName;
+    }
+
+    /**
+     * Starts the console on a free port of loopback interface
+     *
+     * @return the console
+     * @throws IOException if console cannot be started
+     */
+    public FakeEmulatorConsole start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        connections.submit(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+        return this;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns serial number of the emulator as reported by adb server
+     *
+     * @return the serial number
+     */
+    public String getSerialNumber() {
+        return "emulator-" + getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket client = serverSocket.accept();
+                connections.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(client);
+                    }
+                });
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "ISO-8859-1"));
+            OutputStream out = client.getOutputStream();
+            write(out, "Android Console: type 'help' for a list of commands\r\nOK\r\n");
+
+            String command;
+            while ((command = in.readLine()) != null) {
+                command = command.trim();
+                if ("avd name".equals(command)) {
+                    write(out, avdName + "\r\nOK\r\n");
+                } else if ("help".equals(command)) {
+                    write(out, "OK\r\n");
+                } else if ("quit".equals(command) || "exit".equals(command)) {
+                    return;
+                } else {
+                    write(out, "KO: unknown command, try 'help'\r\n");
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.FINEST, "Console client disconnected", e);
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes("ISO-8859-1"));
+        out.flush();
+    }
+}
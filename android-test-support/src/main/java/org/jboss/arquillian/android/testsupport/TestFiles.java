@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.android.testsupport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Creates and removes files used by tests
+ *
+ * @author <a href="kpiwko@redhat.com">Karel Piwko</a>
+ *
+ */
+public final class TestFiles {
+
+    private TestFiles() {
+        throw new UnsupportedOperationException("No instantiation");
+    }
+
+    /**
+     * Creates an empty temporary directory
+     *
+     * @param prefix prefix of the directory name
+     * @return the directory
+     * @throws IOException if the directory cannot be created
+     */
+    public static File createDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Writes a file with random content, the same seed always produces the same content
+     *
+     * @param file the file
+     * @param size size of the file in bytes
+     * @param seed seed of the content
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public static File writeRandom(File file, int size, long seed) throws IOException {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Deletes a file or a directory including its content
+     *
+     * @param file the file
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}